@@ -8,7 +8,7 @@ import com.apptentive.android.sdk.notifications.ApptentiveNotification;
 import com.apptentive.android.sdk.notifications.ApptentiveNotificationCenter;
 import com.apptentive.android.sdk.notifications.ApptentiveNotificationObserver;
 
-import static com.apptentive.android.sdk.ApptentiveInternal.NOTIFICATION_INTERACTIONS_SHOULD_DISMISS;
+import static com.apptentive.android.sdk.ApptentiveInternal.NOTIFICATION_KEY_INTERACTIONS_SHOULD_DISMISS;
 
 /** A base class for any SDK activity */
 public class ApptentiveBaseActivity extends AppCompatActivity implements ApptentiveNotificationObserver {
@@ -32,7 +32,7 @@ public class ApptentiveBaseActivity extends AppCompatActivity implements Apptent
 	//region Notifications
 
 	private void registerNotifications() {
-		ApptentiveNotificationCenter.defaultCenter().addObserver(NOTIFICATION_INTERACTIONS_SHOULD_DISMISS, this);
+		ApptentiveNotificationCenter.defaultCenter().addObserver(NOTIFICATION_KEY_INTERACTIONS_SHOULD_DISMISS, this, false);
 	}
 
 	private void unregisterNotification() {
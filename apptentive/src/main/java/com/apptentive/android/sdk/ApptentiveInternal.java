@@ -19,7 +19,6 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.provider.Settings;
@@ -57,6 +56,9 @@ import com.apptentive.android.sdk.storage.VersionHistoryEntry;
 import com.apptentive.android.sdk.storage.VersionHistoryStore;
 import com.apptentive.android.sdk.util.Constants;
 import com.apptentive.android.sdk.util.Util;
+import com.apptentive.android.sdk.util.cache.DiskLruCache;
+import com.apptentive.android.sdk.util.threading.DispatchQueue;
+import com.apptentive.android.sdk.util.threading.DispatchTask;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -66,8 +68,6 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -80,6 +80,7 @@ public class ApptentiveInternal {
 	 * Sent if user requested to close all interactions.
 	 */
 	public static final String NOTIFICATION_INTERACTIONS_SHOULD_DISMISS = "NOTIFICATION_INTERACTIONS_SHOULD_DISMISS";
+	public static final int NOTIFICATION_KEY_INTERACTIONS_SHOULD_DISMISS = ApptentiveNotificationCenter.getNotificationKey(NOTIFICATION_INTERACTIONS_SHOULD_DISMISS);
 
 	static AtomicBoolean isApptentiveInitialized = new AtomicBoolean(false);
 	InteractionManager interactionManager;
@@ -87,6 +88,7 @@ public class ApptentiveInternal {
 	PayloadSendWorker payloadWorker;
 	ApptentiveTaskManager taskManager;
 	CodePointStore codePointStore;
+	DiskLruCache imageDiskCache;
 	ApptentiveActivityLifecycleCallbacks lifecycleCallbacks;
 
 	// These variables are initialized in Apptentive.register(), and so they are freely thereafter. If they are unexpectedly null, then if means the host app did not register Apptentive.
@@ -112,7 +114,7 @@ public class ApptentiveInternal {
 
 	int statusBarColorDefault;
 	String defaultAppDisplayName = "this app";
-	// booleans to prevent starting multiple fetching asyncTasks simultaneously
+	// booleans to prevent starting multiple fetching tasks simultaneously
 	AtomicBoolean isConversationTokenFetchPending = new AtomicBoolean(false);
 	AtomicBoolean isConfigurationFetchPending = new AtomicBoolean(false);
 
@@ -122,8 +124,6 @@ public class ApptentiveInternal {
 
 	final LinkedBlockingQueue interactionUpdateListeners = new LinkedBlockingQueue();
 
-	ExecutorService cachedExecutor;
-
 	// Holds reference to the current foreground activity of the host app
 	private WeakReference<Activity> currentTaskStackTopActivity;
 
@@ -180,13 +180,18 @@ public class ApptentiveInternal {
 					PayloadSendWorker payloadWorker = new PayloadSendWorker();
 					InteractionManager interactionMgr = new InteractionManager();
 					ApptentiveTaskManager worker = new ApptentiveTaskManager(sApptentiveInternal.appContext);
+					Configuration config = Configuration.load(sApptentiveInternal.prefs);
+					worker.setGroupCommitLimits(config.getGroupCommitMaxLatencyMillis(), config.getGroupCommitMaxCount());
+					worker.setPayloadQueueLimits(config.getPayloadQueueLimits());
+					ApptentiveClient.setRequestCompression(config.isRequestCompressionEnabled(), config.getRequestCompressionMinBytes());
+					DispatchQueue.setBackgroundQueueMaxThreads(config.getBackgroundQueueMaxThreads());
 
 					sApptentiveInternal.messageManager = msgManager;
 					sApptentiveInternal.payloadWorker = payloadWorker;
 					sApptentiveInternal.interactionManager = interactionMgr;
 					sApptentiveInternal.taskManager = worker;
-					sApptentiveInternal.codePointStore = new CodePointStore();
-					sApptentiveInternal.cachedExecutor = Executors.newCachedThreadPool();
+					sApptentiveInternal.codePointStore = new CodePointStore(worker);
+					sApptentiveInternal.imageDiskCache = new DiskLruCache(Util.getDiskCacheDir(sApptentiveInternal.appContext), config.getImageCacheMaxBytes());
 					sApptentiveInternal.apiKey = Util.trim(apptentiveApiKey);
 				}
 			}
@@ -361,6 +366,13 @@ public class ApptentiveInternal {
 		return codePointStore;
 	}
 
+	/**
+	 * @return The cache that downloaded attachments and avatars are stored in.
+	 */
+	public DiskLruCache getImageDiskCache() {
+		return imageDiskCache;
+	}
+
 	public Resources.Theme getApptentiveToolbarTheme() {
 		return apptentiveToolbarTheme;
 	}
@@ -428,12 +440,17 @@ public class ApptentiveInternal {
 		}
 	}
 
-	public void runOnWorkerThread(Runnable r) {
-		cachedExecutor.execute(r);
+	public void runOnWorkerThread(final Runnable r) {
+		DispatchQueue.backgroundQueue().dispatchAsync(new DispatchTask() {
+			@Override
+			protected void execute() {
+				r.run();
+			}
+		});
 	}
 
 	public void scheduleOnWorkerThread(Runnable r) {
-		cachedExecutor.submit(r);
+		runOnWorkerThread(r);
 	}
 
 	public void checkAndUpdateApptentiveConfigurations() {
@@ -477,6 +494,7 @@ public class ApptentiveInternal {
 
 	public void onAppEnterForeground() {
 		appIsInForeground = true;
+		DispatchQueue.resumeBackgroundQueues();
 		payloadWorker.appWentToForeground();
 		messageManager.appWentToForeground();
 	}
@@ -487,6 +505,10 @@ public class ApptentiveInternal {
 		messageManager.setCurrentForegroundActivity(null);
 		payloadWorker.appWentToBackground();
 		messageManager.appWentToBackground();
+		codePointStore.flush();
+		taskManager.commitPendingWrites();
+		// Work already running is left to finish, anything else waits until the app is back in the foreground
+		DispatchQueue.pauseBackgroundQueues();
 	}
 
 	/* Apply Apptentive styling layers to the theme to be used by interaction. The layers include
@@ -549,6 +571,8 @@ public class ApptentiveInternal {
 	public boolean init() {
 		boolean bRet = true;
 		codePointStore.init();
+		// Loaded before init() returns, so that app launch and any other early engage() can find their interactions
+		interactionManager.loadStoredTargets();
 		/* If Message Center feature has never been used before, don't initialize message polling thread.
 		 * Message Center feature will be seen as used, if one of the following conditions has been met:
 		 * 1. Message Center has been opened for the first time
@@ -694,44 +718,39 @@ public class ApptentiveInternal {
 
 	private synchronized void asyncFetchConversationToken() {
 		if (isConversationTokenFetchPending.compareAndSet(false, true)) {
-			AsyncTask<Void, Void, Boolean> fetchConversationTokenTask = new AsyncTask<Void, Void, Boolean>() {
-				private Exception e = null;
-
+			DispatchQueue.backgroundQueue().dispatchAsync(new DispatchTask() {
 				@Override
-				protected Boolean doInBackground(Void... params) {
+				protected void execute() {
+					boolean successful = false;
+					Exception exception = null;
 					try {
-						return fetchConversationToken();
+						successful = fetchConversationToken();
 					} catch (Exception e) {
 						// Hold onto the unhandled exception from fetchConversationToken() for later handling in UI thread
-						this.e = e;
+						exception = e;
 					}
-					return false;
-				}
-
-				@Override
-				protected void onPostExecute(Boolean successful) {
-					if (e == null) {
-						// Update pending state on UI thread after finishing the task
-						ApptentiveLog.d("Fetching conversation token asyncTask finished. Successful? %b", successful);
-						isConversationTokenFetchPending.set(false);
-						if (successful) {
-							// Once token is fetched successfully, start asyncTasks to fetch global configuration, then interaction
-							asyncFetchAppConfigurationAndInteractions();
+					final boolean fetchSuccessful = successful;
+					final Exception e = exception;
+					DispatchQueue.mainQueue().dispatchAsync(new DispatchTask() {
+						@Override
+						protected void execute() {
+							if (e == null) {
+								// Update pending state on UI thread after finishing the task
+								ApptentiveLog.d("Fetching conversation token task finished. Successful? %b", fetchSuccessful);
+								isConversationTokenFetchPending.set(false);
+								if (fetchSuccessful) {
+									// Once token is fetched successfully, start tasks to fetch global configuration, then interaction
+									asyncFetchAppConfigurationAndInteractions();
+								}
+							} else {
+								ApptentiveLog.w("Unhandled Exception thrown from fetching conversation token task", e);
+								MetricModule.sendError(e, null, null);
+							}
 						}
-					} else {
-						ApptentiveLog.w("Unhandled Exception thrown from fetching conversation token asyncTask", e);
-						MetricModule.sendError(e, null, null);
-					}
+					});
 				}
-
-			};
-
-			ApptentiveLog.i("Fetching conversation token asyncTask scheduled.");
-			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-				fetchConversationTokenTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-			} else {
-				fetchConversationTokenTask.execute();
-			}
+			});
+			ApptentiveLog.i("Fetching conversation token task scheduled.");
 		} else {
 			ApptentiveLog.v("Fetching Configuration pending");
 		}
@@ -799,6 +818,11 @@ public class ApptentiveInternal {
 				Configuration config = new Configuration(response.getContent());
 				config.setConfigurationCacheExpirationMillis(System.currentTimeMillis() + cacheSeconds * 1000);
 				config.save();
+				taskManager.setGroupCommitLimits(config.getGroupCommitMaxLatencyMillis(), config.getGroupCommitMaxCount());
+				taskManager.setPayloadQueueLimits(config.getPayloadQueueLimits());
+				ApptentiveClient.setRequestCompression(config.isRequestCompressionEnabled(), config.getRequestCompressionMinBytes());
+				imageDiskCache.setMaxBytes(config.getImageCacheMaxBytes());
+				DispatchQueue.setBackgroundQueueMaxThreads(config.getBackgroundQueueMaxThreads());
 			}
 		} catch (JSONException e) {
 			ApptentiveLog.e("Error parsing app configuration from server.", e);
@@ -810,44 +834,38 @@ public class ApptentiveInternal {
 
 		// Don't get the app configuration unless no pending fetch AND either forced, or the cache has expired.
 		if (isConfigurationFetchPending.compareAndSet(false, true) && (force || Configuration.load().hasConfigurationCacheExpired())) {
-			AsyncTask<Void, Void, Void> fetchConfigurationTask = new AsyncTask<Void, Void, Void>() {
-				// Hold onto the exception from the AsyncTask instance for later handling in UI thread
-				private Exception e = null;
-
+			DispatchQueue.backgroundQueue().dispatchAsync(new DispatchTask() {
 				@Override
-				protected Void doInBackground(Void... params) {
+				protected void execute() {
+					Exception exception = null;
 					try {
 						fetchAppConfiguration();
 					} catch (Exception e) {
-						this.e = e;
-					}
-					return null;
-				}
-
-				@Override
-				protected void onPostExecute(Void v) {
-					// Update pending state on UI thread after finishing the task
-					ApptentiveLog.i("Fetching new Configuration asyncTask finished.");
-					isConfigurationFetchPending.set(false);
-					if (e != null) {
-						ApptentiveLog.w("Unhandled Exception thrown from fetching configuration asyncTask", e);
-						MetricModule.sendError(e, null, null);
-					} else {
-						// Check if need to start another asyncTask to fetch interaction after successfully fetching configuration
-						interactionManager.asyncFetchAndStoreInteractions();
+						// Hold onto the exception for later handling in UI thread
+						exception = e;
 					}
+					final Exception e = exception;
+					DispatchQueue.mainQueue().dispatchAsync(new DispatchTask() {
+						@Override
+						protected void execute() {
+							// Update pending state on UI thread after finishing the task
+							ApptentiveLog.i("Fetching new Configuration task finished.");
+							isConfigurationFetchPending.set(false);
+							if (e != null) {
+								ApptentiveLog.w("Unhandled Exception thrown from fetching configuration task", e);
+								MetricModule.sendError(e, null, null);
+							} else {
+								// Check if need to start another task to fetch interaction after successfully fetching configuration
+								interactionManager.asyncFetchAndStoreInteractions();
+							}
+						}
+					});
 				}
-			};
-
-			ApptentiveLog.i("Fetching new Configuration asyncTask scheduled.");
-			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-				fetchConfigurationTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-			} else {
-				fetchConfigurationTask.execute();
-			}
+			});
+			ApptentiveLog.i("Fetching new Configuration task scheduled.");
 		} else {
 			ApptentiveLog.v("Using cached Configuration.");
-			// If configuration hasn't expire, then check if need to start another asyncTask to fetch interaction
+			// If configuration hasn't expire, then check if need to start another task to fetch interaction
 			interactionManager.asyncFetchAndStoreInteractions();
 		}
 	}
@@ -1190,6 +1208,6 @@ public class ApptentiveInternal {
 	 * Dismisses any currently-visible interactions. This method is for internal use and is subject to change.
 	 */
 	public static void dismissAllInteractions() {
-		ApptentiveNotificationCenter.defaultCenter().postNotification(NOTIFICATION_INTERACTIONS_SHOULD_DISMISS);
+		ApptentiveNotificationCenter.defaultCenter().postNotification(NOTIFICATION_KEY_INTERACTIONS_SHOULD_DISMISS);
 	}
 }
@@ -408,7 +408,7 @@ public class ApptentiveViewActivity extends ApptentiveBaseActivity implements Ap
 
 	@Override
 	public void onReceiveNotification(ApptentiveNotification notification) {
-		if (notification.getName().equals(ApptentiveInternal.NOTIFICATION_INTERACTIONS_SHOULD_DISMISS)) {
+		if (notification.getKey() == ApptentiveInternal.NOTIFICATION_KEY_INTERACTIONS_SHOULD_DISMISS) {
 			if (!isFinishing()) {
 				exitActivity(ApptentiveViewExitType.NOTIFICATION);
 			}
@@ -12,11 +12,11 @@ import android.text.TextUtils;
 import com.apptentive.android.sdk.ApptentiveInternal;
 import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.model.*;
+import com.apptentive.android.sdk.module.messagecenter.MessageManager;
 import com.apptentive.android.sdk.module.messagecenter.model.ApptentiveMessage;
 import com.apptentive.android.sdk.module.messagecenter.model.CompoundMessage;
 import com.apptentive.android.sdk.util.Constants;
 import com.apptentive.android.sdk.util.Util;
-import com.apptentive.android.sdk.util.image.ImageUtil;
 
 import java.io.*;
 import java.net.HttpURLConnection;
@@ -32,14 +32,15 @@ public class ApptentiveClient {
 
 	private static final String USER_AGENT_STRING = "Apptentive/%s (Android)"; // Format with SDK version string.
 
-	public static final int DEFAULT_HTTP_CONNECT_TIMEOUT = 45000;
-	public static final int DEFAULT_HTTP_SOCKET_TIMEOUT = 45000;
+	public static final int DEFAULT_HTTP_CONNECT_TIMEOUT = HttpRequest.DEFAULT_CONNECT_TIMEOUT;
+	public static final int DEFAULT_HTTP_SOCKET_TIMEOUT = HttpRequest.DEFAULT_READ_TIMEOUT;
 
 	// Active API
 	private static final String ENDPOINT_CONVERSATION = "/conversation";
 	private static final String ENDPOINT_CONVERSATION_FETCH = ENDPOINT_CONVERSATION + "?count=%s&after_id=%s&before_id=%s";
 	private static final String ENDPOINT_MESSAGES = "/messages";
 	private static final String ENDPOINT_EVENTS = "/events";
+	private static final String ENDPOINT_EVENTS_BATCH = ENDPOINT_EVENTS + "/batch";
 	private static final String ENDPOINT_DEVICES = "/devices";
 	private static final String ENDPOINT_PEOPLE = "/people";
 	private static final String ENDPOINT_CONFIGURATION = ENDPOINT_CONVERSATION + "/configuration";
@@ -47,6 +48,11 @@ public class ApptentiveClient {
 
 	private static final String ENDPOINT_INTERACTIONS = "/interactions";
 
+	private static volatile HttpTransport transport = new HttpURLConnectionTransport();
+
+	// The smallest request body that is compressed, or -1 if compression is disabled. Set from the app configuration.
+	private static volatile int requestCompressionMinBytes = Constants.CONFIG_DEFAULT_REQUEST_COMPRESSION_ENABLED ? Constants.CONFIG_DEFAULT_REQUEST_COMPRESSION_MIN_BYTES : -1;
+
 	// Deprecated API
 	// private static final String ENDPOINT_RECORDS = ENDPOINT_BASE + "/records";
 	// private static final String ENDPOINT_SURVEYS_FETCH = ENDPOINT_BASE + "/surveys";
@@ -65,16 +71,54 @@ public class ApptentiveClient {
 	 * @return An ApptentiveHttpResponse object with the HTTP response code, reason, and content.
 	 */
 	public static ApptentiveHttpResponse getMessages(Integer count, String afterId, String beforeId) {
+		return getMessages(count, afterId, beforeId, null);
+	}
+
+	/**
+	 * Gets all messages since the message specified by GUID was sent, unless they haven't changed since the response
+	 * which returned the ETag.
+	 *
+	 * @param etag ETag of a previous response to the same request, or null.
+	 * @return An ApptentiveHttpResponse object with the HTTP response code, reason, and content. Its code is 304 if
+	 * the messages haven't changed.
+	 */
+	public static ApptentiveHttpResponse getMessages(Integer count, String afterId, String beforeId, String etag) {
+		return getMessages(count, afterId, beforeId, etag, null);
+	}
+
+	/**
+	 * Gets all messages since the message specified by GUID was sent, unless they haven't changed since the response
+	 * which returned the ETag.
+	 *
+	 * @param etag           ETag of a previous response to the same request, or null.
+	 * @param responseReader Parses the messages as they are read, or null to read them into the content.
+	 * @return An ApptentiveHttpResponse object with the HTTP response code, reason, and content. Its code is 304 if
+	 * the messages haven't changed.
+	 */
+	public static ApptentiveHttpResponse getMessages(Integer count, String afterId, String beforeId, String etag, HttpRequest.ResponseReader responseReader) {
 		String uri = String.format(ENDPOINT_CONVERSATION_FETCH, count == null ? "" : count.toString(), afterId == null ? "" : afterId, beforeId == null ? "" : beforeId);
-		return performHttpRequest(ApptentiveInternal.getInstance().getApptentiveConversationToken(), uri, Method.GET, null);
+		Map<String, String> headers = null;
+		if (etag != null) {
+			headers = Collections.singletonMap("If-None-Match", etag);
+		}
+		return performHttpRequest(ApptentiveInternal.getInstance().getApptentiveConversationToken(), uri, Method.GET, null, headers, responseReader);
 	}
 
 	public static ApptentiveHttpResponse postMessage(ApptentiveMessage apptentiveMessage) {
 		switch (apptentiveMessage.getType()) {
 			case CompoundMessage: {
-				CompoundMessage compoundMessage = (CompoundMessage) apptentiveMessage;
+				final CompoundMessage compoundMessage = (CompoundMessage) apptentiveMessage;
 				List<StoredFile> associatedFiles = compoundMessage.getAssociatedFiles();
-				return performMultipartFilePost(ApptentiveInternal.getInstance().getApptentiveConversationToken(), ENDPOINT_MESSAGES, apptentiveMessage.marshallForSending(), associatedFiles);
+				MultipartBody.ProgressListener progressListener = new MultipartBody.ProgressListener() {
+					@Override
+					public void onProgress(int progress) {
+						MessageManager messageManager = ApptentiveInternal.getInstance().getMessageManager();
+						if (messageManager != null) {
+							messageManager.onMessageUploadProgress(compoundMessage, progress);
+						}
+					}
+				};
+				return performMultipartFilePost(ApptentiveInternal.getInstance().getApptentiveConversationToken(), ENDPOINT_MESSAGES, apptentiveMessage.marshallForSending(), associatedFiles, progressListener);
 			}
 			case unknown:
 				break;
@@ -86,6 +130,23 @@ public class ApptentiveClient {
 		return performHttpRequest(ApptentiveInternal.getInstance().getApptentiveConversationToken(), ENDPOINT_EVENTS, Method.POST, event.marshallForSending());
 	}
 
+	/**
+	 * Sends all payloads in the batch with a single request.
+	 *
+	 * @return An ApptentiveHttpResponse for the whole request. Use {@link PayloadBatch#parseResults(ApptentiveHttpResponse)}
+	 * to get the result of each payload.
+	 */
+	public static ApptentiveHttpResponse postPayloadBatch(PayloadBatch batch) {
+		switch (batch.getBaseType()) {
+			case event:
+				return performHttpRequest(ApptentiveInternal.getInstance().getApptentiveConversationToken(), ENDPOINT_EVENTS_BATCH, Method.POST, batch.marshallForSending());
+			default:
+				ApptentiveLog.e("Can't send a batch of Payload BaseType: " + batch.getBaseType());
+				break;
+		}
+		return new ApptentiveHttpResponse();
+	}
+
 	public static ApptentiveHttpResponse putDevice(Device device) {
 		return performHttpRequest(ApptentiveInternal.getInstance().getApptentiveConversationToken(), ENDPOINT_DEVICES, Method.PUT, device.marshallForSending());
 	}
@@ -108,7 +169,26 @@ public class ApptentiveClient {
 	}
 
 	public static ApptentiveHttpResponse getInteractions() {
-		return performHttpRequest(ApptentiveInternal.getInstance().getApptentiveConversationToken(), ENDPOINT_INTERACTIONS, Method.GET, null);
+		return getInteractions(null);
+	}
+
+	/**
+	 * @param responseReader Parses the interactions as they are read, or null to read them into the content.
+	 */
+	public static ApptentiveHttpResponse getInteractions(HttpRequest.ResponseReader responseReader) {
+		return performHttpRequest(ApptentiveInternal.getInstance().getApptentiveConversationToken(), ENDPOINT_INTERACTIONS, Method.GET, null, null, responseReader);
+	}
+
+	/**
+	 * Replaces the transport used to send requests, for example to use a different HTTP stack. Pass null to go back to
+	 * the default {@link HttpURLConnectionTransport}.
+	 */
+	public static void setTransport(HttpTransport transport) {
+		ApptentiveClient.transport = transport != null ? transport : new HttpURLConnectionTransport();
+	}
+
+	public static HttpTransport getTransport() {
+		return transport;
 	}
 
 	/**
@@ -121,6 +201,21 @@ public class ApptentiveClient {
 	 * @return ApptentiveHttpResponse containing content and response returned from the server.
 	 */
 	private static ApptentiveHttpResponse performHttpRequest(String oauthToken, String uri, Method method, String body) {
+		return performHttpRequest(oauthToken, uri, method, body, null, null);
+	}
+
+	/**
+	 * Perform a Http request.
+	 *
+	 * @param oauthToken authorization token for the current connection
+	 * @param uri        server url.
+	 * @param method     Get/Post/Put
+	 * @param body       Data to be POSTed/Put, not used for GET
+	 * @param headers        Headers to add to the request, or null.
+	 * @param responseReader Parses a successful response as it is read, or null.
+	 * @return ApptentiveHttpResponse containing content and response returned from the server.
+	 */
+	private static ApptentiveHttpResponse performHttpRequest(String oauthToken, String uri, Method method, String body, Map<String, String> headers, HttpRequest.ResponseReader responseReader) {
 		uri = getEndpointBase() + uri;
 		ApptentiveLog.d("Performing %s request to %s", method.name(), uri);
 		//ApptentiveLog.e("OAUTH Token: %s", oauthToken);
@@ -131,55 +226,31 @@ public class ApptentiveClient {
 			return ret;
 		}
 
-		HttpURLConnection connection = null;
 		try {
-			URL httpUrl = new URL(uri);
-			connection = (HttpURLConnection) httpUrl.openConnection();
-
-			connection.setRequestProperty("User-Agent", getUserAgentString());
-			connection.setRequestProperty("Connection", "Keep-Alive");
-			connection.setConnectTimeout(DEFAULT_HTTP_CONNECT_TIMEOUT);
-			connection.setReadTimeout(DEFAULT_HTTP_SOCKET_TIMEOUT);
-			connection.setRequestProperty("Authorization", "OAuth " + oauthToken);
-			connection.setRequestProperty("Accept-Encoding", "gzip");
-			connection.setRequestProperty("Accept", "application/json");
-			connection.setRequestProperty("X-API-Version", String.valueOf(API_VERSION));
-
-			switch (method) {
-				case GET:
-					connection.setRequestMethod("GET");
-					break;
-				case PUT:
-					sendPostPutRequest(connection, "PUT", body);
-					break;
-				case POST:
-					sendPostPutRequest(connection, "POST", body);
-					break;
-				default:
-					ApptentiveLog.e("Unrecognized method: " + method.name());
-					return ret;
+			HttpRequest request = createRequest(oauthToken, uri, method);
+			request.setHeader("Accept-Encoding", "gzip");
+			if (headers != null) {
+				for (Map.Entry<String, String> header : headers.entrySet()) {
+					request.setHeader(header.getKey(), header.getValue());
+				}
 			}
-
-			int responseCode = connection.getResponseCode();
-			ret.setCode(responseCode);
-			ret.setReason(connection.getResponseMessage());
-			ApptentiveLog.d("Response Status Line: " + connection.getResponseMessage());
-
-			// Get the Http response header values
-			Map<String, String> headers = new HashMap<String, String>();
-			Map<String, List<String>> map = connection.getHeaderFields();
-			for (Map.Entry<String, List<String>> entry : map.entrySet()) {
-				headers.put(entry.getKey(), entry.getValue().toString());
+			request.setResponseReader(responseReader);
+			if (method != Method.GET) {
+				ApptentiveLog.d("%s body: %s", method.name(), body);
+				request.setHeader("Content-Type", "application/json");
+				if (!TextUtils.isEmpty(body)) {
+					request.setBody(createJsonBody(body));
+				}
 			}
-			ret.setHeaders(headers);
 
-			// Read the response, if available
-			ApptentiveLog.d("HTTP %d: %s", connection.getResponseCode(), connection.getResponseMessage());
-			if (responseCode >= 200 && responseCode < 300) {
-				ret.setContent(getResponse(connection, ret.isZipped()));
+			ret = transport.execute(request);
+			ApptentiveLog.d("HTTP %d: %s", ret.getCode(), ret.getReason());
+			ApptentiveLog.d("%s %s: %s", method.name(), uri, ret.getTiming());
+			if (ret.getParsedContent() != null) {
+				ApptentiveLog.v("Response parsed while it was read.");
+			} else if (ret.isSuccessful() || ret.isNotModified()) {
 				ApptentiveLog.v("Response: %s", ret.getContent());
 			} else {
-				ret.setContent(getErrorResponse(connection, ret.isZipped()));
 				ApptentiveLog.w("Response: %s", ret.getContent());
 			}
 		} catch (IllegalArgumentException e) {
@@ -190,42 +261,41 @@ public class ApptentiveClient {
 			ApptentiveLog.w("MalformedUrlException", e);
 		} catch (final IOException e) {
 			ApptentiveLog.w("IOException", e);
-			// Read the error response.
-			try {
-				ret.setContent(getErrorResponse(connection, ret.isZipped()));
-				ApptentiveLog.w("Response: " + ret.getContent());
-			} catch (IOException ex) {
-				ApptentiveLog.w("Can't read error stream.", ex);
-			}
 		}
 		return ret;
 	}
 
-	private static void sendPostPutRequest(final HttpURLConnection connection, final String requestMethod, String body) throws IOException {
-
-		ApptentiveLog.d("%s body: %s", requestMethod, body);
+	/**
+	 * @param enabled  Whether request bodies can be sent compressed.
+	 * @param minBytes The size from which a body is compressed.
+	 */
+	public static void setRequestCompression(boolean enabled, int minBytes) {
+		requestCompressionMinBytes = enabled ? minBytes : -1;
+	}
 
-		connection.setRequestMethod(requestMethod);
-		connection.setDoInput(true);
-		connection.setDoOutput(true);
-		connection.setUseCaches(false);
-		connection.setRequestProperty("Content-Type", "application/json");
-		if (!TextUtils.isEmpty(body)) {
-			BufferedWriter writer = null;
-			try {
-				OutputStream outputStream = connection.getOutputStream();
-				writer = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
-				writer.write(body);
-			} finally {
-				if (null != writer) {
-					writer.flush();
-					Util.ensureClosed(writer);
-				}
-			}
+	/**
+	 * Bodies over the size threshold are compressed if the server configuration allows it. Events are very repetitive,
+	 * so they usually shrink several times over.
+	 */
+	private static HttpRequest.Body createJsonBody(String body) {
+		HttpRequest.StringBody jsonBody = new HttpRequest.StringBody("application/json", body);
+		int minBytes = requestCompressionMinBytes;
+		if (minBytes >= 0 && jsonBody.getContentLength() >= minBytes) {
+			return new HttpRequest.GzipBody(jsonBody);
 		}
+		return jsonBody;
 	}
 
-	private static ApptentiveHttpResponse performMultipartFilePost(String oauthToken, String uri, String postBody, List<StoredFile> associatedFiles) {
+	private static HttpRequest createRequest(String oauthToken, String uri, Method method) throws MalformedURLException {
+		HttpRequest request = new HttpRequest(new URL(uri), method.name());
+		request.setHeader("User-Agent", getUserAgentString());
+		request.setHeader("Authorization", "OAuth " + oauthToken);
+		request.setHeader("Accept", "application/json");
+		request.setHeader("X-API-Version", String.valueOf(API_VERSION));
+		return request;
+	}
+
+	private static ApptentiveHttpResponse performMultipartFilePost(String oauthToken, String uri, String postBody, List<StoredFile> associatedFiles, MultipartBody.ProgressListener progressListener) {
 		uri = getEndpointBase() + uri;
 		ApptentiveLog.d("Performing multipart POST to %s", uri);
 		ApptentiveLog.d("Multipart POST body: %s", postBody);
@@ -236,134 +306,21 @@ public class ApptentiveClient {
 			return ret;
 		}
 
-		String lineEnd = "\r\n";
-		String twoHyphens = "--";
-		String boundary = UUID.randomUUID().toString();
-
-		HttpURLConnection connection = null;
-		DataOutputStream os = null;
+		// Attachments are prepared in the background when they are attached. Wait for any still in progress before the
+		// connection is opened, so it isn't held open while images are compressed.
+		MessageManager messageManager = ApptentiveInternal.getInstance().getMessageManager();
+		if (messageManager != null && !messageManager.getAttachmentPreprocessor().awaitReady(associatedFiles)) {
+			ApptentiveLog.w("Some attachments couldn't be prepared, and won't be sent.");
+		}
 
+		MultipartBody body = new MultipartBody(postBody, associatedFiles, progressListener);
 		try {
+			HttpRequest request = createRequest(oauthToken, uri, Method.POST);
+			request.setBody(body);
 
-			// Set up the request.
-			URL url = new URL(uri);
-			connection = (HttpURLConnection) url.openConnection();
-			connection.setDoInput(true);
-			connection.setDoOutput(true);
-			connection.setUseCaches(false);
-			connection.setConnectTimeout(DEFAULT_HTTP_CONNECT_TIMEOUT);
-			connection.setReadTimeout(DEFAULT_HTTP_SOCKET_TIMEOUT);
-			connection.setRequestMethod("POST");
-
-			connection.setRequestProperty("Content-Type", "multipart/mixed;boundary=" + boundary);
-			connection.setRequestProperty("Authorization", "OAuth " + oauthToken);
-			connection.setRequestProperty("Accept", "application/json");
-			connection.setRequestProperty("X-API-Version", String.valueOf(API_VERSION));
-			connection.setRequestProperty("User-Agent", getUserAgentString());
-
-			// Open an output stream.
-			os = new DataOutputStream(connection.getOutputStream());
-			os.writeBytes(twoHyphens + boundary + lineEnd);
-
-			// Write text message
-			os.writeBytes("Content-Disposition: form-data; name=\"message\"" + lineEnd);
-			// Indicate the character encoding is UTF-8
-			os.writeBytes("Content-Type: text/plain;charset=UTF-8" + lineEnd);
-
-			os.writeBytes(lineEnd);
-			// Explicitly encode message json in utf-8
-			os.write(postBody.getBytes("UTF-8"));
-			os.writeBytes(lineEnd);
-
-
-			// Send associated files
-			if (associatedFiles != null) {
-				for (StoredFile storedFile : associatedFiles) {
-					FileInputStream fis = null;
-					try {
-						String cachedImagePathString = storedFile.getLocalFilePath();
-						String originalFilePath = storedFile.getSourceUriOrPath();
-						File cachedImageFile = new File(cachedImagePathString);
-						// No local cache found
-						if (!cachedImageFile.exists()) {
-							boolean bCachedCreated = false;
-							if (Util.isMimeTypeImage(storedFile.getMimeType())) {
-								// Create a scaled down version of original image
-								bCachedCreated = ImageUtil.createScaledDownImageCacheFile(originalFilePath, cachedImagePathString);
-							} else {
-								// For non-image file, just copy to a cache file
-								if (Util.createLocalStoredFile(originalFilePath, cachedImagePathString, null) != null) {
-									bCachedCreated = true;
-								}
-							}
-
-							if (!bCachedCreated) {
-								continue;
-							}
-						}
-						os.writeBytes(twoHyphens + boundary + lineEnd);
-						StringBuilder requestText = new StringBuilder();
-						String fileFullPathName = originalFilePath;
-						if (TextUtils.isEmpty(fileFullPathName)) {
-							fileFullPathName = cachedImagePathString;
-						}
-						requestText.append(String.format("Content-Disposition: form-data; name=\"file[]\"; filename=\"%s\"", fileFullPathName)).append(lineEnd);
-						requestText.append("Content-Type: ").append(storedFile.getMimeType()).append(lineEnd);
-						// Write file attributes
-						os.writeBytes(requestText.toString());
-						os.writeBytes(lineEnd);
-
-						fis = new FileInputStream(cachedImageFile);
-
-						int bytesAvailable = fis.available();
-						int maxBufferSize = 512 * 512;
-						int bufferSize = Math.min(bytesAvailable, maxBufferSize);
-						byte[] buffer = new byte[bufferSize];
-
-						// read image data 0.5MB at a time and write it into buffer
-						int bytesRead = fis.read(buffer, 0, bufferSize);
-						while (bytesRead > 0) {
-							os.write(buffer, 0, bufferSize);
-							bytesAvailable = fis.available();
-							bufferSize = Math.min(bytesAvailable, maxBufferSize);
-							bytesRead = fis.read(buffer, 0, bufferSize);
-						}
-					} catch (IOException e) {
-						ApptentiveLog.d("Error writing file bytes to HTTP connection.", e);
-						ret.setBadPayload(true);
-						throw e;
-					} finally {
-						Util.ensureClosed(fis);
-					}
-					os.writeBytes(lineEnd);
-				}
-			}
-			os.writeBytes(twoHyphens + boundary + twoHyphens + lineEnd);
-
-			os.flush();
-			os.close();
-
-			ret.setCode(connection.getResponseCode());
-			ret.setReason(connection.getResponseMessage());
-
-			// Read the normal response.
-			InputStream responseInputStream = null;
-			ByteArrayOutputStream byteArrayOutputStream = null;
-			try {
-				responseInputStream = connection.getInputStream();
-				byteArrayOutputStream = new ByteArrayOutputStream();
-				byte[] eBuf = new byte[1024];
-				int eRead;
-				while (responseInputStream != null && (eRead = responseInputStream.read(eBuf, 0, 1024)) > 0) {
-					byteArrayOutputStream.write(eBuf, 0, eRead);
-				}
-				ret.setContent(byteArrayOutputStream.toString());
-			} finally {
-				Util.ensureClosed(responseInputStream);
-				Util.ensureClosed(byteArrayOutputStream);
-			}
-
-			ApptentiveLog.d("HTTP %d: %s", connection.getResponseCode(), connection.getResponseMessage());
+			ret = transport.execute(request);
+			ApptentiveLog.d("HTTP %d: %s", ret.getCode(), ret.getReason());
+			ApptentiveLog.d("POST %s: %s", uri, ret.getTiming());
 			ApptentiveLog.v("Response: %s", ret.getContent());
 		} catch (FileNotFoundException e) {
 			ApptentiveLog.e("Error getting file to upload.", e);
@@ -373,14 +330,8 @@ public class ApptentiveClient {
 			ApptentiveLog.w("Timeout communicating with server.");
 		} catch (IOException e) {
 			ApptentiveLog.e("Error executing file upload.", e);
-			try {
-				ret.setContent(getErrorResponse(connection, ret.isZipped()));
-			} catch (IOException ex) {
-				ApptentiveLog.w("Can't read error stream.", ex);
-			}
-		} finally {
-			Util.ensureClosed(os);
 		}
+		ret.setBadPayload(body.isBadPayload());
 		return ret;
 	}
 
@@ -13,10 +13,12 @@ import java.util.Map;
  */
 public class ApptentiveHttpResponse {
 	private String content;
+	private Object parsedContent;
 	private String reason;
 	private Map<String, String> headers;
 	private int code;
 	private boolean badPayload;
+	private HttpTiming timing;
 
 	public ApptentiveHttpResponse() {
 		content = null;
@@ -33,6 +35,13 @@ public class ApptentiveHttpResponse {
 		return code >= 200 && code < 300;
 	}
 
+	/**
+	 * @return true if the server answered a conditional request with 304, meaning nothing changed.
+	 */
+	public boolean isNotModified() {
+		return code == 304;
+	}
+
 	public boolean isRejectedPermanently() {
 		return code >= 400 && code < 500;
 	}
@@ -50,6 +59,18 @@ public class ApptentiveHttpResponse {
 		this.content = content;
 	}
 
+	/**
+	 * @return The body as parsed by the request's {@link HttpRequest.ResponseReader}, in which case
+	 * {@link #getContent()} is null.
+	 */
+	public Object getParsedContent() {
+		return parsedContent;
+	}
+
+	public void setParsedContent(Object parsedContent) {
+		this.parsedContent = parsedContent;
+	}
+
 	public String getReason() {
 		return reason;
 	}
@@ -66,6 +87,25 @@ public class ApptentiveHttpResponse {
 		this.headers = headers;
 	}
 
+	/**
+	 * @return The value of the header, whose name is matched ignoring case, or null if it wasn't sent.
+	 */
+	public String getHeader(String name) {
+		if (headers != null) {
+			for (Map.Entry<String, String> header : headers.entrySet()) {
+				if (name.equalsIgnoreCase(header.getKey())) {
+					String value = header.getValue();
+					// Stored the way the connection lists them, e.g. "[gzip]"
+					if (value != null && value.startsWith("[") && value.endsWith("]")) {
+						value = value.substring(1, value.length() - 1);
+					}
+					return value;
+				}
+			}
+		}
+		return null;
+	}
+
 	public int getCode() {
 		return code;
 	}
@@ -82,6 +122,17 @@ public class ApptentiveHttpResponse {
 		this.badPayload = badPayload;
 	}
 
+	/**
+	 * @return Time spent on each phase of the request, or null if it wasn't sent.
+	 */
+	public HttpTiming getTiming() {
+		return timing;
+	}
+
+	public void setTiming(HttpTiming timing) {
+		this.timing = timing;
+	}
+
 	public boolean isZipped() {
 		if (headers != null) {
 			String contentEncoding = headers.get("Content-Encoding");
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.comm;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An HTTP request to be sent by an {@link HttpTransport}.
+ */
+public class HttpRequest {
+
+	public static final int DEFAULT_CONNECT_TIMEOUT = 45000;
+	public static final int DEFAULT_READ_TIMEOUT = 45000;
+
+	private final URL url;
+	private final String method;
+	private final Map<String, String> headers = new LinkedHashMap<String, String>();
+	private Body body;
+	private ResponseReader responseReader;
+	private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private int readTimeout = DEFAULT_READ_TIMEOUT;
+
+	public HttpRequest(URL url, String method) {
+		this.url = url;
+		this.method = method;
+	}
+
+	public URL getUrl() {
+		return url;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public Map<String, String> getHeaders() {
+		return Collections.unmodifiableMap(headers);
+	}
+
+	public void setHeader(String name, String value) {
+		headers.put(name, value);
+	}
+
+	public Body getBody() {
+		return body;
+	}
+
+	public void setBody(Body body) {
+		this.body = body;
+	}
+
+	public ResponseReader getResponseReader() {
+		return responseReader;
+	}
+
+	/**
+	 * Parses a successful response as it is read from the connection, instead of reading it into a string first.
+	 */
+	public void setResponseReader(ResponseReader responseReader) {
+		this.responseReader = responseReader;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * The content of a request. It is written straight to the connection, so it doesn't need to be held in memory.
+	 */
+	public interface Body {
+		String getContentType();
+
+		/**
+		 * @return The Content-Encoding of the body, or null if it isn't encoded.
+		 */
+		String getContentEncoding();
+
+		/**
+		 * @return The number of bytes {@link #writeTo(OutputStream)} writes, or -1 if it isn't known in advance.
+		 */
+		long getContentLength();
+
+		void writeTo(OutputStream os) throws IOException;
+	}
+
+	/**
+	 * Parses the body of a successful response straight from the connection.
+	 */
+	public interface ResponseReader {
+		/**
+		 * @return The parsed body, which becomes {@link ApptentiveHttpResponse#getParsedContent()}.
+		 * @throws JSONException if the body isn't what was expected. The response is returned without parsed content.
+		 */
+		Object read(Reader reader) throws IOException, JSONException;
+	}
+
+	public static class StringBody implements Body {
+		private final String contentType;
+		private final byte[] bytes;
+
+		public StringBody(String contentType, String content) {
+			this.contentType = contentType;
+			try {
+				bytes = content.getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e); // UTF-8 is always supported
+			}
+		}
+
+		@Override
+		public String getContentType() {
+			return contentType;
+		}
+
+		@Override
+		public String getContentEncoding() {
+			return null;
+		}
+
+		@Override
+		public long getContentLength() {
+			return bytes.length;
+		}
+
+		@Override
+		public void writeTo(OutputStream os) throws IOException {
+			os.write(bytes);
+		}
+	}
+
+	/**
+	 * Compresses another body with gzip as it's written. The compressed length isn't known in advance.
+	 */
+	public static class GzipBody implements Body {
+		private final Body body;
+
+		public GzipBody(Body body) {
+			this.body = body;
+		}
+
+		@Override
+		public String getContentType() {
+			return body.getContentType();
+		}
+
+		@Override
+		public String getContentEncoding() {
+			return "gzip";
+		}
+
+		@Override
+		public long getContentLength() {
+			return -1;
+		}
+
+		@Override
+		public void writeTo(OutputStream os) throws IOException {
+			GZIPOutputStream gzip = new GZIPOutputStream(os);
+			body.writeTo(gzip);
+			gzip.finish();
+		}
+	}
+}
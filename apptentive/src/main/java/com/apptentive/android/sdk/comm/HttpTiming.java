@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.comm;
+
+import java.util.Locale;
+
+/**
+ * Time spent on each phase of an HTTP request, in milliseconds. When a pooled connection is reused, the setup time is
+ * close to zero.
+ */
+public class HttpTiming {
+	private long setupMillis;
+	private long sendMillis;
+	private long firstByteMillis;
+	private long bodyMillis;
+
+	/**
+	 * @return Time spent getting a connection. For a new connection, this covers resolving the host, and the TCP and
+	 * TLS handshakes, which HttpURLConnection doesn't report separately.
+	 */
+	public long getSetupMillis() {
+		return setupMillis;
+	}
+
+	public void setSetupMillis(long setupMillis) {
+		this.setupMillis = setupMillis;
+	}
+
+	/**
+	 * @return Time spent writing the request body.
+	 */
+	public long getSendMillis() {
+		return sendMillis;
+	}
+
+	public void setSendMillis(long sendMillis) {
+		this.sendMillis = sendMillis;
+	}
+
+	/**
+	 * @return Time from the end of the request to the first byte of the response.
+	 */
+	public long getFirstByteMillis() {
+		return firstByteMillis;
+	}
+
+	public void setFirstByteMillis(long firstByteMillis) {
+		this.firstByteMillis = firstByteMillis;
+	}
+
+	/**
+	 * @return Time spent reading the response body.
+	 */
+	public long getBodyMillis() {
+		return bodyMillis;
+	}
+
+	public void setBodyMillis(long bodyMillis) {
+		this.bodyMillis = bodyMillis;
+	}
+
+	public long getTotalMillis() {
+		return setupMillis + sendMillis + firstByteMillis + bodyMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "total %d ms (setup %d, send %d, ttfb %d, body %d)",
+				getTotalMillis(), setupMillis, sendMillis, firstByteMillis, bodyMillis);
+	}
+}
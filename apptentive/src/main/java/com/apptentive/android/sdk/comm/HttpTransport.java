@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.comm;
+
+import java.io.IOException;
+
+/**
+ * Sends the requests made by {@link ApptentiveClient}. The default is {@link HttpURLConnectionTransport}, and a different
+ * one can be set with {@link ApptentiveClient#setTransport(HttpTransport)}.
+ */
+public interface HttpTransport {
+
+	/**
+	 * Sends the request and reads the whole response. Responses with an error status are returned, not thrown.
+	 *
+	 * @return The response, along with the time spent on each phase of the request in
+	 * {@link ApptentiveHttpResponse#getTiming()}.
+	 * @throws IOException if the request couldn't be sent, or the response couldn't be read.
+	 */
+	ApptentiveHttpResponse execute(HttpRequest request) throws IOException;
+}
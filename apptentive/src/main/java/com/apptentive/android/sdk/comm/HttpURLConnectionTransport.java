@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.comm;
+
+import com.apptentive.android.sdk.ApptentiveLog;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Sends requests with {@link HttpURLConnection}, which keeps idle connections in a process-wide keep-alive pool. A
+ * connection only goes back to the pool once its response has been read to the end and closed, so every response
+ * body, including error bodies, is fully drained here. Connections are never disconnected after a complete exchange,
+ * because that would close the socket instead of pooling it.
+ */
+public class HttpURLConnectionTransport implements HttpTransport {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	@Override
+	public ApptentiveHttpResponse execute(HttpRequest request) throws IOException {
+		HttpTiming timing = new HttpTiming();
+		long start = System.nanoTime();
+
+		HttpURLConnection connection = (HttpURLConnection) request.getUrl().openConnection();
+		boolean complete = false;
+		try {
+			connection.setConnectTimeout(request.getConnectTimeout());
+			connection.setReadTimeout(request.getReadTimeout());
+			connection.setUseCaches(false);
+			connection.setRequestMethod(request.getMethod());
+			connection.setRequestProperty("Connection", "Keep-Alive");
+			for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+				connection.setRequestProperty(header.getKey(), header.getValue());
+			}
+
+			HttpRequest.Body body = request.getBody();
+			if (body != null) {
+				connection.setDoOutput(true);
+				connection.setRequestProperty("Content-Type", body.getContentType());
+				if (body.getContentEncoding() != null) {
+					connection.setRequestProperty("Content-Encoding", body.getContentEncoding());
+				}
+				long contentLength = body.getContentLength();
+				// Either way, the body is streamed instead of being buffered in memory to measure it
+				if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+					connection.setFixedLengthStreamingMode((int) contentLength);
+				} else {
+					connection.setChunkedStreamingMode(0);
+				}
+			}
+
+			connection.connect();
+			long connected = System.nanoTime();
+			timing.setSetupMillis(toMillis(connected - start));
+
+			if (body != null) {
+				OutputStream os = connection.getOutputStream();
+				try {
+					body.writeTo(os);
+				} finally {
+					os.close();
+				}
+			}
+			long sent = System.nanoTime();
+			timing.setSendMillis(toMillis(sent - connected));
+
+			ApptentiveHttpResponse response = new ApptentiveHttpResponse();
+			int responseCode = connection.getResponseCode();
+			long firstByte = System.nanoTime();
+			timing.setFirstByteMillis(toMillis(firstByte - sent));
+
+			response.setCode(responseCode);
+			response.setReason(connection.getResponseMessage());
+			Map<String, String> headers = new HashMap<String, String>();
+			for (Map.Entry<String, List<String>> entry : connection.getHeaderFields().entrySet()) {
+				headers.put(entry.getKey(), entry.getValue().toString());
+			}
+			response.setHeaders(headers);
+
+			InputStream is = responseCode < 400 ? connection.getInputStream() : connection.getErrorStream();
+			boolean isZipped = "gzip".equalsIgnoreCase(connection.getContentEncoding());
+			HttpRequest.ResponseReader responseReader = request.getResponseReader();
+			if (responseReader != null && response.isSuccessful()) {
+				response.setParsedContent(readParsed(is, isZipped, responseReader));
+			} else {
+				response.setContent(readFully(is, isZipped));
+			}
+			timing.setBodyMillis(toMillis(System.nanoTime() - firstByte));
+
+			response.setTiming(timing);
+			complete = true;
+			return response;
+		} finally {
+			if (!complete) {
+				// The state of the stream is unknown, so don't let the connection be reused.
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Reads the stream to the end and closes it, so the connection can be returned to the pool.
+	 */
+	private static String readFully(InputStream is, boolean isZipped) throws IOException {
+		if (is == null) {
+			return null;
+		}
+		try {
+			InputStream content = isZipped ? new GZIPInputStream(is) : is;
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = content.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			// Anything after the gzip trailer would keep the connection from being reused
+			while (is.read(buffer) != -1) {
+				// Drain
+			}
+			return bytes.toString("UTF-8");
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Parses the stream as it is read, then reads it to the end and closes it, so the connection can be returned to the
+	 * pool.
+	 *
+	 * @return The parsed content, or null if it couldn't be parsed.
+	 */
+	private static Object readParsed(InputStream is, boolean isZipped, HttpRequest.ResponseReader responseReader) throws IOException {
+		if (is == null) {
+			return null;
+		}
+		try {
+			InputStream content = isZipped ? new GZIPInputStream(is) : is;
+			Object parsed = null;
+			try {
+				parsed = responseReader.read(new InputStreamReader(content, "UTF-8"));
+			} catch (JSONException e) {
+				ApptentiveLog.w("Unable to parse response.", e);
+			}
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (content.read(buffer) != -1) {
+				// Drain what the reader didn't need
+			}
+			while (is.read(buffer) != -1) {
+				// Drain
+			}
+			return parsed;
+		} finally {
+			is.close();
+		}
+	}
+
+	private static long toMillis(long nanos) {
+		return nanos / 1000000;
+	}
+}
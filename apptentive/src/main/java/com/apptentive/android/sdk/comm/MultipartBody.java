@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.comm;
+
+import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.model.StoredFile;
+import com.apptentive.android.sdk.util.Util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The message json followed by its attachments, each in its own part.
+ * <p/>
+ * Every part is measured up front, from the sizes of the prepared attachments, so the request can be sent in fixed
+ * length streaming mode. Each file is then streamed to the connection through one small buffer, so memory use doesn't
+ * grow with the size of the attachments.
+ */
+class MultipartBody implements HttpRequest.Body {
+
+	private static final String LINE_END = "\r\n";
+	private static final String TWO_HYPHENS = "--";
+	private static final int BUFFER_SIZE = 8192;
+	private static final int PROGRESS_STEP_PERCENT = 5;
+	private static final long PROGRESS_INTERVAL_MILLIS = 100;
+
+	interface ProgressListener {
+		/**
+		 * @param progress Percentage of the body written so far. Called once it has grown by
+		 *                 {@link #PROGRESS_STEP_PERCENT}, or {@link #PROGRESS_INTERVAL_MILLIS} after the last call, and
+		 *                 always once the body is complete.
+		 */
+		void onProgress(int progress);
+	}
+
+	private final String boundary = UUID.randomUUID().toString();
+	private final byte[] messagePart;
+	private final List<FilePart> fileParts = new ArrayList<FilePart>();
+	private final byte[] lineEnd;
+	private final byte[] closingBoundary;
+	private final long contentLength;
+	private final ProgressListener listener;
+
+	private long bytesWritten;
+	private int lastProgress;
+	private long lastProgressTime;
+	private boolean badPayload;
+
+	private static class FilePart {
+		final File file;
+		final long length;
+		final byte[] header;
+
+		FilePart(File file, long length, byte[] header) {
+			this.file = file;
+			this.length = length;
+			this.header = header;
+		}
+	}
+
+	/**
+	 * @param associatedFiles Attachments whose local files are ready to upload. Files that don't exist are left out.
+	 * @param listener        Notified of upload progress, or null.
+	 */
+	MultipartBody(String postBody, List<StoredFile> associatedFiles, ProgressListener listener) {
+		this.listener = listener;
+		messagePart = toBytes(TWO_HYPHENS + boundary + LINE_END +
+				"Content-Disposition: form-data; name=\"message\"" + LINE_END +
+				// Indicate the character encoding is UTF-8
+				"Content-Type: text/plain;charset=UTF-8" + LINE_END +
+				LINE_END +
+				postBody + LINE_END);
+		lineEnd = toBytes(LINE_END);
+		closingBoundary = toBytes(TWO_HYPHENS + boundary + TWO_HYPHENS + LINE_END);
+
+		long length = messagePart.length + closingBoundary.length;
+		if (associatedFiles != null) {
+			for (StoredFile storedFile : associatedFiles) {
+				String cachedImagePathString = storedFile.getLocalFilePath();
+				File cachedImageFile = new File(cachedImagePathString);
+				// Prepared by the AttachmentPreprocessor. A file that couldn't be prepared is left out.
+				if (!cachedImageFile.exists()) {
+					continue;
+				}
+				String fileFullPathName = storedFile.getSourceUriOrPath();
+				if (fileFullPathName == null || fileFullPathName.length() == 0) {
+					fileFullPathName = cachedImagePathString;
+				}
+				byte[] header = toBytes(TWO_HYPHENS + boundary + LINE_END +
+						String.format("Content-Disposition: form-data; name=\"file[]\"; filename=\"%s\"", fileFullPathName) + LINE_END +
+						"Content-Type: " + storedFile.getMimeType() + LINE_END +
+						LINE_END);
+				long fileLength = storedFile.getSize() > 0 ? storedFile.getSize() : cachedImageFile.length();
+				fileParts.add(new FilePart(cachedImageFile, fileLength, header));
+				length += header.length + fileLength + lineEnd.length;
+			}
+		}
+		contentLength = length;
+	}
+
+	/**
+	 * @return true if one of the attachments couldn't be read, so sending the message again won't help.
+	 */
+	boolean isBadPayload() {
+		return badPayload;
+	}
+
+	@Override
+	public String getContentType() {
+		return "multipart/mixed;boundary=" + boundary;
+	}
+
+	@Override
+	public String getContentEncoding() {
+		return null;
+	}
+
+	@Override
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	@Override
+	public void writeTo(OutputStream os) throws IOException {
+		bytesWritten = 0;
+		lastProgress = -1;
+		byte[] buffer = new byte[BUFFER_SIZE];
+
+		write(os, messagePart, messagePart.length);
+		for (FilePart part : fileParts) {
+			write(os, part.header, part.header.length);
+			writeFile(os, part, buffer);
+			write(os, lineEnd, lineEnd.length);
+		}
+		write(os, closingBoundary, closingBoundary.length);
+		os.flush();
+	}
+
+	/**
+	 * Streams exactly the measured number of bytes of the file, so the body matches the declared content length.
+	 */
+	private void writeFile(OutputStream os, FilePart part, byte[] buffer) throws IOException {
+		FileInputStream fis = null;
+		try {
+			try {
+				fis = new FileInputStream(part.file);
+			} catch (IOException e) {
+				ApptentiveLog.d("Error opening file to upload.", e);
+				badPayload = true;
+				throw e;
+			}
+			long remaining = part.length;
+			while (remaining > 0) {
+				int bytesRead;
+				try {
+					bytesRead = fis.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				} catch (IOException e) {
+					ApptentiveLog.d("Error reading file bytes to upload.", e);
+					badPayload = true;
+					throw e;
+				}
+				if (bytesRead == -1) {
+					// Changed since it was prepared. It is prepared again before the next attempt.
+					throw new IOException("File is shorter than its recorded size: " + part.file);
+				}
+				write(os, buffer, bytesRead);
+				remaining -= bytesRead;
+			}
+		} finally {
+			Util.ensureClosed(fis);
+		}
+	}
+
+	private void write(OutputStream os, byte[] bytes, int count) throws IOException {
+		os.write(bytes, 0, count);
+		bytesWritten += count;
+		if (listener != null && contentLength > 0) {
+			int progress = (int) ((bytesWritten * 100) / contentLength);
+			if (progress != lastProgress) {
+				long now = System.currentTimeMillis();
+				if (lastProgress < 0 || progress == 100 || progress - lastProgress >= PROGRESS_STEP_PERCENT || now - lastProgressTime >= PROGRESS_INTERVAL_MILLIS) {
+					lastProgress = progress;
+					lastProgressTime = now;
+					listener.onProgress(progress);
+				}
+			}
+		}
+	}
+
+	private static byte[] toBytes(String value) {
+		try {
+			return value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e); // UTF-8 is always supported
+		}
+	}
+}
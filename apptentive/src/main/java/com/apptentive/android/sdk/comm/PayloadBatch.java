@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.comm;
+
+import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.model.Payload;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A group of payloads of the same {@link Payload.BaseType} that are sent to the server in a single request.
+ * <p/>
+ * The request body wraps the payloads in an array keyed by the plural type name:
+ * <pre>{"events": [{...}, {...}]}</pre>
+ * The server answers with one result per payload, in the same order:
+ * <pre>{"results": [{"status": 201}, {"status": 500}]}</pre>
+ * If the per-item results are missing, the status of the whole request applies to every payload in the batch.
+ */
+public class PayloadBatch {
+
+	private static final String KEY_RESULTS = "results";
+	private static final String KEY_STATUS = "status";
+	private static final String KEY_REASON = "reason";
+
+	private final Payload.BaseType baseType;
+	private final List<Payload> payloads;
+
+	public PayloadBatch(List<Payload> payloads) {
+		if (payloads == null || payloads.isEmpty()) {
+			throw new IllegalArgumentException("Payload batch can't be empty");
+		}
+		this.baseType = payloads.get(0).getBaseType();
+		for (Payload payload : payloads) {
+			if (payload.getBaseType() != baseType) {
+				throw new IllegalArgumentException("Payload batch can't mix " + baseType + " and " + payload.getBaseType());
+			}
+		}
+		this.payloads = Collections.unmodifiableList(new ArrayList<Payload>(payloads));
+	}
+
+	/**
+	 * Only payloads whose server endpoint accepts an array body can be batched. Other types are always sent one at a time.
+	 */
+	public static boolean isBatchable(Payload.BaseType baseType) {
+		return baseType == Payload.BaseType.event;
+	}
+
+	public Payload.BaseType getBaseType() {
+		return baseType;
+	}
+
+	public List<Payload> getPayloads() {
+		return payloads;
+	}
+
+	public int size() {
+		return payloads.size();
+	}
+
+	public String marshallForSending() {
+		JSONObject wrapper = new JSONObject();
+		try {
+			JSONArray items = new JSONArray();
+			for (Payload payload : payloads) {
+				items.put(payload);
+			}
+			wrapper.put(baseType.name() + "s", items);
+		} catch (JSONException e) {
+			ApptentiveLog.w("Error wrapping Payload batch in JSONObject.", e);
+			return null;
+		}
+		return wrapper.toString();
+	}
+
+	/**
+	 * Splits the response to a batch request into one response per payload, in the same order as {@link #getPayloads()}.
+	 */
+	public List<ApptentiveHttpResponse> parseResults(ApptentiveHttpResponse response) {
+		JSONArray results = null;
+		if (response.isSuccessful() && response.getContent() != null) {
+			try {
+				results = new JSONObject(response.getContent()).optJSONArray(KEY_RESULTS);
+			} catch (JSONException e) {
+				ApptentiveLog.w("Error parsing Payload batch results.", e);
+			}
+		}
+
+		List<ApptentiveHttpResponse> ret = new ArrayList<ApptentiveHttpResponse>(payloads.size());
+		for (int i = 0; i < payloads.size(); i++) {
+			JSONObject result = results != null ? results.optJSONObject(i) : null;
+			if (result == null) {
+				ret.add(response);
+				continue;
+			}
+
+			ApptentiveHttpResponse itemResponse = new ApptentiveHttpResponse();
+			itemResponse.setCode(result.optInt(KEY_STATUS, response.getCode()));
+			itemResponse.setReason(result.optString(KEY_REASON, response.getReason()));
+			itemResponse.setHeaders(response.getHeaders());
+			ret.add(itemResponse);
+		}
+		return ret;
+	}
+}
@@ -107,9 +107,10 @@ public class ApptentiveActivityLifecycleCallbacks implements Application.Activit
 
 	private void appEnteredBackground() {
 		ApptentiveLog.d("App went to background.");
-		ApptentiveInternal.getInstance().onAppEnterBackground();
-		// Mark entering background as app exit
+		// Mark entering background as app exit. This comes first, so that the invoke is saved before the background queues
+		// are paused.
 		appExited(ApptentiveInternal.getInstance().getApplicationContext());
+		ApptentiveInternal.getInstance().onAppEnterBackground();
 	}
 
 	private void appLaunched(Context appContext) {
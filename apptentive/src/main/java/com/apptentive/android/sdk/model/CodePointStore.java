@@ -10,15 +10,36 @@ import android.content.SharedPreferences;
 
 import com.apptentive.android.sdk.ApptentiveInternal;
 import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.storage.CodePointRecordStore;
 import com.apptentive.android.sdk.util.Constants;
 import com.apptentive.android.sdk.util.Util;
+import com.apptentive.android.sdk.util.threading.DispatchQueue;
+import com.apptentive.android.sdk.util.threading.DispatchTask;
+import com.apptentive.android.sdk.util.threading.DispatchTaskPriority;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
 /**
  * <p>All public methods altering code point values should be synchronized.</p>
- * <p>Example:</p>
+ * <p>The invocation history of code points and interactions lives in the database, behind a {@link CodePointRecordStore}.
+ * The records that the current targets refer to are loaded into memory by {@link #preload(Set, Set)} when the targets
+ * are loaded or received, so evaluating criteria never waits for the database. Each code point is held in an immutable
+ * {@link Record}, which is replaced as a whole when it's invoked again, so reads don't take the store lock.</p>
+ * <p>Invokes are written to the database in the background, at most once per {@link #SAVE_DELAY_MILLIS}, so a burst of
+ * events results in a single transaction.</p>
+ * <p>Older versions of the SDK stored the whole history as JSON in SharedPreferences. It's moved into the database
+ * by {@link #init()}. Example:</p>
  * <pre>
  * {
  *   "code_point": {
@@ -54,8 +75,6 @@ import org.json.JSONObject;
  */
 public class CodePointStore {
 
-	private JSONObject store;
-
 	public static final String KEY_CODE_POINT = "code_point";
 	public static final String KEY_INTERACTIONS = "interactions";
 	public static final String KEY_LAST = "last"; // The last time this codepoint was seen.
@@ -63,32 +82,150 @@ public class CodePointStore {
 	public static final String KEY_VERSION_NAME = "version";
 	public static final String KEY_VERSION_CODE = "build";
 
-	public CodePointStore() {
+	static final long SAVE_DELAY_MILLIS = 1000;
+
+	private final CodePointRecordStore recordStore;
+	private final DispatchQueue saveQueue;
+
+	// Records loaded by preload(), keyed by name. They're kept up to date with every invoke, and read without touching
+	// the record store or taking the store lock. Only writes are synchronized.
+	private final Map<String, Record> codePointRecords = new ConcurrentHashMap<String, Record>();
+	private final Map<String, Record> interactionRecords = new ConcurrentHashMap<String, Record>();
+
+	// Invokes that haven't been handed to the record store yet
+	private List<Invoke> pendingInvokes = new ArrayList<Invoke>();
+
+	// While a preload is reading the record store, invokes are held back, so that each one is counted exactly once
+	private int preloadsInProgress;
+
+	// Not held while the app is in the background, so invokes from then on aren't lost if the process is killed
+	private final DispatchTask saveTask = new DispatchTask(DispatchTaskPriority.UserVisible) {
+		@Override
+		protected void execute() {
+			savePendingInvokes();
+		}
+	};
+
+	public CodePointStore(CodePointRecordStore recordStore) {
+		this(recordStore, DispatchQueue.backgroundQueue());
+	}
 
+	CodePointStore(CodePointRecordStore recordStore, DispatchQueue saveQueue) {
+		this.recordStore = recordStore;
+		this.saveQueue = saveQueue;
 	}
 
 	public void init() {
-		store = loadFromPreference();
+		migrateFromPreference();
 	}
 
-	private void saveToPreference() {
-		SharedPreferences prefs = ApptentiveInternal.getInstance().getSharedPrefs();
-		prefs.edit().putString(Constants.PREF_KEY_CODE_POINT_STORE, store.toString()).apply();
+	/**
+	 * Hands pending invokes to the record store without waiting for the save delay. Call this when the app goes to the
+	 * background.
+	 */
+	public void flush() {
+		savePendingInvokes();
 	}
 
-	private JSONObject loadFromPreference() {
-		SharedPreferences prefs = ApptentiveInternal.getInstance().getSharedPrefs();
-		String json = prefs.getString(Constants.PREF_KEY_CODE_POINT_STORE, null);
+	synchronized void savePendingInvokes() {
+		if (preloadsInProgress == 0 && !pendingInvokes.isEmpty()) {
+			recordStore.addCodePointInvokes(pendingInvokes);
+			pendingInvokes = new ArrayList<Invoke>();
+		}
+	}
+
+	/**
+	 * Loads the records of the given code points and interactions, so that reading them later never waits for the
+	 * record store. Records that are already loaded are kept. This blocks until the records are read.
+	 */
+	public void preload(Set<String> codePointNames, Set<String> interactionNames) {
+		synchronized (this) {
+			// Invokes handed over before the read are part of its result, later ones are applied once it's done
+			savePendingInvokes();
+			++preloadsInProgress;
+		}
+		Map<String, Record> loadedCodePoints = null;
+		Map<String, Record> loadedInteractions = null;
 		try {
-			if (json != null) {
-				return new JSONObject(json);
+			loadedCodePoints = recordStore.getCodePointRecords(false, codePointNames).get();
+			loadedInteractions = recordStore.getCodePointRecords(true, interactionNames).get();
+		} catch (Exception e) {
+			ApptentiveLog.w("Error loading code point records.", e);
+		} finally {
+			synchronized (this) {
+				--preloadsInProgress;
+				if (loadedCodePoints != null && loadedInteractions != null) {
+					addLoadedRecords(false, codePointNames, loadedCodePoints);
+					addLoadedRecords(true, interactionNames, loadedInteractions);
+				}
+				savePendingInvokes();
 			}
-		} catch (JSONException e) {
+		}
+	}
+
+	private void addLoadedRecords(boolean interaction, Set<String> names, Map<String, Record> loadedRecords) {
+		Map<String, Record> records = getRecords(interaction);
+		for (String name : names) {
+			if (!records.containsKey(name)) {
+				Record record = loadedRecords.get(name);
+				if (record == null) {
+					record = Record.EMPTY;
+				}
+				for (Invoke invoke : pendingInvokes) {
+					if (invoke.interaction == interaction && invoke.name.equals(name)) {
+						record = record.increment(invoke);
+					}
+				}
+				records.put(name, record);
+			}
+		}
+	}
+
+	/**
+	 * Moves the history stored in SharedPreferences by older versions of the SDK into the database. The key is only
+	 * removed once the records are committed, so an interrupted migration is retried on the next launch.
+	 */
+	private void migrateFromPreference() {
+		final SharedPreferences prefs = ApptentiveInternal.getInstance().getSharedPrefs();
+		String json = prefs.getString(Constants.PREF_KEY_CODE_POINT_STORE, null);
+		if (json == null) {
+			return;
+		}
+		try {
+			JSONObject store = new JSONObject(json);
+			final Future<Boolean> result = recordStore.importCodePointRecords(recordsFromJson(store.optJSONObject(KEY_CODE_POINT)), recordsFromJson(store.optJSONObject(KEY_INTERACTIONS)));
+			saveQueue.dispatchAsync(new DispatchTask() {
+				@Override
+				protected void execute() {
+					try {
+						if (result.get()) {
+							prefs.edit().remove(Constants.PREF_KEY_CODE_POINT_STORE).apply();
+							ApptentiveLog.d("Migrated CodePointStore from SharedPreferences.");
+						}
+					} catch (Exception e) {
+						ApptentiveLog.w("Error migrating CodePointStore from SharedPreferences.", e);
+					}
+				}
+			});
+		} catch (Exception e) {
 			ApptentiveLog.e("Error loading CodePointStore from SharedPreferences.", e);
 		}
-		return new JSONObject();
 	}
 
+	private static Map<String, Record> recordsFromJson(JSONObject recordType) {
+		Map<String, Record> records = new HashMap<String, Record>();
+		if (recordType != null) {
+			Iterator<String> names = recordType.keys();
+			while (names.hasNext()) {
+				String name = names.next();
+				JSONObject recordJson = recordType.optJSONObject(name);
+				if (recordJson != null) {
+					records.put(name, Record.fromJson(recordJson));
+				}
+			}
+		}
+		return records;
+	}
 
 	public synchronized void storeCodePointForCurrentAppVersion(String fullCodePoint) {
 		storeRecordForCurrentAppVersion(false, fullCodePoint);
@@ -109,154 +246,173 @@ public class CodePointStore {
 	}
 
 	public synchronized void storeRecord(boolean isInteraction, String fullCodePoint, String versionName, int versionCode, double currentTimeSeconds) {
-		String versionCodeString = String.valueOf(versionCode);
 		if (fullCodePoint != null && versionName != null) {
-			try {
-				String recordTypeKey = isInteraction ? CodePointStore.KEY_INTERACTIONS : CodePointStore.KEY_CODE_POINT;
-				JSONObject recordType;
-				if (!store.isNull(recordTypeKey)) {
-					recordType = store.getJSONObject(recordTypeKey);
-				} else {
-					recordType = new JSONObject();
-					store.put(recordTypeKey, recordType);
-				}
-
-				// Get or create code point object.
-				JSONObject codePointJson;
-				if (!recordType.isNull(fullCodePoint)) {
-					codePointJson = recordType.getJSONObject(fullCodePoint);
-				} else {
-					codePointJson = new JSONObject();
-					recordType.put(fullCodePoint, codePointJson);
-				}
-
-				// Set the last time this code point was seen.
-				codePointJson.put(KEY_LAST, currentTimeSeconds);
-
-				// Increment the total times this code point was seen.
-				int total = 0;
-				if (codePointJson.has(KEY_TOTAL)) {
-					total = codePointJson.getInt(KEY_TOTAL);
-				}
-				codePointJson.put(KEY_TOTAL, total + 1);
-
-				// Get or create versionName object.
-				JSONObject versionNameJson;
-				if (!codePointJson.isNull(KEY_VERSION_NAME)) {
-					versionNameJson = codePointJson.getJSONObject(KEY_VERSION_NAME);
-				} else {
-					versionNameJson = new JSONObject();
-					codePointJson.put(KEY_VERSION_NAME, versionNameJson);
-				}
-
-				// Set count for current versionName.
-				int existingVersionNameCount = 0;
-				if (!versionNameJson.isNull(versionName)) {
-					existingVersionNameCount = versionNameJson.getInt(versionName);
-				}
-				versionNameJson.put(versionName, existingVersionNameCount + 1);
-
-				// Get or create versionCode object.
-				JSONObject versionCodeJson;
-				if (!codePointJson.isNull(KEY_VERSION_CODE)) {
-					versionCodeJson = codePointJson.getJSONObject(KEY_VERSION_CODE);
-				} else {
-					versionCodeJson = new JSONObject();
-					codePointJson.put(KEY_VERSION_CODE, versionCodeJson);
-				}
-
-				// Set count for the current versionCode
-				int existingVersionCodeCount = 0;
-				if (!versionCodeJson.isNull(versionCodeString)) {
-					existingVersionCodeCount = versionCodeJson.getInt(versionCodeString);
-				}
-				versionCodeJson.put(versionCodeString, existingVersionCodeCount + 1);
-
-				saveToPreference();
-			} catch (JSONException e) {
-				ApptentiveLog.w("Unable to store code point %s.", e, fullCodePoint);
+			Invoke invoke = new Invoke(isInteraction, fullCodePoint, versionName, String.valueOf(versionCode), currentTimeSeconds);
+			Map<String, Record> records = getRecords(isInteraction);
+			Record record = records.get(fullCodePoint);
+			if (record != null) {
+				records.put(fullCodePoint, record.increment(invoke));
 			}
+			pendingInvokes.add(invoke);
+			saveQueue.dispatchAsyncOnce(saveTask, SAVE_DELAY_MILLIS);
 		}
 	}
 
+	/**
+	 * Returns the preloaded record. Code points and interactions that weren't preloaded read as never invoked.
+	 */
+	Record getLoadedRecord(boolean interaction, String name) {
+		Record record = getRecords(interaction).get(name);
+		return record != null ? record : Record.EMPTY;
+	}
+
+	private Map<String, Record> getRecords(boolean interaction) {
+		return interaction ? interactionRecords : codePointRecords;
+	}
+
 	public JSONObject getRecord(boolean interaction, String name) {
-		String recordTypeKey = interaction ? KEY_INTERACTIONS : KEY_CODE_POINT;
-		try {
-			if (!store.isNull(recordTypeKey)) {
-				if (store.has(recordTypeKey)) {
-					JSONObject recordType = store.getJSONObject(recordTypeKey);
-					if (recordType.has(name)) {
-						return recordType.getJSONObject(name);
-					}
-				}
+		Record record = getLoadedRecord(interaction, name);
+		if (record != Record.EMPTY) {
+			try {
+				return record.toJson();
+			} catch (JSONException e) {
+				ApptentiveLog.w("Error loading code point record for \"%s\"", name);
 			}
-		} catch (JSONException e) {
-			ApptentiveLog.w("Error loading code point record for \"%s\"", name);
 		}
 		return null;
 	}
 
 	public Long getTotalInvokes(boolean interaction, String name) {
-		try {
-			JSONObject record = getRecord(interaction, name);
-			if (record != null && record.has(KEY_TOTAL)) {
-				return record.getLong(KEY_TOTAL);
-			}
-		} catch (JSONException e) {
-			// Ignore
-		}
-		return 0L;
+		return getLoadedRecord(interaction, name).total;
 	}
 
 	public Double getLastInvoke(boolean interaction, String name) {
-		try {
-			JSONObject record = getRecord(interaction, name);
-			if (record != null && record.has(KEY_LAST)) {
-				return record.getDouble(KEY_LAST);
-			}
-		} catch (JSONException e) {
-			// Ignore
+		Record record = getLoadedRecord(interaction, name);
+		if (record != Record.EMPTY) {
+			return record.last;
 		}
 		return null;
 	}
 
 	public Long getVersionNameInvokes(boolean interaction, String name, String versionName) {
-		try {
-			JSONObject record = getRecord(interaction, name);
-			if (record != null && record.has(KEY_VERSION_NAME)) {
-				JSONObject versionNameJson = record.getJSONObject(KEY_VERSION_NAME);
-				if (versionNameJson.has(versionName)) {
-					return versionNameJson.getLong(versionName);
-				}
-			}
-		} catch (JSONException e) {
-			// Ignore
-		}
-		return 0L;
+		Long invokes = getLoadedRecord(interaction, name).versionNameInvokes.get(versionName);
+		return invokes != null ? invokes : 0L;
 	}
 
 	public Long getVersionCodeInvokes(boolean interaction, String name, String versionCode) {
-		try {
-			JSONObject record = getRecord(interaction, name);
-			if (record != null && record.has(KEY_VERSION_CODE)) {
-				JSONObject versionCodeJson = record.getJSONObject(KEY_VERSION_CODE);
-				if (versionCodeJson.has(versionCode)) {
-					return versionCodeJson.getLong(versionCode);
-				}
-			}
-		} catch (JSONException e) {
-			// Ignore
-		}
-		return 0L;
+		Long invokes = getLoadedRecord(interaction, name).versionCodeInvokes.get(versionCode);
+		return invokes != null ? invokes : 0L;
 	}
 
-	public String toString() {
-		return "CodePointStore:  " + store.toString();
+	public synchronized String toString() {
+		return "CodePointStore: " + (codePointRecords.size() + interactionRecords.size()) + " loaded records, " + pendingInvokes.size() + " pending invokes";
 	}
 
-	public void clear() {
+	public synchronized void clear() {
 		SharedPreferences prefs = ApptentiveInternal.getInstance().getSharedPrefs();
 		prefs.edit().remove(Constants.PREF_KEY_CODE_POINT_STORE).apply();
-		store = new JSONObject();
+		pendingInvokes.clear();
+		// The loaded names are still the ones that the targets refer to
+		clearRecords(codePointRecords);
+		clearRecords(interactionRecords);
+		recordStore.deleteAllCodePointRecords();
+	}
+
+	private static void clearRecords(Map<String, Record> records) {
+		for (Map.Entry<String, Record> entry : records.entrySet()) {
+			entry.setValue(Record.EMPTY);
+		}
+	}
+
+	/**
+	 * A single invocation of a code point or interaction.
+	 */
+	public static class Invoke {
+
+		public final boolean interaction;
+		public final String name;
+		public final String versionName;
+		public final String versionCode;
+		public final double time;
+
+		public Invoke(boolean interaction, String name, String versionName, String versionCode, double time) {
+			this.interaction = interaction;
+			this.name = name;
+			this.versionName = versionName;
+			this.versionCode = versionCode;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * Invocation counts for a single code point or interaction. Instances never change after they are created.
+	 */
+	public static class Record {
+
+		static final Record EMPTY = new Record(0, 0, Collections.<String, Long>emptyMap(), Collections.<String, Long>emptyMap());
+
+		final double last;
+		final long total;
+		final Map<String, Long> versionNameInvokes;
+		final Map<String, Long> versionCodeInvokes;
+
+		public Record(double last, long total, Map<String, Long> versionNameInvokes, Map<String, Long> versionCodeInvokes) {
+			this.last = last;
+			this.total = total;
+			this.versionNameInvokes = versionNameInvokes;
+			this.versionCodeInvokes = versionCodeInvokes;
+		}
+
+		public double getLast() {
+			return last;
+		}
+
+		public long getTotal() {
+			return total;
+		}
+
+		public Map<String, Long> getVersionNameInvokes() {
+			return Collections.unmodifiableMap(versionNameInvokes);
+		}
+
+		public Map<String, Long> getVersionCodeInvokes() {
+			return Collections.unmodifiableMap(versionCodeInvokes);
+		}
+
+		Record increment(Invoke invoke) {
+			return new Record(invoke.time, total + 1, increment(versionNameInvokes, invoke.versionName), increment(versionCodeInvokes, invoke.versionCode));
+		}
+
+		private static Map<String, Long> increment(Map<String, Long> invokes, String version) {
+			Map<String, Long> ret = new HashMap<String, Long>(invokes);
+			Long count = ret.get(version);
+			ret.put(version, count != null ? count + 1 : 1L);
+			return ret;
+		}
+
+		JSONObject toJson() throws JSONException {
+			JSONObject ret = new JSONObject();
+			ret.put(KEY_LAST, last);
+			ret.put(KEY_TOTAL, total);
+			ret.put(KEY_VERSION_NAME, new JSONObject(versionNameInvokes));
+			ret.put(KEY_VERSION_CODE, new JSONObject(versionCodeInvokes));
+			return ret;
+		}
+
+		static Record fromJson(JSONObject json) {
+			return new Record(json.optDouble(KEY_LAST, 0), json.optLong(KEY_TOTAL, 0), invokesFromJson(json.optJSONObject(KEY_VERSION_NAME)), invokesFromJson(json.optJSONObject(KEY_VERSION_CODE)));
+		}
+
+		private static Map<String, Long> invokesFromJson(JSONObject json) {
+			Map<String, Long> ret = new HashMap<String, Long>();
+			if (json != null) {
+				Iterator<String> versions = json.keys();
+				while (versions.hasNext()) {
+					String version = versions.next();
+					ret.put(version, json.optLong(version, 0));
+				}
+			}
+			return ret;
+		}
 	}
 }
@@ -14,6 +14,7 @@ import android.os.Bundle;
 
 import com.apptentive.android.sdk.ApptentiveInternal;
 import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.storage.PayloadQueueLimits;
 import com.apptentive.android.sdk.util.Constants;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -27,12 +28,33 @@ public class Configuration extends JSONObject {
 	private static final String KEY_MESSAGE_CENTER = "message_center";
 	private static final String KEY_MESSAGE_CENTER_FG_POLL = "fg_poll";
 	private static final String KEY_MESSAGE_CENTER_BG_POLL = "bg_poll";
+	private static final String KEY_MESSAGE_CENTER_MAX_POLL = "max_poll";
 	private static final String KEY_MESSAGE_CENTER_ENABLED = "message_center_enabled";
 	private static final String KEY_MESSAGE_CENTER_NOTIFICATION_POPUP = "notification_popup";
 	private static final String KEY_MESSAGE_CENTER_NOTIFICATION_POPUP_ENABLED = "enabled";
 
 	private static final String KEY_HIDE_BRANDING = "hide_branding";
 
+	private static final String KEY_PAYLOAD_BATCH = "payload_batch";
+	private static final String KEY_PAYLOAD_BATCH_MAX_COUNT = "max_count";
+	private static final String KEY_PAYLOAD_BATCH_MAX_BYTES = "max_bytes";
+
+	private static final String KEY_PAYLOAD_QUEUE = "payload_queue";
+
+	private static final String KEY_REQUEST_COMPRESSION = "request_compression";
+	private static final String KEY_REQUEST_COMPRESSION_ENABLED = "enabled";
+	private static final String KEY_REQUEST_COMPRESSION_MIN_BYTES = "min_bytes";
+
+	private static final String KEY_GROUP_COMMIT = "group_commit";
+	private static final String KEY_GROUP_COMMIT_MAX_LATENCY_MILLIS = "max_latency_ms";
+	private static final String KEY_GROUP_COMMIT_MAX_COUNT = "max_count";
+
+	private static final String KEY_IMAGE_CACHE = "image_cache";
+	private static final String KEY_IMAGE_CACHE_MAX_BYTES = "max_bytes";
+
+	private static final String KEY_BACKGROUND_QUEUE = "background_queue";
+	private static final String KEY_BACKGROUND_QUEUE_MAX_THREADS = "max_threads";
+
 	// This one is not sent in JSON, but as a header form the server.
 	private static final String KEY_CONFIGURATION_CACHE_EXPIRATION_MILLIS = "configuration_cache_expiration_millis";
 
@@ -128,6 +150,17 @@ public class Configuration extends JSONObject {
 		return Constants.CONFIG_DEFAULT_MESSAGE_CENTER_BG_POLL_SECONDS;
 	}
 
+	/**
+	 * The longest interval, in seconds, that message polling backs off to while polls keep coming back empty.
+	 */
+	public int getMessageCenterMaxPoll() {
+		JSONObject messageCenter = getMessageCenter();
+		if (messageCenter != null) {
+			return messageCenter.optInt(KEY_MESSAGE_CENTER_MAX_POLL, Constants.CONFIG_DEFAULT_MESSAGE_CENTER_MAX_POLL_SECONDS);
+		}
+		return Constants.CONFIG_DEFAULT_MESSAGE_CENTER_MAX_POLL_SECONDS;
+	}
+
 	public boolean isMessageCenterEnabled() {
 		try {
 			if (!isNull(KEY_MESSAGE_CENTER_ENABLED)) {
@@ -173,6 +206,113 @@ public class Configuration extends JSONObject {
 		return Constants.CONFIG_DEFAULT_HIDE_BRANDING;
 	}
 
+	private JSONObject getPayloadBatch() {
+		try {
+			if (!isNull(KEY_PAYLOAD_BATCH)) {
+				return getJSONObject(KEY_PAYLOAD_BATCH);
+			}
+		} catch (JSONException e) {
+			// Ignore
+		}
+		return null;
+	}
+
+	/**
+	 * @return The maximum number of payloads of the same type that can be sent in a single request. A value of 1 disables
+	 * batching.
+	 */
+	public int getPayloadBatchMaxCount() {
+		JSONObject payloadBatch = getPayloadBatch();
+		if (payloadBatch != null) {
+			return Math.max(1, payloadBatch.optInt(KEY_PAYLOAD_BATCH_MAX_COUNT, Constants.CONFIG_DEFAULT_PAYLOAD_BATCH_MAX_COUNT));
+		}
+		return Constants.CONFIG_DEFAULT_PAYLOAD_BATCH_MAX_COUNT;
+	}
+
+	/**
+	 * @return The maximum combined size, in bytes, of the payload json included in a single batch request.
+	 */
+	public int getPayloadBatchMaxBytes() {
+		JSONObject payloadBatch = getPayloadBatch();
+		if (payloadBatch != null) {
+			return payloadBatch.optInt(KEY_PAYLOAD_BATCH_MAX_BYTES, Constants.CONFIG_DEFAULT_PAYLOAD_BATCH_MAX_BYTES);
+		}
+		return Constants.CONFIG_DEFAULT_PAYLOAD_BATCH_MAX_BYTES;
+	}
+
+	/**
+	 * @return The caps on the payloads of each type waiting to be sent.
+	 */
+	public PayloadQueueLimits getPayloadQueueLimits() {
+		return PayloadQueueLimits.fromJson(optJSONObject(KEY_PAYLOAD_QUEUE));
+	}
+
+	/**
+	 * @return true if request bodies can be sent with Content-Encoding: gzip.
+	 */
+	public boolean isRequestCompressionEnabled() {
+		JSONObject requestCompression = optJSONObject(KEY_REQUEST_COMPRESSION);
+		if (requestCompression != null) {
+			return requestCompression.optBoolean(KEY_REQUEST_COMPRESSION_ENABLED, Constants.CONFIG_DEFAULT_REQUEST_COMPRESSION_ENABLED);
+		}
+		return Constants.CONFIG_DEFAULT_REQUEST_COMPRESSION_ENABLED;
+	}
+
+	/**
+	 * @return The size of the smallest request body worth compressing. Below it, the gzip header outweighs the savings.
+	 */
+	public int getRequestCompressionMinBytes() {
+		JSONObject requestCompression = optJSONObject(KEY_REQUEST_COMPRESSION);
+		if (requestCompression != null) {
+			return requestCompression.optInt(KEY_REQUEST_COMPRESSION_MIN_BYTES, Constants.CONFIG_DEFAULT_REQUEST_COMPRESSION_MIN_BYTES);
+		}
+		return Constants.CONFIG_DEFAULT_REQUEST_COMPRESSION_MIN_BYTES;
+	}
+
+	/**
+	 * @return How long a database write can wait to be committed together with others.
+	 */
+	public long getGroupCommitMaxLatencyMillis() {
+		JSONObject groupCommit = optJSONObject(KEY_GROUP_COMMIT);
+		if (groupCommit != null) {
+			return groupCommit.optLong(KEY_GROUP_COMMIT_MAX_LATENCY_MILLIS, Constants.CONFIG_DEFAULT_GROUP_COMMIT_MAX_LATENCY_MILLIS);
+		}
+		return Constants.CONFIG_DEFAULT_GROUP_COMMIT_MAX_LATENCY_MILLIS;
+	}
+
+	/**
+	 * @return The number of pending database writes that are committed without waiting any longer.
+	 */
+	public int getGroupCommitMaxCount() {
+		JSONObject groupCommit = optJSONObject(KEY_GROUP_COMMIT);
+		if (groupCommit != null) {
+			return groupCommit.optInt(KEY_GROUP_COMMIT_MAX_COUNT, Constants.CONFIG_DEFAULT_GROUP_COMMIT_MAX_COUNT);
+		}
+		return Constants.CONFIG_DEFAULT_GROUP_COMMIT_MAX_COUNT;
+	}
+
+	/**
+	 * @return The disk space that downloaded attachments and avatars can take up before the least recently used are evicted.
+	 */
+	public long getImageCacheMaxBytes() {
+		JSONObject imageCache = optJSONObject(KEY_IMAGE_CACHE);
+		if (imageCache != null) {
+			return imageCache.optLong(KEY_IMAGE_CACHE_MAX_BYTES, Constants.CONFIG_DEFAULT_IMAGE_CACHE_MAX_BYTES);
+		}
+		return Constants.CONFIG_DEFAULT_IMAGE_CACHE_MAX_BYTES;
+	}
+
+	/**
+	 * @return The number of background tasks the SDK runs at the same time.
+	 */
+	public int getBackgroundQueueMaxThreads() {
+		JSONObject backgroundQueue = optJSONObject(KEY_BACKGROUND_QUEUE);
+		if (backgroundQueue != null) {
+			return backgroundQueue.optInt(KEY_BACKGROUND_QUEUE_MAX_THREADS, Constants.CONFIG_DEFAULT_BACKGROUND_QUEUE_MAX_THREADS);
+		}
+		return Constants.CONFIG_DEFAULT_BACKGROUND_QUEUE_MAX_THREADS;
+	}
+
 	public long getConfigurationCacheExpirationMillis() {
 		try {
 			if (!isNull(KEY_CONFIGURATION_CACHE_EXPIRATION_MILLIS)) {
@@ -9,6 +9,7 @@ package com.apptentive.android.sdk.model;
 import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.util.Util;
 import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.util.UUID;
 
@@ -37,6 +38,10 @@ public abstract class ConversationItem extends Payload {
 		super(json);
 	}
 
+	protected ConversationItem(JSONObject json) throws JSONException {
+		super(json);
+	}
+
 	public void setNonce(String nonce) {
 		try {
 			put(KEY_NONCE, nonce);
@@ -136,7 +136,8 @@ public class Event extends ConversationItem {
 
 		app__launch("launch"),
 		app__exit("exit"),
-		error("error");
+		error("error"),
+		payload_queue__evict("payload_queue_evict");
 
 		private final String labelName;
 
@@ -11,11 +11,18 @@ import com.apptentive.android.sdk.ApptentiveLog;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Iterator;
+
 /**
  * @author Sky Kelsey
  */
 public abstract class Payload extends JSONObject {
 
+	// Payloads with a higher priority are sent first. See BaseType.getPriority()
+	public static final int PRIORITY_LOW = 0;
+	public static final int PRIORITY_NORMAL = 1;
+	public static final int PRIORITY_HIGH = 2;
+
 	// These two are not stored in the JSON, only the DB.
 	private Long databaseId;
 	private BaseType baseType;
@@ -29,6 +36,19 @@ public abstract class Payload extends JSONObject {
 		initBaseType();
 	}
 
+	/**
+	 * Takes the values of an object that was already parsed, for example as part of a larger response, rather than
+	 * parsing it again from a string. Nested objects are shared, not copied.
+	 */
+	public Payload(JSONObject json) throws JSONException {
+		Iterator<?> keys = json.keys();
+		while (keys.hasNext()) {
+			String key = (String) keys.next();
+			put(key, json.get(key));
+		}
+		initBaseType();
+	}
+
 	/**
 	 * Each subclass must set its type in this method.
 	 */
@@ -86,6 +106,22 @@ public abstract class Payload extends JSONObject {
 			return unknown;
 		}
 
+		/**
+		 * Payloads the person is waiting on, such as messages and survey responses, are sent before anything else.
+		 * Analytics events are sent last. Payloads with the same priority are sent in the order they were added.
+		 */
+		public int getPriority() {
+			switch (this) {
+				case message:
+				case survey:
+					return PRIORITY_HIGH;
+				case event:
+				case unknown:
+					return PRIORITY_LOW;
+				default:
+					return PRIORITY_NORMAL;
+			}
+		}
 	}
 
 	/**
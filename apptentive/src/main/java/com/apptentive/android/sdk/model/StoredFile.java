@@ -29,6 +29,11 @@ public class StoredFile {
 	private String apptentiveUri;
 	//creation time of original file; set to 0 if failed to retrieve creation time from original uri
 	private long creationTime;
+	/* For outgoing attachment, the size and MD5 checksum of the file at localFilePath once it is ready to upload.
+	 * 0 and null until the attachment has been prepared.
+	 */
+	private long size;
+	private String checksum;
 
 	public String getId() {
 		return id;
@@ -81,4 +86,20 @@ public class StoredFile {
 	public void setCreationTime(long time) {
 		creationTime = time;
 	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public void setSize(long size) {
+		this.size = size;
+	}
+
+	public String getChecksum() {
+		return checksum;
+	}
+
+	public void setChecksum(String checksum) {
+		this.checksum = checksum;
+	}
 }
@@ -7,13 +7,13 @@
 package com.apptentive.android.sdk.module.engagement.interaction;
 
 import android.content.SharedPreferences;
-import android.os.AsyncTask;
-import android.os.Build;
 
 import com.apptentive.android.sdk.ApptentiveInternal;
 import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.comm.ApptentiveClient;
 import com.apptentive.android.sdk.comm.ApptentiveHttpResponse;
+import com.apptentive.android.sdk.comm.HttpRequest;
+import com.apptentive.android.sdk.model.CodePointStore;
 import com.apptentive.android.sdk.module.engagement.interaction.model.Interactions;
 import com.apptentive.android.sdk.module.engagement.interaction.model.Interaction;
 import com.apptentive.android.sdk.module.engagement.interaction.model.InteractionsPayload;
@@ -21,15 +21,27 @@ import com.apptentive.android.sdk.module.engagement.interaction.model.Targets;
 import com.apptentive.android.sdk.module.metric.MetricModule;
 import com.apptentive.android.sdk.util.Constants;
 import com.apptentive.android.sdk.util.Util;
+import com.apptentive.android.sdk.util.threading.DispatchQueue;
+import com.apptentive.android.sdk.util.threading.DispatchTask;
 
 import org.json.JSONException;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class InteractionManager {
 
+	private static final HttpRequest.ResponseReader INTERACTIONS_PAYLOAD_READER = new HttpRequest.ResponseReader() {
+		@Override
+		public Object read(Reader reader) throws IOException, JSONException {
+			return InteractionsPayload.read(reader);
+		}
+	};
+
 	private Interactions interactions;
-	private Targets targets;
+	private volatile Targets targets;
 	private Boolean pollForInteractions;
 	// boolean to prevent multiple fetching threads
 	private AtomicBoolean isFetchPending = new AtomicBoolean(false);
@@ -45,13 +57,38 @@ public class InteractionManager {
 		return interactions;
 	}
 
+	/**
+	 * @return The targets, or null until they are received or {@link #loadStoredTargets()} has loaded them.
+	 */
 	public Targets getTargets() {
-		if (targets == null) {
-			targets = loadTargets();
-		}
 		return targets;
 	}
 
+	/**
+	 * Loads the targets saved by an earlier session, unless newer ones have been received already. This blocks while the
+	 * code point records that the criteria refer to are read from the database.
+	 */
+	public void loadStoredTargets() {
+		Targets targets = loadTargets();
+		if (targets != null) {
+			prepareTargets(targets);
+			synchronized (this) {
+				if (this.targets == null) {
+					this.targets = targets;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the criteria and loads the code point records they read, so that engaging an event only needs to evaluate
+	 * them.
+	 */
+	private static void prepareTargets(Targets targets) {
+		targets.compile();
+		ApptentiveInternal.getInstance().getCodePointStore().preload(targets.getCriteriaNames(CodePointStore.KEY_CODE_POINT), targets.getCriteriaNames(CodePointStore.KEY_INTERACTIONS));
+	}
+
 	public Interaction getApplicableInteraction(String eventLabel) {
 
 		Targets targets = getTargets();
@@ -74,51 +111,48 @@ public class InteractionManager {
 		}
 
 		boolean force = ApptentiveInternal.getInstance().isApptentiveDebuggable();
-		// Check isFetchPending to only allow one asyncTask at a time when fetching interaction
+		// Check isFetchPending to only allow one task at a time when fetching interaction
 		if (isFetchPending.compareAndSet(false, true) && (force || hasCacheExpired())) {
-			AsyncTask<Void, Void, Boolean> task = new AsyncTask<Void, Void, Boolean>() {
-				// Hold onto the exception from the AsyncTask instance for later handling in UI thread
-				private Exception e = null;
-
+			DispatchQueue.backgroundQueue().dispatchAsync(new DispatchTask() {
 				@Override
-				protected Boolean doInBackground(Void... params) {
+				protected void execute() {
+					boolean successful = false;
+					Exception exception = null;
 					try {
-						return fetchAndStoreInteractions();
+						successful = fetchAndStoreInteractions();
 					} catch (Exception e) {
-						this.e = e;
-					}
-					return false;
-				}
-
-				@Override
-				protected void onPostExecute(Boolean successful) {
-					isFetchPending.set(false);
-					if (e == null) {
-						ApptentiveLog.d("Fetching new Interactions asyncTask finished. Successful? %b", successful);
-						// Update pending state on UI thread after finishing the task
-						ApptentiveInternal.getInstance().notifyInteractionUpdated(successful);
-					} else {
-						ApptentiveLog.w("Unhandled Exception thrown from fetching new Interactions asyncTask", e);
-						MetricModule.sendError(e, null, null);
+						// Hold onto the exception for later handling in UI thread
+						exception = e;
 					}
+					final boolean fetchSuccessful = successful;
+					final Exception e = exception;
+					DispatchQueue.mainQueue().dispatchAsync(new DispatchTask() {
+						@Override
+						protected void execute() {
+							isFetchPending.set(false);
+							if (e == null) {
+								ApptentiveLog.d("Fetching new Interactions task finished. Successful? %b", fetchSuccessful);
+								// Update pending state on UI thread after finishing the task
+								ApptentiveInternal.getInstance().notifyInteractionUpdated(fetchSuccessful);
+							} else {
+								ApptentiveLog.w("Unhandled Exception thrown from fetching new Interactions task", e);
+								MetricModule.sendError(e, null, null);
+							}
+						}
+					});
 				}
-			};
-
-			ApptentiveLog.i("Fetching new Interactions asyncTask scheduled");
-			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-				task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-			} else {
-				task.execute();
-			}
+			});
+			ApptentiveLog.i("Fetching new Interactions task scheduled");
 		} else {
 			ApptentiveLog.v("Using cached Interactions.");
 		}
 	}
 
-	// This method will be run from a worker thread created by asyncTask
+	// This method will be run on the background queue
 	private boolean fetchAndStoreInteractions() {
-		ApptentiveLog.i("Fetching new Interactions asyncTask started");
-		ApptentiveHttpResponse response = ApptentiveClient.getInteractions();
+		ApptentiveLog.i("Fetching new Interactions task started");
+		// The manifest can be large, so it is parsed as it is read, rather than read into a string first
+		ApptentiveHttpResponse response = ApptentiveClient.getInteractions(INTERACTIONS_PAYLOAD_READER);
 
 		// We weren't able to connect to the internet.
 		SharedPreferences prefs = ApptentiveInternal.getInstance().getSharedPrefs();
@@ -134,8 +168,6 @@ public class InteractionManager {
 		}
 
 		if (updateSuccessful) {
-			String interactionsPayloadString = response.getContent();
-
 			// Store new integration cache expiration.
 			String cacheControl = response.getHeaders().get("Cache-Control");
 			Integer cacheSeconds = Util.parseCacheControlHeader(cacheControl);
@@ -143,7 +175,12 @@ public class InteractionManager {
 				cacheSeconds = Constants.CONFIG_DEFAULT_INTERACTION_CACHE_EXPIRATION_DURATION_SECONDS;
 			}
 			updateCacheExpiration(cacheSeconds);
-			storeInteractionsPayloadString(interactionsPayloadString);
+			InteractionsPayload payload = (InteractionsPayload) response.getParsedContent();
+			if (payload != null) {
+				storeInteractionsPayload(payload);
+			} else {
+				ApptentiveLog.w("Invalid InteractionsPayload received.");
+			}
 		}
 
 		return updateSuccessful;
@@ -154,19 +191,28 @@ public class InteractionManager {
 	 */
 	public void storeInteractionsPayloadString(String interactionsPayloadString) {
 		try {
-			InteractionsPayload payload = new InteractionsPayload(interactionsPayloadString);
-			Interactions interactions = payload.getInteractions();
-			Targets targets = payload.getTargets();
-			if (interactions != null && targets != null) {
+			storeInteractionsPayload(InteractionsPayload.read(new StringReader(interactionsPayloadString)));
+		} catch (JSONException e) {
+			ApptentiveLog.w("Invalid InteractionsPayload received.");
+		} catch (IOException e) {
+			ApptentiveLog.w("Invalid InteractionsPayload received.");
+		}
+	}
+
+	private void storeInteractionsPayload(InteractionsPayload payload) {
+		Interactions interactions = payload.getInteractions();
+		Targets targets = payload.getTargets();
+		if (interactions != null && targets != null) {
+			// Prepared here, on the worker thread, instead of on the first engage() of each event
+			prepareTargets(targets);
+			synchronized (this) {
 				this.interactions = interactions;
 				this.targets = targets;
-				saveInteractions();
-				saveTargets();
-			} else {
-				ApptentiveLog.e("Unable to save payloads.");
 			}
-		} catch (JSONException e) {
-			ApptentiveLog.w("Invalid InteractionsPayload received.");
+			saveInteractions();
+			saveTargets();
+		} else {
+			ApptentiveLog.e("Unable to save payloads.");
 		}
 	}
 
@@ -206,7 +252,9 @@ public class InteractionManager {
 		String targetsString = prefs.getString(Constants.PREF_KEY_TARGETS, null);
 		if (targetsString != null) {
 			try {
-				return new Targets(targetsString);
+				Targets targets = new Targets(targetsString);
+				targets.compile();
+				return targets;
 			} catch (JSONException e) {
 				ApptentiveLog.w("Exception creating Targets object.", e);
 			}
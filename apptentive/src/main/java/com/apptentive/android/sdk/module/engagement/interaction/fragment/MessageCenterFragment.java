@@ -24,6 +24,7 @@ import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentTransaction;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.text.Editable;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
@@ -58,6 +59,7 @@ import com.apptentive.android.sdk.module.messagecenter.view.AttachmentPreviewDia
 import com.apptentive.android.sdk.module.messagecenter.view.MessageCenterRecyclerView;
 import com.apptentive.android.sdk.module.messagecenter.view.MessageCenterRecyclerViewAdapter;
 import com.apptentive.android.sdk.module.messagecenter.view.holder.MessageComposerHolder;
+import com.apptentive.android.sdk.module.messagecenter.view.holder.OutgoingCompoundMessageHolder;
 import com.apptentive.android.sdk.module.metric.MetricModule;
 import com.apptentive.android.sdk.util.AnimationUtil;
 import com.apptentive.android.sdk.util.Constants;
@@ -66,6 +68,8 @@ import com.apptentive.android.sdk.util.image.ApptentiveAttachmentLoader;
 import com.apptentive.android.sdk.util.image.ApptentiveImageGridView;
 import com.apptentive.android.sdk.util.image.ImageGridViewAdapter;
 import com.apptentive.android.sdk.util.image.ImageItem;
+import com.apptentive.android.sdk.util.threading.DispatchQueue;
+import com.apptentive.android.sdk.util.threading.DispatchTask;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -81,6 +85,7 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
 
+import static com.apptentive.android.sdk.module.messagecenter.model.MessageCenterListItem.GREETING;
 import static com.apptentive.android.sdk.module.messagecenter.model.MessageCenterListItem.MESSAGE_COMPOSER;
 import static com.apptentive.android.sdk.module.messagecenter.model.MessageCenterListItem.MESSAGE_CONTEXT;
 import static com.apptentive.android.sdk.module.messagecenter.model.MessageCenterListItem.MESSAGE_OUTGOING;
@@ -90,6 +95,7 @@ import static com.apptentive.android.sdk.module.messagecenter.model.MessageCente
 public class MessageCenterFragment extends ApptentiveBaseFragment<MessageCenterInteraction> implements
 	OnListviewItemActionListener,
 	MessageManager.AfterSendMessageListener,
+	MessageManager.MessageUploadProgressListener,
 	MessageManager.OnNewIncomingMessagesListener,
 	OnMenuItemClickListener,
 	AbsListView.OnScrollListener,
@@ -122,6 +128,14 @@ public class MessageCenterFragment extends ApptentiveBaseFragment<MessageCenterI
 	private ArrayList<MessageCenterListItem> listItems = new ArrayList<MessageCenterListItem>();
 	private MessageCenterRecyclerViewAdapter messageCenterRecyclerViewAdapter;
 	private MessageCenterRecyclerView messageCenterRecyclerView;
+	// Shown until the newest messages have been loaded
+	private View loadingView;
+
+	// The oldest page of stored messages in listItems, which older pages are loaded from as the user scrolls up
+	private MessageManager.MessageCenterPage oldestLoadedPage;
+	private boolean loadingOlderMessages;
+	// Identifies the latest request for messages, so a result that arrives after the view was recreated is dropped
+	private int messagesRequest;
 
 	// Holder and view references
 	private MessageComposerHolder composer;
@@ -174,6 +188,12 @@ public class MessageCenterFragment extends ApptentiveBaseFragment<MessageCenterI
 	protected static final int MSG_ADD_GREETING = 16;
 	protected static final int MSG_ADD_STATUS_ERROR = 17;
 	protected static final int MSG_REMOVE_ATTACHMENT = 18;
+	protected static final int MSG_MESSAGE_UPLOAD_PROGRESS = 19;
+	protected static final int MSG_ADD_OLDER_MESSAGES = 20;
+	protected static final int MSG_ADD_NEWEST_MESSAGES = 21;
+
+	// Older messages start loading when the user scrolls up to within this many items of the top of the list
+	private static final int OLDER_MESSAGES_PREFETCH_DISTANCE = 10;
 
 	private MessageCenterFragment.MessagingActionHandler messagingActionHandler;
 
@@ -214,6 +234,7 @@ public class MessageCenterFragment extends ApptentiveBaseFragment<MessageCenterI
 		mgr.addInternalOnMessagesUpdatedListener(this);
 		// Give the MessageCenterView a callback when a message is sent.
 		mgr.setAfterSendMessageListener(this);
+		mgr.setMessageUploadProgressListener(this);
 
 
 		// Needed to prevent the window from being pushed up when a text input area is focused.
@@ -241,6 +262,8 @@ public class MessageCenterFragment extends ApptentiveBaseFragment<MessageCenterI
 		// messageCenterRecyclerViewAdapter holds a reference to fragment context. Need to set it to null in this and other Views to prevent a memory leak.
 		messageCenterRecyclerViewAdapter = null;
 		messageCenterRecyclerView.setAdapter(null);
+		loadingOlderMessages = false;
+		++messagesRequest;
 		composer = null;
 		composerEditText = null;
 		whoCardNameEditText = null;
@@ -359,9 +382,17 @@ public class MessageCenterFragment extends ApptentiveBaseFragment<MessageCenterI
 		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
 			messageCenterRecyclerView.setNestedScrollingEnabled(true);
 		}
-		LinearLayoutManager layoutManager = new LinearLayoutManager(this.getContext());
+		final LinearLayoutManager layoutManager = new LinearLayoutManager(this.getContext());
 		layoutManager.setOrientation(LinearLayoutManager.VERTICAL);
 		messageCenterRecyclerView.setLayoutManager(layoutManager);
+		messageCenterRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+			@Override
+			public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+				if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= OLDER_MESSAGES_PREFETCH_DISTANCE) {
+					loadOlderMessages();
+				}
+			}
+		});
 
 		fab = rootView.findViewById(R.id.composing_fab);
 		fab.setOnClickListener(new View.OnClickListener() {
@@ -374,46 +405,11 @@ public class MessageCenterFragment extends ApptentiveBaseFragment<MessageCenterI
 
 		messageCenterRecyclerViewAdapter = new MessageCenterRecyclerViewAdapter(this, this, interaction, listItems);
 
-		if (isInitialViewCreation) {
-			List<MessageCenterListItem> items = ApptentiveInternal.getInstance().getMessageManager().getMessageCenterListItems();
-			if (items != null) {
-				// Get message list from DB, and use this as the starting point for the listItems array.
-				prepareMessages(items);
-			}
+		loadingView = rootView.findViewById(R.id.message_center_loading);
 
-			String contextMessageBody = interaction.getContextualMessageBody();
-			if (contextMessageBody != null) {
-				// Clear any pending composing message to present an empty composing area
-				clearPendingComposingMessage();
-				messagingActionHandler.sendEmptyMessage(MSG_REMOVE_STATUS);
-				messagingActionHandler.sendMessage(messagingActionHandler.obtainMessage(MSG_ADD_CONTEXT_MESSAGE, new ContextMessage(contextMessageBody)));
-				// If checkAddWhoCardIfRequired returns true, it will add WhoCard, otherwise add composing card
-				if (!checkAddWhoCardIfRequired()) {
-					addedAnInteractiveCard = true;
-					forceShowKeyboard = false;
-					addComposingCard();
-				}
-			}
-
-			/* Add who card with pending contents
-			** Pending contents would be saved if the user was in composing Who card mode and exited through back button
-			 */
-			else if (pendingWhoCardName != null || pendingWhoCardEmail != null || pendingWhoCardAvatarFile != null) {
-				addedAnInteractiveCard = true;
-				addWhoCard(pendingWhoCardMode);
-			} else if (!checkAddWhoCardIfRequired()) {
-				/* If there are no items in the list, then it means that the Greeting will be added, but nothing else.
-				 * In that case, show the Composer, because Message Center hasn't been opened before.
-				 * If Who Card is required, show Who Card first.
-				 */
-				if (listItems.size() == 0) {
-					addedAnInteractiveCard = true;
-					addComposingCard();
-				} else {
-					// Finally check if status message need to be restored
-					addExpectationStatusIfNeeded();
-				}
-			}
+		if (isInitialViewCreation || oldestLoadedPage == null) {
+			// Also reloads the newest messages if the view was recreated before they had been added
+			loadNewestMessages();
 		} else {
 			// Need to account for an input view that was added before orientation change, etc.
 			if (listItems != null) {
@@ -430,7 +426,9 @@ public class MessageCenterFragment extends ApptentiveBaseFragment<MessageCenterI
 		// Calculate FAB y-offset
 		fabPaddingPixels = calculateFabPadding(rootView.getContext());
 
-		if (!addedAnInteractiveCard) {
+		if (oldestLoadedPage == null) {
+			loadingView.setVisibility(View.VISIBLE);
+		} else if (!addedAnInteractiveCard) {
 			showFab();
 		}
 
@@ -533,6 +531,7 @@ public class MessageCenterFragment extends ApptentiveBaseFragment<MessageCenterI
 
 		mgr.clearInternalOnMessagesUpdatedListeners();
 		mgr.setAfterSendMessageListener(null);
+		mgr.setMessageUploadProgressListener(null);
 
 		ApptentiveInternal.getInstance().getAndClearCustomData();
 		ApptentiveAttachmentLoader.getInstance().clearMemoryCache();
@@ -758,6 +757,11 @@ public class MessageCenterFragment extends ApptentiveBaseFragment<MessageCenterI
 		}
 	}
 
+	public void onMessageUploadProgress(ApptentiveMessage apptentiveMessage, int progress) {
+		messagingActionHandler.sendMessage(messagingActionHandler.obtainMessage(MSG_MESSAGE_UPLOAD_PROGRESS, progress, 0,
+			apptentiveMessage.getNonce()));
+	}
+
 	public synchronized void onPauseSending(int reason) {
 		messagingActionHandler.sendMessage(messagingActionHandler.obtainMessage(MSG_PAUSE_SENDING, reason, 0));
 	}
@@ -1185,6 +1189,12 @@ public class MessageCenterFragment extends ApptentiveBaseFragment<MessageCenterI
 	private void prepareMessages(final List<MessageCenterListItem> originalItems) {
 		listItems.clear();
 		unsentMessagesCount = 0;
+		listItems.addAll(sortMessages(originalItems));
+		messagingActionHandler.sendEmptyMessage(MSG_ADD_GREETING);
+	}
+
+	private List<MessageCenterListItem> sortMessages(final List<MessageCenterListItem> originalItems) {
+		List<MessageCenterListItem> sortedItems = new ArrayList<MessageCenterListItem>(originalItems.size());
 		// Loop through each message item retrieved from database
 		for (MessageCenterListItem item : originalItems) {
 			if (item instanceof ApptentiveMessage) {
@@ -1197,7 +1207,7 @@ public class MessageCenterFragment extends ApptentiveBaseFragment<MessageCenterI
 				/*
 				 * Find proper location to insert into the listItems list of the listview.
 				 */
-				ListIterator<MessageCenterListItem> listIterator = listItems.listIterator();
+				ListIterator<MessageCenterListItem> listIterator = sortedItems.listIterator();
 				ApptentiveMessage next = null;
 				while (listIterator.hasNext()) {
 					next = (ApptentiveMessage) listIterator.next();
@@ -1222,7 +1232,121 @@ public class MessageCenterFragment extends ApptentiveBaseFragment<MessageCenterI
 				}
 			}
 		}
-		messagingActionHandler.sendEmptyMessage(MSG_ADD_GREETING);
+		return sortedItems;
+	}
+
+	/**
+	 * Loads the newest messages off the main thread. They are the starting point for the listItems array, and older
+	 * ones are loaded as the user scrolls up.
+	 */
+	private void loadNewestMessages() {
+		final int request = ++messagesRequest;
+		final Handler handler = messagingActionHandler;
+		DispatchQueue.backgroundQueue().dispatchAsync(new DispatchTask() {
+			@Override
+			protected void execute() {
+				MessageManager.MessageCenterPage newestPage = ApptentiveInternal.getInstance().getMessageManager().getMessageCenterPage(null);
+				handler.sendMessage(handler.obtainMessage(MSG_ADD_NEWEST_MESSAGES, request, 0, newestPage));
+			}
+		});
+	}
+
+	private void addNewestMessages(MessageManager.MessageCenterPage newestPage) {
+		oldestLoadedPage = newestPage;
+		loadingView.setVisibility(View.GONE);
+
+		// Keep any message that was added to the list while the page was loading
+		List<MessageCenterListItem> items = new ArrayList<MessageCenterListItem>(newestPage.getItems());
+		Set<String> loadedNonces = new HashSet<String>();
+		for (MessageCenterListItem item : items) {
+			if (item instanceof ApptentiveMessage) {
+				loadedNonces.add(((ApptentiveMessage) item).getNonce());
+			}
+		}
+		for (MessageCenterListItem item : listItems) {
+			if (item instanceof ApptentiveMessage && !loadedNonces.contains(((ApptentiveMessage) item).getNonce())) {
+				items.add(item);
+			}
+		}
+		prepareMessages(items);
+		messageCenterRecyclerViewAdapter.notifyDataSetChanged();
+
+		boolean addedAnInteractiveCard = false;
+		String contextMessageBody = interaction.getContextualMessageBody();
+		if (contextMessageBody != null) {
+			// Clear any pending composing message to present an empty composing area
+			clearPendingComposingMessage();
+			messagingActionHandler.sendEmptyMessage(MSG_REMOVE_STATUS);
+			messagingActionHandler.sendMessage(messagingActionHandler.obtainMessage(MSG_ADD_CONTEXT_MESSAGE, new ContextMessage(contextMessageBody)));
+			// If checkAddWhoCardIfRequired returns true, it will add WhoCard, otherwise add composing card
+			if (!checkAddWhoCardIfRequired()) {
+				addedAnInteractiveCard = true;
+				forceShowKeyboard = false;
+				addComposingCard();
+			}
+		}
+
+		/* Add who card with pending contents
+		** Pending contents would be saved if the user was in composing Who card mode and exited through back button
+		 */
+		else if (pendingWhoCardName != null || pendingWhoCardEmail != null || pendingWhoCardAvatarFile != null) {
+			addedAnInteractiveCard = true;
+			addWhoCard(pendingWhoCardMode);
+		} else if (!checkAddWhoCardIfRequired()) {
+			/* If there are no items in the list, then it means that the Greeting will be added, but nothing else.
+			 * In that case, show the Composer, because Message Center hasn't been opened before.
+			 * If Who Card is required, show Who Card first.
+			 */
+			if (listItems.size() == 0) {
+				addedAnInteractiveCard = true;
+				addComposingCard();
+			} else {
+				// Finally check if status message need to be restored
+				addExpectationStatusIfNeeded();
+			}
+		}
+
+		if (!addedAnInteractiveCard) {
+			showFab();
+		}
+		updateMessageSentStates();
+		messagingActionHandler.sendEmptyMessageDelayed(MSG_SCROLL_TO_BOTTOM, DEFAULT_DELAYMILLIS);
+	}
+
+	/**
+	 * Loads the page of messages before the oldest one shown, off the main thread.
+	 */
+	private void loadOlderMessages() {
+		if (loadingOlderMessages || oldestLoadedPage == null || !oldestLoadedPage.hasMore()) {
+			return;
+		}
+		loadingOlderMessages = true;
+		final MessageManager.MessageCenterPage newerPage = oldestLoadedPage;
+		final int request = ++messagesRequest;
+		final Handler handler = messagingActionHandler;
+		DispatchQueue.backgroundQueue().dispatchAsync(new DispatchTask() {
+			@Override
+			protected void execute() {
+				MessageManager.MessageCenterPage olderPage = ApptentiveInternal.getInstance().getMessageManager().getMessageCenterPage(newerPage);
+				handler.sendMessage(handler.obtainMessage(MSG_ADD_OLDER_MESSAGES, request, 0, olderPage));
+			}
+		});
+	}
+
+	private void addOlderMessages(MessageManager.MessageCenterPage olderPage) {
+		loadingOlderMessages = false;
+		oldestLoadedPage = olderPage;
+		List<MessageCenterListItem> olderItems = sortMessages(olderPage.getItems());
+		if (olderItems.isEmpty()) {
+			return;
+		}
+		// Older messages go above the rest, below the greeting
+		int insertIndex = 0;
+		if (!listItems.isEmpty() && listItems.get(0).getListItemType() == GREETING) {
+			insertIndex = 1;
+		}
+		listItems.addAll(insertIndex, olderItems);
+		messageCenterRecyclerViewAdapter.notifyItemRangeInserted(insertIndex, olderItems.size());
 	}
 
 	@Override
@@ -1496,6 +1620,18 @@ public class MessageCenterFragment extends ApptentiveBaseFragment<MessageCenterI
 					fragment.messageCenterRecyclerViewAdapter.notifyItemInserted(fragment.listItems.size() - 1);
 					break;
 				}
+				case MSG_ADD_NEWEST_MESSAGES: {
+					if (msg.arg1 == fragment.messagesRequest) {
+						fragment.addNewestMessages((MessageManager.MessageCenterPage) msg.obj);
+					}
+					break;
+				}
+				case MSG_ADD_OLDER_MESSAGES: {
+					if (msg.arg1 == fragment.messagesRequest) {
+						fragment.addOlderMessages((MessageManager.MessageCenterPage) msg.obj);
+					}
+					break;
+				}
 				case MSG_ADD_GREETING: {
 					fragment.listItems.add(0, fragment.interaction.getGreeting());
 					fragment.messageCenterRecyclerViewAdapter.notifyItemInserted(0);
@@ -1524,6 +1660,19 @@ public class MessageCenterFragment extends ApptentiveBaseFragment<MessageCenterI
 					fragment.messageCenterRecyclerViewAdapter.removeImageFromComposer(fragment.composer, position);
 					break;
 				}
+				case MSG_MESSAGE_UPLOAD_PROGRESS: {
+					String nonce = (String) msg.obj;
+					// Only the attached holders can show progress, so look for the message among them rather than the whole list.
+					// It is updated in place, rather than rebinding the message and its images on every step.
+					for (int i = 0; i < fragment.messageCenterRecyclerView.getChildCount(); i++) {
+						RecyclerView.ViewHolder holder = fragment.messageCenterRecyclerView.getChildViewHolder(fragment.messageCenterRecyclerView.getChildAt(i));
+						if (holder instanceof OutgoingCompoundMessageHolder && TextUtils.equals(nonce, ((OutgoingCompoundMessageHolder) holder).getNonce())) {
+							((OutgoingCompoundMessageHolder) holder).setUploadProgress(msg.arg1);
+							break;
+						}
+					}
+					break;
+				}
 			}
 		}
 	}
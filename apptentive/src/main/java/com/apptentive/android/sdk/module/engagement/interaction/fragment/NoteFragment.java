@@ -27,6 +27,7 @@ import com.apptentive.android.sdk.module.engagement.interaction.model.TextModalI
 import com.apptentive.android.sdk.module.engagement.interaction.model.common.Action;
 import com.apptentive.android.sdk.module.engagement.interaction.model.common.Actions;
 import com.apptentive.android.sdk.module.engagement.interaction.model.common.LaunchInteractionAction;
+import com.apptentive.android.sdk.module.engagement.logic.EvaluationContext;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -123,8 +124,9 @@ public class NoteFragment extends ApptentiveBaseFragment<TextModalInteraction> {
 								LaunchInteractionAction launchInteractionButton = (LaunchInteractionAction) buttonAction;
 								List<Invocation> invocations = launchInteractionButton.getInvocations();
 								String interactionIdToLaunch = null;
+								EvaluationContext context = new EvaluationContext();
 								for (Invocation invocation : invocations) {
-									if (invocation.isCriteriaMet()) {
+									if (invocation.isCriteriaMet(context)) {
 										interactionIdToLaunch = invocation.getInteractionId();
 										break;
 									}
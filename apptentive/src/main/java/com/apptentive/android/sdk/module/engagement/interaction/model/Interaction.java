@@ -112,6 +112,13 @@ public abstract class Interaction extends JSONObject {
 	}
 
 	public static class Factory {
+		/**
+		 * @return true if the interaction has an id and is of a type that {@link #parseInteraction(String)} can build.
+		 */
+		static boolean isSupported(JSONObject interaction) {
+			return !interaction.isNull(KEY_ID) && interaction.has(KEY_TYPE) && Type.parse(interaction.optString(KEY_TYPE)) != Type.unknown;
+		}
+
 		public static Interaction parseInteraction(String interactionString) {
 			if (interactionString == null) {
 				return null;
@@ -9,8 +9,10 @@ package com.apptentive.android.sdk.module.engagement.interaction.model;
 import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.module.engagement.logic.Clause;
 import com.apptentive.android.sdk.module.engagement.logic.ClauseParser;
+import com.apptentive.android.sdk.module.engagement.logic.EvaluationContext;
 
 import org.json.JSONException;
+import org.json.JSONObject;
 
 /**
  * @author Sky Kelsey
@@ -18,25 +20,54 @@ import org.json.JSONException;
 public class InteractionCriteria {
 
 	private String json;
+	private JSONObject criteriaObject;
+
+	// The clause tree is built only once, and then evaluated every time the criteria are checked.
+	private Clause rootClause;
+	private boolean compiled;
 
 	public InteractionCriteria(String json) throws JSONException {
 		this.json = json;
 	}
 
+	InteractionCriteria(JSONObject criteriaObject) {
+		this.criteriaObject = criteriaObject;
+	}
+
+	/**
+	 * Parses the criteria into a tree of clauses, if that hasn't been done yet.
+	 *
+	 * @return false if the criteria can't be parsed, in which case they are never met.
+	 */
+	public synchronized boolean compile() {
+		if (!compiled) {
+			compiled = true;
+			try {
+				rootClause = criteriaObject != null ? ClauseParser.parse(null, criteriaObject) : ClauseParser.parse(json);
+			} catch (JSONException e) {
+				ApptentiveLog.w("Error parsing InteractionCriteria predicate logic.", e);
+			} catch (Exception e) {
+				ApptentiveLog.w("Error parsing InteractionCriteria predicate logic.", e);
+			}
+		}
+		return rootClause != null;
+	}
+
 	public boolean isMet() {
+		return isMet(new EvaluationContext());
+	}
+
+	public boolean isMet(EvaluationContext context) {
 		try {
-			Clause rootClause = ClauseParser.parse(json);
-			ApptentiveLog.i("Evaluating Criteria");
 			boolean ret = false;
-			if (rootClause != null) {
-				ret = rootClause.evaluate();
+			if (compile()) {
+				ApptentiveLog.i("Evaluating Criteria");
+				ret = rootClause.evaluate(context);
 			}
 			ApptentiveLog.i("- => %b", ret);
 			return ret;
-		} catch (JSONException e) {
-			ApptentiveLog.w("Error parsing and running InteractionCriteria predicate logic.", e);
 		} catch (Exception e) {
-			ApptentiveLog.w("Error parsing and running InteractionCriteria predicate logic.", e);
+			ApptentiveLog.w("Error running InteractionCriteria predicate logic.", e);
 		}
 		return false;
 	}
@@ -7,26 +7,81 @@
 package com.apptentive.android.sdk.module.engagement.interaction.model;
 
 import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.util.JsonPullParser;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Reader;
+
 /**
  * @author Sky Kelsey
  */
 public class InteractionsPayload extends JSONObject {
 
+	// Set when the payload was read with read(Reader)
+	private Interactions interactions;
+	private Targets targets;
+
 	public InteractionsPayload(String json) throws JSONException {
 		super(json);
 	}
 
+	private InteractionsPayload() {
+	}
+
+	/**
+	 * Reads the payload as it streams in, building the interactions map and the targets straight from the input, rather
+	 * than parsing the whole payload into a tree and converting each part back to a string to be parsed again.
+	 */
+	public static InteractionsPayload read(Reader reader) throws IOException, JSONException {
+		InteractionsPayload payload = new InteractionsPayload();
+		JsonPullParser parser = new JsonPullParser(reader);
+		parser.beginObject();
+		while (parser.hasNext()) {
+			String name = parser.nextName();
+			if (Interactions.KEY_NAME.equals(name) && parser.peek() == JsonPullParser.Token.BEGIN_ARRAY) {
+				payload.interactions = readInteractions(parser);
+			} else if (Targets.KEY_NAME.equals(name) && parser.peek() == JsonPullParser.Token.BEGIN_OBJECT) {
+				payload.targets = parser.readObject(new Targets());
+			} else {
+				parser.skipValue();
+			}
+		}
+		parser.endObject();
+		return payload;
+	}
+
+	private static Interactions readInteractions(JsonPullParser parser) throws IOException, JSONException {
+		Interactions interactions = new Interactions();
+		parser.beginArray();
+		while (parser.hasNext()) {
+			if (parser.peek() != JsonPullParser.Token.BEGIN_OBJECT) {
+				parser.skipValue();
+				continue;
+			}
+			JSONObject interaction = parser.readObject(new JSONObject());
+			if (Interaction.Factory.isSupported(interaction)) {
+				interactions.put(interaction.getString(Interaction.KEY_ID), interaction);
+			} else {
+				// This is an unknown Interaction type. Probably for a future SDK version.
+			}
+		}
+		parser.endArray();
+		return interactions;
+	}
+
 	/**
 	 * In addition to returning the Interactions contained in this payload, this method reformats the Interactions from a
 	 * list into a map. The map is then used for further Interaction lookup.
 	 * @return
 	 */
 	public Interactions getInteractions() {
+		if (interactions != null) {
+			return interactions;
+		}
 		try {
 			if (!isNull(Interactions.KEY_NAME)) {
 				Object obj = get(Interactions.KEY_NAME);
@@ -51,6 +106,9 @@ public class InteractionsPayload extends JSONObject {
 	}
 
 	public Targets getTargets() {
+		if (targets != null) {
+			return targets;
+		}
 		try {
 			if (!isNull(Targets.KEY_NAME)) {
 				Object targets = get(Targets.KEY_NAME);
@@ -6,6 +6,8 @@
 
 package com.apptentive.android.sdk.module.engagement.interaction.model;
 
+import com.apptentive.android.sdk.module.engagement.logic.EvaluationContext;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -17,8 +19,12 @@ public class Invocation extends JSONObject {
 	private static final String KEY_INTERACTION_ID = "interaction_id";
 	private static final String KEY_CRITERIA = "criteria";
 
+	private final InteractionCriteria criteria;
+
 	public Invocation(String json) throws JSONException {
 		super(json);
+		JSONObject criteriaObject = optJSONObject(KEY_CRITERIA);
+		criteria = criteriaObject != null ? new InteractionCriteria(criteriaObject) : null;
 	}
 
 	public String getInteractionId() {
@@ -32,16 +38,20 @@ public class Invocation extends JSONObject {
 		return null;
 	}
 
-	public boolean isCriteriaMet() {
-		try {
-			if (!isNull(KEY_CRITERIA)) {
-				JSONObject criteriaObject = getJSONObject(KEY_CRITERIA);
-				InteractionCriteria criteria = new InteractionCriteria(criteriaObject.toString());
-				return criteria.isMet();
-			}
-		} catch (JSONException e) {
-			// Ignore
+	/**
+	 * Builds the clause tree of the criteria ahead of the first evaluation.
+	 */
+	public void compile() {
+		if (criteria != null) {
+			criteria.compile();
 		}
-		return false;
+	}
+
+	public boolean isCriteriaMet() {
+		return isCriteriaMet(new EvaluationContext());
+	}
+
+	public boolean isCriteriaMet(EvaluationContext context) {
+		return criteria != null && criteria.isMet(context);
 	}
 }
@@ -7,11 +7,22 @@
 package com.apptentive.android.sdk.module.engagement.interaction.model;
 
 import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.model.CodePointStore;
+import com.apptentive.android.sdk.module.engagement.logic.EvaluationContext;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * @author Sky Kelsey
  */
@@ -19,28 +30,100 @@ public class Targets extends JSONObject {
 
 	public static final String KEY_NAME = "targets";
 
+	// Invocations with pre-built criteria, keyed by event label. They live as long as this object, so new targets from
+	// the server start with an empty cache.
+	private final Map<String, List<Invocation>> invocationsByEventLabel = new HashMap<String, List<Invocation>>();
+
 	public Targets(String json) throws JSONException {
 		super(json);
 	}
 
-	public String getApplicableInteraction(String eventLabel) {
-		JSONArray invocations = optJSONArray(eventLabel);
-		if (invocations != null) {
-			for (int i = 0; i < invocations.length(); i++) {
-				JSONObject invocationObject = invocations.optJSONObject(i);
-				if (invocationObject != null) {
-					try {
-						Invocation invocation = new Invocation(invocationObject.toString());
-						if (invocation.isCriteriaMet()) {
-							return invocation.getInteractionId();
-						}
-					} catch (JSONException e) {
-						//
-					}
+	// Filled in by a parser
+	Targets() {
+	}
+
+	/**
+	 * Builds the invocations and criteria clause trees for every event label, so that engaging an event only needs to
+	 * evaluate them.
+	 */
+	public void compile() {
+		Iterator<String> eventLabels = keys();
+		while (eventLabels.hasNext()) {
+			for (Invocation invocation : getInvocations(eventLabels.next())) {
+				invocation.compile();
+			}
+		}
+	}
+
+	/**
+	 * @param recordType {@link CodePointStore#KEY_CODE_POINT} or {@link CodePointStore#KEY_INTERACTIONS}
+	 * @return The names of the code points or interactions that the criteria read, such as
+	 * <code>"local#app#launch"</code> for <code>"code_point/local#app#launch/invokes/total"</code>.
+	 */
+	public Set<String> getCriteriaNames(String recordType) {
+		Set<String> names = new HashSet<String>();
+		collectCriteriaNames(this, recordType, names);
+		return names;
+	}
+
+	private static void collectCriteriaNames(Object value, String recordType, Set<String> names) {
+		if (value instanceof JSONObject) {
+			JSONObject object = (JSONObject) value;
+			Iterator<String> keys = object.keys();
+			while (keys.hasNext()) {
+				String key = keys.next();
+				String[] tokens = key.trim().split("/");
+				if (tokens.length > 1 && tokens[0].equals(recordType)) {
+					names.add(tokens[1]);
 				}
+				collectCriteriaNames(object.opt(key), recordType, names);
+			}
+		} else if (value instanceof JSONArray) {
+			JSONArray array = (JSONArray) value;
+			for (int i = 0; i < array.length(); i++) {
+				collectCriteriaNames(array.opt(i), recordType, names);
+			}
+		}
+	}
+
+	public String getApplicableInteraction(String eventLabel) {
+		// All invocations are evaluated against the same snapshot of person, device and code point data.
+		EvaluationContext context = new EvaluationContext();
+		for (Invocation invocation : getInvocations(eventLabel)) {
+			if (invocation.isCriteriaMet(context)) {
+				return invocation.getInteractionId();
 			}
 		}
 		ApptentiveLog.v("No runnable Interactions for EventLabel: %s", eventLabel);
 		return null;
 	}
+
+	private synchronized List<Invocation> getInvocations(String eventLabel) {
+		List<Invocation> invocations = invocationsByEventLabel.get(eventLabel);
+		if (invocations == null) {
+			JSONArray invocationObjects = optJSONArray(eventLabel);
+			if (invocationObjects == null) {
+				// Not cached, so that events without targets don't grow the cache
+				return Collections.emptyList();
+			}
+			invocations = parseInvocations(invocationObjects);
+			invocationsByEventLabel.put(eventLabel, invocations);
+		}
+		return invocations;
+	}
+
+	private static List<Invocation> parseInvocations(JSONArray invocationObjects) {
+		List<Invocation> invocations = new ArrayList<Invocation>(invocationObjects.length());
+		for (int i = 0; i < invocationObjects.length(); i++) {
+			JSONObject invocationObject = invocationObjects.optJSONObject(i);
+			if (invocationObject != null) {
+				try {
+					invocations.add(new Invocation(invocationObject.toString()));
+				} catch (JSONException e) {
+					//
+				}
+			}
+		}
+		return invocations;
+	}
 }
@@ -9,4 +9,9 @@ package com.apptentive.android.sdk.module.engagement.logic;
 public interface Clause {
 
 	boolean evaluate();
+
+	/**
+	 * Evaluates this clause with data that can be shared with other clauses, such as the rest of the same criteria.
+	 */
+	boolean evaluate(EvaluationContext context);
 }
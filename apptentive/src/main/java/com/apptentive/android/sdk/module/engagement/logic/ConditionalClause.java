@@ -24,10 +24,12 @@ public class ConditionalClause implements Clause {
 	private static final String KEY_COMPLEX_TYPE = "_type";
 
 	String fieldName;
+	FieldAccessor field;
 	List<ConditionalTest> conditionalTests;
 
 	public ConditionalClause(String field, Object inputValue) {
 		this.fieldName = field.trim();
+		this.field = FieldAccessor.compile(fieldName);
 		conditionalTests = new ArrayList<ConditionalTest>();
 
 		ApptentiveLog.v("    + ConditionalClause for query: \"%s\"", fieldName);
@@ -56,15 +58,20 @@ public class ConditionalClause implements Clause {
 		return jsonObject != null && !jsonObject.isNull(KEY_COMPLEX_TYPE);
 	}
 
+	@Override
+	public boolean evaluate() {
+		return evaluate(new EvaluationContext());
+	}
+
 	/**
 	 * The test in this conditional clause are implicitly ANDed together, so return false if any of them is false, and continue the loop for each test that is true;
 	 *
 	 * @return
 	 */
 	@Override
-	public boolean evaluate() {
+	public boolean evaluate(EvaluationContext context) {
 		ApptentiveLog.v("    - %s", fieldName);
-		Comparable fieldValue = FieldManager.getValue(fieldName);
+		Comparable fieldValue = FieldManager.getValue(field, context);
 		for (ConditionalTest test : conditionalTests) {
 			ApptentiveLog.v("      - %s %s %s?", Util.classToString(fieldValue), test.operator, Util.classToString(test.parameter));
 			if (!test.operator.apply(fieldValue, test.parameter)) {
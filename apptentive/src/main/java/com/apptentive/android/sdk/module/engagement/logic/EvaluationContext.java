@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.module.engagement.logic;
+
+import com.apptentive.android.sdk.Apptentive;
+import com.apptentive.android.sdk.ApptentiveInternal;
+import com.apptentive.android.sdk.model.CodePointStore;
+import com.apptentive.android.sdk.model.Device;
+import com.apptentive.android.sdk.model.Person;
+import com.apptentive.android.sdk.storage.DeviceManager;
+import com.apptentive.android.sdk.storage.PersonManager;
+import com.apptentive.android.sdk.storage.VersionHistoryStore;
+import com.apptentive.android.sdk.util.Util;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The data that criteria are evaluated against. Each piece is loaded the first time a field asks for it, and then
+ * reused by every other clause evaluated with the same context. Create one context per engage() call, so that a set of
+ * criteria with many person or device conditions reads the stored Person and Device only once.
+ */
+public class EvaluationContext {
+
+	private Person person;
+	private boolean personLoaded;
+
+	private Device device;
+	private boolean deviceLoaded;
+
+	private Integer appVersionCode;
+	private String appVersionName;
+	private boolean appVersionNameLoaded;
+
+	private CodePointStore codePointStore;
+
+	private final Map<VersionHistoryStore.Selector, Boolean> isUpdate = new EnumMap<VersionHistoryStore.Selector, Boolean>(VersionHistoryStore.Selector.class);
+	private final Map<VersionHistoryStore.Selector, Apptentive.DateTime> timeAtInstall = new EnumMap<VersionHistoryStore.Selector, Apptentive.DateTime>(VersionHistoryStore.Selector.class);
+
+	public Person getPerson() {
+		if (!personLoaded) {
+			person = PersonManager.getStoredPerson();
+			personLoaded = true;
+		}
+		return person;
+	}
+
+	public Device getDevice() {
+		if (!deviceLoaded) {
+			device = DeviceManager.getStoredDevice();
+			deviceLoaded = true;
+		}
+		return device;
+	}
+
+	/**
+	 * @return The version code of the app, or -1 if it can't be read.
+	 */
+	public int getAppVersionCode() {
+		if (appVersionCode == null) {
+			appVersionCode = Util.getAppVersionCode(ApptentiveInternal.getInstance().getApplicationContext());
+		}
+		return appVersionCode;
+	}
+
+	public String getAppVersionName() {
+		if (!appVersionNameLoaded) {
+			appVersionName = Util.getAppVersionName(ApptentiveInternal.getInstance().getApplicationContext());
+			appVersionNameLoaded = true;
+		}
+		return appVersionName;
+	}
+
+	public CodePointStore getCodePointStore() {
+		if (codePointStore == null) {
+			codePointStore = ApptentiveInternal.getInstance().getCodePointStore();
+		}
+		return codePointStore;
+	}
+
+	public boolean isUpdate(VersionHistoryStore.Selector selector) {
+		Boolean ret = isUpdate.get(selector);
+		if (ret == null) {
+			ret = VersionHistoryStore.isUpdate(selector);
+			isUpdate.put(selector, ret);
+		}
+		return ret;
+	}
+
+	public Apptentive.DateTime getTimeAtInstall(VersionHistoryStore.Selector selector) {
+		Apptentive.DateTime ret = timeAtInstall.get(selector);
+		if (ret == null) {
+			ret = VersionHistoryStore.getTimeAtInstall(selector);
+			timeAtInstall.put(selector, ret);
+		}
+		return ret;
+	}
+}
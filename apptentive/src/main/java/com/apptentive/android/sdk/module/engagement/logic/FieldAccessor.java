@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.module.engagement.logic;
+
+/**
+ * A field query, such as <code>"code_point/local#app#launch/invokes/total"</code>, split into its parts once so that
+ * {@link FieldManager} can look up the value without parsing the query string on every evaluation.
+ */
+public class FieldAccessor {
+
+	private final String query;
+	private final String[] tokens;
+	private final FieldManager.QueryPart[] parts;
+
+	private FieldAccessor(String query) {
+		this.query = query.trim();
+		tokens = this.query.split("/");
+		parts = new FieldManager.QueryPart[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			parts[i] = FieldManager.QueryPart.parse(tokens[i]);
+		}
+	}
+
+	public static FieldAccessor compile(String query) {
+		return new FieldAccessor(query);
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return The raw path segment at <code>index</code>, for segments that are names rather than keywords.
+	 */
+	String getToken(int index) {
+		return tokens[index];
+	}
+
+	FieldManager.QueryPart getPart(int index) {
+		return parts[index];
+	}
+
+	@Override
+	public String toString() {
+		return query;
+	}
+}
@@ -7,19 +7,17 @@
 package com.apptentive.android.sdk.module.engagement.logic;
 
 import com.apptentive.android.sdk.Apptentive;
-import com.apptentive.android.sdk.ApptentiveInternal;
-import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.BuildConfig;
 import com.apptentive.android.sdk.model.CustomData;
 import com.apptentive.android.sdk.model.Device;
 import com.apptentive.android.sdk.model.Person;
-import com.apptentive.android.sdk.storage.DeviceManager;
-import com.apptentive.android.sdk.storage.PersonManager;
 import com.apptentive.android.sdk.storage.VersionHistoryStore;
 import com.apptentive.android.sdk.util.Constants;
 import com.apptentive.android.sdk.util.Util;
 
 import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
 
 public class FieldManager {
 
@@ -28,28 +26,34 @@ public class FieldManager {
 	}
 
 	public static Comparable getValue(String query) {
-		Object rawValue = doGetValue(query);
+		return getValue(FieldAccessor.compile(query), new EvaluationContext());
+	}
+
+	public static Comparable getValue(FieldAccessor field, EvaluationContext context) {
+		Object rawValue = doGetValue(field, context);
 		return (Comparable) ClauseParser.parseValue(rawValue);
 	}
 
 	public static Object doGetValue(String query) {
-		query = query.trim();
-		String[] tokens = query.split("/");
-		QueryPart topLevelQuery = QueryPart.parse(tokens[0]);
+		return doGetValue(FieldAccessor.compile(query), new EvaluationContext());
+	}
+
+	public static Object doGetValue(FieldAccessor field, EvaluationContext context) {
+		QueryPart topLevelQuery = field.getPart(0);
 
 		switch (topLevelQuery) {
 			case application: {
-				QueryPart applicationQuery = QueryPart.parse(tokens[1]);
+				QueryPart applicationQuery = field.getPart(1);
 				switch (applicationQuery) {
 					case version_code: {
-						int version = Util.getAppVersionCode(ApptentiveInternal.getInstance().getApplicationContext());
+						int version = context.getAppVersionCode();
 						if (version == -1) {
 							version = 0; // Default
 						}
 						return version;
 					}
 					case version_name: {
-						String version = Util.getAppVersionName(ApptentiveInternal.getInstance().getApplicationContext());
+						String version = context.getAppVersionName();
 						if (version == null) {
 							version = "0"; // Default
 						}
@@ -64,7 +68,7 @@ public class FieldManager {
 				return null; // Default value
 			}
 			case sdk: {
-				QueryPart sdkQuery = QueryPart.parse(tokens[1]);
+				QueryPart sdkQuery = field.getPart(1);
 				switch (sdkQuery) {
 					case version:
 						Apptentive.Version ret = new Apptentive.Version();
@@ -75,55 +79,55 @@ public class FieldManager {
 			case current_time:
 				return new Apptentive.DateTime(Util.currentTimeSeconds());
 			case is_update: {
-				QueryPart subQuery = QueryPart.parse(tokens[1]);
+				QueryPart subQuery = field.getPart(1);
 				switch (subQuery) {
 					case version_code:
-						return VersionHistoryStore.isUpdate(VersionHistoryStore.Selector.version_code);
+						return context.isUpdate(VersionHistoryStore.Selector.version_code);
 					case version_name:
-						return VersionHistoryStore.isUpdate(VersionHistoryStore.Selector.version_name);
+						return context.isUpdate(VersionHistoryStore.Selector.version_name);
 					default:
 						break;
 				}
 				return false;
 			}
 			case time_at_install: {
-				QueryPart subQuery = QueryPart.parse(tokens[1]);
+				QueryPart subQuery = field.getPart(1);
 				switch (subQuery) {
 					case total:
-						return VersionHistoryStore.getTimeAtInstall(VersionHistoryStore.Selector.total);
+						return context.getTimeAtInstall(VersionHistoryStore.Selector.total);
 					case version_code:
-						return VersionHistoryStore.getTimeAtInstall(VersionHistoryStore.Selector.version_code);
+						return context.getTimeAtInstall(VersionHistoryStore.Selector.version_code);
 					case version_name:
-						return VersionHistoryStore.getTimeAtInstall(VersionHistoryStore.Selector.version_name);
+						return context.getTimeAtInstall(VersionHistoryStore.Selector.version_name);
 				}
 				return new Apptentive.DateTime(Util.currentTimeSeconds());
 			}
 			case interactions:
 			case code_point: {
 				boolean isInteraction = topLevelQuery.equals(QueryPart.interactions);
-				String name = tokens[1];
-				QueryPart queryPart1 = QueryPart.parse(tokens[2]);
+				String name = field.getToken(1);
+				QueryPart queryPart1 = field.getPart(2);
 
 				switch (queryPart1) {
 					case invokes:
-						QueryPart queryPart2 = QueryPart.parse(tokens[3]);
+						QueryPart queryPart2 = field.getPart(3);
 						switch (queryPart2) {
 							case total: // Get total for all versions of the app.
-								return new BigDecimal(ApptentiveInternal.getInstance().getCodePointStore().getTotalInvokes(isInteraction, name));
+								return new BigDecimal(context.getCodePointStore().getTotalInvokes(isInteraction, name));
 							case version_code:
-								String appVersionCode = String.valueOf(Util.getAppVersionCode(ApptentiveInternal.getInstance().getApplicationContext()));
-								return new BigDecimal(ApptentiveInternal.getInstance().getCodePointStore().getVersionCodeInvokes(isInteraction, name, appVersionCode));
+								String appVersionCode = String.valueOf(context.getAppVersionCode());
+								return new BigDecimal(context.getCodePointStore().getVersionCodeInvokes(isInteraction, name, appVersionCode));
 							case version_name:
-								String appVersionName = Util.getAppVersionName(ApptentiveInternal.getInstance().getApplicationContext());
-								return new BigDecimal(ApptentiveInternal.getInstance().getCodePointStore().getVersionNameInvokes(isInteraction, name, appVersionName));
+								String appVersionName = context.getAppVersionName();
+								return new BigDecimal(context.getCodePointStore().getVersionNameInvokes(isInteraction, name, appVersionName));
 							default:
 								break;
 						}
 					case last_invoked_at:
-						QueryPart queryPart3 = QueryPart.parse(tokens[3]);
+						QueryPart queryPart3 = field.getPart(3);
 						switch (queryPart3) {
 							case total:
-								Double lastInvoke = ApptentiveInternal.getInstance().getCodePointStore().getLastInvoke(isInteraction, name);
+								Double lastInvoke = context.getCodePointStore().getLastInvoke(isInteraction, name);
 								if (lastInvoke != null) {
 									return new Apptentive.DateTime(lastInvoke);
 								}
@@ -136,14 +140,14 @@ public class FieldManager {
 				return null; // Default Value
 			}
 			case person: {
-				QueryPart subQuery = QueryPart.parse(tokens[1]);
-				Person person = PersonManager.getStoredPerson();
+				QueryPart subQuery = field.getPart(1);
+				Person person = context.getPerson();
 				if (person == null) {
 					return null;
 				}
 				switch (subQuery) {
 					case custom_data:
-						String customDataKey = tokens[2].trim();
+						String customDataKey = field.getToken(2).trim();
 						CustomData customData = person.getCustomData();
 						if (customData != null) {
 							return customData.opt(customDataKey);
@@ -154,19 +158,19 @@ public class FieldManager {
 					case email:
 						return person.getEmail();
 					case other:
-						String key = tokens[1];
+						String key = field.getToken(1);
 						return person.opt(key);
 				}
 			}
 			case device: {
-				QueryPart subQuery = QueryPart.parse(tokens[1]);
-				Device device = DeviceManager.getStoredDevice();
+				QueryPart subQuery = field.getPart(1);
+				Device device = context.getDevice();
 				if (device == null) {
 					return null;
 				}
 				switch (subQuery) {
 					case custom_data:
-						String customDataKey = tokens[2].trim();
+						String customDataKey = field.getToken(2).trim();
 						CustomData customData = device.getCustomData();
 						if (customData != null) {
 							return customData.opt(customDataKey);
@@ -210,7 +214,7 @@ public class FieldManager {
 		return null;
 	}
 
-	private enum QueryPart {
+	enum QueryPart {
 		application,
 		current_time,
 		is_update,
@@ -260,13 +264,19 @@ public class FieldManager {
 		time_ago,
 		other;
 
+		private static final Map<String, QueryPart> partsByName = new HashMap<String, QueryPart>();
+
+		static {
+			for (QueryPart part : values()) {
+				partsByName.put(part.name(), part);
+			}
+		}
+
 		public static QueryPart parse(String name) {
 			if (name != null) {
-				name = name.trim();
-				try {
-					return QueryPart.valueOf(name);
-				} catch (IllegalArgumentException e) {
-					ApptentiveLog.d(String.format("Unrecognized QueryPart: \"%s\". Defaulting to \"unknown\"", name), e);
+				QueryPart part = partsByName.get(name.trim());
+				if (part != null) {
+					return part;
 				}
 			}
 			return other;
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.module.messagecenter;
+
+import android.os.Process;
+
+import com.apptentive.android.sdk.ApptentiveInternal;
+import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.model.StoredFile;
+import com.apptentive.android.sdk.storage.ApptentiveTaskManager;
+import com.apptentive.android.sdk.util.Util;
+import com.apptentive.android.sdk.util.image.ImageUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prepares the attachments of outgoing messages as soon as they are attached, rather than while they are uploaded.
+ * Images are scaled down and compressed, other files are copied, and the size and checksum of the result are recorded
+ * in the message's file store, all on a small pool of background threads so the attachments of a message are prepared
+ * in parallel. The upload then only has to stream files that are ready.
+ * <p/>
+ * Each file is written next to its final path and renamed into place once complete, so a local file that exists is
+ * always whole, even if the process died while it was being prepared.
+ */
+public class AttachmentPreprocessor {
+
+	private static final int MAX_WORKERS = 3;
+	private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final ThreadPoolExecutor executor;
+	// Keyed by local file path
+	private final Map<String, Future<Boolean>> pending = new HashMap<String, Future<Boolean>>();
+
+	public AttachmentPreprocessor() {
+		int workers = Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors()));
+		executor = new ThreadPoolExecutor(workers, workers, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				return new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						runnable.run();
+					}
+				}, "Apptentive-AttachmentPreprocessor-" + threadNumber.incrementAndGet());
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Starts preparing the files in the background. Files that are already being prepared are left alone.
+	 */
+	public void preprocess(List<StoredFile> files) {
+		if (files == null) {
+			return;
+		}
+		synchronized (pending) {
+			for (final StoredFile file : files) {
+				final String path = file.getLocalFilePath();
+				if (path == null || pending.containsKey(path)) {
+					continue;
+				}
+				pending.put(path, executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						try {
+							return prepare(file);
+						} finally {
+							synchronized (pending) {
+								pending.remove(path);
+							}
+						}
+					}
+				}));
+			}
+		}
+	}
+
+	/**
+	 * Waits for the files to be prepared, and prepares any that weren't, for example because the process was restarted
+	 * before the message was sent. Must not be called on the main thread.
+	 *
+	 * @return true if every file is ready to upload, with its size set.
+	 */
+	public boolean awaitReady(List<StoredFile> files) {
+		if (files == null) {
+			return true;
+		}
+		boolean ready = true;
+		for (StoredFile file : files) {
+			Future<Boolean> future;
+			synchronized (pending) {
+				future = pending.get(file.getLocalFilePath());
+			}
+			if (future != null) {
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				} catch (ExecutionException e) {
+					ApptentiveLog.w("Error preparing attachment %s", e, file.getLocalFilePath());
+				}
+			}
+			File localFile = new File(file.getLocalFilePath());
+			if (localFile.exists() && (file.getSize() <= 0 || file.getSize() == localFile.length())) {
+				if (file.getSize() <= 0) {
+					// Prepared, but the size hadn't been committed yet when the file was read from the database
+					file.setSize(localFile.length());
+				}
+				continue;
+			}
+			if (!prepare(file)) {
+				ready = false;
+			}
+		}
+		return ready;
+	}
+
+	/**
+	 * Creates the local file if needed, and records its size and checksum.
+	 */
+	private boolean prepare(StoredFile file) {
+		File localFile = new File(file.getLocalFilePath());
+		if (!localFile.exists() || (file.getSize() > 0 && file.getSize() != localFile.length())) {
+			File tempFile = new File(localFile.getPath() + TEMP_SUFFIX);
+			boolean created;
+			if (Util.isMimeTypeImage(file.getMimeType())) {
+				// Create a scaled down version of original image
+				created = ImageUtil.createScaledDownImageCacheFile(file.getSourceUriOrPath(), tempFile.getPath());
+			} else {
+				// For non-image file, just copy to a cache file
+				created = Util.createLocalStoredFile(file.getSourceUriOrPath(), tempFile.getPath(), null) != null;
+			}
+			if (!created || !(tempFile.renameTo(localFile) || (localFile.delete() && tempFile.renameTo(localFile)))) {
+				ApptentiveLog.w("Unable to prepare attachment %s", file.getSourceUriOrPath());
+				tempFile.delete();
+				return false;
+			}
+		}
+
+		try {
+			file.setChecksum(md5(localFile));
+		} catch (IOException e) {
+			ApptentiveLog.w("Unable to read prepared attachment %s", e, localFile);
+			return false;
+		}
+		file.setSize(localFile.length());
+		ApptentiveLog.v("Prepared attachment %s: %d bytes, md5 %s", localFile.getName(), file.getSize(), file.getChecksum());
+
+		ApptentiveTaskManager taskManager = ApptentiveInternal.getInstance().getApptentiveTaskManager();
+		if (taskManager != null) {
+			taskManager.updateCompoundMessageFile(file);
+		}
+		return true;
+	}
+
+	static String md5(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("MD5 is not available");
+		}
+		InputStream is = null;
+		try {
+			is = new FileInputStream(file);
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = is.read(buffer)) != -1) {
+				digest.update(buffer, 0, count);
+			}
+		} finally {
+			Util.ensureClosed(is);
+		}
+		StringBuilder hexString = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hexString.append(String.format("%02x", b & 0xFF));
+		}
+		return hexString.toString();
+	}
+}
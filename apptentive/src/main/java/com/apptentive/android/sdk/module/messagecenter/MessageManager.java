@@ -11,17 +11,17 @@ import android.app.Notification;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.os.AsyncTask;
-import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.text.TextUtils;
 
 import com.apptentive.android.sdk.ApptentiveInternal;
 import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.R;
 import com.apptentive.android.sdk.comm.ApptentiveClient;
 import com.apptentive.android.sdk.comm.ApptentiveHttpResponse;
+import com.apptentive.android.sdk.comm.HttpRequest;
 import com.apptentive.android.sdk.module.messagecenter.model.ApptentiveMessage;
 import com.apptentive.android.sdk.module.messagecenter.model.ApptentiveToastNotification;
 import com.apptentive.android.sdk.module.messagecenter.model.CompoundMessage;
@@ -30,18 +30,22 @@ import com.apptentive.android.sdk.module.messagecenter.model.MessageFactory;
 import com.apptentive.android.sdk.module.metric.MetricModule;
 import com.apptentive.android.sdk.storage.MessageStore;
 import com.apptentive.android.sdk.util.Constants;
+import com.apptentive.android.sdk.util.JsonPullParser;
 import com.apptentive.android.sdk.util.Util;
+import com.apptentive.android.sdk.util.threading.DispatchQueue;
+import com.apptentive.android.sdk.util.threading.DispatchTask;
+import com.apptentive.android.sdk.util.threading.DispatchTaskPriority;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MessageManager {
 
@@ -56,10 +60,30 @@ public class MessageManager {
 	private static final int UI_THREAD_MESSAGE_ON_UNREAD_INTERNAL = 2;
 	private static final int UI_THREAD_MESSAGE_ON_TOAST_NOTIFICATION = 3;
 
+	/**
+	 * Messages are fetched this many at a time
+	 */
+	private static final int MESSAGE_FETCH_PAGE_SIZE = 100;
+	/**
+	 * Message Center loads stored messages this many at a time, newest first
+	 */
+	private static final int MESSAGE_CENTER_PAGE_SIZE = 50;
+	private static final String KEY_MESSAGES_ITEMS = "items";
+	private static final String KEY_MESSAGES_HAS_MORE = "has_more";
+
+	private static final HttpRequest.ResponseReader MESSAGE_PAGE_READER = new HttpRequest.ResponseReader() {
+		@Override
+		public Object read(Reader reader) throws IOException, JSONException {
+			return readMessagesPage(new JsonPullParser(reader));
+		}
+	};
+
 	private WeakReference<Activity> currentForegroundApptentiveActivity;
 
 	private WeakReference<AfterSendMessageListener> afterSendMessageListener;
 
+	private WeakReference<MessageUploadProgressListener> messageUploadProgressListener;
+
 	private final List<WeakReference<OnNewIncomingMessagesListener>> internalNewMessagesListeners = new ArrayList<WeakReference<OnNewIncomingMessagesListener>>();
 
 
@@ -68,9 +92,9 @@ public class MessageManager {
 	 */
 	private final List<WeakReference<UnreadMessagesListener>> hostUnreadMessagesListeners = new ArrayList<WeakReference<UnreadMessagesListener>>();
 
-	AtomicBoolean appInForeground = new AtomicBoolean(false);
 	private Handler uiHandler;
 	private MessagePollingWorker pollingWorker;
+	private AttachmentPreprocessor attachmentPreprocessor;
 
 
 	public MessageManager() {
@@ -118,45 +142,37 @@ public class MessageManager {
 	}
 
 	/*
-	 * Starts an AsyncTask to pre-fetch messages. This is to be called as part of Push notification action
+	 * Starts a task to pre-fetch messages. This is to be called as part of Push notification action
 	 * when push is received on the device.
 	 */
 	public void startMessagePreFetchTask() {
 		// Defer message polling thread creation, if not created yet and host app receives a new message push
 		init();
-		AsyncTask<Object, Void, Void> task = new AsyncTask<Object, Void, Void>() {
-			private Exception e = null;
-
+		// A reply may follow, so poll at the shortest interval again
+		pollingWorker.resetBackoff();
+		final boolean updateMC = isMessageCenterInForeground();
+		// User visible, so it isn't held while the app is in the background: the user is about to open the message
+		DispatchQueue.backgroundQueue().dispatchAsync(new DispatchTask(DispatchTaskPriority.UserVisible) {
 			@Override
-			protected Void doInBackground(Object... params) {
-				boolean updateMC = (Boolean) params[0];
+			protected void execute() {
 				try {
 					fetchAndStoreMessages(updateMC, false);
-				} catch (Exception e) {
-					this.e = e;
-				}
-				return null;
-			}
-
-			@Override
-			protected void onPostExecute(Void v) {
-				if (e != null) {
-					ApptentiveLog.w("Unhandled Exception thrown from fetching new message asyncTask", e);
-					MetricModule.sendError(e, null, null);
+				} catch (final Exception e) {
+					DispatchQueue.mainQueue().dispatchAsync(new DispatchTask() {
+						@Override
+						protected void execute() {
+							ApptentiveLog.w("Unhandled Exception thrown from fetching new message task", e);
+							MetricModule.sendError(e, null, null);
+						}
+					});
 				}
 			}
-		};
-
-		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-			task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, isMessageCenterInForeground());
-		} else {
-			task.execute(isMessageCenterInForeground());
-		}
+		});
 	}
 
 	/**
 	 * Performs a request against the server to check for messages in the conversation since the latest message we already have.
-	 * This method will either be run on MessagePollingThread or as an asyncTask when Push is received.
+	 * This method will either be run by the MessagePollingWorker or as a background task when Push is received.
 	 *
 	 * @return true if messages were returned, else false.
 	 */
@@ -170,22 +186,31 @@ public class MessageManager {
 			return false;
 		}
 
-		// Fetch the messages.
-		List<ApptentiveMessage> messagesToSave = null;
+		String lastMessageId;
 		try {
-			Future<String> future = getMessageStore().getLastReceivedMessageId();
-			messagesToSave = fetchMessages(future.get());
+			lastMessageId = getMessageStore().getLastReceivedMessageId().get();
 		} catch (Exception e) {
 			ApptentiveLog.e("Error retrieving last received message id from worker thread");
+			return false;
 		}
 
+		// Fetch the messages a page at a time. Each page is stored before the next one is fetched, so a long conversation
+		// isn't held in memory all at once, and a sync that is interrupted picks up where it stopped.
+		boolean messagesRetrieved = false;
+		// Also get the count of incoming unread messages.
+		int incomingUnreadMessages = 0;
 		CompoundMessage messageOnToast = null;
-		if (messagesToSave != null && messagesToSave.size() > 0) {
-			ApptentiveLog.d("Messages retrieved.");
-			// Also get the count of incoming unread messages.
-			int incomingUnreadMessages = 0;
+		boolean hasMore = true;
+		while (hasMore) {
+			MessagePage page = fetchMessages(lastMessageId);
+			if (page == null) {
+				break;
+			}
+			if (!page.messages.isEmpty()) {
+				messagesRetrieved = true;
+			}
 			// Mark messages from server where sender is the app user as read.
-			for (ApptentiveMessage apptentiveMessage : messagesToSave) {
+			for (ApptentiveMessage apptentiveMessage : page.messages) {
 				if (apptentiveMessage.isOutgoingMessage()) {
 					apptentiveMessage.setRead(true);
 				} else {
@@ -200,7 +225,19 @@ public class MessageManager {
 					msg.sendToTarget();
 				}
 			}
-			getMessageStore().addOrUpdateMessages(messagesToSave.toArray(new ApptentiveMessage[messagesToSave.size()]));
+			if (!page.messages.isEmpty()) {
+				getMessageStore().addOrUpdateMessages(page.messages.toArray(new ApptentiveMessage[page.messages.size()]));
+			}
+
+			// Move past the whole page, even the items that couldn't be parsed
+			String pageLastMessageId = page.lastId;
+			// Stop rather than fetch the same page again if the server didn't move past it
+			hasMore = page.hasMore && pageLastMessageId != null && !pageLastMessageId.equals(lastMessageId);
+			lastMessageId = pageLastMessageId;
+		}
+
+		if (messagesRetrieved) {
+			ApptentiveLog.d("Messages retrieved.");
 			Message msg;
 			if (incomingUnreadMessages > 0) {
 				// Show toast notification only if the foreground activity is not already message center activity
@@ -221,21 +258,63 @@ public class MessageManager {
 		return false;
 	}
 
-	public List<MessageCenterListItem> getMessageCenterListItems() {
+	/**
+	 * Gets the messages to show in Message Center a page at a time, so opening it doesn't load the whole conversation.
+	 *
+	 * @param newerPage The page shown so far that comes right after the one to get, or null to get the newest messages.
+	 */
+	public MessageCenterPage getMessageCenterPage(MessageCenterPage newerPage) {
 		List<MessageCenterListItem> messagesToShow = new ArrayList<MessageCenterListItem>();
+		String oldestId = null;
+		long oldestDatabaseId = 0;
+		boolean hasMore = false;
 		try {
-			List<ApptentiveMessage> messagesAll = getMessageStore().getAllMessages().get();
-			// Do not display hidden messages on Message Center
-			for (ApptentiveMessage message : messagesAll) {
-				if (!message.isHidden()) {
-					messagesToShow.add(message);
-				}
+			List<ApptentiveMessage> messages;
+			if (newerPage != null) {
+				messages = getMessageStore().getMessagesBefore(newerPage.oldestId, newerPage.oldestDatabaseId, MESSAGE_CENTER_PAGE_SIZE).get();
+			} else {
+				messages = getMessageStore().getMessagesBefore(null, 0, MESSAGE_CENTER_PAGE_SIZE).get();
 			}
+			if (!messages.isEmpty()) {
+				oldestId = messages.get(0).getId();
+				oldestDatabaseId = messages.get(0).getDatabaseId();
+				hasMore = messages.size() >= MESSAGE_CENTER_PAGE_SIZE;
+			}
+			// Hidden messages are left out by the store
+			messagesToShow.addAll(messages);
 		} catch (Exception e) {
-			ApptentiveLog.e("Error getting all messages in worker thread");
+			ApptentiveLog.e("Error getting messages in worker thread");
 		}
 
-		return messagesToShow;
+		return new MessageCenterPage(messagesToShow, oldestId, oldestDatabaseId, hasMore);
+	}
+
+	/**
+	 * Messages shown in Message Center, oldest first, and where to continue for older ones.
+	 */
+	public static class MessageCenterPage {
+		private final List<MessageCenterListItem> items;
+		private final String oldestId;
+		private final long oldestDatabaseId;
+		private final boolean hasMore;
+
+		MessageCenterPage(List<MessageCenterListItem> items, String oldestId, long oldestDatabaseId, boolean hasMore) {
+			this.items = items;
+			this.oldestId = oldestId;
+			this.oldestDatabaseId = oldestDatabaseId;
+			this.hasMore = hasMore;
+		}
+
+		public List<MessageCenterListItem> getItems() {
+			return items;
+		}
+
+		/**
+		 * @return true if there may be older messages to load.
+		 */
+		public boolean hasMore() {
+			return hasMore;
+		}
 	}
 
 	public void sendMessage(ApptentiveMessage apptentiveMessage) {
@@ -251,23 +330,50 @@ public class MessageManager {
 		getMessageStore().deleteAllMessages();
 	}
 
-	private List<ApptentiveMessage> fetchMessages(String afterId) {
+	/**
+	 * Fetches a page of the messages newer than <code>afterId</code>. The ETag of the last response is sent along, so if
+	 * nothing has changed since, the server answers without a body.
+	 *
+	 * @return The page, or null if there are no new messages or they couldn't be fetched.
+	 */
+	private MessagePage fetchMessages(String afterId) {
 		ApptentiveLog.d("Fetching messages newer than: %s", (afterId == null) ? "0" : afterId);
 
-		ApptentiveHttpResponse response = ApptentiveClient.getMessages(null, afterId, null);
+		// An ETag only applies to the request it was returned for
+		SharedPreferences prefs = ApptentiveInternal.getInstance().getSharedPrefs();
+		String etag = null;
+		if (TextUtils.equals(afterId, prefs.getString(Constants.PREF_KEY_MESSAGES_ETAG_AFTER_ID, null))) {
+			etag = prefs.getString(Constants.PREF_KEY_MESSAGES_ETAG, null);
+		}
 
-		List<ApptentiveMessage> ret = new ArrayList<ApptentiveMessage>();
+		ApptentiveHttpResponse response = ApptentiveClient.getMessages(MESSAGE_FETCH_PAGE_SIZE, afterId, null, etag, MESSAGE_PAGE_READER);
+		if (response.isNotModified()) {
+			ApptentiveLog.v("No new messages.");
+			return null;
+		}
 		if (!response.isSuccessful()) {
-			return ret;
+			return null;
 		}
-		try {
-			ret = parseMessagesString(response.getContent());
-		} catch (JSONException e) {
-			ApptentiveLog.e("Error parsing messages JSON.", e);
-		} catch (Exception e) {
-			ApptentiveLog.e("Unexpected error parsing messages JSON.", e);
+
+		MessagePage page = (MessagePage) response.getParsedContent();
+		if (page == null) {
+			ApptentiveLog.e("Error parsing messages JSON.");
+			return null;
 		}
-		return ret;
+
+		String responseEtag = response.getHeader("ETag");
+		if (responseEtag != null) {
+			prefs.edit()
+				.putString(Constants.PREF_KEY_MESSAGES_ETAG, responseEtag)
+				.putString(Constants.PREF_KEY_MESSAGES_ETAG_AFTER_ID, afterId)
+				.apply();
+		} else if (etag != null) {
+			prefs.edit()
+				.remove(Constants.PREF_KEY_MESSAGES_ETAG)
+				.remove(Constants.PREF_KEY_MESSAGES_ETAG_AFTER_ID)
+				.apply();
+		}
+		return page;
 	}
 
 	public void updateMessage(ApptentiveMessage apptentiveMessage) {
@@ -275,21 +381,67 @@ public class MessageManager {
 	}
 
 	public List<ApptentiveMessage> parseMessagesString(String messageString) throws JSONException {
-		List<ApptentiveMessage> ret = new ArrayList<ApptentiveMessage>();
-		JSONObject root = new JSONObject(messageString);
-		if (!root.isNull("items")) {
-			JSONArray items = root.getJSONArray("items");
-			for (int i = 0; i < items.length(); i++) {
-				String json = items.getJSONObject(i).toString();
-				ApptentiveMessage apptentiveMessage = MessageFactory.fromJson(json);
-				// Since these came back from the server, mark them saved before updating them in the DB.
-				if (apptentiveMessage != null) {
-					apptentiveMessage.setState(ApptentiveMessage.State.saved);
-					ret.add(apptentiveMessage);
+		try {
+			return readMessagesPage(new JsonPullParser(new StringReader(messageString))).messages;
+		} catch (IOException e) {
+			throw new JSONException(e.getMessage()); // Not thrown by a StringReader
+		}
+	}
+
+	/**
+	 * Builds each message as soon as it has been read from the response, rather than reading the whole response into a
+	 * tree and converting each message back to a string to be parsed again.
+	 */
+	private static MessagePage readMessagesPage(JsonPullParser parser) throws IOException, JSONException {
+		List<ApptentiveMessage> messages = new ArrayList<ApptentiveMessage>();
+		int itemCount = 0;
+		String lastId = null;
+		Boolean hasMore = null;
+		parser.beginObject();
+		while (parser.hasNext()) {
+			String name = parser.nextName();
+			if (KEY_MESSAGES_ITEMS.equals(name) && parser.peek() == JsonPullParser.Token.BEGIN_ARRAY) {
+				parser.beginArray();
+				while (parser.hasNext()) {
+					itemCount++;
+					if (parser.peek() != JsonPullParser.Token.BEGIN_OBJECT) {
+						parser.skipValue();
+						continue;
+					}
+					JSONObject item = parser.readObject(new JSONObject());
+					if (!item.isNull(ApptentiveMessage.KEY_ID)) {
+						lastId = item.optString(ApptentiveMessage.KEY_ID);
+					}
+					ApptentiveMessage apptentiveMessage = MessageFactory.fromJson(item);
+					// Since these came back from the server, mark them saved before updating them in the DB.
+					if (apptentiveMessage != null) {
+						apptentiveMessage.setState(ApptentiveMessage.State.saved);
+						messages.add(apptentiveMessage);
+					}
 				}
+				parser.endArray();
+			} else if (KEY_MESSAGES_HAS_MORE.equals(name) && parser.peek() == JsonPullParser.Token.BOOLEAN) {
+				hasMore = parser.nextBoolean();
+			} else {
+				parser.skipValue();
 			}
 		}
-		return ret;
+		parser.endObject();
+		// Without an explicit answer from the server, a full page means there may be more
+		return new MessagePage(messages, lastId, hasMore != null ? hasMore : itemCount >= MESSAGE_FETCH_PAGE_SIZE);
+	}
+
+	private static class MessagePage {
+		final List<ApptentiveMessage> messages;
+		// The id of the last item on the page, whether or not it could be parsed
+		final String lastId;
+		final boolean hasMore;
+
+		MessagePage(List<ApptentiveMessage> messages, String lastId, boolean hasMore) {
+			this.messages = messages;
+			this.lastId = lastId;
+			this.hasMore = hasMore;
+		}
 	}
 
 	public void resumeSending() {
@@ -304,6 +456,12 @@ public class MessageManager {
 		}
 	}
 
+	public void onMessageUploadProgress(ApptentiveMessage apptentiveMessage, int progress) {
+		if (messageUploadProgressListener != null && messageUploadProgressListener.get() != null) {
+			messageUploadProgressListener.get().onMessageUploadProgress(apptentiveMessage, progress);
+		}
+	}
+
 	public void onSentMessage(ApptentiveMessage apptentiveMessage, ApptentiveHttpResponse response) {
 
 		if (response.isRejectedPermanently() || response.isBadPayload()) {
@@ -348,6 +506,13 @@ public class MessageManager {
 		}
 	}
 
+	public synchronized AttachmentPreprocessor getAttachmentPreprocessor() {
+		if (attachmentPreprocessor == null) {
+			attachmentPreprocessor = new AttachmentPreprocessor();
+		}
+		return attachmentPreprocessor;
+	}
+
 	private MessageStore getMessageStore() {
 		return ApptentiveInternal.getInstance().getApptentiveTaskManager();
 	}
@@ -372,6 +537,15 @@ public class MessageManager {
 		void onResumeSending();
 	}
 
+	public interface MessageUploadProgressListener {
+		/**
+		 * Called on the sending thread while the message and its attachments are uploaded.
+		 *
+		 * @param progress Percentage of the request body sent so far.
+		 */
+		void onMessageUploadProgress(ApptentiveMessage apptentiveMessage, int progress);
+	}
+
 	public interface OnNewIncomingMessagesListener {
 		void onNewMessageReceived(final CompoundMessage apptentiveMsg);
 	}
@@ -384,6 +558,14 @@ public class MessageManager {
 		}
 	}
 
+	public void setMessageUploadProgressListener(MessageUploadProgressListener listener) {
+		if (listener != null) {
+			messageUploadProgressListener = new WeakReference<MessageUploadProgressListener>(listener);
+		} else {
+			messageUploadProgressListener = null;
+		}
+	}
+
 
 	public void addInternalOnMessagesUpdatedListener(OnNewIncomingMessagesListener newlistener) {
 		if (newlistener != null) {
@@ -500,14 +682,12 @@ public class MessageManager {
 	}
 
 	public void appWentToForeground() {
-		appInForeground.set(true);
 		if (pollingWorker != null) {
 			pollingWorker.appWentToForeground();
 		}
 	}
 
 	public void appWentToBackground() {
-		appInForeground.set(false);
 		if (pollingWorker != null) {
 			pollingWorker.appWentToBackground();
 		}
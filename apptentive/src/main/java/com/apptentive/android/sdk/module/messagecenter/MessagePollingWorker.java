@@ -11,138 +11,165 @@ import com.apptentive.android.sdk.Apptentive;
 import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.model.Configuration;
 import com.apptentive.android.sdk.module.metric.MetricModule;
+import com.apptentive.android.sdk.util.threading.DispatchHandle;
+import com.apptentive.android.sdk.util.threading.DispatchQueue;
+import com.apptentive.android.sdk.util.threading.DispatchTask;
 
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
+ * Polls the server for new messages while the app is in the foreground. Polls come every
+ * <code>fg_poll</code> seconds while Message Center is open. Otherwise they start every
+ * <code>bg_poll</code> seconds and back off exponentially, up to <code>max_poll</code> seconds, for as
+ * long as they come back empty. New messages, opening Message Center, or an Apptentive push bring the
+ * interval back down. Each interval is jittered so devices don't poll in lockstep.
+ *
  * @author Sky Kelsey
  */
 public class MessagePollingWorker {
 
-	private MessagePollingThread sPollingThread;
+	private static final String POLL_TASK_KEY = "message_poll";
+
+	/**
+	 * Each interval is moved randomly by up to this fraction of its length
+	 */
+	private static final double JITTER = 0.1;
+
+	/**
+	 * Stops the interval from doubling once it would have reached the maximum anyway
+	 */
+	private static final int MAX_EMPTY_POLL_COUNT = 16;
 
 	// The following booleans will be accessed by both ui thread and worker thread
 	public AtomicBoolean messageCenterInForeground = new AtomicBoolean(false);
-	private AtomicBoolean threadRunning = new AtomicBoolean(false);
 
-	private MessageManager manager;
+	private final MessageManager manager;
+	private final DispatchQueue queue;
+	private final Random random = new Random();
+
+	// The following fields are guarded by this
+	private Configuration conf;
+	private DispatchHandle pollHandle;
+	private boolean polling;
+	private int emptyPollCount;
 
 	public MessagePollingWorker(MessageManager manager) {
 		this.manager = manager;
+		this.queue = DispatchQueue.backgroundQueue();
+	}
+
+	// Called from main UI thread when the app is shown
+	public synchronized void appWentToForeground() {
+		conf = Configuration.load();
+		polling = true;
+		schedulePoll(0);
 	}
 
-	// A synchronized getter/setter to the static instance of thread object
-	public synchronized MessagePollingThread getAndSetMessagePollingThread(boolean expect,
-																		   boolean create) {
-		if (expect && create) {
-			sPollingThread = createPollingThread();
-		} else if (!expect) {
-			sPollingThread = null;
+	public synchronized void appWentToBackground() {
+		polling = false;
+		if (pollHandle != null) {
+			pollHandle.cancel();
+			pollHandle = null;
 		}
-		return sPollingThread;
 	}
 
-	private MessagePollingThread createPollingThread() {
-		MessagePollingThread newThread = new MessagePollingThread();
-		Thread.UncaughtExceptionHandler handler = new Thread.UncaughtExceptionHandler() {
-			@Override
-			public void uncaughtException(Thread thread, Throwable throwable) {
-				MetricModule.sendError(throwable, null, null);
+	/**
+	 * If Message Center was just opened, poll right away, and then at the foreground polling interval. Once it is
+	 * closed, the next poll is at the background polling interval.
+	 *
+	 * @param bInForeground true if the worker should be in foreground polling mode, else false.
+	 */
+	public void setMessageCenterInForeground(boolean bInForeground) {
+		if (!messageCenterInForeground.getAndSet(bInForeground) && bInForeground) {
+			synchronized (this) {
+				emptyPollCount = 0;
+				if (polling) {
+					schedulePoll(0);
+				}
 			}
-		};
-		newThread.setUncaughtExceptionHandler(handler);
-		newThread.setName("Apptentive-MessagePollingWorker");
-		newThread.start();
-		return newThread;
+		}
 	}
 
-
-	private class MessagePollingThread extends Thread {
-
-		private long backgroundPollingInterval = -1;
-		private long foregroundPollingInterval = -1;
-		private Configuration conf;
-
-		public MessagePollingThread() {
-			conf = Configuration.load();
-			backgroundPollingInterval = conf.getMessageCenterBgPoll() * 1000;
-			foregroundPollingInterval = conf.getMessageCenterFgPoll() * 1000;
+	/**
+	 * Brings polling back to its shortest interval, for example because a push announced a new message and a reply may
+	 * follow.
+	 */
+	public synchronized void resetBackoff() {
+		if (emptyPollCount > 0) {
+			emptyPollCount = 0;
+			if (polling) {
+				schedulePoll(getNextPollDelay());
+			}
 		}
+	}
 
-		public void run() {
-			try {
-				ApptentiveLog.v("Started %s", toString());
-
-				while (manager.appInForeground.get()) {
-					MessagePollingThread thread = getAndSetMessagePollingThread(true, false);
-					if (thread != null && thread != MessagePollingThread.this) {
-						return;
-					}
-					long pollingInterval = messageCenterInForeground.get() ? foregroundPollingInterval : backgroundPollingInterval;
-					if (Apptentive.canShowMessageCenter()) {
-						ApptentiveLog.v("Checking server for new messages every %d seconds", pollingInterval / 1000);
-						manager.fetchAndStoreMessages(messageCenterInForeground.get(), conf.isMessageCenterNotificationPopupEnabled());
-					}
-					goToSleep(pollingInterval);
-				}
-			} finally {
-				threadRunning.set(false);
-				sPollingThread = null;
-				ApptentiveLog.v("Stopping MessagePollingThread.");
+	private void poll() {
+		boolean isMessageCenterForeground = messageCenterInForeground.get();
+		boolean showToast;
+		synchronized (this) {
+			if (!polling) {
+				return;
 			}
+			showToast = conf.isMessageCenterNotificationPopupEnabled();
 		}
-	}
 
-	private void goToSleep(long millis) {
-		try {
-			Thread.sleep(millis);
-		} catch (InterruptedException e) {
-			// This is normal and happens whenever we wake the thread with an interrupt.
+		boolean newMessages = false;
+		if (Apptentive.canShowMessageCenter()) {
+			newMessages = manager.fetchAndStoreMessages(isMessageCenterForeground, showToast);
 		}
-	}
 
-	private void wakeUp() {
-		ApptentiveLog.v("Waking MessagePollingThread.");
-		MessagePollingThread thread = getAndSetMessagePollingThread(true, false);
-		if (thread != null && thread.isAlive()) {
-			thread.interrupt();
+		synchronized (this) {
+			emptyPollCount = newMessages ? 0 : Math.min(emptyPollCount + 1, MAX_EMPTY_POLL_COUNT);
+			if (polling) {
+				schedulePoll(getNextPollDelay());
+			}
 		}
 	}
 
-	// Called from main UI thread to create a new worker thread
-	public void appWentToForeground() {
-		startPolling();
+	/**
+	 * Replaces the pending poll, if any
+	 */
+	private void schedulePoll(long delayMillis) {
+		ApptentiveLog.v("Checking server for new messages in %d seconds", delayMillis / 1000);
+		pollHandle = queue.dispatchAsyncCoalesced(POLL_TASK_KEY, new DispatchTask() {
+			@Override
+			protected void execute() {
+				try {
+					poll();
+				} catch (Exception e) {
+					ApptentiveLog.w("Unhandled Exception thrown while polling for messages", e);
+					MetricModule.sendError(e, null, null);
+				}
+			}
+		}, delayMillis);
 	}
 
+	private long getNextPollDelay() {
+		if (messageCenterInForeground.get()) {
+			long foregroundPollingInterval = conf.getMessageCenterFgPoll() * 1000L;
+			return getPollDelay(foregroundPollingInterval, foregroundPollingInterval, 0, nextJitter());
+		}
+		return getPollDelay(conf.getMessageCenterBgPoll() * 1000L, conf.getMessageCenterMaxPoll() * 1000L, emptyPollCount, nextJitter());
+	}
 
-	public void appWentToBackground() {
-		// When app goes to background, polling thread will be waken up, and finish and terminate
-		wakeUp();
+	private double nextJitter() {
+		return random.nextDouble() * 2 - 1;
 	}
 
 	/**
-	 * If coming from the background, wake the thread so that it immediately starts runs and runs more often. If coming
-	 * from the foreground, let the polling interval timeout naturally, at which point the polling interval will become
-	 * the background polling interval.
-	 *
-	 * @param bInForeground true if the worker should be in foreground polling mode, else false.
+	 * @param baseMillis     Interval after a poll which returned new messages.
+	 * @param maxMillis      The interval doesn't grow past this, but is never shorter than <code>baseMillis</code>.
+	 * @param emptyPollCount Polls in a row that came back empty. Each one doubles the interval.
+	 * @param jitter         Between -1 and 1. Moves the interval by up to {@link #JITTER} of its length.
 	 */
-	public void setMessageCenterInForeground(boolean bInForeground) {
-		if (!messageCenterInForeground.getAndSet(bInForeground) && bInForeground) {
-			/* bInForeground is "true" && messageCenterInForeground was false
-			*/
-			startPolling();
-		}
-	}
-
-	private void startPolling() {
-		if (threadRunning.compareAndSet(false, true)) {
-			// If polling thread isn't running (either terminated or hasn't been created it), create a new one and run
-			getAndSetMessagePollingThread(true, true);
-		} else {
-			// If polling thread has been created but in sleep, wake it up, then continue the while loop and proceed
-			// with fetching with shorter interval
-			wakeUp();
+	static long getPollDelay(long baseMillis, long maxMillis, int emptyPollCount, double jitter) {
+		long limit = Math.max(baseMillis, maxMillis);
+		long delay = baseMillis;
+		for (int i = 0; i < emptyPollCount && delay < limit; i++) {
+			delay *= 2;
 		}
+		delay = Math.min(delay, limit);
+		return delay + (long) (delay * JITTER * jitter);
 	}
 }
@@ -48,6 +48,10 @@ public abstract class ApptentiveMessage extends ConversationItem implements Mess
 		super(json);
 	}
 
+	protected ApptentiveMessage(JSONObject json) throws JSONException {
+		super(json);
+	}
+
 	protected void initBaseType() {
 		setBaseType(BaseType.message);
 	}
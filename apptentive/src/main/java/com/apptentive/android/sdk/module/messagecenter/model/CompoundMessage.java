@@ -9,6 +9,7 @@ package com.apptentive.android.sdk.module.messagecenter.model;
 import com.apptentive.android.sdk.ApptentiveInternal;
 import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.model.StoredFile;
+import com.apptentive.android.sdk.module.messagecenter.MessageManager;
 import com.apptentive.android.sdk.util.image.ImageItem;
 
 import org.json.JSONArray;
@@ -56,7 +57,19 @@ public class CompoundMessage extends ApptentiveMessage implements MessageCenterU
 	 */
 	public CompoundMessage(String json, boolean bOutgoing) throws JSONException {
 		super(json);
-		parseAttachmentsArray(json);
+		parseAttachmentsArray();
+		hasNoAttachments = getTextOnly();
+		isOutgoing = bOutgoing;
+	}
+
+	/* Constructing compound message from JSON that was already parsed, such as an item of a fetched page of messages
+	*
+	* @param json The JSON of the message
+	* @param bOutgoing true if the message is originated from local
+	 */
+	public CompoundMessage(JSONObject json, boolean bOutgoing) throws JSONException {
+		super(json);
+		parseAttachmentsArray();
 		hasNoAttachments = getTextOnly();
 		isOutgoing = bOutgoing;
 	}
@@ -155,6 +168,7 @@ public class CompoundMessage extends ApptentiveMessage implements MessageCenterU
 		try {
 			Future<Boolean> future = ApptentiveInternal.getInstance().getApptentiveTaskManager().addCompoundMessageFiles(attachmentStoredFiles);
 			bRet = future.get();
+			preprocessAttachments(attachmentStoredFiles);
 		} catch (Exception e) {
 			ApptentiveLog.e("Unable to set associated images in worker thread");
 		} finally {
@@ -176,6 +190,7 @@ public class CompoundMessage extends ApptentiveMessage implements MessageCenterU
 		try {
 			Future<Boolean> future = ApptentiveInternal.getInstance().getApptentiveTaskManager().addCompoundMessageFiles(attachedFiles);
 			bRet = future.get();
+			preprocessAttachments(attachedFiles);
 		} catch (Exception e) {
 			ApptentiveLog.e("Unable to set associated files in worker thread");
 		} finally {
@@ -183,6 +198,16 @@ public class CompoundMessage extends ApptentiveMessage implements MessageCenterU
 		}
 	}
 
+	/**
+	 * Starts scaling down and checksumming the attachments now, so they are ready by the time the message is sent.
+	 */
+	private static void preprocessAttachments(List<StoredFile> files) {
+		MessageManager messageManager = ApptentiveInternal.getInstance().getMessageManager();
+		if (messageManager != null) {
+			messageManager.getAttachmentPreprocessor().preprocess(files);
+		}
+	}
+
 
 	public List<StoredFile> getAssociatedFiles() {
 		if (hasNoAttachments) {
@@ -240,17 +265,14 @@ public class CompoundMessage extends ApptentiveMessage implements MessageCenterU
 	}
 
 	/* Parse attachment array in json. Only incoming compound message would have "attachments" key set
-	 * @param messageString JSON string of the message
 	 * @return true if attachment array is found in JSON
 	 */
-	private boolean parseAttachmentsArray(String messageString) throws JSONException {
-		JSONObject root = new JSONObject(messageString);
-		if (!root.isNull(KEY_ATTACHMENTS)) {
-			JSONArray items = root.getJSONArray(KEY_ATTACHMENTS);
+	private boolean parseAttachmentsArray() throws JSONException {
+		if (!isNull(KEY_ATTACHMENTS)) {
+			JSONArray items = getJSONArray(KEY_ATTACHMENTS);
 			remoteAttachmentStoredFiles = new ArrayList<StoredFile>();
 			for (int i = 0; i < items.length(); i++) {
-				String json = items.getJSONObject(i).toString();
-				JSONObject attachment = new JSONObject(json);
+				JSONObject attachment = items.getJSONObject(i);
 				String mimeType = attachment.optString("content_type");
 				StoredFile storedFile = new StoredFile();
 				storedFile.setId(getNonce());
@@ -16,10 +16,21 @@ import org.json.JSONObject;
 
 public class MessageFactory {
 	public static ApptentiveMessage fromJson(String json) {
+		try {
+			return fromJson(new JSONObject(json));
+		} catch (JSONException e) {
+			ApptentiveLog.v("Error parsing json as Message: %s", e, json);
+		}
+		return null;
+	}
+
+	/**
+	 * Builds the message from JSON that was already parsed, without converting it back to a string.
+	 */
+	public static ApptentiveMessage fromJson(JSONObject root) {
 		try {
 			// If KEY_TYPE is set to CompoundMessage or not set, treat them as CompoundMessage
 			ApptentiveMessage.Type type = ApptentiveMessage.Type.CompoundMessage;
-			JSONObject root = new JSONObject(json);
 			if (!root.isNull(ApptentiveMessage.KEY_TYPE)) {
 				String typeStr = root.getString(ApptentiveMessage.KEY_TYPE);
 				if (!TextUtils.isEmpty(typeStr)) {
@@ -39,16 +50,18 @@ public class MessageFactory {
 					} catch (JSONException e) {
 						// Ignore, senderId would be null
 					}
-					String personId = ApptentiveInternal.getInstance().getPersonId();
+					// Stored messages can be read before the SDK is initialized, such as while the database is upgraded
+					ApptentiveInternal apptentiveInternal = ApptentiveInternal.getInstance();
+					String personId = apptentiveInternal != null ? apptentiveInternal.getPersonId() : null;
 					// If senderId is null or same as the locally stored id, construct message as outgoing
-					return new CompoundMessage(json, (senderId == null || (personId != null && senderId.equals(personId))));
+					return new CompoundMessage(root, (senderId == null || (personId != null && senderId.equals(personId))));
 				case unknown:
 					break;
 				default:
 					break;
 			}
 		} catch (JSONException e) {
-			ApptentiveLog.v("Error parsing json as Message: %s", e, json);
+			ApptentiveLog.v("Error parsing json as Message: %s", e, root);
 		} catch (IllegalArgumentException e) {
 			// Exception treated as unknown type
 		}
@@ -19,10 +19,7 @@ import android.widget.ImageView;
 
 import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.R;
-import com.apptentive.android.sdk.module.metric.MetricModule;
-
-import java.io.IOException;
-import java.net.URL;
+import com.apptentive.android.sdk.util.image.ImageUtil;
 
 
 /**
@@ -211,40 +208,14 @@ public class ApptentiveAvatarView extends ImageView {
 	}
 
 
+	/**
+	 * Loads the avatar through the disk cache, downloading it only if it isn't cached yet.
+	 */
 	public void fetchImage(final String urlString) {
 		if (urlString == null) {
 			return;
 		}
-		Thread thread = new Thread() {
-			public void run() {
-				Bitmap bitmap = null;
-				try {
-					URL url = new URL(urlString);
-					bitmap = BitmapFactory.decodeStream(url.openStream());
-				} catch (IOException e) {
-					ApptentiveLog.d("Error opening avatar from URL: \"%s\"", e, urlString);
-				}
-				if (bitmap != null) {
-					final Bitmap finalBitmap = bitmap;
-					post(new Runnable() {
-						public void run() {
-							setImageBitmap(finalBitmap);
-						}
-					});
-				}
-			}
-		};
-		Thread.UncaughtExceptionHandler handler = new Thread.UncaughtExceptionHandler() {
-			@Override
-			public void uncaughtException(Thread thread, Throwable throwable) {
-				ApptentiveLog.w("UncaughtException in AvatarView.", throwable);
-				MetricModule.sendError(throwable, null, null);
-			}
-		};
-		thread.setUncaughtExceptionHandler(handler);
-		thread.setName("Apptentive-AvatarView.fetchImage()");
-		thread.start();
-
+		ImageUtil.startDownloadAvatarTask(this, urlString);
 	}
 
 	/**
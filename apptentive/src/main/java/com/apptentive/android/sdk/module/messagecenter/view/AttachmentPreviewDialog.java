@@ -87,7 +87,7 @@ public class AttachmentPreviewDialog extends DialogFragment implements DialogInt
 		previewContainer.setLayoutParams(lp);
 
 
-		ApptentiveAttachmentLoader.getInstance().load(currentImage.originalPath, currentImage.localCachePath, 0, previewImageView, width, height, true,
+		ApptentiveAttachmentLoader.getInstance().load(currentImage.originalPath, currentImage.localCachePath, 0, previewImageView, width, height, true, ApptentiveAttachmentLoader.PRIORITY_USER_REQUESTED,
 				new ApptentiveAttachmentLoader.LoaderCallback() {
 					@Override
 					public void onLoaded(ImageView view, int pos, Bitmap d) {
@@ -6,7 +6,6 @@
 
 package com.apptentive.android.sdk.module.messagecenter.view;
 
-import android.os.AsyncTask;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -38,6 +37,9 @@ import com.apptentive.android.sdk.module.messagecenter.view.holder.OutgoingCompo
 import com.apptentive.android.sdk.module.messagecenter.view.holder.StatusHolder;
 import com.apptentive.android.sdk.module.messagecenter.view.holder.WhoCardHolder;
 import com.apptentive.android.sdk.util.image.ImageItem;
+import com.apptentive.android.sdk.util.threading.DispatchQueue;
+import com.apptentive.android.sdk.util.threading.DispatchTask;
+import com.apptentive.android.sdk.util.threading.DispatchTaskPriority;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -190,6 +192,17 @@ public class MessageCenterRecyclerViewAdapter extends RecyclerView.Adapter {
 		}
 	}
 
+	@Override
+	public void onViewRecycled(RecyclerView.ViewHolder holder) {
+		super.onViewRecycled(holder);
+		// Attachments of rows that scrolled away shouldn't hold up the ones on screen
+		if (holder instanceof IncomingCompoundMessageHolder) {
+			((IncomingCompoundMessageHolder) holder).cancelImageLoads();
+		} else if (holder instanceof OutgoingCompoundMessageHolder) {
+			((OutgoingCompoundMessageHolder) holder).cancelImageLoads();
+		}
+	}
+
 	@Override
 	public void onViewAttachedToWindow(RecyclerView.ViewHolder holder) {
 		super.onViewAttachedToWindow(holder);
@@ -231,45 +244,43 @@ public class MessageCenterRecyclerViewAdapter extends RecyclerView.Adapter {
 	}
 
 	private void startUpdateUnreadMessageTask(CompoundMessage message) {
-		UpdateUnreadMessageTask task = new UpdateUnreadMessageTask(message);
-		task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, message);
+		DispatchQueue.backgroundQueue().dispatchAsync(new UpdateUnreadMessageTask(message));
 	}
 
-	private class UpdateUnreadMessageTask extends AsyncTask<ApptentiveMessage, Void, Void> {
-		private ApptentiveMessage message;
+	private class UpdateUnreadMessageTask extends DispatchTask {
+		private final ApptentiveMessage message;
 
 		public UpdateUnreadMessageTask(ApptentiveMessage message) {
+			super(DispatchTaskPriority.UserVisible);
 			this.message = message;
 		}
 
 		@Override
-		protected Void doInBackground(ApptentiveMessage... messages) {
-			messages[0].setRead(true);
-			JSONObject data = new JSONObject();
+		protected void execute() {
 			try {
-				data.put("message_id", messages[0].getId());
-				data.put("message_type", messages[0].getType().name());
-			} catch (JSONException e) {
-				//
-			}
-			EngagementModule.engageInternal(fragment.getContext(), interaction, MessageCenterInteraction.EVENT_NAME_READ, data.toString());
+				message.setRead(true);
+				JSONObject data = new JSONObject();
+				try {
+					data.put("message_id", message.getId());
+					data.put("message_type", message.getType().name());
+				} catch (JSONException e) {
+					//
+				}
+				EngagementModule.engageInternal(fragment.getContext(), interaction, MessageCenterInteraction.EVENT_NAME_READ, data.toString());
 
-			MessageManager mgr = ApptentiveInternal.getInstance().getMessageManager();
-			if (mgr != null) {
-				mgr.updateMessage(messages[0]);
-				mgr.notifyHostUnreadMessagesListeners(mgr.getUnreadMessageCount());
+				MessageManager mgr = ApptentiveInternal.getInstance().getMessageManager();
+				if (mgr != null) {
+					mgr.updateMessage(message);
+					mgr.notifyHostUnreadMessagesListeners(mgr.getUnreadMessageCount());
+				}
+			} finally {
+				DispatchQueue.mainQueue().dispatchAsync(new DispatchTask() {
+					@Override
+					protected void execute() {
+						messagesWithPendingReadStatusUpdate.remove(message);
+					}
+				});
 			}
-			return null;
-		}
-
-		@Override
-		protected void onCancelled() {
-			messagesWithPendingReadStatusUpdate.remove(message);
-		}
-
-		@Override
-		protected void onPostExecute(Void result) {
-			messagesWithPendingReadStatusUpdate.remove(message);
 		}
 	}
 }
@@ -113,4 +113,10 @@ public class IncomingCompoundMessageHolder extends MessageHolder {
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	public void cancelImageLoads() {
+		if (imageBandView != null) {
+			imageBandView.cancelImageLoads();
+		}
+	}
+}
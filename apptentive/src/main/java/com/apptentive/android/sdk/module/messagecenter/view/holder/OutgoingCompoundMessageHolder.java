@@ -25,6 +25,7 @@ import com.apptentive.android.sdk.view.ApptentiveMaterialIndeterminateProgressBa
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 import static android.content.Context.ACCESSIBILITY_SERVICE;
 
@@ -36,6 +37,7 @@ public class OutgoingCompoundMessageHolder extends MessageHolder {
 	public TextView messageBodyView;
 	public ApptentiveImageGridView imageBandView;
 	public TextView status;
+	private String nonce;
 
 	public OutgoingCompoundMessageHolder(View itemView) {
 		super(itemView);
@@ -49,6 +51,7 @@ public class OutgoingCompoundMessageHolder extends MessageHolder {
 
 	public void bindView(MessageCenterFragment fragment, final RecyclerView recyclerView, final MessageCenterRecyclerViewAdapter adapter, final CompoundMessage message) {
 		super.bindView(fragment, recyclerView, message);
+		nonce = message.getNonce();
 		imageBandView.setupUi();
 
 		messageBodyView.setText(message.getBody());
@@ -128,4 +131,29 @@ public class OutgoingCompoundMessageHolder extends MessageHolder {
 		// other status color
 		return Util.getThemeColor(itemView.getContext(), android.R.attr.textColorSecondary);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @return The nonce of the message this holder is bound to.
+	 */
+	public String getNonce() {
+		return nonce;
+	}
+
+	/**
+	 * Shows how much of a message with attachments has been uploaded, until it is bound again as sent or failed.
+	 */
+	public void setUploadProgress(int progress) {
+		if (progressBar.getVisibility() != View.VISIBLE || imageBandView.getVisibility() != View.VISIBLE) {
+			return;
+		}
+		status.setText(String.format(Locale.getDefault(), "%d%%", progress));
+		status.setTextColor(Util.getThemeColor(itemView.getContext(), android.R.attr.textColorSecondary));
+		status.setVisibility(View.VISIBLE);
+	}
+
+	public void cancelImageLoads() {
+		if (imageBandView != null) {
+			imageBandView.cancelImageLoads();
+		}
+	}
+}
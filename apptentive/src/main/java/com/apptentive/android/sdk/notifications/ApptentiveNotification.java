@@ -2,6 +2,7 @@ package com.apptentive.android.sdk.notifications;
 
 import com.apptentive.android.sdk.util.StringUtils;
 
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -9,20 +10,95 @@ import java.util.Map;
  * other objects by {@link ApptentiveNotificationCenter}. An {@link ApptentiveNotification} object
  * contains a name and an optional dictionary. The name is a tag identifying the notification.
  * The dictionary stores other related objects, if any.
- * {@link ApptentiveNotification} objects are immutable objects.
+ * <p/>
+ * Each name is interned as a small integer key (see
+ * {@link ApptentiveNotificationCenter#getNotificationKey(String)}), which observers can compare
+ * instead of the name.
+ * <p/>
+ * Notifications created with a constructor are immutable. Frequently posted internal notifications
+ * without user info should be taken from a pool with {@link #obtain(int)}: a pooled notification is
+ * recycled by the notification center once it has been delivered, so observers must not hold on to
+ * it. Notifications that carry user info are never pooled.
  */
 public class ApptentiveNotification {
-	private final String name;
-	private final Map<String, Object> userInfo;
+
+	private static final int MAX_POOL_SIZE = 16;
+
+	private static final Object poolLock = new Object();
+	private static ApptentiveNotification pool;
+	private static int poolSize;
+
+	private int key;
+	private String name;
+	private Map<String, Object> userInfo;
+
+	/**
+	 * True if the notification came from the pool and goes back to it after it is delivered
+	 */
+	private boolean pooled;
+
+	/**
+	 * Next notification in the pool
+	 */
+	private ApptentiveNotification next;
 
 	public ApptentiveNotification(String name, Map<String, Object> userInfo) {
 		if (StringUtils.isNullOrEmpty(name)) {
 			throw new IllegalArgumentException("Name is null or empty");
 		}
+		this.key = ApptentiveNotificationCenter.getNotificationKey(name);
 		this.name = name;
 		this.userInfo = userInfo;
 	}
 
+	private ApptentiveNotification() {
+	}
+
+	/**
+	 * Returns a notification with the given key and empty user info, reusing a recycled one if possible.
+	 */
+	public static ApptentiveNotification obtain(int key) {
+		ApptentiveNotification notification = null;
+		synchronized (poolLock) {
+			if (pool != null) {
+				notification = pool;
+				pool = notification.next;
+				notification.next = null;
+				--poolSize;
+			}
+		}
+		if (notification == null) {
+			notification = new ApptentiveNotification();
+			notification.userInfo = Collections.emptyMap();
+		}
+		notification.key = key;
+		notification.name = ApptentiveNotificationCenter.getNotificationName(key);
+		notification.pooled = true;
+		return notification;
+	}
+
+	/**
+	 * Returns a pooled notification to the pool. Called by the notification center after delivering it.
+	 */
+	void recycle() {
+		if (!pooled) {
+			return;
+		}
+		pooled = false;
+		name = null;
+		synchronized (poolLock) {
+			if (poolSize < MAX_POOL_SIZE) {
+				next = pool;
+				pool = this;
+				++poolSize;
+			}
+		}
+	}
+
+	public int getKey() {
+		return key;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -33,6 +109,6 @@ public class ApptentiveNotification {
 
 	@Override
 	public String toString() {
-		return String.format("[%s] name=%s userInfo=%s", name, StringUtils.toString(userInfo));
+		return String.format("name=%s userInfo=%s", name, StringUtils.toString(userInfo));
 	}
 }
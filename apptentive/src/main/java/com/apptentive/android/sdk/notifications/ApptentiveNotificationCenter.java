@@ -1,16 +1,26 @@
 package com.apptentive.android.sdk.notifications;
 
+import com.apptentive.android.sdk.util.StringUtils;
 import com.apptentive.android.sdk.util.threading.DispatchQueue;
 import com.apptentive.android.sdk.util.threading.DispatchTask;
 
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * An {@link ApptentiveNotificationCenter} object (or simply, notification center) provides a
  * mechanism for broadcasting information within a program. An {@link ApptentiveNotificationCenter}
  * object is essentially a notification dispatch table.
+ * <p/>
+ * Observers can be added and removed from any thread. Posting doesn't lock and, for a notification
+ * nobody observes, doesn't allocate.
+ * <p/>
+ * Notification names are interned as small integer keys which index the dispatch table directly.
+ * Internal code should keep the key from {@link #getNotificationKey(String)} and use the key based
+ * methods; the name based methods look the key up on each call.
  */
 public class ApptentiveNotificationCenter {
 
@@ -20,42 +30,86 @@ public class ApptentiveNotificationCenter {
 	private static final Map<String, Object> EMPTY_USER_INFO = Collections.emptyMap();
 
 	/**
-	 * Lookup table for notification-to-observers search.
+	 * Keys of interned notification names.
 	 */
-	private final Map<String, ApptentiveNotificationObserverList> observerListLookup;
+	private static final ConcurrentMap<String, Integer> notificationKeys = new ConcurrentHashMap<String, Integer>();
 
 	/**
-	 * Dispatch queue for posting notifications.
+	 * Interned notification names indexed by key. Guarded by {@link #notificationKeys}.
 	 */
-	private final DispatchQueue notificationQueue;
+	private static String[] notificationNames = new String[16];
+
+	/**
+	 * Observer lists indexed by notification key. Replaced (never modified) when it grows, and lists
+	 * are never removed, so a list found once stays valid.
+	 */
+	private volatile ApptentiveNotificationObserverList[] observerLists;
 
 	/**
-	 * Dispatch queue for the concurrent access to the internal data structures
-	 * (adding/removing observers, etc).
+	 * Dispatch queue for posting notifications.
 	 */
-	private final DispatchQueue operationQueue;
+	private final DispatchQueue notificationQueue;
 
-	ApptentiveNotificationCenter(DispatchQueue notificationQueue, DispatchQueue operationQueue) {
+	ApptentiveNotificationCenter(DispatchQueue notificationQueue) {
 		if (notificationQueue == null) {
 			throw new IllegalArgumentException("Notification queue is not defined");
 		}
 
-		if (operationQueue == null) {
-			throw new IllegalArgumentException("Operation queue is not defined");
+		this.observerLists = new ApptentiveNotificationObserverList[0];
+		this.notificationQueue = notificationQueue;
+	}
+
+	//region Keys
+
+	/**
+	 * Returns the key for a notification name, interning the name if it's new. Keys are small
+	 * integers, the same for the lifetime of the process.
+	 */
+	public static int getNotificationKey(String name) {
+		if (StringUtils.isNullOrEmpty(name)) {
+			throw new IllegalArgumentException("Name is null or empty");
+		}
+
+		Integer key = notificationKeys.get(name);
+		if (key != null) {
+			return key;
 		}
 
-		this.observerListLookup = new HashMap<>();
-		this.notificationQueue = notificationQueue;
-		this.operationQueue = operationQueue;
+		synchronized (notificationKeys) {
+			key = notificationKeys.get(name);
+			if (key == null) {
+				key = notificationKeys.size();
+				if (key == notificationNames.length) {
+					notificationNames = Arrays.copyOf(notificationNames, 2 * key);
+				}
+				notificationNames[key] = name;
+				notificationKeys.put(name, key);
+			}
+			return key;
+		}
+	}
+
+	/**
+	 * Returns the name interned for a notification key.
+	 */
+	public static String getNotificationName(int key) {
+		synchronized (notificationKeys) {
+			if (key < 0 || key >= notificationKeys.size()) {
+				throw new IllegalArgumentException("Unknown notification key: " + key);
+			}
+			return notificationNames[key];
+		}
 	}
 
+	//endregion
+
 	//region Observers
 
 	/**
 	 * Adds an entry to the receiver’s dispatch table with an observer using strong reference.
 	 */
 	public void addObserver(final String notification, final ApptentiveNotificationObserver observer) {
-		addObserver(notification, observer, false);
+		addObserver(getNotificationKey(notification), observer, false);
 	}
 
 	/**
@@ -64,42 +118,45 @@ public class ApptentiveNotificationCenter {
 	 * @param useWeakReference - weak reference is used if <code>true</code>
 	 */
 	public void addObserver(final String notification, final ApptentiveNotificationObserver observer, final boolean useWeakReference) {
-		operationQueue.dispatchAsync(new DispatchTask() {
-			@Override
-			protected void execute() {
-				final ApptentiveNotificationObserverList list = resolveObserverList(notification);
-				list.addObserver(observer, useWeakReference);
-			}
-		});
+		addObserver(getNotificationKey(notification), observer, useWeakReference);
+	}
+
+	/**
+	 * Adds an entry to the receiver’s dispatch table with an observer.
+	 *
+	 * @param useWeakReference - weak reference is used if <code>true</code>
+	 */
+	public void addObserver(int notificationKey, ApptentiveNotificationObserver observer, boolean useWeakReference) {
+		final ApptentiveNotificationObserverList list = resolveObserverList(notificationKey);
+		list.addObserver(observer, useWeakReference);
 	}
 
 	/**
 	 * Removes matching entries from the receiver’s dispatch table.
 	 */
 	public void removeObserver(final String notification, final ApptentiveNotificationObserver observer) {
-		operationQueue.dispatchAsync(new DispatchTask() {
-			@Override
-			protected void execute() {
-				final ApptentiveNotificationObserverList list = findObserverList(notification);
-				if (list != null) {
-					list.removeObserver(observer);
-				}
-			}
-		});
+		removeObserver(getNotificationKey(notification), observer);
+	}
+
+	/**
+	 * Removes matching entries from the receiver’s dispatch table.
+	 */
+	public void removeObserver(int notificationKey, ApptentiveNotificationObserver observer) {
+		final ApptentiveNotificationObserverList list = findObserverList(notificationKey);
+		if (list != null) {
+			list.removeObserver(observer);
+		}
 	}
 
 	/**
 	 * Removes all the entries specifying a given observer from the receiver’s dispatch table.
 	 */
 	public void removeObserver(final ApptentiveNotificationObserver observer) {
-		operationQueue.dispatchAsync(new DispatchTask() {
-			@Override
-			protected void execute() {
-				for (ApptentiveNotificationObserverList observers : observerListLookup.values()) {
-					observers.removeObserver(observer);
-				}
+		for (ApptentiveNotificationObserverList observers : observerLists) {
+			if (observers != null) {
+				observers.removeObserver(observer);
 			}
-		});
+		}
 	}
 
 	//endregion
@@ -117,59 +174,107 @@ public class ApptentiveNotificationCenter {
 	 * Creates a notification with a given name and information and posts it to the receiver.
 	 */
 	public void postNotification(String name, Map<String, Object> userInfo) {
-		postNotification(new ApptentiveNotification(name, userInfo));
+		if (hasObservers(getNotificationKey(name))) {
+			postNotification(new ApptentiveNotification(name, userInfo));
+		}
 	}
 
 	/**
-	 * Posts a given notification to the receiver.
+	 * Posts a notification with a given key and no information to the receiver.
+	 */
+	public void postNotification(int notificationKey) {
+		if (hasObservers(notificationKey)) {
+			postNotification(ApptentiveNotification.obtain(notificationKey));
+		}
+	}
+
+	/**
+	 * Posts a given notification to the receiver on the notification queue. A notification from
+	 * {@link ApptentiveNotification#obtain(int)} is recycled once it is delivered.
 	 */
 	public void postNotification(final ApptentiveNotification notification) {
-		operationQueue.dispatchAsync(new DispatchTask() {
+		final ApptentiveNotificationObserverList list = findObserverList(notification.getKey());
+		if (list == null || list.size() == 0) {
+			notification.recycle();
+			return;
+		}
+		notificationQueue.dispatchAsync(new DispatchTask() {
 			@Override
 			protected void execute() {
-				if (notificationQueue == operationQueue) { // is it the same queue?
-					postNotificationSync(notification);
-				} else {
-					notificationQueue.dispatchAsync(new DispatchTask() {
-						@Override
-						protected void execute() {
-							postNotificationSync(notification);
-						}
-					});
-				}
+				list.notifyObservers(notification);
+				notification.recycle();
 			}
 		});
 	}
 
-	// this method is not thread-safe
-	private void postNotificationSync(ApptentiveNotification notification) {
-		final ApptentiveNotificationObserverList list = findObserverList(notification.getName());
+	/**
+	 * Posts a given notification to the receiver on the calling thread. Observers are notified
+	 * before this method returns.
+	 */
+	public void postNotificationSync(String name) {
+		postNotificationSync(name, EMPTY_USER_INFO);
+	}
+
+	/**
+	 * Creates a notification with a given name and information and posts it to the receiver on the
+	 * calling thread. Observers are notified before this method returns.
+	 */
+	public void postNotificationSync(String name, Map<String, Object> userInfo) {
+		if (hasObservers(getNotificationKey(name))) {
+			postNotificationSync(new ApptentiveNotification(name, userInfo));
+		}
+	}
+
+	/**
+	 * Posts a given notification to the receiver on the calling thread. Observers are notified
+	 * before this method returns. A notification from {@link ApptentiveNotification#obtain(int)} is
+	 * recycled once it is delivered.
+	 */
+	public void postNotificationSync(ApptentiveNotification notification) {
+		final ApptentiveNotificationObserverList list = findObserverList(notification.getKey());
 		if (list != null) {
 			list.notifyObservers(notification);
 		}
+		notification.recycle();
 	}
 
 	//endregion
 
 	//region Helpers
 
+	private boolean hasObservers(int notificationKey) {
+		final ApptentiveNotificationObserverList list = findObserverList(notificationKey);
+		return list != null && list.size() > 0;
+	}
+
 	/**
-	 * Find an observer list for the specified name.
+	 * Find an observer list for the specified key.
 	 *
 	 * @return <code>null</code> is not found
 	 */
-	private ApptentiveNotificationObserverList findObserverList(String name) {
-		return observerListLookup.get(name);
+	private ApptentiveNotificationObserverList findObserverList(int notificationKey) {
+		final ApptentiveNotificationObserverList[] lists = observerLists;
+		return notificationKey >= 0 && notificationKey < lists.length ? lists[notificationKey] : null;
 	}
 
 	/**
-	 * Find an observer list for the specified name or creates a new one if not found.
+	 * Find an observer list for the specified key or creates a new one if not found.
 	 */
-	private ApptentiveNotificationObserverList resolveObserverList(String name) {
-		ApptentiveNotificationObserverList list = observerListLookup.get(name);
+	private synchronized ApptentiveNotificationObserverList resolveObserverList(int notificationKey) {
+		ApptentiveNotificationObserverList list = findObserverList(notificationKey);
 		if (list == null) {
+			if (notificationKey < 0) {
+				throw new IllegalArgumentException("Invalid notification key: " + notificationKey);
+			}
+			ApptentiveNotificationObserverList[] lists = observerLists;
+			if (notificationKey >= lists.length) {
+				lists = Arrays.copyOf(lists, Math.max(notificationKey + 1, 2 * lists.length));
+			} else {
+				lists = lists.clone();
+			}
 			list = new ApptentiveNotificationObserverList();
-			observerListLookup.put(name, list);
+			lists[notificationKey] = list;
+			observerLists = lists;
 		}
 		return list;
 	}
@@ -189,7 +294,7 @@ public class ApptentiveNotificationCenter {
 	 * Thread-safe initialization trick
 	 */
 	private static class Holder {
-		static final ApptentiveNotificationCenter INSTANCE = new ApptentiveNotificationCenter(DispatchQueue.mainQueue(), DispatchQueue.mainQueue());
+		static final ApptentiveNotificationCenter INSTANCE = new ApptentiveNotificationCenter(DispatchQueue.mainQueue());
 	}
 
 	//endregion
@@ -7,62 +7,52 @@
 package com.apptentive.android.sdk.notifications;
 
 import com.apptentive.android.sdk.ApptentiveLog;
-import com.apptentive.android.sdk.util.ObjectUtils;
 
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Utility class for storing weak/strong references to {@link ApptentiveNotificationObserverList}
  * and posting notification. Lost reference cleanup is done automatically.
+ * <p/>
+ * Observers are kept in a copy-on-write array: adding or removing an observer replaces the array,
+ * while posting iterates over the current one without locking or allocating. Observers added or
+ * removed while a notification is posted don't affect that post.
  */
 class ApptentiveNotificationObserverList {
 
+	private static final ApptentiveNotificationObserver[] EMPTY_OBSERVERS = new ApptentiveNotificationObserver[0];
+
+	/**
+	 * Observers or their weak references. Never modified, only replaced.
+	 */
+	private volatile ApptentiveNotificationObserver[] observers;
+
 	/**
-	 * List of observers.
+	 * Set when a weak reference is found lost during a post, so lost references are removed in one
+	 * copy afterwards.
 	 */
-	private final List<ApptentiveNotificationObserver> observers;
+	private volatile boolean hasLostReferences;
 
 	ApptentiveNotificationObserverList() {
-		observers = new ArrayList<>();
+		observers = EMPTY_OBSERVERS;
 	}
 
 	/**
 	 * Posts notification to all observers.
 	 */
 	void notifyObservers(ApptentiveNotification notification) {
-		boolean hasLostReferences = false;
-
-		// create a temporary list of observers to avoid concurrent modification errors
-		List<ApptentiveNotificationObserver> temp = new ArrayList<>(observers.size());
-		for (int i = 0; i < observers.size(); ++i) {
-			ApptentiveNotificationObserver observer = observers.get(i);
-			ObserverWeakReference observerRef = ObjectUtils.as(observer, ObserverWeakReference.class);
-			if (observerRef == null || !observerRef.isReferenceLost()) {
-				temp.add(observer);
-			} else {
-				hasLostReferences = true;
-			}
-		}
-
-		// notify observers
-		for (int i = 0; i < temp.size(); ++i) {
+		final ApptentiveNotificationObserver[] snapshot = observers;
+		for (int i = 0; i < snapshot.length; ++i) {
 			try {
-				temp.get(i).onReceiveNotification(notification);
+				snapshot[i].onReceiveNotification(notification);
 			} catch (Exception e) {
-				ApptentiveLog.e(e, "Exception while posting notification: %s", notification);
+				ApptentiveLog.e(e, "Exception while posting notification: %s", notification.getName());
 			}
 		}
 
 		// clean lost references
 		if (hasLostReferences) {
-			for (int i = observers.size() - 1; i >= 0; --i) {
-				final ObserverWeakReference observerRef = ObjectUtils.as(observers.get(i), ObserverWeakReference.class);
-				if (observerRef != null && observerRef.isReferenceLost()) {
-					observers.remove(i);
-				}
-			}
+			removeLostReferences();
 		}
 	}
 
@@ -72,17 +62,21 @@ class ApptentiveNotificationObserverList {
 	 * @param useWeakReference - use weak reference if <code>true</code>
 	 * @return <code>true</code> - if observer was added
 	 */
-	boolean addObserver(ApptentiveNotificationObserver observer, boolean useWeakReference) {
+	synchronized boolean addObserver(ApptentiveNotificationObserver observer, boolean useWeakReference) {
 		if (observer == null) {
 			throw new IllegalArgumentException("Observer is null");
 		}
 
-		if (!contains(observer)) {
-			observers.add(useWeakReference ? new ObserverWeakReference(observer) : observer);
-			return true;
+		final ApptentiveNotificationObserver[] current = observers;
+		if (indexOf(current, observer) != -1) {
+			return false;
 		}
 
-		return false;
+		final ApptentiveNotificationObserver[] updated = new ApptentiveNotificationObserver[current.length + 1];
+		System.arraycopy(current, 0, updated, 0, current.length);
+		updated[current.length] = useWeakReference ? new ObserverWeakReference(observer) : observer;
+		observers = updated;
+		return true;
 	}
 
 	/**
@@ -90,20 +84,56 @@ class ApptentiveNotificationObserverList {
 	 *
 	 * @return <code>true</code> if observer was returned
 	 */
-	boolean removeObserver(ApptentiveNotificationObserver observer) {
-		int index = indexOf(observer);
-		if (index != -1) {
-			observers.remove(index);
-			return true;
+	synchronized boolean removeObserver(ApptentiveNotificationObserver observer) {
+		final ApptentiveNotificationObserver[] current = observers;
+		int index = indexOf(current, observer);
+		if (index == -1) {
+			return false;
 		}
-		return false;
+
+		if (current.length == 1) {
+			observers = EMPTY_OBSERVERS;
+		} else {
+			final ApptentiveNotificationObserver[] updated = new ApptentiveNotificationObserver[current.length - 1];
+			System.arraycopy(current, 0, updated, 0, index);
+			System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+			observers = updated;
+		}
+		return true;
 	}
 
 	/**
 	 * Size of the list
 	 */
 	public int size() {
-		return observers.size();
+		return observers.length;
+	}
+
+	/**
+	 * Removes the weak references whose observers were freed, all in one copy of the array.
+	 */
+	private synchronized void removeLostReferences() {
+		hasLostReferences = false;
+
+		final ApptentiveNotificationObserver[] current = observers;
+		int lostCount = 0;
+		for (ApptentiveNotificationObserver observer : current) {
+			if (isReferenceLost(observer)) {
+				++lostCount;
+			}
+		}
+		if (lostCount == 0) {
+			return;
+		}
+
+		final ApptentiveNotificationObserver[] updated = new ApptentiveNotificationObserver[current.length - lostCount];
+		int index = 0;
+		for (ApptentiveNotificationObserver observer : current) {
+			if (!isReferenceLost(observer)) {
+				updated[index++] = observer;
+			}
+		}
+		observers = updated;
 	}
 
 	/**
@@ -111,32 +141,28 @@ class ApptentiveNotificationObserverList {
 	 *
 	 * @return -1 if not found
 	 */
-	private int indexOf(ApptentiveNotificationObserver observer) {
-		for (int i = 0; i < observers.size(); ++i) {
-			final ApptentiveNotificationObserver other = observers.get(i);
+	private static int indexOf(ApptentiveNotificationObserver[] observers, ApptentiveNotificationObserver observer) {
+		for (int i = 0; i < observers.length; ++i) {
+			final ApptentiveNotificationObserver other = observers[i];
 			if (other == observer) {
 				return i;
 			}
 
-			final ObserverWeakReference otherReference = ObjectUtils.as(other, ObserverWeakReference.class);
-			if (otherReference != null && otherReference.get() == observer) {
+			if (other instanceof ObserverWeakReference && ((ObserverWeakReference) other).get() == observer) {
 				return i;
 			}
 		}
 		return -1;
 	}
 
-	/**
-	 * Checks if observer or its weak references are in the list.
-	 */
-	private boolean contains(ApptentiveNotificationObserver observer) {
-		return indexOf(observer) != -1;
+	private static boolean isReferenceLost(ApptentiveNotificationObserver observer) {
+		return observer instanceof ObserverWeakReference && ((ObserverWeakReference) observer).get() == null;
 	}
 
 	/**
 	 * Helper class for stored {@link ApptentiveNotificationObserver} weak reference
 	 */
-	private static class ObserverWeakReference extends WeakReference<ApptentiveNotificationObserver> implements ApptentiveNotificationObserver {
+	private class ObserverWeakReference extends WeakReference<ApptentiveNotificationObserver> implements ApptentiveNotificationObserver {
 
 		ObserverWeakReference(ApptentiveNotificationObserver referent) {
 			super(referent);
@@ -147,14 +173,9 @@ class ApptentiveNotificationObserverList {
 			ApptentiveNotificationObserver observer = get();
 			if (observer != null) {
 				observer.onReceiveNotification(notification);
+			} else {
+				hasLostReferences = true;
 			}
 		}
-
-		/**
-		 * Returns true if observer's memory was freed.
-		 */
-		boolean isReferenceLost() {
-			return get() == null;
-		}
 	}
 }
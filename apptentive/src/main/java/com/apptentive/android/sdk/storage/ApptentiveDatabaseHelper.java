@@ -12,21 +12,34 @@ import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.database.sqlite.SQLiteTransactionListener;
 import android.text.TextUtils;
 
 import com.apptentive.android.sdk.ApptentiveInternal;
 import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.comm.PayloadBatch;
 import com.apptentive.android.sdk.model.*;
 import com.apptentive.android.sdk.module.messagecenter.model.ApptentiveMessage;
 import com.apptentive.android.sdk.module.messagecenter.model.CompoundMessage;
 import com.apptentive.android.sdk.module.messagecenter.model.MessageFactory;
+import com.apptentive.android.sdk.module.metric.MetricModule;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * There can be only one. SQLiteOpenHelper per database name that is. All new Apptentive tables must be defined here.
@@ -36,7 +49,7 @@ import java.util.List;
 public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 
 	// COMMON
-	private static final int DATABASE_VERSION = 2;
+	private static final int DATABASE_VERSION = 7;
 	public static final String DATABASE_NAME = "apptentive";
 	private static final int TRUE = 1;
 	private static final int FALSE = 0;
@@ -46,16 +59,35 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 	public static final String PAYLOAD_KEY_DB_ID = "_id";           // 0
 	public static final String PAYLOAD_KEY_BASE_TYPE = "base_type"; // 1
 	public static final String PAYLOAD_KEY_JSON = "json";           // 2
+	public static final String PAYLOAD_KEY_PRIORITY = "priority";   // 3 Payload.BaseType.getPriority()
+	public static final String PAYLOAD_KEY_CREATED_AT = "created_at"; // 4 millis
+	public static final String PAYLOAD_KEY_SIZE = "size";           // 5 length of the json
 
 	private static final String TABLE_CREATE_PAYLOAD =
 			"CREATE TABLE " + TABLE_PAYLOAD +
 					" (" +
 					PAYLOAD_KEY_DB_ID + " INTEGER PRIMARY KEY, " +
 					PAYLOAD_KEY_BASE_TYPE + " TEXT, " +
-					PAYLOAD_KEY_JSON + " TEXT" +
+					PAYLOAD_KEY_JSON + " TEXT, " +
+					PAYLOAD_KEY_PRIORITY + " INTEGER, " +
+					PAYLOAD_KEY_CREATED_AT + " INTEGER, " +
+					PAYLOAD_KEY_SIZE + " INTEGER" +
 					");";
 
-	public static final String QUERY_PAYLOAD_GET_NEXT_TO_SEND = "SELECT * FROM " + TABLE_PAYLOAD + " ORDER BY " + PAYLOAD_KEY_DB_ID + " ASC LIMIT 1";
+	private static final String INDEX_CREATE_PAYLOAD_PRIORITY = "CREATE INDEX payload_priority ON " + TABLE_PAYLOAD + " (" + PAYLOAD_KEY_PRIORITY + " DESC, " + PAYLOAD_KEY_DB_ID + " ASC);";
+
+	private static final String INDEX_CREATE_PAYLOAD_BASE_TYPE = "CREATE INDEX payload_base_type ON " + TABLE_PAYLOAD + " (" + PAYLOAD_KEY_BASE_TYPE + ", " + PAYLOAD_KEY_DB_ID + ");";
+
+	// Payloads are sent from the highest priority lane first, and in the order they were added within a lane.
+	private static final String PAYLOAD_SEND_ORDER = " ORDER BY " + PAYLOAD_KEY_PRIORITY + " DESC, " + PAYLOAD_KEY_DB_ID + " ASC";
+
+	public static final String QUERY_PAYLOAD_GET_NEXT_TO_SEND = "SELECT * FROM " + TABLE_PAYLOAD + PAYLOAD_SEND_ORDER + " LIMIT 1";
+
+	private static final String QUERY_PAYLOAD_GET_NEXT_BATCH_TO_SEND = "SELECT * FROM " + TABLE_PAYLOAD + PAYLOAD_SEND_ORDER + " LIMIT ?";
+
+	private static final String QUERY_PAYLOAD_QUEUE_SIZE = "SELECT COUNT(*), SUM(" + PAYLOAD_KEY_SIZE + "), MIN(" + PAYLOAD_KEY_CREATED_AT + ") FROM " + TABLE_PAYLOAD + " WHERE " + PAYLOAD_KEY_BASE_TYPE + " = ?";
+
+	private static final String QUERY_PAYLOAD_GET_NEWEST_FIRST = "SELECT " + PAYLOAD_KEY_DB_ID + ", " + PAYLOAD_KEY_SIZE + ", " + PAYLOAD_KEY_CREATED_AT + " FROM " + TABLE_PAYLOAD + " WHERE " + PAYLOAD_KEY_BASE_TYPE + " = ? ORDER BY " + PAYLOAD_KEY_DB_ID + " DESC";
 
 	private static final String QUERY_PAYLOAD_GET_ALL_MESSAGE_IN_ORDER = "SELECT * FROM " + TABLE_PAYLOAD + " WHERE " + PAYLOAD_KEY_BASE_TYPE + " = ?" + " ORDER BY " + PAYLOAD_KEY_DB_ID + " ASC";
 
@@ -69,6 +101,13 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 	private static final String MESSAGE_KEY_STATE = "state";                         // 4
 	private static final String MESSAGE_KEY_READ = "read";                           // 5
 	private static final String MESSAGE_KEY_JSON = "json";                           // 6
+	// Copied out of the json, so that listing and counting messages doesn't need to parse it
+	private static final String MESSAGE_KEY_SENDER_ID = "sender_id";                 // 7
+	private static final String MESSAGE_KEY_HIDDEN = "hidden";                       // 8
+	private static final String MESSAGE_KEY_CREATED_AT = "created_at";               // 9
+	// The id, or 'z' until the message has one. This orders messages that haven't been sent and retrieved from the server last.
+	private static final String MESSAGE_KEY_SORT_ID = "sort_id";                     // 10
+	private static final String MESSAGE_SORT_ID_UNSENT = "z";
 
 	private static final String TABLE_CREATE_MESSAGE =
 			"CREATE TABLE " + TABLE_MESSAGE +
@@ -79,14 +118,29 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 					MESSAGE_KEY_NONCE + " TEXT, " +
 					MESSAGE_KEY_STATE + " TEXT, " +
 					MESSAGE_KEY_READ + " INTEGER, " +
-					MESSAGE_KEY_JSON + " TEXT" +
+					MESSAGE_KEY_JSON + " TEXT, " +
+					MESSAGE_KEY_SENDER_ID + " TEXT, " +
+					MESSAGE_KEY_HIDDEN + " INTEGER, " +
+					MESSAGE_KEY_CREATED_AT + " DOUBLE, " +
+					MESSAGE_KEY_SORT_ID + " TEXT" +
 					");";
 
+	private static final String INDEX_CREATE_MESSAGE_NONCE = "CREATE INDEX message_nonce ON " + TABLE_MESSAGE + " (" + MESSAGE_KEY_NONCE + ");";
+	private static final String INDEX_CREATE_MESSAGE_SORT_ID = "CREATE INDEX message_sort_id ON " + TABLE_MESSAGE + " (" + MESSAGE_KEY_SORT_ID + ", " + MESSAGE_KEY_DB_ID + ");";
+	// Covers the unread count, so it never reads the table itself
+	private static final String INDEX_CREATE_MESSAGE_READ = "CREATE INDEX message_read ON " + TABLE_MESSAGE + " (" + MESSAGE_KEY_READ + ", " + MESSAGE_KEY_ID + ");";
+	private static final String INDEX_CREATE_MESSAGE_STATE = "CREATE INDEX message_state ON " + TABLE_MESSAGE + " (" + MESSAGE_KEY_STATE + ", " + MESSAGE_KEY_ID + ");";
+	private static final String INDEX_CREATE_MESSAGE_CREATED_AT = "CREATE INDEX message_created_at ON " + TABLE_MESSAGE + " (" + MESSAGE_KEY_CREATED_AT + ");";
+
 	private static final String QUERY_MESSAGE_GET_BY_NONCE = "SELECT * FROM " + TABLE_MESSAGE + " WHERE " + MESSAGE_KEY_NONCE + " = ?";
-	// Coalesce returns the second arg if the first is null. This forces the entries with null IDs to be ordered last in the list until they do have IDs because they were sent and retrieved from the server.
-	private static final String QUERY_MESSAGE_GET_ALL_IN_ORDER = "SELECT * FROM " + TABLE_MESSAGE + " ORDER BY COALESCE(" + MESSAGE_KEY_ID + ", 'z') ASC";
+	private static final String QUERY_MESSAGE_GET_ALL_IN_ORDER = "SELECT * FROM " + TABLE_MESSAGE + " ORDER BY " + MESSAGE_KEY_SORT_ID + " ASC, " + MESSAGE_KEY_DB_ID + " ASC";
+	// Pages through the same order backwards, from the newest message, leaving out hidden ones. The database id breaks ties between unsent messages.
+	private static final String MESSAGE_NEWEST_FIRST = " ORDER BY " + MESSAGE_KEY_SORT_ID + " DESC, " + MESSAGE_KEY_DB_ID + " DESC LIMIT ?";
+	private static final String QUERY_MESSAGE_GET_NEWEST = "SELECT * FROM " + TABLE_MESSAGE + " WHERE " + MESSAGE_KEY_HIDDEN + " = " + FALSE + MESSAGE_NEWEST_FIRST;
+	// The first condition is redundant, but it is the one the sort_id index can serve
+	private static final String QUERY_MESSAGE_GET_OLDER = "SELECT * FROM " + TABLE_MESSAGE + " WHERE " + MESSAGE_KEY_SORT_ID + " <= ? AND (" + MESSAGE_KEY_SORT_ID + " < ? OR " + MESSAGE_KEY_DB_ID + " < ?) AND " + MESSAGE_KEY_HIDDEN + " = " + FALSE + MESSAGE_NEWEST_FIRST;
 	private static final String QUERY_MESSAGE_GET_LAST_ID = "SELECT " + MESSAGE_KEY_ID + " FROM " + TABLE_MESSAGE + " WHERE " + MESSAGE_KEY_STATE + " = '" + ApptentiveMessage.State.saved + "' AND " + MESSAGE_KEY_ID + " NOTNULL ORDER BY " + MESSAGE_KEY_ID + " DESC LIMIT 1";
-	private static final String QUERY_MESSAGE_UNREAD = "SELECT " + MESSAGE_KEY_ID + " FROM " + TABLE_MESSAGE + " WHERE " + MESSAGE_KEY_READ + " = " + FALSE + " AND " + MESSAGE_KEY_ID + " NOTNULL";
+	private static final String QUERY_MESSAGE_UNREAD = "SELECT COUNT(*) FROM " + TABLE_MESSAGE + " WHERE " + MESSAGE_KEY_READ + " = " + FALSE + " AND " + MESSAGE_KEY_ID + " NOTNULL";
 
 	// FileStore
 	private static final String TABLE_FILESTORE = "file_store";
@@ -117,8 +171,25 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 	private static final String COMPOUND_FILESTORE_KEY_LOCAL_CACHE_PATH = "local_path"; // path to the local cached version
 	private static final String COMPOUND_FILESTORE_KEY_REMOTE_URL = "apptentive_url";  // original server url of received file (empty for sent file)
 	private static final String COMPOUND_FILESTORE_KEY_CREATION_TIME = "creation_time"; // creation time of the original file
+	private static final String COMPOUND_FILESTORE_KEY_SIZE = "size"; // size of the prepared local file (0 until prepared)
+	private static final String COMPOUND_FILESTORE_KEY_CHECKSUM = "checksum"; // MD5 of the prepared local file (null until prepared)
 	// Create the initial table. Use nonce and local cache path as primary key because both sent/received files will have a local cached copy
 	private static final String TABLE_CREATE_COMPOUND_FILESTORE =
+			"CREATE TABLE " + TABLE_COMPOUND_MESSAGE_FILESTORE +
+					" (" +
+					COMPOUND_FILESTORE_KEY_DB_ID + " INTEGER PRIMARY KEY, " +
+					COMPOUND_FILESTORE_KEY_MESSAGE_NONCE + " TEXT, " +
+					COMPOUND_FILESTORE_KEY_LOCAL_CACHE_PATH + " TEXT, " +
+					COMPOUND_FILESTORE_KEY_MIME_TYPE + " TEXT, " +
+					COMPOUND_FILESTORE_KEY_LOCAL_ORIGINAL_URI + " TEXT, " +
+					COMPOUND_FILESTORE_KEY_REMOTE_URL + " TEXT, " +
+					COMPOUND_FILESTORE_KEY_CREATION_TIME + " LONG, " +
+					COMPOUND_FILESTORE_KEY_SIZE + " INTEGER, " +
+					COMPOUND_FILESTORE_KEY_CHECKSUM + " TEXT" +
+					");";
+
+	// The table as version 2 created it. Upgrades from version 1 must create this one, since later migrations add the other columns.
+	private static final String TABLE_CREATE_COMPOUND_FILESTORE_V2 =
 			"CREATE TABLE " + TABLE_COMPOUND_MESSAGE_FILESTORE +
 					" (" +
 					COMPOUND_FILESTORE_KEY_DB_ID + " INTEGER PRIMARY KEY, " +
@@ -133,8 +204,67 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 	// Query all files associated with a given compound message nonce id
 	private static final String QUERY_MESSAGE_FILES_GET_BY_NONCE = "SELECT * FROM " + TABLE_COMPOUND_MESSAGE_FILESTORE + " WHERE " + COMPOUND_FILESTORE_KEY_MESSAGE_NONCE + " = ?";
 
+	/* Code Point Store:
+	 * The invocation history of code points and interactions. Each code point or interaction has one row for its total
+	 * count, and one row for each app version name and version code it was invoked in.
+	 */
+	private static final String TABLE_CODE_POINT = "code_point";
+	private static final String CODE_POINT_KEY_DB_ID = "_id";               // 0
+	private static final String CODE_POINT_KEY_RECORD_TYPE = "record_type"; // 1 CodePointStore.KEY_CODE_POINT or CodePointStore.KEY_INTERACTIONS
+	private static final String CODE_POINT_KEY_NAME = "name";               // 2
+	private static final String CODE_POINT_KEY_SELECTOR = "selector";       // 3 CodePointStore.KEY_TOTAL, KEY_VERSION_NAME or KEY_VERSION_CODE
+	private static final String CODE_POINT_KEY_VERSION = "version";         // 4 empty for the total
+	private static final String CODE_POINT_KEY_INVOKES = "invokes";         // 5
+	private static final String CODE_POINT_KEY_LAST = "last";               // 6
+	private static final String TABLE_CREATE_CODE_POINT =
+			"CREATE TABLE " + TABLE_CODE_POINT +
+					" (" +
+					CODE_POINT_KEY_DB_ID + " INTEGER PRIMARY KEY, " +
+					CODE_POINT_KEY_RECORD_TYPE + " TEXT NOT NULL, " +
+					CODE_POINT_KEY_NAME + " TEXT NOT NULL, " +
+					CODE_POINT_KEY_SELECTOR + " TEXT NOT NULL, " +
+					CODE_POINT_KEY_VERSION + " TEXT NOT NULL, " +
+					CODE_POINT_KEY_INVOKES + " INTEGER, " +
+					CODE_POINT_KEY_LAST + " DOUBLE" +
+					");";
+	private static final String INDEX_CREATE_CODE_POINT =
+			"CREATE UNIQUE INDEX code_point_lookup ON " + TABLE_CODE_POINT +
+					" (" +
+					CODE_POINT_KEY_RECORD_TYPE + ", " +
+					CODE_POINT_KEY_NAME + ", " +
+					CODE_POINT_KEY_SELECTOR + ", " +
+					CODE_POINT_KEY_VERSION +
+					");";
+
+	private static final String QUERY_CODE_POINT_GET_BY_NAME = "SELECT " + CODE_POINT_KEY_SELECTOR + ", " + CODE_POINT_KEY_VERSION + ", " + CODE_POINT_KEY_INVOKES + ", " + CODE_POINT_KEY_LAST + " FROM " + TABLE_CODE_POINT + " WHERE " + CODE_POINT_KEY_RECORD_TYPE + " = ? AND " + CODE_POINT_KEY_NAME + " = ?";
+	private static final String STATEMENT_CODE_POINT_INCREMENT = "UPDATE " + TABLE_CODE_POINT + " SET " + CODE_POINT_KEY_INVOKES + " = " + CODE_POINT_KEY_INVOKES + " + 1, " + CODE_POINT_KEY_LAST + " = ? WHERE " + CODE_POINT_KEY_RECORD_TYPE + " = ? AND " + CODE_POINT_KEY_NAME + " = ? AND " + CODE_POINT_KEY_SELECTOR + " = ? AND " + CODE_POINT_KEY_VERSION + " = ?";
+	private static final String STATEMENT_CODE_POINT_INSERT = "INSERT INTO " + TABLE_CODE_POINT + " (" + CODE_POINT_KEY_LAST + ", " + CODE_POINT_KEY_RECORD_TYPE + ", " + CODE_POINT_KEY_NAME + ", " + CODE_POINT_KEY_SELECTOR + ", " + CODE_POINT_KEY_VERSION + ", " + CODE_POINT_KEY_INVOKES + ") VALUES (?, ?, ?, ?, ?, ?)";
+	// Rows that are already there were imported by an earlier, interrupted migration, and may have been invoked since
+	private static final String STATEMENT_CODE_POINT_IMPORT = "INSERT OR IGNORE INTO " + TABLE_CODE_POINT + " (" + CODE_POINT_KEY_LAST + ", " + CODE_POINT_KEY_RECORD_TYPE + ", " + CODE_POINT_KEY_NAME + ", " + CODE_POINT_KEY_SELECTOR + ", " + CODE_POINT_KEY_VERSION + ", " + CODE_POINT_KEY_INVOKES + ") VALUES (?, ?, ?, ?, ?, ?)";
+
+	private static final long EVICTED_PAYLOADS_REPORT_INTERVAL_MILLIS = 10 * 60 * 1000;
+
+	private static final int MAX_CACHED_MESSAGES = 200;
+
 	private File fileDir; // data dir of the application
 
+	private volatile PayloadQueueLimits payloadQueueLimits = PayloadQueueLimits.fromJson(null);
+
+	// Payloads dropped by the queue limits since the last metric was sent, and the ones dropped by the transaction that
+	// is still open. Only accessed from the database worker thread.
+	private final Map<Payload.BaseType, Integer> evictedPayloadCounts = new EnumMap<Payload.BaseType, Integer>(Payload.BaseType.class);
+	private final Map<Payload.BaseType, Integer> uncommittedEvictedPayloadCounts = new EnumMap<Payload.BaseType, Integer>(Payload.BaseType.class);
+	private long lastEvictedPayloadsReportTime;
+
+	// The parsed json of messages read from the message table, keyed by nonce. An entry is only used while the row still
+	// holds the json it was parsed from, so writes don't need to invalidate it. The cached json is never handed out.
+	private final Map<String, CachedMessageJson> messageCache = new LinkedHashMap<String, CachedMessageJson>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedMessageJson> eldest) {
+			return size() > MAX_CACHED_MESSAGES;
+		}
+	};
+
 
 	public void ensureClosed(SQLiteDatabase db) {
 		try {
@@ -146,6 +276,16 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		}
 	}
 
+	public void ensureClosed(SQLiteStatement statement) {
+		try {
+			if (statement != null) {
+				statement.close();
+			}
+		} catch (Exception e) {
+			ApptentiveLog.w("Error closing SQLite statement.", e);
+		}
+	}
+
 	public void ensureClosed(Cursor cursor) {
 		try {
 			if (cursor != null) {
@@ -161,6 +301,13 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		fileDir = context.getFilesDir();
 	}
 
+	/**
+	 * @param limits The caps that {@link #addPayload(Payload...)} applies from now on.
+	 */
+	public void setPayloadQueueLimits(PayloadQueueLimits limits) {
+		payloadQueueLimits = limits;
+	}
+
 	/**
 	 * This function is called only for new installs, and onUpgrade is not called in that case. Therefore, you must include the
 	 * latest complete set of DDL here.
@@ -169,9 +316,14 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 	public void onCreate(SQLiteDatabase db) {
 		ApptentiveLog.d("ApptentiveDatabase.onCreate(db)");
 		db.execSQL(TABLE_CREATE_PAYLOAD);
+		db.execSQL(INDEX_CREATE_PAYLOAD_PRIORITY);
+		db.execSQL(INDEX_CREATE_PAYLOAD_BASE_TYPE);
 		db.execSQL(TABLE_CREATE_MESSAGE);
+		createMessageIndexes(db);
 		db.execSQL(TABLE_CREATE_FILESTORE);
 		db.execSQL(TABLE_CREATE_COMPOUND_FILESTORE);
+		db.execSQL(TABLE_CREATE_CODE_POINT);
+		db.execSQL(INDEX_CREATE_CODE_POINT);
 	}
 
 	/**
@@ -183,32 +335,182 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		ApptentiveLog.d("ApptentiveDatabase.onUpgrade(db, %d, %d)", oldVersion, newVersion);
 		switch (oldVersion) {
 			case 1:
-				if (newVersion == 2) {
-					db.execSQL(TABLE_CREATE_COMPOUND_FILESTORE);
-					migrateToCompoundMessage(db);
+				db.execSQL(TABLE_CREATE_COMPOUND_FILESTORE_V2);
+				migrateToCompoundMessage(db);
+			case 2:
+				// The records are moved over from SharedPreferences by CodePointStore.init()
+				db.execSQL(TABLE_CREATE_CODE_POINT);
+				db.execSQL(INDEX_CREATE_CODE_POINT);
+			case 3:
+				migrateToPayloadPriority(db);
+			case 4:
+				migrateToPayloadQueueLimits(db);
+			case 5:
+				migrateToPreparedAttachments(db);
+			case 6:
+				migrateToIndexedMessages(db);
+		}
+	}
+
+	private void createMessageIndexes(SQLiteDatabase db) {
+		db.execSQL(INDEX_CREATE_MESSAGE_NONCE);
+		db.execSQL(INDEX_CREATE_MESSAGE_SORT_ID);
+		db.execSQL(INDEX_CREATE_MESSAGE_READ);
+		db.execSQL(INDEX_CREATE_MESSAGE_STATE);
+		db.execSQL(INDEX_CREATE_MESSAGE_CREATED_AT);
+	}
+
+	/**
+	 * Adds the priority column to the payload table, and assigns payloads already in the queue to their lanes.
+	 */
+	private void migrateToPayloadPriority(SQLiteDatabase db) {
+		db.execSQL("ALTER TABLE " + TABLE_PAYLOAD + " ADD COLUMN " + PAYLOAD_KEY_PRIORITY + " INTEGER");
+		for (Payload.BaseType baseType : Payload.BaseType.values()) {
+			ContentValues values = new ContentValues();
+			values.put(PAYLOAD_KEY_PRIORITY, baseType.getPriority());
+			db.update(TABLE_PAYLOAD, values, PAYLOAD_KEY_BASE_TYPE + " = ?", new String[]{baseType.name()});
+		}
+		ContentValues values = new ContentValues();
+		values.put(PAYLOAD_KEY_PRIORITY, Payload.BaseType.unknown.getPriority());
+		db.update(TABLE_PAYLOAD, values, PAYLOAD_KEY_PRIORITY + " IS NULL", null);
+		db.execSQL(INDEX_CREATE_PAYLOAD_PRIORITY);
+	}
+
+	/**
+	 * Adds the columns used to enforce {@link PayloadQueueLimits}. Payloads already in the queue are treated as if they
+	 * were added now, since their real age isn't known.
+	 */
+	private void migrateToPayloadQueueLimits(SQLiteDatabase db) {
+		db.execSQL("ALTER TABLE " + TABLE_PAYLOAD + " ADD COLUMN " + PAYLOAD_KEY_CREATED_AT + " INTEGER");
+		db.execSQL("ALTER TABLE " + TABLE_PAYLOAD + " ADD COLUMN " + PAYLOAD_KEY_SIZE + " INTEGER");
+		db.execSQL("UPDATE " + TABLE_PAYLOAD + " SET " + PAYLOAD_KEY_CREATED_AT + " = " + System.currentTimeMillis() + ", " + PAYLOAD_KEY_SIZE + " = LENGTH(" + PAYLOAD_KEY_JSON + ")");
+		db.execSQL(INDEX_CREATE_PAYLOAD_BASE_TYPE);
+	}
+
+	/**
+	 * Adds the size and checksum of prepared attachments. Files already stored are treated as not prepared yet, and are
+	 * prepared again before they are uploaded.
+	 */
+	private void migrateToPreparedAttachments(SQLiteDatabase db) {
+		db.execSQL("ALTER TABLE " + TABLE_COMPOUND_MESSAGE_FILESTORE + " ADD COLUMN " + COMPOUND_FILESTORE_KEY_SIZE + " INTEGER");
+		db.execSQL("ALTER TABLE " + TABLE_COMPOUND_MESSAGE_FILESTORE + " ADD COLUMN " + COMPOUND_FILESTORE_KEY_CHECKSUM + " TEXT");
+	}
+
+	/**
+	 * Adds the message columns copied out of the json, and the indexes behind the message queries. This parses every
+	 * stored message once, so that nothing has to parse them afterwards just to list or count them.
+	 */
+	private void migrateToIndexedMessages(SQLiteDatabase db) {
+		db.execSQL("ALTER TABLE " + TABLE_MESSAGE + " ADD COLUMN " + MESSAGE_KEY_SENDER_ID + " TEXT");
+		db.execSQL("ALTER TABLE " + TABLE_MESSAGE + " ADD COLUMN " + MESSAGE_KEY_HIDDEN + " INTEGER");
+		db.execSQL("ALTER TABLE " + TABLE_MESSAGE + " ADD COLUMN " + MESSAGE_KEY_CREATED_AT + " DOUBLE");
+		db.execSQL("ALTER TABLE " + TABLE_MESSAGE + " ADD COLUMN " + MESSAGE_KEY_SORT_ID + " TEXT");
+		// Rows that can't be parsed still get a place in the list order
+		db.execSQL("UPDATE " + TABLE_MESSAGE + " SET " + MESSAGE_KEY_HIDDEN + " = " + FALSE + ", " + MESSAGE_KEY_SORT_ID + " = COALESCE(" + MESSAGE_KEY_ID + ", '" + MESSAGE_SORT_ID_UNSENT + "')");
+
+		Cursor cursor = null;
+		try {
+			cursor = db.rawQuery("SELECT " + MESSAGE_KEY_DB_ID + ", " + MESSAGE_KEY_JSON + " FROM " + TABLE_MESSAGE, null);
+			while (cursor.moveToNext()) {
+				ApptentiveMessage apptentiveMessage = MessageFactory.fromJson(cursor.getString(1));
+				if (apptentiveMessage != null) {
+					ContentValues values = new ContentValues();
+					putMessageColumnsFromJson(values, apptentiveMessage);
+					db.update(TABLE_MESSAGE, values, MESSAGE_KEY_DB_ID + " = ?", new String[]{cursor.getString(0)});
 				}
+			}
+		} finally {
+			ensureClosed(cursor);
+		}
+		createMessageIndexes(db);
+	}
+
+	/**
+	 * Runs the writes inside a single transaction. The writes open their own transactions, which are nested in this one,
+	 * so if any of them fails, none of them are committed.
+	 *
+	 * @return true if the transaction was committed.
+	 */
+	public boolean runInTransaction(List<? extends Runnable> writes) {
+		SQLiteDatabase db = null;
+		final boolean[] committed = new boolean[1];
+		try {
+			db = getWritableDatabase();
+			db.beginTransactionWithListener(new SQLiteTransactionListener() {
+				@Override
+				public void onBegin() {
+				}
+
+				@Override
+				public void onCommit() {
+					committed[0] = true;
+				}
+
+				@Override
+				public void onRollback() {
+					committed[0] = false;
+				}
+			});
+			try {
+				for (Runnable write : writes) {
+					write.run();
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+				onPayloadTransactionEnded(committed[0]);
+			}
+			return committed[0];
+		} catch (SQLException sqe) {
+			ApptentiveLog.e("runInTransaction EXCEPTION: " + sqe.getMessage());
+			return false;
 		}
 	}
 
 	// PAYLOAD: This table is used to store all the Payloads we want to send to the server.
 
 	/**
-	 * If an item with the same nonce as an item passed in already exists, it is overwritten by the item. Otherwise
-	 * a new message is added.
+	 * Adds the payloads to the queue, and drops the oldest payloads of the same types if that puts the queue over its
+	 * {@link PayloadQueueLimits}, in the same transaction.
 	 */
 	public void addPayload(Payload... payloads) {
-		SQLiteDatabase db = null;
 		try {
-			db = getWritableDatabase();
+			SQLiteDatabase db = getWritableDatabase();
+			long now = System.currentTimeMillis();
+			boolean successful = false;
 			db.beginTransaction();
-			for (Payload payload : payloads) {
-				ContentValues values = new ContentValues();
-				values.put(PAYLOAD_KEY_BASE_TYPE, payload.getBaseType().name());
-				values.put(PAYLOAD_KEY_JSON, payload.toString());
-				db.insert(TABLE_PAYLOAD, null, values);
+			try {
+				Set<Payload.BaseType> baseTypes = EnumSet.noneOf(Payload.BaseType.class);
+				for (Payload payload : payloads) {
+					String json = payload.toString();
+					ContentValues values = new ContentValues();
+					values.put(PAYLOAD_KEY_BASE_TYPE, payload.getBaseType().name());
+					values.put(PAYLOAD_KEY_JSON, json);
+					values.put(PAYLOAD_KEY_PRIORITY, payload.getBaseType().getPriority());
+					values.put(PAYLOAD_KEY_CREATED_AT, now);
+					values.put(PAYLOAD_KEY_SIZE, json.length());
+					db.insert(TABLE_PAYLOAD, null, values);
+					baseTypes.add(payload.getBaseType());
+				}
+
+				PayloadQueueLimits limits = payloadQueueLimits;
+				for (Payload.BaseType baseType : baseTypes) {
+					int evicted = evictPayloads(db, baseType, limits.getLimit(baseType), now);
+					if (evicted > 0) {
+						Integer total = uncommittedEvictedPayloadCounts.get(baseType);
+						uncommittedEvictedPayloadCounts.put(baseType, total != null ? total + evicted : evicted);
+					}
+				}
+				db.setTransactionSuccessful();
+				successful = true;
+			} finally {
+				db.endTransaction();
+			}
+
+			// When grouped with other writes, the enclosing transaction is still open, and runInTransaction() takes over
+			if (!db.inTransaction()) {
+				onPayloadTransactionEnded(successful);
 			}
-			db.setTransactionSuccessful();
-			db.endTransaction();
 
 			PayloadSendWorker worker = ApptentiveInternal.getInstance().getPayloadWorker();
 			if (worker != null) {
@@ -219,6 +521,79 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		}
 	}
 
+	/**
+	 * Counts the payloads dropped by a transaction towards the metric, and sends it, once the transaction is over. If it
+	 * was rolled back, nothing was dropped.
+	 */
+	private void onPayloadTransactionEnded(boolean committed) {
+		if (uncommittedEvictedPayloadCounts.isEmpty()) {
+			return;
+		}
+		if (committed) {
+			for (Map.Entry<Payload.BaseType, Integer> entry : uncommittedEvictedPayloadCounts.entrySet()) {
+				Integer total = evictedPayloadCounts.get(entry.getKey());
+				evictedPayloadCounts.put(entry.getKey(), total != null ? total + entry.getValue() : entry.getValue());
+			}
+		}
+		uncommittedEvictedPayloadCounts.clear();
+		reportEvictedPayloads(System.currentTimeMillis());
+	}
+
+	/**
+	 * Walks the payloads of one type from newest to oldest, and drops the first one that exceeds the limit along with
+	 * every older one.
+	 *
+	 * @return The number of payloads dropped.
+	 */
+	private int evictPayloads(SQLiteDatabase db, Payload.BaseType baseType, PayloadQueueLimits.Limit limit, long now) {
+		if (limit == null) {
+			return 0;
+		}
+		String[] args = new String[]{baseType.name()};
+		Cursor cursor = null;
+		try {
+			// Most of the time the queue is well under its limits, and the totals are enough to tell.
+			cursor = db.rawQuery(QUERY_PAYLOAD_QUEUE_SIZE, args);
+			if (!cursor.moveToFirst() || !limit.isExceeded(cursor.getInt(0), cursor.getLong(1), cursor.getLong(2), now)) {
+				return 0;
+			}
+			cursor.close();
+
+			cursor = db.rawQuery(QUERY_PAYLOAD_GET_NEWEST_FIRST, args);
+			int rows = 0;
+			long bytes = 0;
+			while (cursor.moveToNext()) {
+				rows++;
+				bytes += cursor.getLong(1);
+				if (limit.isExceeded(rows, bytes, cursor.getLong(2), now)) {
+					int evicted = db.delete(TABLE_PAYLOAD, PAYLOAD_KEY_BASE_TYPE + " = ? AND " + PAYLOAD_KEY_DB_ID + " <= ?", new String[]{baseType.name(), cursor.getString(0)});
+					ApptentiveLog.w("Payload queue is full. Dropped %d oldest %s payloads.", evicted, baseType);
+					return evicted;
+				}
+			}
+			return 0;
+		} finally {
+			ensureClosed(cursor);
+		}
+	}
+
+	/**
+	 * Sends a metric with the number of payloads dropped of each type. The metric is an event itself, and can cause more
+	 * events to be dropped, so it's sent at most once per {@link #EVICTED_PAYLOADS_REPORT_INTERVAL_MILLIS}.
+	 */
+	private void reportEvictedPayloads(long now) {
+		if (evictedPayloadCounts.isEmpty() || now - lastEvictedPayloadsReportTime < EVICTED_PAYLOADS_REPORT_INTERVAL_MILLIS) {
+			return;
+		}
+		Map<String, String> data = new HashMap<String, String>();
+		for (Map.Entry<Payload.BaseType, Integer> entry : evictedPayloadCounts.entrySet()) {
+			data.put(entry.getKey().name(), entry.getValue().toString());
+		}
+		evictedPayloadCounts.clear();
+		lastEvictedPayloadsReportTime = now;
+		MetricModule.sendMetric(Event.EventLabel.payload_queue__evict, null, data);
+	}
+
 	public void deletePayload(Payload payload) {
 		if (payload != null) {
 			SQLiteDatabase db = null;
@@ -231,6 +606,25 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		}
 	}
 
+	public void deletePayloads(List<Payload> payloads) {
+		if (payloads != null && !payloads.isEmpty()) {
+			StringBuilder ids = new StringBuilder();
+			for (Payload payload : payloads) {
+				if (ids.length() > 0) {
+					ids.append(',');
+				}
+				ids.append(payload.getDatabaseId());
+			}
+			SQLiteDatabase db = null;
+			try {
+				db = getWritableDatabase();
+				db.delete(TABLE_PAYLOAD, PAYLOAD_KEY_DB_ID + " IN (" + ids + ")", null);
+			} catch (SQLException sqe) {
+				ApptentiveLog.e("deletePayloads EXCEPTION: " + sqe.getMessage());
+			}
+		}
+	}
+
 	public void deleteAllPayloads() {
 		SQLiteDatabase db = null;
 		try {
@@ -241,6 +635,10 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		}
 	}
 
+	/**
+	 * Returns the oldest payload of the highest priority lane, so queued messages and survey responses aren't held back
+	 * by a backlog of events.
+	 */
 	public Payload getOldestUnsentPayload() {
 
 		SQLiteDatabase db = null;
@@ -267,6 +665,48 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		}
 	}
 
+	/**
+	 * Reads the next unsent payloads in a single query, from the highest priority lane that has any. Only consecutive
+	 * payloads of the same batchable type are returned together, so payloads within a lane are still sent in the order
+	 * they were added.
+	 *
+	 * @param maxCount the maximum number of payloads to return
+	 * @param maxBytes the maximum combined json size of the payloads to return. The oldest payload is always returned.
+	 */
+	public List<Payload> getOldestUnsentPayloads(int maxCount, int maxBytes) {
+		List<Payload> payloads = new ArrayList<Payload>();
+		SQLiteDatabase db = null;
+		Cursor cursor = null;
+		try {
+			db = getWritableDatabase();
+			cursor = db.rawQuery(QUERY_PAYLOAD_GET_NEXT_BATCH_TO_SEND, new String[]{Integer.toString(Math.max(1, maxCount))});
+			Payload.BaseType batchType = null;
+			int totalBytes = 0;
+			while (cursor.moveToNext()) {
+				Payload.BaseType baseType = Payload.BaseType.parse(cursor.getString(1));
+				String json = cursor.getString(2);
+				if (batchType != null) {
+					if (baseType != batchType || !PayloadBatch.isBatchable(baseType) || totalBytes + json.length() > maxBytes) {
+						break;
+					}
+				}
+				Payload payload = PayloadFactory.fromJson(json, baseType);
+				if (payload == null) {
+					break;
+				}
+				payload.setDatabaseId(Long.parseLong(cursor.getString(0)));
+				payloads.add(payload);
+				batchType = baseType;
+				totalBytes += json.length();
+			}
+		} catch (SQLException sqe) {
+			ApptentiveLog.e("getOldestUnsentPayloads EXCEPTION: " + sqe.getMessage());
+		} finally {
+			ensureClosed(cursor);
+		}
+		return payloads;
+	}
+
 	// MessageStore
 
 	/**
@@ -290,6 +730,7 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 							messageValues.put(MESSAGE_KEY_READ, TRUE);
 						}
 						messageValues.put(MESSAGE_KEY_JSON, apptentiveMessage.toString());
+						putMessageColumnsFromJson(messageValues, apptentiveMessage);
 						db.update(TABLE_MESSAGE, messageValues, MESSAGE_KEY_DB_ID + " = ?", new String[]{databaseId});
 					} else {
 						// Insert
@@ -301,6 +742,7 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 						messageValues.put(MESSAGE_KEY_STATE, apptentiveMessage.getState().name());
 						messageValues.put(MESSAGE_KEY_READ, apptentiveMessage.isRead() ? TRUE : FALSE);
 						messageValues.put(MESSAGE_KEY_JSON, apptentiveMessage.toString());
+						putMessageColumnsFromJson(messageValues, apptentiveMessage);
 						db.insert(TABLE_MESSAGE, null, messageValues);
 						db.setTransactionSuccessful();
 						db.endTransaction();
@@ -328,6 +770,7 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 				values.put(MESSAGE_KEY_READ, TRUE);
 			}
 			values.put(MESSAGE_KEY_JSON, apptentiveMessage.toString());
+			putMessageColumnsFromJson(values, apptentiveMessage);
 			db.update(TABLE_MESSAGE, values, MESSAGE_KEY_NONCE + " = ?", new String[]{apptentiveMessage.getNonce()});
 			db.setTransactionSuccessful();
 		} catch (SQLException sqe) {
@@ -339,6 +782,17 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		}
 	}
 
+	/**
+	 * Puts the values of the columns that are copied out of the message json.
+	 */
+	private static void putMessageColumnsFromJson(ContentValues values, ApptentiveMessage apptentiveMessage) {
+		String id = apptentiveMessage.getId();
+		values.put(MESSAGE_KEY_SENDER_ID, apptentiveMessage.getSenderId());
+		values.put(MESSAGE_KEY_HIDDEN, apptentiveMessage.isHidden() ? TRUE : FALSE);
+		values.put(MESSAGE_KEY_CREATED_AT, apptentiveMessage.getCreatedAt());
+		values.put(MESSAGE_KEY_SORT_ID, id != null ? id : MESSAGE_SORT_ID_UNSENT);
+	}
+
 	public List<ApptentiveMessage> getAllMessages() {
 		List<ApptentiveMessage> apptentiveMessages = new ArrayList<ApptentiveMessage>();
 		SQLiteDatabase db = null;
@@ -348,16 +802,10 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 			cursor = db.rawQuery(QUERY_MESSAGE_GET_ALL_IN_ORDER, null);
 			if (cursor.moveToFirst()) {
 				do {
-					String json = cursor.getString(6);
-					ApptentiveMessage apptentiveMessage = MessageFactory.fromJson(json);
-					if (apptentiveMessage == null) {
-						ApptentiveLog.e("Error parsing Record json from database: %s", json);
-						continue;
+					ApptentiveMessage apptentiveMessage = readMessage(cursor);
+					if (apptentiveMessage != null) {
+						apptentiveMessages.add(apptentiveMessage);
 					}
-					apptentiveMessage.setDatabaseId(cursor.getLong(0));
-					apptentiveMessage.setState(ApptentiveMessage.State.parse(cursor.getString(4)));
-					apptentiveMessage.setRead(cursor.getInt(5) == TRUE);
-					apptentiveMessages.add(apptentiveMessage);
 				} while (cursor.moveToNext());
 			}
 		} catch (SQLException sqe) {
@@ -368,6 +816,111 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		return apptentiveMessages;
 	}
 
+	/**
+	 * Gets a page of messages in the order of {@link #getAllMessages()}, walking backwards from the newest one. Hidden
+	 * messages are left out.
+	 *
+	 * @param id         The server id of the oldest message already loaded, or null if it hasn't been sent yet.
+	 * @param databaseId The database id of the oldest message already loaded, or 0 to get the newest messages.
+	 * @param count      The maximum number of messages to get.
+	 * @return The messages that come right before the given one, oldest first.
+	 */
+	public List<ApptentiveMessage> getMessagesBefore(String id, long databaseId, int count) {
+		List<ApptentiveMessage> apptentiveMessages = new ArrayList<ApptentiveMessage>(count);
+		SQLiteDatabase db = null;
+		Cursor cursor = null;
+		try {
+			db = getReadableDatabase();
+			if (databaseId > 0) {
+				String sortKey = id != null ? id : MESSAGE_SORT_ID_UNSENT;
+				cursor = db.rawQuery(QUERY_MESSAGE_GET_OLDER, new String[]{sortKey, sortKey, String.valueOf(databaseId), String.valueOf(count)});
+			} else {
+				cursor = db.rawQuery(QUERY_MESSAGE_GET_NEWEST, new String[]{String.valueOf(count)});
+			}
+			if (cursor.moveToLast()) {
+				do {
+					ApptentiveMessage apptentiveMessage = readMessage(cursor);
+					if (apptentiveMessage != null) {
+						apptentiveMessages.add(apptentiveMessage);
+					}
+				} while (cursor.moveToPrevious());
+			}
+		} catch (SQLException sqe) {
+			ApptentiveLog.e("getMessagesBefore EXCEPTION: " + sqe.getMessage());
+		} finally {
+			ensureClosed(cursor);
+		}
+		return apptentiveMessages;
+	}
+
+	/**
+	 * Reads the message at the cursor, parsing its json only if it isn't cached already. Every call builds a new message
+	 * from a copy of the cached json, so callers can change it freely.
+	 */
+	private ApptentiveMessage readMessage(Cursor cursor) {
+		String nonce = cursor.getString(3);
+		String json = cursor.getString(6);
+		JSONObject parsedJson = null;
+		synchronized (messageCache) {
+			CachedMessageJson cached = nonce != null ? messageCache.get(nonce) : null;
+			if (cached != null && cached.json.equals(json)) {
+				parsedJson = cached.parsedJson;
+			}
+		}
+		ApptentiveMessage apptentiveMessage = null;
+		try {
+			if (parsedJson == null) {
+				parsedJson = new JSONObject(json);
+				if (nonce != null) {
+					synchronized (messageCache) {
+						messageCache.put(nonce, new CachedMessageJson(json, parsedJson));
+					}
+				}
+			}
+			apptentiveMessage = MessageFactory.fromJson(copyOf(parsedJson));
+		} catch (JSONException e) {
+			// Handled below
+		}
+		if (apptentiveMessage == null) {
+			ApptentiveLog.e("Error parsing Record json from database: %s", json);
+			return null;
+		}
+		apptentiveMessage.setDatabaseId(cursor.getLong(0));
+		apptentiveMessage.setState(ApptentiveMessage.State.parse(cursor.getString(4)));
+		apptentiveMessage.setRead(cursor.getInt(5) == TRUE);
+		return apptentiveMessage;
+	}
+
+	/**
+	 * Copies the json tree, so that the cached one is never handed out. Walking the tree is cheaper than parsing the
+	 * string again.
+	 */
+	private static JSONObject copyOf(JSONObject json) throws JSONException {
+		JSONObject copy = new JSONObject();
+		Iterator<?> keys = json.keys();
+		while (keys.hasNext()) {
+			String key = (String) keys.next();
+			copy.put(key, copyOfValue(json.get(key)));
+		}
+		return copy;
+	}
+
+	private static Object copyOfValue(Object value) throws JSONException {
+		if (value instanceof JSONObject) {
+			return copyOf((JSONObject) value);
+		}
+		if (value instanceof JSONArray) {
+			JSONArray array = (JSONArray) value;
+			JSONArray copy = new JSONArray();
+			for (int i = 0; i < array.length(); i++) {
+				copy.put(copyOfValue(array.get(i)));
+			}
+			return copy;
+		}
+		// Strings, numbers, booleans and JSONObject.NULL can't be changed
+		return value;
+	}
+
 	public synchronized String getLastReceivedMessageId() {
 		SQLiteDatabase db = null;
 		Cursor cursor = null;
@@ -392,7 +945,7 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		try {
 			db = getWritableDatabase();
 			cursor = db.rawQuery(QUERY_MESSAGE_UNREAD, null);
-			return cursor.getCount();
+			return cursor.moveToFirst() ? cursor.getInt(0) : 0;
 		} catch (SQLException sqe) {
 			ApptentiveLog.e("getUnreadMessageCount EXCEPTION: " + sqe.getMessage());
 			return 0;
@@ -460,9 +1013,9 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		} finally {
 			ensureClosed(cursor);
 		}
-		// Migrate legacy message types to CompoundMessage Type
+		// Migrate legacy message types to CompoundMessage Type. The message table doesn't have its later columns yet.
 		try {
-			cursor = db.rawQuery(QUERY_MESSAGE_GET_ALL_IN_ORDER, null);
+			cursor = db.rawQuery("SELECT * FROM " + TABLE_MESSAGE, null);
 			if (cursor.moveToFirst()) {
 				do {
 					String json = cursor.getString(6);
@@ -586,6 +1139,8 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 					ret.setSourceUriOrPath(cursor.getString(4));
 					ret.setApptentiveUri(cursor.getString(5));
 					ret.setCreationTime(cursor.getLong(6));
+					ret.setSize(cursor.getLong(7));
+					ret.setChecksum(cursor.getString(8));
 					associatedFiles.add(ret);
 				} while (cursor.moveToNext());
 			}
@@ -622,6 +1177,8 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 				values.put(COMPOUND_FILESTORE_KEY_LOCAL_ORIGINAL_URI, file.getSourceUriOrPath());
 				values.put(COMPOUND_FILESTORE_KEY_REMOTE_URL, file.getApptentiveUri());
 				values.put(COMPOUND_FILESTORE_KEY_CREATION_TIME, file.getCreationTime());
+				values.put(COMPOUND_FILESTORE_KEY_SIZE, file.getSize());
+				values.put(COMPOUND_FILESTORE_KEY_CHECKSUM, file.getChecksum());
 				ret = db.insert(TABLE_COMPOUND_MESSAGE_FILESTORE, null, values);
 			}
 			db.setTransactionSuccessful();
@@ -633,6 +1190,165 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		}
 	}
 
+	/**
+	 * Records the size and checksum of an attachment once its local file is ready to upload.
+	 */
+	public void updateCompoundMessageFile(StoredFile file) {
+		SQLiteDatabase db = null;
+		try {
+			db = getWritableDatabase();
+			ContentValues values = new ContentValues();
+			values.put(COMPOUND_FILESTORE_KEY_SIZE, file.getSize());
+			values.put(COMPOUND_FILESTORE_KEY_CHECKSUM, file.getChecksum());
+			db.update(TABLE_COMPOUND_MESSAGE_FILESTORE, values, COMPOUND_FILESTORE_KEY_MESSAGE_NONCE + " = ? AND " + COMPOUND_FILESTORE_KEY_LOCAL_CACHE_PATH + " = ?", new String[]{file.getId(), file.getLocalFilePath()});
+		} catch (SQLException sqe) {
+			ApptentiveLog.e("updateCompoundMessageFile EXCEPTION: " + sqe.getMessage());
+		}
+	}
+
+	// CodePointStore
+
+	public void addCodePointInvokes(List<CodePointStore.Invoke> invokes) {
+		try {
+			SQLiteDatabase db = getWritableDatabase();
+			SQLiteStatement increment = null;
+			SQLiteStatement insert = null;
+			db.beginTransaction();
+			try {
+				increment = db.compileStatement(STATEMENT_CODE_POINT_INCREMENT);
+				insert = db.compileStatement(STATEMENT_CODE_POINT_INSERT);
+				for (CodePointStore.Invoke invoke : invokes) {
+					String recordType = invoke.interaction ? CodePointStore.KEY_INTERACTIONS : CodePointStore.KEY_CODE_POINT;
+					incrementCodePoint(increment, insert, recordType, invoke.name, CodePointStore.KEY_TOTAL, "", invoke.time);
+					incrementCodePoint(increment, insert, recordType, invoke.name, CodePointStore.KEY_VERSION_NAME, invoke.versionName, invoke.time);
+					incrementCodePoint(increment, insert, recordType, invoke.name, CodePointStore.KEY_VERSION_CODE, invoke.versionCode, invoke.time);
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				ensureClosed(increment);
+				ensureClosed(insert);
+				db.endTransaction();
+			}
+		} catch (SQLException sqe) {
+			ApptentiveLog.e("addCodePointInvokes EXCEPTION: " + sqe.getMessage());
+		}
+	}
+
+	private void incrementCodePoint(SQLiteStatement increment, SQLiteStatement insert, String recordType, String name, String selector, String version, double time) {
+		increment.bindDouble(1, time);
+		increment.bindString(2, recordType);
+		increment.bindString(3, name);
+		increment.bindString(4, selector);
+		increment.bindString(5, version);
+		if (increment.executeUpdateDelete() == 0) {
+			insertCodePoint(insert, recordType, name, selector, version, 1, time);
+		}
+	}
+
+	private void insertCodePoint(SQLiteStatement insert, String recordType, String name, String selector, String version, long invokes, double time) {
+		insert.bindDouble(1, time);
+		insert.bindString(2, recordType);
+		insert.bindString(3, name);
+		insert.bindString(4, selector);
+		insert.bindString(5, version);
+		insert.bindLong(6, invokes);
+		insert.executeInsert();
+	}
+
+	/**
+	 * @return The history of each of the code points or interactions that has been invoked, keyed by name, or null if
+	 * they couldn't be read.
+	 */
+	public Map<String, CodePointStore.Record> getCodePointRecords(boolean interaction, Collection<String> names) {
+		Map<String, CodePointStore.Record> records = new HashMap<String, CodePointStore.Record>();
+		try {
+			SQLiteDatabase db = getWritableDatabase();
+			for (String name : names) {
+				CodePointStore.Record record = getCodePointRecord(db, interaction, name);
+				if (record != null) {
+					records.put(name, record);
+				}
+			}
+			return records;
+		} catch (SQLException sqe) {
+			ApptentiveLog.e("getCodePointRecords EXCEPTION: " + sqe.getMessage());
+			return null;
+		}
+	}
+
+	private CodePointStore.Record getCodePointRecord(SQLiteDatabase db, boolean interaction, String name) {
+		Cursor cursor = null;
+		try {
+			cursor = db.rawQuery(QUERY_CODE_POINT_GET_BY_NAME, new String[]{interaction ? CodePointStore.KEY_INTERACTIONS : CodePointStore.KEY_CODE_POINT, name});
+			if (cursor.getCount() == 0) {
+				return null;
+			}
+			double last = 0;
+			long total = 0;
+			Map<String, Long> versionNameInvokes = new HashMap<String, Long>();
+			Map<String, Long> versionCodeInvokes = new HashMap<String, Long>();
+			while (cursor.moveToNext()) {
+				String selector = cursor.getString(0);
+				if (CodePointStore.KEY_TOTAL.equals(selector)) {
+					total = cursor.getLong(2);
+					last = cursor.getDouble(3);
+				} else if (CodePointStore.KEY_VERSION_NAME.equals(selector)) {
+					versionNameInvokes.put(cursor.getString(1), cursor.getLong(2));
+				} else if (CodePointStore.KEY_VERSION_CODE.equals(selector)) {
+					versionCodeInvokes.put(cursor.getString(1), cursor.getLong(2));
+				}
+			}
+			return new CodePointStore.Record(last, total, versionNameInvokes, versionCodeInvokes);
+		} finally {
+			ensureClosed(cursor);
+		}
+	}
+
+	public boolean importCodePointRecords(Map<String, CodePointStore.Record> codePoints, Map<String, CodePointStore.Record> interactions) {
+		try {
+			SQLiteDatabase db = getWritableDatabase();
+			SQLiteStatement insert = null;
+			db.beginTransaction();
+			try {
+				insert = db.compileStatement(STATEMENT_CODE_POINT_IMPORT);
+				importCodePointRecords(insert, CodePointStore.KEY_CODE_POINT, codePoints);
+				importCodePointRecords(insert, CodePointStore.KEY_INTERACTIONS, interactions);
+				db.setTransactionSuccessful();
+			} finally {
+				ensureClosed(insert);
+				db.endTransaction();
+			}
+			return true;
+		} catch (SQLException sqe) {
+			ApptentiveLog.e("importCodePointRecords EXCEPTION: " + sqe.getMessage());
+			return false;
+		}
+	}
+
+	private void importCodePointRecords(SQLiteStatement insert, String recordType, Map<String, CodePointStore.Record> records) {
+		for (Map.Entry<String, CodePointStore.Record> entry : records.entrySet()) {
+			String name = entry.getKey();
+			CodePointStore.Record record = entry.getValue();
+			insertCodePoint(insert, recordType, name, CodePointStore.KEY_TOTAL, "", record.getTotal(), record.getLast());
+			for (Map.Entry<String, Long> invokes : record.getVersionNameInvokes().entrySet()) {
+				insertCodePoint(insert, recordType, name, CodePointStore.KEY_VERSION_NAME, invokes.getKey(), invokes.getValue(), record.getLast());
+			}
+			for (Map.Entry<String, Long> invokes : record.getVersionCodeInvokes().entrySet()) {
+				insertCodePoint(insert, recordType, name, CodePointStore.KEY_VERSION_CODE, invokes.getKey(), invokes.getValue(), record.getLast());
+			}
+		}
+	}
+
+	public void deleteAllCodePointRecords() {
+		SQLiteDatabase db = null;
+		try {
+			db = getWritableDatabase();
+			db.delete(TABLE_CODE_POINT, null, null);
+		} catch (SQLException sqe) {
+			ApptentiveLog.e("deleteAllCodePointRecords EXCEPTION: " + sqe.getMessage());
+		}
+	}
+
 	public void reset(Context context) {
 		/**
 		 * The following ONLY be used during development and testing. It will delete the database, including all saved
@@ -641,4 +1357,13 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		context.deleteDatabase(DATABASE_NAME);
 	}
 
+	private static class CachedMessageJson {
+		final String json;
+		final JSONObject parsedJson;
+
+		CachedMessageJson(String json, JSONObject parsedJson) {
+			this.json = json;
+			this.parsedJson = parsedJson;
+		}
+	}
 }
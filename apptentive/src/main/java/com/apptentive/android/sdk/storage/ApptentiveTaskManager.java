@@ -8,22 +8,30 @@ package com.apptentive.android.sdk.storage;
 
 import android.content.Context;
 
+import com.apptentive.android.sdk.model.CodePointStore;
 import com.apptentive.android.sdk.model.Payload;
 import com.apptentive.android.sdk.model.StoredFile;
 import com.apptentive.android.sdk.module.messagecenter.model.ApptentiveMessage;
+import com.apptentive.android.sdk.util.Constants;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 
-public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageStore {
+public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageStore, CodePointRecordStore {
+
+	private static final Future<Boolean> NOTHING_TO_WRITE = completed(true);
 
 	private ApptentiveDatabaseHelper dbHelper;
-	private ThreadPoolExecutor singleThreadExecutor;
+	private ScheduledThreadPoolExecutor singleThreadExecutor;
+	private GroupCommitQueue groupCommit;
 
 	/*
 	 * Creates an asynchronous task manager with one worker thread. This constructor must be invoked on the UI thread.
@@ -33,16 +41,83 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageS
 		/* When a new database task is submitted, the executor has the following behaviors:
 		 * 1. If the thread pool has no thread yet, it creates a single worker thread.
 		 * 2. If the single worker thread is running with tasks, it queues tasks.
-		 * 3. If the queue is full, the task will be rejected and run on caller thread.
+		 * 3. Delayed tasks, such as the group commit of pending writes, wait in the same queue until they are due.
 		 *
 		 */
-		singleThreadExecutor = new ThreadPoolExecutor(1, 1,
-				30L, TimeUnit.SECONDS,
-				new LinkedBlockingQueue<Runnable>(),
-				new ThreadPoolExecutor.CallerRunsPolicy());
+		singleThreadExecutor = new ScheduledThreadPoolExecutor(1, new ThreadPoolExecutor.CallerRunsPolicy());
 
 		// If no new task arrives in 30 seconds, the worker thread terminates; otherwise it will be reused
+		singleThreadExecutor.setKeepAliveTime(30L, TimeUnit.SECONDS);
 		singleThreadExecutor.allowCoreThreadTimeOut(true);
+
+		groupCommit = new GroupCommitQueue(singleThreadExecutor, new GroupCommitQueue.TransactionRunner() {
+			@Override
+			public boolean runInTransaction(List<? extends Runnable> writes) {
+				return dbHelper.runInTransaction(writes);
+			}
+		}, Constants.CONFIG_DEFAULT_GROUP_COMMIT_MAX_LATENCY_MILLIS, Constants.CONFIG_DEFAULT_GROUP_COMMIT_MAX_COUNT);
+	}
+
+	/**
+	 * @param maxLatencyMillis How long a write can wait for others to be committed with it. 0 commits every write on
+	 *                         its own.
+	 * @param maxCount         The number of pending writes that are committed right away, without waiting any longer.
+	 */
+	public void setGroupCommitLimits(long maxLatencyMillis, int maxCount) {
+		groupCommit.setLimits(maxLatencyMillis, maxCount);
+	}
+
+	/**
+	 * @param limits The caps on the payloads of each type waiting to be sent. When a cap is exceeded, the oldest
+	 *               payloads of that type are dropped as new ones are added.
+	 */
+	public void setPayloadQueueLimits(PayloadQueueLimits limits) {
+		dbHelper.setPayloadQueueLimits(limits);
+	}
+
+	/**
+	 * Commits pending writes without waiting for the rest of their batch, for example when the app goes to the
+	 * background and the process may be killed.
+	 */
+	public void commitPendingWrites() {
+		singleThreadExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				groupCommit.flush();
+			}
+		});
+	}
+
+	/**
+	 * Queues a write to be committed with others in a single transaction.
+	 *
+	 * @return A Future that completes with true once the write is durable.
+	 */
+	private Future<Boolean> write(Runnable write) {
+		return groupCommit.add(write);
+	}
+
+	/**
+	 * Runs the task on the database thread after committing any pending writes, so it sees every write queued before it.
+	 */
+	private <T> Future<T> submit(final Callable<T> task) {
+		return singleThreadExecutor.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				groupCommit.flush();
+				return task.call();
+			}
+		});
+	}
+
+	private static Future<Boolean> completed(boolean value) {
+		FutureTask<Boolean> future = new FutureTask<Boolean>(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}, value);
+		future.run();
+		return future;
 	}
 
 
@@ -66,8 +141,8 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageS
 	 * If an item with the same nonce as an item passed in already exists, it is overwritten by the item. Otherwise
 	 * a new message is added.
 	 */
-	public void addPayload(final Payload... payloads) {
-		singleThreadExecutor.execute(new Runnable() {
+	public Future<Boolean> addPayload(final Payload... payloads) {
+		return write(new Runnable() {
 			@Override
 			public void run() {
 				dbHelper.addPayload(payloads);
@@ -75,19 +150,32 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageS
 		});
 	}
 
-	public void deletePayload(final Payload payload){
+	public Future<Boolean> deletePayload(final Payload payload) {
 		if (payload != null) {
-			singleThreadExecutor.execute(new Runnable() {
+			return write(new Runnable() {
 				@Override
 				public void run() {
 					dbHelper.deletePayload(payload);
 				}
 			});
 		}
+		return NOTHING_TO_WRITE;
 	}
 
-	public void deleteAllPayloads() {
-		singleThreadExecutor.execute(new Runnable() {
+	public Future<Boolean> deletePayloads(final List<Payload> payloads) {
+		if (payloads != null && !payloads.isEmpty()) {
+			return write(new Runnable() {
+				@Override
+				public void run() {
+					dbHelper.deletePayloads(payloads);
+				}
+			});
+		}
+		return NOTHING_TO_WRITE;
+	}
+
+	public Future<Boolean> deleteAllPayloads() {
+		return write(new Runnable() {
 			@Override
 			public void run() {
 				dbHelper.deleteAllPayloads();
@@ -96,7 +184,7 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageS
 	}
 
 	public synchronized Future<Payload> getOldestUnsentPayload() throws Exception {
-		return singleThreadExecutor.submit(new Callable<Payload>() {
+		return submit(new Callable<Payload>() {
 			@Override
 			public Payload call() throws Exception {
 				return dbHelper.getOldestUnsentPayload();
@@ -104,9 +192,18 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageS
 		});
 	}
 
+	public synchronized Future<List<Payload>> getOldestUnsentPayloads(final int maxCount, final int maxBytes) throws Exception {
+		return submit(new Callable<List<Payload>>() {
+			@Override
+			public List<Payload> call() throws Exception {
+				return dbHelper.getOldestUnsentPayloads(maxCount, maxBytes);
+			}
+		});
+	}
+
 	@Override
-	public void addOrUpdateMessages(final ApptentiveMessage... apptentiveMessages) {
-		singleThreadExecutor.execute(new Runnable() {
+	public Future<Boolean> addOrUpdateMessages(final ApptentiveMessage... apptentiveMessages) {
+		return write(new Runnable() {
 			@Override
 			public void run() {
 				dbHelper.addOrUpdateMessages(apptentiveMessages);
@@ -115,8 +212,8 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageS
 	}
 
 	@Override
-	public void updateMessage(final ApptentiveMessage apptentiveMessage) {
-		singleThreadExecutor.execute(new Runnable() {
+	public Future<Boolean> updateMessage(final ApptentiveMessage apptentiveMessage) {
+		return write(new Runnable() {
 			@Override
 			public void run() {
 				dbHelper.updateMessage(apptentiveMessage);
@@ -126,7 +223,7 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageS
 
 	@Override
 	public Future<List<ApptentiveMessage>> getAllMessages() throws Exception {
-		return singleThreadExecutor.submit(new Callable<List<ApptentiveMessage>>() {
+		return submit(new Callable<List<ApptentiveMessage>>() {
 			@Override
 			public List<ApptentiveMessage> call() throws Exception {
 				List<ApptentiveMessage> result = dbHelper.getAllMessages();
@@ -135,9 +232,19 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageS
 		});
 	}
 
+	@Override
+	public Future<List<ApptentiveMessage>> getMessagesBefore(final String id, final long databaseId, final int count) throws Exception {
+		return submit(new Callable<List<ApptentiveMessage>>() {
+			@Override
+			public List<ApptentiveMessage> call() throws Exception {
+				return dbHelper.getMessagesBefore(id, databaseId, count);
+			}
+		});
+	}
+
 	@Override
 	public Future<String> getLastReceivedMessageId() throws Exception {
-		return singleThreadExecutor.submit(new Callable<String>() {
+		return submit(new Callable<String>() {
 			@Override
 			public String call() throws Exception {
 				return dbHelper.getLastReceivedMessageId();
@@ -147,7 +254,7 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageS
 
 	@Override
 	public Future<Integer> getUnreadMessageCount() throws Exception {
-		return singleThreadExecutor.submit(new Callable<Integer>() {
+		return submit(new Callable<Integer>() {
 			@Override
 			public Integer call() throws Exception {
 				return dbHelper.getUnreadMessageCount();
@@ -156,8 +263,8 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageS
 	}
 
 	@Override
-	public void deleteAllMessages() {
-		singleThreadExecutor.execute(new Runnable() {
+	public Future<Boolean> deleteAllMessages() {
+		return write(new Runnable() {
 			@Override
 			public void run() {
 				dbHelper.deleteAllMessages();
@@ -166,8 +273,8 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageS
 	}
 
 	@Override
-	public void deleteMessage(final String nonce) {
-		singleThreadExecutor.execute(new Runnable() {
+	public Future<Boolean> deleteMessage(final String nonce) {
+		return write(new Runnable() {
 			@Override
 			public void run() {
 				dbHelper.deleteMessage(nonce);
@@ -175,8 +282,8 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageS
 		});
 	}
 
-	public void deleteAssociatedFiles(final String messageNonce) {
-		singleThreadExecutor.execute(new Runnable() {
+	public Future<Boolean> deleteAssociatedFiles(final String messageNonce) {
+		return write(new Runnable() {
 			@Override
 			public void run() {
 				dbHelper.deleteAssociatedFiles(messageNonce);
@@ -185,7 +292,7 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageS
 	}
 
 	public Future<List<StoredFile>> getAssociatedFiles(final String nonce) throws Exception {
-		return singleThreadExecutor.submit(new Callable<List<StoredFile>>() {
+		return submit(new Callable<List<StoredFile>>() {
 			@Override
 			public List<StoredFile> call() throws Exception {
 				return dbHelper.getAssociatedFiles(nonce);
@@ -194,7 +301,7 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageS
 	}
 
 	public Future<Boolean> addCompoundMessageFiles(final List<StoredFile> associatedFiles) throws Exception{
-		return singleThreadExecutor.submit(new Callable<Boolean>() {
+		return submit(new Callable<Boolean>() {
 			@Override
 			public Boolean call() throws Exception {
 				return dbHelper.addCompoundMessageFiles(associatedFiles);
@@ -202,6 +309,55 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, MessageS
 		});
 	}
 
+	public Future<Boolean> updateCompoundMessageFile(final StoredFile file) {
+		return write(new Runnable() {
+			@Override
+			public void run() {
+				dbHelper.updateCompoundMessageFile(file);
+			}
+		});
+	}
+
+	@Override
+	public Future<Boolean> addCodePointInvokes(final List<CodePointStore.Invoke> invokes) {
+		return write(new Runnable() {
+			@Override
+			public void run() {
+				dbHelper.addCodePointInvokes(invokes);
+			}
+		});
+	}
+
+	@Override
+	public Future<Map<String, CodePointStore.Record>> getCodePointRecords(final boolean interaction, final Collection<String> names) throws Exception {
+		return submit(new Callable<Map<String, CodePointStore.Record>>() {
+			@Override
+			public Map<String, CodePointStore.Record> call() throws Exception {
+				return dbHelper.getCodePointRecords(interaction, names);
+			}
+		});
+	}
+
+	@Override
+	public Future<Boolean> importCodePointRecords(final Map<String, CodePointStore.Record> codePoints, final Map<String, CodePointStore.Record> interactions) throws Exception {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return dbHelper.importCodePointRecords(codePoints, interactions);
+			}
+		});
+	}
+
+	@Override
+	public Future<Boolean> deleteAllCodePointRecords() {
+		return write(new Runnable() {
+			@Override
+			public void run() {
+				dbHelper.deleteAllCodePointRecords();
+			}
+		});
+	}
+
 	public void reset(Context context) {
 		dbHelper.reset(context);
 	}
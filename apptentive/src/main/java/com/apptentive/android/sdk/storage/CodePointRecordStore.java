@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.storage;
+
+import com.apptentive.android.sdk.model.CodePointStore;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Persistent invocation history of code points and interactions, backing {@link CodePointStore}.
+ */
+public interface CodePointRecordStore {
+
+	/* Records each invoke, all in one transaction.
+	 */
+	public Future<Boolean> addCodePointInvokes(List<CodePointStore.Invoke> invokes);
+
+	/* Asynchronous call to read the history of the given code points or interactions, keyed by name. Names that have
+	 * never been invoked are left out, and the Future returns null if the history could not be read. Calling get()
+	 * method on the returned Future object will block the caller until the Future has completed,
+	 */
+	public Future<Map<String, CodePointStore.Record>> getCodePointRecords(boolean interaction, Collection<String> names) throws Exception;
+
+	/* Adds the given records, which are keyed by name, in one transaction. Records that are already stored are kept, so
+	 * importing the same records again changes nothing. Used to migrate the SharedPreferences version of the store. The
+	 * Future returns false if the records could not be saved.
+	 */
+	public Future<Boolean> importCodePointRecords(Map<String, CodePointStore.Record> codePoints, Map<String, CodePointStore.Record> interactions) throws Exception;
+
+	public Future<Boolean> deleteAllCodePointRecords();
+}
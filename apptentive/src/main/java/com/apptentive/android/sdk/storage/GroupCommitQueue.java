@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.storage;
+
+import com.apptentive.android.sdk.ApptentiveLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects database writes and runs them in batches, each inside a single transaction, so a burst of writes costs one
+ * commit instead of one per write. A write waits at most <code>maxLatencyMillis</code> for others to join its batch,
+ * and a full batch is committed right away.
+ * <p/>
+ * All writes and all calls to {@link #flush()} must happen on the executor's single thread. Reads running on that
+ * thread call {@link #flush()} first, so they always see the writes that were queued before them.
+ */
+class GroupCommitQueue {
+
+	interface TransactionRunner {
+		/**
+		 * Runs the writes inside a single transaction.
+		 *
+		 * @return true if the transaction was committed.
+		 */
+		boolean runInTransaction(List<? extends Runnable> writes);
+	}
+
+	private final ScheduledExecutorService executor;
+	private final TransactionRunner runner;
+	private final List<Write> pending = new ArrayList<Write>();
+	private volatile long maxLatencyMillis;
+	private volatile int maxBatchSize;
+	private boolean flushScheduled;
+
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	GroupCommitQueue(ScheduledExecutorService executor, TransactionRunner runner, long maxLatencyMillis, int maxBatchSize) {
+		this.executor = executor;
+		this.runner = runner;
+		setLimits(maxLatencyMillis, maxBatchSize);
+	}
+
+	void setLimits(long maxLatencyMillis, int maxBatchSize) {
+		this.maxLatencyMillis = Math.max(0, maxLatencyMillis);
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+	}
+
+	/**
+	 * @return A Future that completes with true once the write is committed, or false if it failed.
+	 */
+	Future<Boolean> add(Runnable operation) {
+		Write write = new Write(operation);
+		synchronized (pending) {
+			pending.add(write);
+			if (pending.size() >= maxBatchSize || maxLatencyMillis == 0) {
+				flushScheduled = true;
+				executor.execute(flushTask);
+			} else if (!flushScheduled) {
+				flushScheduled = true;
+				executor.schedule(flushTask, maxLatencyMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+		return write;
+	}
+
+	/**
+	 * Commits every pending write. Must be called on the executor thread.
+	 */
+	void flush() {
+		List<Write> batch;
+		synchronized (pending) {
+			flushScheduled = false;
+			if (pending.isEmpty()) {
+				return;
+			}
+			batch = new ArrayList<Write>(pending);
+			pending.clear();
+		}
+
+		if (run(batch)) {
+			for (Write write : batch) {
+				write.complete(true);
+			}
+			return;
+		}
+
+		if (batch.size() > 1) {
+			// A single failed write rolls back the whole batch. Retry them one at a time, so only that one is lost.
+			ApptentiveLog.w("Group commit of %d writes failed. Retrying one at a time.", batch.size());
+			for (Write write : batch) {
+				write.complete(run(Collections.singletonList(write)));
+			}
+		} else {
+			batch.get(0).complete(false);
+		}
+	}
+
+	/**
+	 * Writes that were queued but haven't been committed yet.
+	 */
+	int getPendingCount() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	private boolean run(List<Write> batch) {
+		try {
+			return runner.runInTransaction(batch);
+		} catch (RuntimeException e) {
+			ApptentiveLog.e("Error running database writes.", e);
+			return false;
+		}
+	}
+
+	private static class Write extends FutureTask<Boolean> implements Runnable {
+		private static final Runnable NO_OP = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+
+		private final Runnable operation;
+
+		Write(Runnable operation) {
+			super(NO_OP, null);
+			this.operation = operation;
+		}
+
+		/**
+		 * Runs the write operation. The Future is completed separately, once the transaction is over.
+		 */
+		@Override
+		public void run() {
+			operation.run();
+		}
+
+		void complete(boolean committed) {
+			set(committed);
+		}
+	}
+}
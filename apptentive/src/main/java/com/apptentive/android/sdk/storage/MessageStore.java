@@ -17,17 +17,23 @@ import java.util.concurrent.Future;
  */
 public interface MessageStore extends PayloadStore {
 
-	void addOrUpdateMessages(ApptentiveMessage... apptentiveMessage);
+	Future<Boolean> addOrUpdateMessages(ApptentiveMessage... apptentiveMessage);
 
-	void updateMessage(ApptentiveMessage apptentiveMessage);
+	Future<Boolean> updateMessage(ApptentiveMessage apptentiveMessage);
 
 	Future<List<ApptentiveMessage>> getAllMessages() throws Exception;
 
+	/**
+	 * Gets up to <code>count</code> messages that aren't hidden and come before the given one, oldest first. Pass a
+	 * databaseId of 0 to get the newest messages.
+	 */
+	Future<List<ApptentiveMessage>> getMessagesBefore(String id, long databaseId, int count) throws Exception;
+
 	Future<String> getLastReceivedMessageId() throws Exception;
 
 	Future<Integer> getUnreadMessageCount() throws Exception;
 
-	void deleteAllMessages();
+	Future<Boolean> deleteAllMessages();
 
-	void deleteMessage(String nonce);
+	Future<Boolean> deleteMessage(String nonce);
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.storage;
+
+import com.apptentive.android.sdk.model.Payload;
+import com.apptentive.android.sdk.util.Constants;
+
+import org.json.JSONObject;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Caps on the number, combined json size, and age of the queued payloads of each {@link Payload.BaseType}. When a cap
+ * is exceeded, the oldest payloads of that type are dropped first. Only events and payloads of unknown type are capped
+ * by default. Device, person, sdk and app release payloads are diffs, so dropping one loses state for good, and they
+ * are only capped when the server asks for it. Messages and survey responses hold what the person wrote, so they are
+ * never dropped.
+ * <p/>
+ * The caps can be changed by the server, per type:
+ * <pre>{"payload_queue": {"event": {"max_rows": 1000, "max_bytes": 1048576, "max_age_seconds": 2592000}}}</pre>
+ * A value of 0 or less disables that cap.
+ */
+public class PayloadQueueLimits {
+
+	private static final String KEY_MAX_ROWS = "max_rows";
+	private static final String KEY_MAX_BYTES = "max_bytes";
+	private static final String KEY_MAX_AGE_SECONDS = "max_age_seconds";
+
+	private final Map<Payload.BaseType, Limit> limits;
+
+	PayloadQueueLimits(Map<Payload.BaseType, Limit> limits) {
+		this.limits = limits;
+	}
+
+	/**
+	 * @param json The "payload_queue" object of the app configuration, or null to use the default caps.
+	 */
+	public static PayloadQueueLimits fromJson(JSONObject json) {
+		Map<Payload.BaseType, Limit> limits = new EnumMap<Payload.BaseType, Limit>(Payload.BaseType.class);
+		for (Payload.BaseType baseType : Payload.BaseType.values()) {
+			if (!isEvictable(baseType)) {
+				continue;
+			}
+			Limit defaultLimit = getDefaultLimit(baseType);
+			JSONObject limitJson = json != null ? json.optJSONObject(baseType.name()) : null;
+			if (limitJson != null) {
+				limits.put(baseType, new Limit(
+						limitJson.optInt(KEY_MAX_ROWS, defaultLimit != null ? defaultLimit.maxRows : 0),
+						limitJson.optLong(KEY_MAX_BYTES, defaultLimit != null ? defaultLimit.maxBytes : 0),
+						limitJson.has(KEY_MAX_AGE_SECONDS) ? limitJson.optLong(KEY_MAX_AGE_SECONDS) * 1000L : (defaultLimit != null ? defaultLimit.maxAgeMillis : 0)
+				));
+			} else if (defaultLimit != null) {
+				limits.put(baseType, defaultLimit);
+			}
+		}
+		return new PayloadQueueLimits(limits);
+	}
+
+	/**
+	 * @return The caps used when the server doesn't set any, or null if payloads of this type aren't capped by default.
+	 */
+	private static Limit getDefaultLimit(Payload.BaseType baseType) {
+		switch (baseType) {
+			case event:
+				return new Limit(Constants.CONFIG_DEFAULT_PAYLOAD_QUEUE_EVENT_MAX_ROWS, Constants.CONFIG_DEFAULT_PAYLOAD_QUEUE_EVENT_MAX_BYTES, Constants.CONFIG_DEFAULT_PAYLOAD_QUEUE_MAX_AGE_SECONDS * 1000L);
+			case unknown:
+				return new Limit(Constants.CONFIG_DEFAULT_PAYLOAD_QUEUE_MAX_ROWS, Constants.CONFIG_DEFAULT_PAYLOAD_QUEUE_MAX_BYTES, Constants.CONFIG_DEFAULT_PAYLOAD_QUEUE_MAX_AGE_SECONDS * 1000L);
+			default:
+				return null;
+		}
+	}
+
+	public static boolean isEvictable(Payload.BaseType baseType) {
+		return baseType != Payload.BaseType.message && baseType != Payload.BaseType.survey;
+	}
+
+	/**
+	 * @return The caps for payloads of this type, or null if they aren't capped.
+	 */
+	public Limit getLimit(Payload.BaseType baseType) {
+		return isEvictable(baseType) ? limits.get(baseType) : null;
+	}
+
+	public static class Limit {
+		public final int maxRows;
+		public final long maxBytes;
+		public final long maxAgeMillis;
+
+		public Limit(int maxRows, long maxBytes, long maxAgeMillis) {
+			this.maxRows = maxRows;
+			this.maxBytes = maxBytes;
+			this.maxAgeMillis = maxAgeMillis;
+		}
+
+		/**
+		 * Payloads are checked from newest to oldest, so the counts include the payload being checked and every newer one.
+		 *
+		 * @param rows      The number of payloads kept so far, including this one.
+		 * @param bytes     The combined json size of the payloads kept so far, including this one.
+		 * @param createdAt When this payload was added to the queue.
+		 * @param now       The current time.
+		 * @return true if this payload, and all older ones of the same type, should be dropped.
+		 */
+		public boolean isExceeded(int rows, long bytes, long createdAt, long now) {
+			return (maxRows > 0 && rows > maxRows) ||
+					(maxBytes > 0 && bytes > maxBytes) ||
+					(maxAgeMillis > 0 && createdAt < now - maxAgeMillis);
+		}
+	}
+}
@@ -6,21 +6,24 @@
 
 package com.apptentive.android.sdk.storage;
 
-import android.os.Handler;
-import android.os.Looper;
-import android.os.Message;
 import android.text.TextUtils;
 
 import com.apptentive.android.sdk.ApptentiveInternal;
 import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.comm.ApptentiveClient;
 import com.apptentive.android.sdk.comm.ApptentiveHttpResponse;
+import com.apptentive.android.sdk.comm.PayloadBatch;
 import com.apptentive.android.sdk.model.*;
 import com.apptentive.android.sdk.module.messagecenter.MessageManager;
 import com.apptentive.android.sdk.module.messagecenter.model.ApptentiveMessage;
 import com.apptentive.android.sdk.module.metric.MetricModule;
 import com.apptentive.android.sdk.util.Util;
+import com.apptentive.android.sdk.util.threading.DispatchHandle;
+import com.apptentive.android.sdk.util.threading.DispatchQueue;
+import com.apptentive.android.sdk.util.threading.DispatchTask;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -33,10 +36,17 @@ public class PayloadSendWorker {
 	private static final int NO_CONNECTION_SLEEP_TIME = 5000;
 	private static final int SERVER_ERROR_SLEEP_TIME = 5000;
 
-	private static final int UI_THREAD_MESSAGE_RETRY_CHECK = 1;
-
 	private PayloadSendRunnable payloadSendRunnable;
-	private Handler uiHandler;
+
+	// Pending check to start sending again after a failure, on the main queue
+	private DispatchHandle retryHandle;
+
+	private final DispatchTask retryTask = new DispatchTask() {
+		@Override
+		protected void execute() {
+			checkIfStartSendPayload(true, true);
+		}
+	};
 
 	private AtomicBoolean appInForeground = new AtomicBoolean(false);
 	private AtomicBoolean threadRunning = new AtomicBoolean(false);
@@ -54,28 +64,12 @@ public class PayloadSendWorker {
 		if (expect && createNew && payloadSendRunnable == null) {
 			payloadSendRunnable = new PayloadSendRunnable();
 		} else if (!expect) {
-			uiHandler.removeMessages(UI_THREAD_MESSAGE_RETRY_CHECK);
+			cancelRetry();
 			payloadSendRunnable = null;
-			uiHandler = null;
 		}
 
 		if (payloadSendRunnable != null) {
-			if (uiHandler == null) {
-				uiHandler = new Handler(Looper.getMainLooper()) {
-					@Override
-					public void handleMessage(android.os.Message msg) {
-						switch (msg.what) {
-							case UI_THREAD_MESSAGE_RETRY_CHECK:
-								checkIfStartSendPayload(true, true);
-								break;
-							default:
-								super.handleMessage(msg);
-						}
-					}
-				};
-			} else {
-				uiHandler.removeMessages(UI_THREAD_MESSAGE_RETRY_CHECK);
-			}
+			cancelRetry();
 
 			if (threadCanRun.get() && !threadRunning.get()) {
 				// Check passed
@@ -86,6 +80,22 @@ public class PayloadSendWorker {
 		}
 	}
 
+	private synchronized void retryLater(int millis) {
+		cancelRetry();
+		retryHandle = DispatchQueue.mainQueue().dispatchAsync(retryTask, millis);
+	}
+
+	private synchronized void cancelRetry() {
+		if (retryHandle != null) {
+			retryHandle.cancel();
+			retryHandle = null;
+		}
+	}
+
+	private synchronized boolean isRetryPending() {
+		return retryHandle != null && !retryHandle.isDone();
+	}
+
 	private PayloadStore getPayloadStore() {
 		return ApptentiveInternal.getInstance().getApptentiveTaskManager();
 	}
@@ -99,6 +109,10 @@ public class PayloadSendWorker {
 			try {
 				ApptentiveLog.v("Started %s", toString());
 
+				Configuration config = Configuration.load();
+				int batchMaxCount = config.getPayloadBatchMaxCount();
+				int batchMaxBytes = config.getPayloadBatchMaxBytes();
+
 				while (appInForeground.get()) {
 					MessageManager mgr = ApptentiveInternal.getInstance().getMessageManager();
 
@@ -120,18 +134,26 @@ public class PayloadSendWorker {
 					}
 					ApptentiveLog.v("Checking for payloads to send.");
 
-					Payload payload = null;
+					List<Payload> payloads = null;
 					try {
-						Future<Payload> future = ApptentiveInternal.getInstance().getApptentiveTaskManager().getOldestUnsentPayload();
-						payload = future.get();
+						Future<List<Payload>> future = ApptentiveInternal.getInstance().getApptentiveTaskManager().getOldestUnsentPayloads(batchMaxCount, batchMaxBytes);
+						payloads = future.get();
 					} catch (Exception e) {
-						ApptentiveLog.e("Error getting oldest unsent payload in worker thread");
+						ApptentiveLog.e("Error getting oldest unsent payloads in worker thread");
 					}
-					if (payload == null) {
+					if (payloads == null || payloads.isEmpty()) {
 						// There is no payload in the db. Terminate the thread
 						threadCanRun.set(false);
 						break;
 					}
+					if (payloads.size() > 1) {
+						if (!sendPayloadBatch(new PayloadBatch(payloads))) {
+							break;
+						}
+						continue;
+					}
+
+					Payload payload = payloads.get(0);
 					ApptentiveLog.d("Got a payload to send: %s:%d", payload.getBaseType(), payload.getDatabaseId());
 
 					ApptentiveHttpResponse response = null;
@@ -203,10 +225,41 @@ public class PayloadSendWorker {
 			}
 		}
 
-		private void retryLater(int millis) {
-			Message msg = uiHandler.obtainMessage(UI_THREAD_MESSAGE_RETRY_CHECK);
-			uiHandler.removeMessages(UI_THREAD_MESSAGE_RETRY_CHECK);
-			uiHandler.sendMessageDelayed(msg, millis);
+		/**
+		 * Sends all payloads of the batch in one request, then removes the ones that were accepted or rejected permanently
+		 * from the queue in a single delete.
+		 *
+		 * @return false if some payloads were rejected temporarily and sending should be retried later.
+		 */
+		private boolean sendPayloadBatch(PayloadBatch batch) {
+			ApptentiveLog.d("Got a batch of %d payloads to send: %s", batch.size(), batch.getBaseType());
+
+			ApptentiveHttpResponse response = ApptentiveClient.postPayloadBatch(batch);
+			List<ApptentiveHttpResponse> results = batch.parseResults(response);
+
+			List<Payload> payloadsToDelete = new ArrayList<Payload>(batch.size());
+			ApptentiveHttpResponse temporaryRejection = null;
+			for (int i = 0; i < batch.size(); i++) {
+				Payload payload = batch.getPayloads().get(i);
+				ApptentiveHttpResponse result = results.get(i);
+				if (result.isSuccessful()) {
+					payloadsToDelete.add(payload);
+				} else if (result.isRejectedPermanently() || result.isBadPayload()) {
+					ApptentiveLog.v("Rejected json:", payload.toString());
+					payloadsToDelete.add(payload);
+				} else if (result.isRejectedTemporarily()) {
+					temporaryRejection = result;
+				}
+			}
+			ApptentiveLog.d("Payload batch submitted. Removing %d of %d from send queue.", payloadsToDelete.size(), batch.size());
+			ApptentiveInternal.getInstance().getApptentiveTaskManager().deletePayloads(payloadsToDelete);
+
+			if (temporaryRejection != null) {
+				ApptentiveLog.d("Unable to send %d payloads. Leaving in queue.", batch.size() - payloadsToDelete.size());
+				retryLater(temporaryRejection.isException() ? NO_CONNECTION_SLEEP_TIME : SERVER_ERROR_SLEEP_TIME);
+				return false;
+			}
+			return true;
 		}
 	}
 
@@ -222,7 +275,7 @@ public class PayloadSendWorker {
 
 	public void setCanRunPayloadThread(boolean b) {
 		threadCanRun.set(b);
-		if (uiHandler == null || !uiHandler.hasMessages(UI_THREAD_MESSAGE_RETRY_CHECK)) {
+		if (!isRetryPending()) {
 			checkIfStartSendPayload(true, true);
 		}
 	}
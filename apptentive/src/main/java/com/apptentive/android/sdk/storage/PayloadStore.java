@@ -2,6 +2,7 @@ package com.apptentive.android.sdk.storage;
 
 import com.apptentive.android.sdk.model.Payload;
 
+import java.util.List;
 import java.util.concurrent.Future;
 
 /**
@@ -9,15 +10,24 @@ import java.util.concurrent.Future;
  */
 public interface PayloadStore {
 
-	public void addPayload(Payload... payloads);
+	/* Writes are committed in batches. The returned Future completes with true once the write is durable.
+	 */
+	public Future<Boolean> addPayload(Payload... payloads);
+
+	public Future<Boolean> deletePayload(Payload payload);
 
-	public void deletePayload(Payload payload);
+	public Future<Boolean> deletePayloads(List<Payload> payloads);
 
-	public void deleteAllPayloads();
+	public Future<Boolean> deleteAllPayloads();
 
-	/* Asynchronous call to retrieve the oldest unsent payload from the data storage.
+	/* Asynchronous call to retrieve the oldest unsent payload of the highest priority from the data storage.
 	 * Calling get() method on the returned Future object will block the caller until the Future has completed,
 	 */
 	public Future<Payload> getOldestUnsentPayload() throws Exception;
 
+	/* Asynchronous call to retrieve up to maxCount of the oldest unsent payloads of the same type and priority, read in a single query.
+	 * Calling get() method on the returned Future object will block the caller until the Future has completed,
+	 */
+	public Future<List<Payload>> getOldestUnsentPayloads(int maxCount, int maxBytes) throws Exception;
+
 }
@@ -45,6 +45,9 @@ public class Constants {
 	public static final String PREF_KEY_MESSAGE_CENTER_PENDING_COMPOSING_MESSAGE = "messageCenterPendingComposingMessage";
 	public static final String PREF_KEY_MESSAGE_CENTER_PENDING_COMPOSING_ATTACHMENTS = "messageCenterPendingComposingAttachments";
 	public static final String PREF_KEY_MESSAGE_CENTER_SERVER_ERROR_LAST_ATTEMPT = "messageCenterServerErrorLastAttempt";
+	// The ETag of the last message fetch, and the after_id it was fetched with
+	public static final String PREF_KEY_MESSAGES_ETAG = "messagesEtag";
+	public static final String PREF_KEY_MESSAGES_ETAG_AFTER_ID = "messagesEtagAfterId";
 
 	public static final String PREF_KEY_MESSAGE_CENTER_WHO_CARD_DISPLAYED_BEFORE = "messageCenterWhoCardSet";
 
@@ -74,9 +77,25 @@ public class Constants {
 	public static final int CONFIG_DEFAULT_APP_CONFIG_EXPIRATION_DURATION_SECONDS = 86400; // 24 hours
 	public static final int CONFIG_DEFAULT_MESSAGE_CENTER_FG_POLL_SECONDS = 15;
 	public static final int CONFIG_DEFAULT_MESSAGE_CENTER_BG_POLL_SECONDS = 60;
+	public static final int CONFIG_DEFAULT_MESSAGE_CENTER_MAX_POLL_SECONDS = 900; // 15 minutes
 	public static final boolean CONFIG_DEFAULT_MESSAGE_CENTER_ENABLED = false;
 	public static final boolean CONFIG_DEFAULT_MESSAGE_CENTER_NOTIFICATION_POPUP_ENABLED = false;
 	public static final boolean CONFIG_DEFAULT_HIDE_BRANDING = false;
+	// Batching is off until the server opts a conversation in, so a batch size of 1 sends each payload on its own.
+	public static final int CONFIG_DEFAULT_PAYLOAD_BATCH_MAX_COUNT = 1;
+	public static final int CONFIG_DEFAULT_PAYLOAD_BATCH_MAX_BYTES = 64 * 1024;
+	// Request compression is off until the server opts a conversation in.
+	public static final boolean CONFIG_DEFAULT_REQUEST_COMPRESSION_ENABLED = false;
+	public static final int CONFIG_DEFAULT_REQUEST_COMPRESSION_MIN_BYTES = 1024;
+	public static final int CONFIG_DEFAULT_GROUP_COMMIT_MAX_LATENCY_MILLIS = 50;
+	public static final int CONFIG_DEFAULT_GROUP_COMMIT_MAX_COUNT = 200;
+	public static final int CONFIG_DEFAULT_PAYLOAD_QUEUE_EVENT_MAX_ROWS = 1000;
+	public static final int CONFIG_DEFAULT_PAYLOAD_QUEUE_EVENT_MAX_BYTES = 1024 * 1024;
+	public static final int CONFIG_DEFAULT_PAYLOAD_QUEUE_MAX_ROWS = 100;
+	public static final int CONFIG_DEFAULT_PAYLOAD_QUEUE_MAX_BYTES = 256 * 1024;
+	public static final int CONFIG_DEFAULT_PAYLOAD_QUEUE_MAX_AGE_SECONDS = 2592000; // 30 days
+	public static final long CONFIG_DEFAULT_IMAGE_CACHE_MAX_BYTES = 20 * 1024 * 1024;
+	public static final int CONFIG_DEFAULT_BACKGROUND_QUEUE_MAX_THREADS = 2;
 
 	// Manifest keys
 	public static final String MANIFEST_KEY_APPTENTIVE_LOG_LEVEL = "apptentive_log_level";
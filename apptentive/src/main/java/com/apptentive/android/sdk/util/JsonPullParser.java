@@ -0,0 +1,526 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.util;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads JSON a token at a time from a stream, in the manner of <code>android.util.JsonReader</code>, so large server
+ * responses can be turned into model objects as they are read, without first being read into a string and parsed into
+ * a tree. Parts of the document the caller doesn't need are skipped without being built.
+ * <p/>
+ * Values read with {@link #readValue()} are built the way <code>org.json</code> builds them: objects and arrays as
+ * {@link JSONObject} and {@link JSONArray}, whole numbers as {@link Integer} or {@link Long}, other numbers as
+ * {@link Double}, and null as {@link JSONObject#NULL}.
+ */
+public class JsonPullParser {
+
+	public enum Token {
+		NAME,
+		BEGIN_OBJECT,
+		BEGIN_ARRAY,
+		STRING,
+		NUMBER,
+		BOOLEAN,
+		NULL,
+		/**
+		 * The end of the current object or array, or of the document
+		 */
+		END
+	}
+
+	private static final int BUFFER_SIZE = 8192;
+
+	// Scopes, for the object or array being read
+	private static final int EMPTY_OBJECT = 0;
+	private static final int NONEMPTY_OBJECT = 1;
+	private static final int DANGLING_NAME = 2;
+	private static final int EMPTY_ARRAY = 3;
+	private static final int NONEMPTY_ARRAY = 4;
+	// A comma was read, and the next element is expected
+	private static final int NEXT_OBJECT = 5;
+	private static final int NEXT_ARRAY = 6;
+
+	private final Reader reader;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int pos;
+	private int limit;
+	private long offset; // Chars before the start of the buffer, for error messages
+
+	private int[] stack = new int[32];
+	private int stackSize;
+
+	// Reused for every string and number
+	private final StringBuilder builder = new StringBuilder();
+
+	public JsonPullParser(Reader reader) {
+		if (reader == null) {
+			throw new IllegalArgumentException("Reader is null");
+		}
+		this.reader = reader;
+	}
+
+	//region Structure
+
+	public void beginObject() throws IOException, JSONException {
+		beforeValue();
+		expect('{');
+		push(EMPTY_OBJECT);
+	}
+
+	public void endObject() throws IOException, JSONException {
+		int scope = peekScope();
+		if (scope != EMPTY_OBJECT && scope != NONEMPTY_OBJECT) {
+			throw syntaxError("Not at the end of an object");
+		}
+		expect('}');
+		stackSize--;
+	}
+
+	public void beginArray() throws IOException, JSONException {
+		beforeValue();
+		expect('[');
+		push(EMPTY_ARRAY);
+	}
+
+	public void endArray() throws IOException, JSONException {
+		int scope = peekScope();
+		if (scope != EMPTY_ARRAY && scope != NONEMPTY_ARRAY) {
+			throw syntaxError("Not at the end of an array");
+		}
+		expect(']');
+		stackSize--;
+	}
+
+	/**
+	 * @return true if the current object or array has another element.
+	 */
+	public boolean hasNext() throws IOException, JSONException {
+		int scope = peekScope();
+		switch (scope) {
+			case NEXT_OBJECT:
+			case NEXT_ARRAY:
+				return true;
+			case DANGLING_NAME:
+				throw new IllegalStateException("A value is expected");
+		}
+		int c = peekChar();
+		if (c == '}' || c == ']' || c == -1) {
+			return false;
+		}
+		if (scope == NONEMPTY_OBJECT || scope == NONEMPTY_ARRAY) {
+			expect(',');
+		}
+		stack[stackSize - 1] = scope == EMPTY_OBJECT || scope == NONEMPTY_OBJECT ? NEXT_OBJECT : NEXT_ARRAY;
+		return true;
+	}
+
+	/**
+	 * @return The kind of the next token, or {@link Token#END} if the current object or array has no more elements.
+	 */
+	public Token peek() throws IOException, JSONException {
+		if (stackSize > 0 && peekScope() != DANGLING_NAME) {
+			if (!hasNext()) {
+				return Token.END;
+			}
+			if (peekScope() == NEXT_OBJECT) {
+				return Token.NAME;
+			}
+		}
+		int c = peekChar();
+		switch (c) {
+			case -1:
+			case '}':
+			case ']':
+				return Token.END;
+			case '{':
+				return Token.BEGIN_OBJECT;
+			case '[':
+				return Token.BEGIN_ARRAY;
+			case '"':
+				return Token.STRING;
+			case 't':
+			case 'f':
+				return Token.BOOLEAN;
+			case 'n':
+				return Token.NULL;
+			default:
+				return Token.NUMBER;
+		}
+	}
+
+	public String nextName() throws IOException, JSONException {
+		int scope = peekScope();
+		if (scope != EMPTY_OBJECT && scope != NONEMPTY_OBJECT && scope != NEXT_OBJECT) {
+			throw syntaxError("Not in an object");
+		}
+		if (!hasNext()) {
+			throw syntaxError("Expected a name");
+		}
+		expect('"');
+		String name = readString();
+		expect(':');
+		stack[stackSize - 1] = DANGLING_NAME;
+		return name;
+	}
+
+	//endregion
+
+	//region Values
+
+	public String nextString() throws IOException, JSONException {
+		beforeValue();
+		expect('"');
+		return readString();
+	}
+
+	public boolean nextBoolean() throws IOException, JSONException {
+		beforeValue();
+		String literal = readLiteral();
+		if ("true".equals(literal)) {
+			return true;
+		}
+		if ("false".equals(literal)) {
+			return false;
+		}
+		throw syntaxError("Expected a boolean but was " + literal);
+	}
+
+	/**
+	 * Reads the next value, building objects and arrays in full.
+	 */
+	public Object readValue() throws IOException, JSONException {
+		switch (peek()) {
+			case BEGIN_OBJECT:
+				return readObject(new JSONObject());
+			case BEGIN_ARRAY:
+				return readArray(new JSONArray());
+			case STRING:
+				return nextString();
+			case NAME:
+			case END:
+				throw syntaxError("Expected a value");
+			default:
+				beforeValue();
+				return toValue(readLiteral());
+		}
+	}
+
+	/**
+	 * Reads the next object into <code>object</code>, so it can be read straight into a model class.
+	 *
+	 * @return <code>object</code>
+	 */
+	public <T extends JSONObject> T readObject(T object) throws IOException, JSONException {
+		beginObject();
+		while (hasNext()) {
+			String name = nextName();
+			object.put(name, readValue());
+		}
+		endObject();
+		return object;
+	}
+
+	public JSONArray readArray(JSONArray array) throws IOException, JSONException {
+		beginArray();
+		while (hasNext()) {
+			array.put(readValue());
+		}
+		endArray();
+		return array;
+	}
+
+	/**
+	 * Skips the next value, including everything inside it, without building it.
+	 */
+	public void skipValue() throws IOException, JSONException {
+		switch (peek()) {
+			case BEGIN_OBJECT:
+				beginObject();
+				while (hasNext()) {
+					nextName();
+					skipValue();
+				}
+				endObject();
+				break;
+			case BEGIN_ARRAY:
+				beginArray();
+				while (hasNext()) {
+					skipValue();
+				}
+				endArray();
+				break;
+			case STRING:
+				beforeValue();
+				expect('"');
+				skipString();
+				break;
+			case NAME:
+			case END:
+				throw syntaxError("Expected a value");
+			default:
+				beforeValue();
+				readLiteral();
+				break;
+		}
+	}
+
+	//endregion
+
+	//region Helpers
+
+	/**
+	 * Moves past the name or the comma that comes before a value.
+	 */
+	private void beforeValue() throws IOException, JSONException {
+		if (stackSize == 0) {
+			return;
+		}
+		int scope = peekScope();
+		switch (scope) {
+			case DANGLING_NAME:
+				stack[stackSize - 1] = NONEMPTY_OBJECT;
+				return;
+			case EMPTY_ARRAY:
+			case NONEMPTY_ARRAY:
+				if (!hasNext()) {
+					throw syntaxError("Expected a value");
+				}
+				// fall through
+			case NEXT_ARRAY:
+				stack[stackSize - 1] = NONEMPTY_ARRAY;
+				return;
+			default:
+				throw syntaxError("Expected a name");
+		}
+	}
+
+	private void push(int scope) {
+		if (stackSize == stack.length) {
+			int[] newStack = new int[stackSize * 2];
+			System.arraycopy(stack, 0, newStack, 0, stackSize);
+			stack = newStack;
+		}
+		stack[stackSize++] = scope;
+	}
+
+	private int peekScope() {
+		if (stackSize == 0) {
+			throw new IllegalStateException("Not in an object or array");
+		}
+		return stack[stackSize - 1];
+	}
+
+	private String readString() throws IOException, JSONException {
+		builder.setLength(0);
+		while (true) {
+			int start = pos;
+			while (pos < limit) {
+				char c = buffer[pos++];
+				if (c == '"') {
+					builder.append(buffer, start, pos - start - 1);
+					return builder.toString();
+				}
+				if (c == '\\') {
+					builder.append(buffer, start, pos - start - 1);
+					builder.append(readEscape());
+					start = pos;
+				}
+			}
+			builder.append(buffer, start, pos - start);
+			if (!fill()) {
+				throw syntaxError("Unterminated string");
+			}
+		}
+	}
+
+	private void skipString() throws IOException, JSONException {
+		while (true) {
+			while (pos < limit) {
+				char c = buffer[pos++];
+				if (c == '"') {
+					return;
+				}
+				if (c == '\\') {
+					readEscape();
+				}
+			}
+			if (!fill()) {
+				throw syntaxError("Unterminated string");
+			}
+		}
+	}
+
+	private char readEscape() throws IOException, JSONException {
+		int c = read();
+		switch (c) {
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case 'u':
+				int value = 0;
+				for (int i = 0; i < 4; i++) {
+					int digit = Character.digit(read(), 16);
+					if (digit == -1) {
+						throw syntaxError("Invalid unicode escape");
+					}
+					value = (value << 4) + digit;
+				}
+				return (char) value;
+			case '"':
+			case '\\':
+			case '/':
+				return (char) c;
+			case -1:
+				throw syntaxError("Unterminated escape");
+			default:
+				throw syntaxError("Invalid escape: \\" + (char) c);
+		}
+	}
+
+	/**
+	 * Reads a number, true, false or null
+	 */
+	private String readLiteral() throws IOException, JSONException {
+		peekChar();
+		builder.setLength(0);
+		while (true) {
+			int start = pos;
+			while (pos < limit) {
+				if (isLiteralEnd(buffer[pos])) {
+					builder.append(buffer, start, pos - start);
+					return checkLiteral();
+				}
+				pos++;
+			}
+			builder.append(buffer, start, pos - start);
+			if (!fill()) {
+				return checkLiteral();
+			}
+		}
+	}
+
+	private String checkLiteral() throws JSONException {
+		if (builder.length() == 0) {
+			throw syntaxError("Expected a value");
+		}
+		return builder.toString();
+	}
+
+	private static boolean isLiteralEnd(char c) {
+		switch (c) {
+			case ',':
+			case ':':
+			case '}':
+			case ']':
+			case '{':
+			case '[':
+			case '"':
+			case ' ':
+			case '\t':
+			case '\n':
+			case '\r':
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private Object toValue(String literal) throws JSONException {
+		if ("true".equals(literal)) {
+			return Boolean.TRUE;
+		}
+		if ("false".equals(literal)) {
+			return Boolean.FALSE;
+		}
+		if ("null".equals(literal)) {
+			return JSONObject.NULL;
+		}
+		try {
+			if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+				long value = Long.parseLong(literal);
+				if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+					return (int) value;
+				}
+				return value;
+			}
+			return Double.valueOf(literal);
+		} catch (NumberFormatException e) {
+			try {
+				return Double.valueOf(literal);
+			} catch (NumberFormatException e1) {
+				throw syntaxError("Invalid value: " + literal);
+			}
+		}
+	}
+
+	private void expect(char expected) throws IOException, JSONException {
+		int c = peekChar();
+		if (c != expected) {
+			throw syntaxError(String.format("Expected '%s' but was %s", expected, c == -1 ? "end of input" : "'" + (char) c + "'"));
+		}
+		pos++;
+	}
+
+	/**
+	 * Skips whitespace and returns the next char without consuming it, or -1 at the end of the input.
+	 */
+	private int peekChar() throws IOException {
+		while (true) {
+			while (pos < limit) {
+				char c = buffer[pos];
+				if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+					return c;
+				}
+				pos++;
+			}
+			if (!fill()) {
+				return -1;
+			}
+		}
+	}
+
+	private int read() throws IOException {
+		if (pos == limit && !fill()) {
+			return -1;
+		}
+		return buffer[pos++];
+	}
+
+	private boolean fill() throws IOException {
+		offset += limit;
+		pos = 0;
+		limit = 0;
+		int count;
+		while ((count = reader.read(buffer, 0, buffer.length)) == 0) {
+			// Keep reading until there are chars or the input ends
+		}
+		if (count == -1) {
+			return false;
+		}
+		limit = count;
+		return true;
+	}
+
+	private JSONException syntaxError(String message) {
+		return new JSONException(message + " at character " + (offset + pos));
+	}
+
+	//endregion
+}
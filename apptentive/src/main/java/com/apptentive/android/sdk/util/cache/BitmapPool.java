@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.util.cache;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A size-bounded pool of bitmaps that are no longer displayed, so their memory can be reused by the next decode through
+ * {@link BitmapFactory.Options#inBitmap} instead of being left for the garbage collector.
+ * <p/>
+ * Bitmaps are bucketed by their byte count. From KitKat on, a decode can reuse any bitmap that is at least as large as
+ * the decoded image, so the smallest bucket that fits is used. Before KitKat the reused bitmap must have exactly the
+ * same dimensions and config. Once the pool is over budget, the bitmaps that were added first are dropped.
+ * <p/>
+ * Only bitmaps that nothing draws any more may be put into the pool, since their pixels will be overwritten.
+ */
+public class BitmapPool {
+
+	// Don't hand out a bitmap much larger than needed, which would hold on to memory the caller doesn't use
+	private static final int MAX_SIZE_MULTIPLE = 4;
+
+	private static BitmapPool instance;
+
+	private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<Integer, ArrayDeque<Bitmap>>();
+	// Oldest first, for trimming the pool
+	private final LinkedList<Bitmap> order = new LinkedList<Bitmap>();
+	private final long maxBytes;
+	private long size;
+
+	public static BitmapPool getInstance() {
+		if (instance == null) {
+			synchronized (BitmapPool.class) {
+				if (instance == null) {
+					instance = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+				}
+			}
+		}
+		return instance;
+	}
+
+	public BitmapPool(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return A bitmap that can be passed as {@link BitmapFactory.Options#inBitmap} when decoding an image of the given
+	 * size, or null if the pool has none. The caller owns the bitmap and should put it back if it goes unused.
+	 */
+	public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+		if (width <= 0 || height <= 0) {
+			return null;
+		}
+		if (config == null) {
+			config = Bitmap.Config.ARGB_8888;
+		}
+		int byteCount = width * height * getBytesPerPixel(config);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+			for (Map.Entry<Integer, ArrayDeque<Bitmap>> bucket : buckets.tailMap(byteCount).entrySet()) {
+				if (bucket.getKey() > byteCount * MAX_SIZE_MULTIPLE) {
+					break;
+				}
+				Bitmap bitmap = take(bucket.getKey(), bucket.getValue().peekLast());
+				reconfigure(bitmap, width, height, config);
+				return bitmap;
+			}
+		} else {
+			ArrayDeque<Bitmap> bucket = buckets.get(byteCount);
+			if (bucket != null) {
+				for (Bitmap bitmap : bucket) {
+					if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+						return take(byteCount, bitmap);
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds a bitmap that is no longer displayed to the pool. Bitmaps that can't be decoded into are ignored.
+	 */
+	public synchronized void put(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || order.contains(bitmap)) {
+			return;
+		}
+		int byteCount = getByteCount(bitmap);
+		if (byteCount <= 0 || byteCount > maxBytes) {
+			return;
+		}
+		ArrayDeque<Bitmap> bucket = buckets.get(byteCount);
+		if (bucket == null) {
+			bucket = new ArrayDeque<Bitmap>();
+			buckets.put(byteCount, bucket);
+		}
+		bucket.addLast(bitmap);
+		order.addLast(bitmap);
+		size += byteCount;
+		trimToSize(maxBytes);
+	}
+
+	/**
+	 * Drops every bitmap in the pool, leaving them to the garbage collector.
+	 */
+	public synchronized void clear() {
+		trimToSize(0);
+	}
+
+	public synchronized long size() {
+		return size;
+	}
+
+	private Bitmap take(int byteCount, Bitmap bitmap) {
+		ArrayDeque<Bitmap> bucket = buckets.get(byteCount);
+		bucket.remove(bitmap);
+		if (bucket.isEmpty()) {
+			buckets.remove(byteCount);
+		}
+		order.remove(bitmap);
+		size -= byteCount;
+		return bitmap;
+	}
+
+	private void trimToSize(long maxSize) {
+		Iterator<Bitmap> iterator = order.iterator();
+		while (size > maxSize && iterator.hasNext()) {
+			Bitmap eldest = iterator.next();
+			iterator.remove();
+			int byteCount = getByteCount(eldest);
+			ArrayDeque<Bitmap> bucket = buckets.get(byteCount);
+			bucket.remove(eldest);
+			if (bucket.isEmpty()) {
+				buckets.remove(byteCount);
+			}
+			size -= byteCount;
+		}
+	}
+
+	/**
+	 * @return The size of the bitmap's pixel allocation, which stays the same when a reused bitmap is reconfigured to
+	 * smaller dimensions.
+	 */
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	private static int getByteCount(Bitmap bitmap) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+			return bitmap.getAllocationByteCount();
+		}
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	private static void reconfigure(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+		bitmap.reconfigure(width, height, config);
+	}
+
+	public static int getBytesPerPixel(Bitmap.Config config) {
+		if (config == Bitmap.Config.ALPHA_8) {
+			return 1;
+		}
+		if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+			return 2;
+		}
+		return 4;
+	}
+}
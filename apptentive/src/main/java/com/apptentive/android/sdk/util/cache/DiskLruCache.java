@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.util.cache;
+
+import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.util.Util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A size-bounded cache of files in a directory, which evicts the least recently used files once their total size is
+ * over budget. Only files that were {@link #put(File) put} into the cache are tracked, so other files that happen to
+ * share the directory, such as attachments waiting to be sent, are never evicted.
+ * <p/>
+ * Every change is appended to a journal file, so the recency order survives process death. Each line is one of:
+ * <pre>
+ *   CLEAN &lt;name&gt; &lt;size&gt;
+ *   READ &lt;name&gt;
+ *   REMOVE &lt;name&gt;
+ * </pre>
+ * The journal is rewritten with one CLEAN line per entry once it holds mostly redundant lines. The cache is opened
+ * lazily on first use, so the journal isn't read on the thread that creates the cache.
+ */
+public class DiskLruCache {
+
+	static final String JOURNAL_FILE = "apptentive-disk-cache.journal";
+	static final String JOURNAL_FILE_TEMP = JOURNAL_FILE + ".tmp";
+	private static final String MAGIC = "apptentive.disk_lru_cache";
+	private static final String VERSION = "1";
+
+	private static final String CLEAN = "CLEAN";
+	private static final String READ = "READ";
+	private static final String REMOVE = "REMOVE";
+
+	private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+	private final File directory;
+	private final File journalFile;
+	private long maxBytes;
+
+	// Iterates from the least to the most recently used entry
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(0, 0.75f, true);
+	private long size;
+	private int redundantOpCount;
+	private Writer journalWriter;
+	private boolean opened;
+
+	public DiskLruCache(File directory, long maxBytes) {
+		this.directory = directory;
+		this.journalFile = new File(directory, JOURNAL_FILE);
+		this.maxBytes = maxBytes;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return The file where the entry for <code>name</code> is, or would be, stored.
+	 */
+	public File getFile(String name) {
+		return new File(directory, name);
+	}
+
+	/**
+	 * @return The cached file, marked as the most recently used, or null if it isn't in the cache.
+	 */
+	public synchronized File get(String name) {
+		ensureOpen();
+		if (entries.get(name) == null) { // Also moves the entry to the most recently used end
+			return null;
+		}
+		File file = getFile(name);
+		if (!file.exists()) {
+			// Deleted behind the cache's back, for example by the system clearing the cache directory
+			remove(name);
+			return null;
+		}
+		redundantOpCount++;
+		appendJournal(READ + ' ' + name);
+		compactIfNeeded();
+		return file;
+	}
+
+	/**
+	 * Marks the file as recently used, if it is in the cache. Files outside the cache are ignored.
+	 */
+	public void touch(File file) {
+		if (isInDirectory(file)) {
+			get(file.getName());
+		}
+	}
+
+	/**
+	 * Adds a file that has just been written to the cache directory, and evicts older files if the cache is now over
+	 * budget.
+	 */
+	public synchronized void put(File file) {
+		if (!isInDirectory(file) || !file.exists()) {
+			return;
+		}
+		ensureOpen();
+		String name = file.getName();
+		long length = file.length();
+		Long previous = entries.put(name, length);
+		if (previous != null) {
+			size -= previous;
+			redundantOpCount++;
+		}
+		size += length;
+		appendJournal(CLEAN + ' ' + name + ' ' + length);
+		trimToSize();
+		compactIfNeeded();
+	}
+
+	public synchronized boolean remove(String name) {
+		ensureOpen();
+		Long length = entries.remove(name);
+		if (length == null) {
+			return false;
+		}
+		getFile(name).delete();
+		size -= length;
+		redundantOpCount++;
+		appendJournal(REMOVE + ' ' + name);
+		compactIfNeeded();
+		return true;
+	}
+
+	public synchronized boolean contains(String name) {
+		ensureOpen();
+		return entries.containsKey(name);
+	}
+
+	/**
+	 * @return The total size in bytes of the files in the cache.
+	 */
+	public synchronized long size() {
+		ensureOpen();
+		return size;
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		if (opened) {
+			trimToSize();
+			compactIfNeeded();
+		}
+	}
+
+	/**
+	 * Closes the journal. The cache reopens it if it is used again.
+	 */
+	public synchronized void close() {
+		Util.ensureClosed(journalWriter);
+		journalWriter = null;
+		entries.clear();
+		size = 0;
+		opened = false;
+	}
+
+	//region Journal
+
+	private void ensureOpen() {
+		if (opened) {
+			return;
+		}
+		opened = true;
+		if (!directory.exists() && !directory.mkdirs()) {
+			ApptentiveLog.w("Unable to create disk cache directory: %s", directory);
+		}
+		try {
+			readJournal();
+		} catch (IOException e) {
+			ApptentiveLog.w("Disk cache journal is corrupt, rebuilding: %s", e.getMessage());
+			entries.clear();
+			size = 0;
+		}
+		// Entries whose files are gone were cleared by the system, and shouldn't count against the budget
+		Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Long> entry = iterator.next();
+			if (!getFile(entry.getKey()).exists()) {
+				size -= entry.getValue();
+				iterator.remove();
+			}
+		}
+		rebuildJournal();
+		trimToSize();
+	}
+
+	private void readJournal() throws IOException {
+		if (!journalFile.exists()) {
+			return;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+			if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+				throw new IOException("Unexpected journal header");
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				readJournalLine(line);
+			}
+		} finally {
+			Util.ensureClosed(reader);
+		}
+	}
+
+	private void readJournalLine(String line) throws IOException {
+		String[] parts = line.split(" ");
+		if (parts.length < 2) {
+			// A line cut short by process death. Anything before it is still valid.
+			return;
+		}
+		String op = parts[0];
+		String name = parts[1];
+		if (CLEAN.equals(op) && parts.length == 3) {
+			long length;
+			try {
+				length = Long.parseLong(parts[2]);
+			} catch (NumberFormatException e) {
+				return;
+			}
+			Long previous = entries.put(name, length);
+			if (previous != null) {
+				size -= previous;
+			}
+			size += length;
+		} else if (READ.equals(op)) {
+			entries.get(name); // Moves the entry to the most recently used end
+		} else if (REMOVE.equals(op)) {
+			Long previous = entries.remove(name);
+			if (previous != null) {
+				size -= previous;
+			}
+		} else {
+			throw new IOException("Unexpected journal line: " + line);
+		}
+	}
+
+	/**
+	 * Writes one CLEAN line per entry, in recency order, to a new journal and swaps it in.
+	 */
+	private void rebuildJournal() {
+		Util.ensureClosed(journalWriter);
+		journalWriter = null;
+
+		File tempFile = new File(directory, JOURNAL_FILE_TEMP);
+		Writer writer = null;
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+			writer.write(MAGIC + '\n' + VERSION + '\n');
+			for (Map.Entry<String, Long> entry : entries.entrySet()) {
+				writer.write(CLEAN + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+			}
+			writer.close();
+			writer = null;
+			if (!tempFile.renameTo(journalFile)) {
+				journalFile.delete();
+				if (!tempFile.renameTo(journalFile)) {
+					throw new IOException("Unable to replace " + journalFile);
+				}
+			}
+			redundantOpCount = 0;
+			journalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), "UTF-8"));
+		} catch (IOException e) {
+			ApptentiveLog.w("Unable to write disk cache journal: %s", e.getMessage());
+		} finally {
+			Util.ensureClosed(writer);
+		}
+	}
+
+	private void appendJournal(String line) {
+		if (journalWriter == null) {
+			return;
+		}
+		try {
+			journalWriter.write(line);
+			journalWriter.write('\n');
+			// Flushed line by line, so a killed process loses at most the line being written
+			journalWriter.flush();
+		} catch (IOException e) {
+			ApptentiveLog.w("Unable to append to disk cache journal: %s", e.getMessage());
+		}
+	}
+
+	private void compactIfNeeded() {
+		if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= entries.size()) {
+			rebuildJournal();
+		}
+	}
+
+	//endregion
+
+	private void trimToSize() {
+		if (size <= maxBytes) {
+			return;
+		}
+		List<String> evicted = new ArrayList<String>();
+		Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+		while (size > maxBytes && iterator.hasNext()) {
+			Map.Entry<String, Long> eldest = iterator.next();
+			iterator.remove();
+			size -= eldest.getValue();
+			getFile(eldest.getKey()).delete();
+			evicted.add(eldest.getKey());
+		}
+		for (String name : evicted) {
+			redundantOpCount++;
+			appendJournal(REMOVE + ' ' + name);
+		}
+		ApptentiveLog.v("Evicted %d files from disk cache, %d bytes left", evicted.size(), size);
+	}
+
+	private boolean isInDirectory(File file) {
+		return file != null && directory.equals(file.getParentFile());
+	}
+}
@@ -23,45 +23,16 @@ public class ImageMemoryCache {
 
 	private static final int MAX_CACHE_COUNT = 1;
 
+	// Bitmaps that leave the cache may still be shown by an ImageView, so they are neither recycled nor handed to the
+	// BitmapPool. They're left for the garbage collector once no view holds them.
 	private final LruCache<String, Object> bufferCache;
 
 	public ImageMemoryCache() {
-		bufferCache = new LruCache<String, Object>(
-				MAX_CACHE_COUNT) {
-			/**
-			 * recycle the removed bitmap from memory
-			 */
-			@Override
-			protected void entryRemoved(boolean evicted, String key, Object oldValue, Object newValue) {
-				if (oldValue != null) {
-					if (oldValue instanceof Bitmap) {
-						((Bitmap) oldValue).recycle();
-					} else if (oldValue instanceof BitmapDrawable) {
-						((BitmapDrawable) oldValue).getBitmap().recycle();
-					}
-					oldValue = null;
-				}
-			}
-		};
+		bufferCache = new LruCache<String, Object>(MAX_CACHE_COUNT);
 	}
 
 	public ImageMemoryCache(int maxMega) {
 		bufferCache = new LruCache<String, Object>(maxMega * 1024 * 1024) { // by default use 1M as a unit for the in memory Lrucache
-			/**
-			 * recycle the removed bitmap from memory
-			 */
-			@Override
-			protected void entryRemoved(boolean evicted, String key, Object oldValue, Object newValue) {
-				if (oldValue != null) {
-					if (oldValue instanceof Bitmap) {
-						((Bitmap) oldValue).recycle();
-					} else if (oldValue instanceof BitmapDrawable) {
-						((BitmapDrawable) oldValue).getBitmap().recycle();
-					}
-					oldValue = null;
-				}
-			}
-
 			@Override
 			protected int sizeOf(String key, Object object) {
 				// The cache size will be measured in bytes rather than
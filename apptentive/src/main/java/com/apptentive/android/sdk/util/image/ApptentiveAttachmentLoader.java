@@ -6,16 +6,27 @@
 
 package com.apptentive.android.sdk.util.image;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import android.annotation.SuppressLint;
 import android.graphics.Bitmap;
-import android.os.AsyncTask;
-import android.os.Build;
+import android.media.ExifInterface;
+import android.os.Process;
 import android.text.TextUtils;
 import android.webkit.URLUtil;
 import android.widget.ImageView;
@@ -23,21 +34,55 @@ import android.widget.ImageView;
 import com.apptentive.android.sdk.ApptentiveInternal;
 import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.R;
+import com.apptentive.android.sdk.comm.ApptentiveHttpResponse;
+import com.apptentive.android.sdk.util.cache.DiskLruCache;
+import com.apptentive.android.sdk.util.cache.BitmapPool;
 import com.apptentive.android.sdk.util.cache.ImageMemoryCache;
-import com.apptentive.android.sdk.util.task.ApptentiveDownloaderTask;
-import com.apptentive.android.sdk.util.task.ApptentiveDrawableLoaderTask;
-
+import com.apptentive.android.sdk.util.task.FileDownloader;
+import com.apptentive.android.sdk.util.threading.DispatchQueue;
+import com.apptentive.android.sdk.util.threading.DispatchTask;
+
+/**
+ * Loads attachment thumbnails and files into views, from memory, from disk, or from the network.
+ * <p/>
+ * All scheduling state is confined to the main thread, so none of it needs a lock: requests are made and cancelled
+ * there, and the worker threads post their results back to it. Each view remembers its request in a tag, and
+ * downloads in flight are kept in a map by URL, so binding a view costs the same no matter how many requests are
+ * pending. Requests for a URL that is already being downloaded wait for that download instead of starting another.
+ * <p/>
+ * Decoding and downloading run on dedicated, bounded thread pools at background priority, so they don't compete with
+ * the host app's own AsyncTasks. Higher priority work runs first and, within a priority, the most recent request runs
+ * first, since while scrolling the latest binds are the rows on screen.
+ */
 public class ApptentiveAttachmentLoader {
 
 	public static final int DRAWABLE_DOWNLOAD_TAG = R.id.apptentive_drawable_downloader;
 
+	/**
+	 * For content that isn't on screen yet.
+	 */
+	public static final int PRIORITY_PREFETCH = 0;
+	/**
+	 * For content in a row that is being shown.
+	 */
+	public static final int PRIORITY_VISIBLE = 1;
+	/**
+	 * For content the user explicitly asked for, like a tapped attachment.
+	 */
+	public static final int PRIORITY_USER_REQUESTED = 2;
+
+	private static final int DEFAULT_MAX_DOWNLOADS = 4;
+	private static final int MAX_DECODES = 2;
+	private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+
 	private ImageMemoryCache bitmapMemoryCache;
-	private ArrayList<LoaderRequest> queuedDownLoaderRequests;
-	private ArrayList<LoaderRequest> runningDownLoaderRequests;
-	private HashSet<String> filesBeingDownloaded;
-	private HashMap<String, ArrayList<LoaderRequest>> duplicateDownloads;
-	private int maxDownloads;
+	private ThreadPoolExecutor decodeExecutor;
+	private ThreadPoolExecutor downloadExecutor;
+	private final AtomicLong sequence = new AtomicLong();
 
+	// Only accessed on the main thread
+	private Map<String, Download> downloads;
+	private Set<String> filesBeingDownloaded;
 
 	public static interface LoaderCallback {
 		void onLoaded(ImageView view, int pos, Bitmap d);
@@ -67,7 +112,7 @@ public class ApptentiveAttachmentLoader {
 	}
 
 	protected ApptentiveAttachmentLoader() {
-		setup(10);
+		setup(DEFAULT_MAX_DOWNLOADS);
 	}
 
 	protected ApptentiveAttachmentLoader(int maxDownloads) {
@@ -75,12 +120,11 @@ public class ApptentiveAttachmentLoader {
 	}
 
 	private void setup(int maxDownloads) {
-		queuedDownLoaderRequests = new ArrayList<LoaderRequest>();
-		runningDownLoaderRequests = new ArrayList<LoaderRequest>();
+		downloads = new HashMap<String, Download>();
 		filesBeingDownloaded = new HashSet<String>();
-		this.maxDownloads = maxDownloads;
-		duplicateDownloads = new HashMap<String, ArrayList<LoaderRequest>>();
 		bitmapMemoryCache = new ImageMemoryCache(30);
+		decodeExecutor = createExecutor("Apptentive-ImageDecoder", MAX_DECODES);
+		downloadExecutor = createExecutor("Apptentive-AttachmentDownloader", maxDownloads);
 	}
 
 	/* Check if a file is being downloaded. If true, the file is not completely written by download task yet.
@@ -91,579 +135,526 @@ public class ApptentiveAttachmentLoader {
 	}
 
 	public void load(String uri, String diskFilePath, int pos, ImageView imageView, int width, int height, boolean bLoadImage, LoaderCallback callback) {
-		LoaderRequest d = new LoaderRequest(uri, diskFilePath, pos, imageView, width, height, bLoadImage, callback);
-		d.load();
-	}
-
-	public void cancelAllDownloads() {
-		queuedDownLoaderRequests.clear();
-		for (LoaderRequest loaderRequest : runningDownLoaderRequests) {
-			ApptentiveDownloaderTask task = loaderRequest.getDrawableDownloaderTask();
-			if (task != null) {
-				task.cancel(true);
-			}
-		}
-		runningDownLoaderRequests.clear();
-		filesBeingDownloaded.clear();
+		load(uri, diskFilePath, pos, imageView, width, height, bLoadImage, PRIORITY_VISIBLE, callback);
 	}
 
-	public class LoaderRequest implements ApptentiveDownloaderTask.FileDownloadListener, ApptentiveDrawableLoaderTask.BitmapLoadListener {
-		private String uri;
-		private String diskCacheFilePath;
-		private WeakReference<ImageView> mImageViewRef;
-		private ApptentiveDownloaderTask mDrawableDownloaderTask;
-		private ApptentiveDrawableLoaderTask mDrawableLoaderTask;
-		private boolean mIsCancelled;
-		private boolean mWasDownloaded = false;
-		private int imageViewWidth;
-		private int imageViewHeight;
-		private boolean bLoadImage;
-		private LoaderCallback loadingTaskCallback;
-		private int pos;
-
-		public LoaderRequest(String url, String diskPath, int position, ImageView imageView, int width, int height, boolean bLoadImage, LoaderCallback loadingTaskCallback) {
-			this.uri = url;
-			this.diskCacheFilePath = diskPath;
-			this.imageViewWidth = width;
-			this.imageViewHeight = height;
-			this.mImageViewRef = new WeakReference<ImageView>(imageView);
-			mIsCancelled = false;
-			this.bLoadImage = bLoadImage;
-			this.loadingTaskCallback = loadingTaskCallback;
-			this.pos = position;
+	/**
+	 * Loads <code>uri</code> into <code>imageView</code>, replacing any earlier request for the view. Must be called on
+	 * the main thread.
+	 *
+	 * @param priority One of {@link #PRIORITY_PREFETCH}, {@link #PRIORITY_VISIBLE} or {@link #PRIORITY_USER_REQUESTED}.
+	 */
+	public void load(String uri, String diskFilePath, int pos, ImageView imageView, int width, int height, boolean bLoadImage, int priority, LoaderCallback callback) {
+		if (imageView == null) {
+			return;
 		}
+		ApptentiveLog.v("ApptentiveAttachmentLoader load requested: " + uri);
 
-		public ApptentiveDownloaderTask getDrawableDownloaderTask() {
-			return mDrawableDownloaderTask;
+		LoaderRequest oldRequest = (LoaderRequest) imageView.getTag(DRAWABLE_DOWNLOAD_TAG);
+		if (oldRequest != null) {
+			// The view is already loading the same thing, so let that request finish
+			if (oldRequest.isSameAs(uri, diskFilePath, pos, width, height, bLoadImage, callback)) {
+				raisePriority(oldRequest, priority);
+				return;
+			}
+			cancel(oldRequest);
 		}
 
-		public ImageView getImageView() {
-			return mImageViewRef.get();
+		if (TextUtils.isEmpty(uri)) {
+			imageView.setTag(DRAWABLE_DOWNLOAD_TAG, null);
+			if (callback != null) {
+				callback.onLoaded(imageView, pos, null);
+			}
+			return;
 		}
 
-		public int getPosition() {
-			return pos;
+		LoaderRequest request = new LoaderRequest(uri, diskFilePath, pos, imageView, width, height, bLoadImage, priority, callback);
+		if (bLoadImage) {
+			Bitmap cachedBitmap = (Bitmap) bitmapMemoryCache.getObjectFromCache(request.getMemoryCacheKey());
+			if (cachedBitmap != null) {
+				imageView.setTag(DRAWABLE_DOWNLOAD_TAG, null);
+				if (callback != null) {
+					callback.onLoaded(imageView, pos, cachedBitmap);
+				}
+				return;
+			}
+			imageView.setTag(DRAWABLE_DOWNLOAD_TAG, request);
+			decodeExecutor.execute(new DecodeJob(request));
+		} else {
+			imageView.setTag(DRAWABLE_DOWNLOAD_TAG, request);
+			startDownload(request);
 		}
+	}
 
-		public String getUrl() {
-			return uri;
+	/**
+	 * Cancels the view's pending request, if it has one. A download that no other view is waiting for is stopped, and
+	 * its partial file is kept, so it resumes if it's requested again.
+	 */
+	public void cancel(ImageView imageView) {
+		if (imageView != null) {
+			LoaderRequest request = (LoaderRequest) imageView.getTag(DRAWABLE_DOWNLOAD_TAG);
+			if (request != null) {
+				cancel(request);
+			}
 		}
+	}
 
-		public boolean isLoadingImage() {
-			return bLoadImage;
+	public void cancelAllDownloads() {
+		for (Download download : downloads.values()) {
+			for (LoaderRequest waiter : download.waiters) {
+				waiter.cancelled = true;
+				waiter.download = null;
+				waiter.detach();
+			}
+			download.waiters.clear();
+			download.cancelled = true;
 		}
+	}
 
-		public LoaderCallback getLoaderCallback() {
-			return loadingTaskCallback;
-		}
+	public boolean isBitmapLoaded(String memoryKey) {
+		Bitmap cachedBitmap = (Bitmap) bitmapMemoryCache.getObjectFromCache(memoryKey);
+		return cachedBitmap != null;
+	}
 
-		public void load() {
-			ImageView imageView = mImageViewRef.get();
-			if (imageView != null) {
-				ApptentiveLog.v("ApptentiveAttachmentLoader load requested:" + uri);
-				ApptentiveLog.v("ApptentiveAttachmentLoader load requested on:" + imageView.toString() );
-
-				// Handle the duplicate requests on the same grid item view
-				LoaderRequest oldLoaderRequest = (LoaderRequest) imageView.getTag(DRAWABLE_DOWNLOAD_TAG);
-				if (oldLoaderRequest != null) {
-					// If old request on the same view also loads from the same source, cancel the current one
-					if (oldLoaderRequest.getUrl().equals(uri)) {
-						ApptentiveLog.v("ApptentiveAttachmentLoader load new request denied:" + uri );
-						return;
-					}
-					// If old request on the same view loads from different source, cancel the old one
-					oldLoaderRequest.cancel();
-				}
+	/**
+	 * Clears memory cache, and the pool of bitmaps to decode into, since nothing will be decoded until the next load
+	 */
+	public void clearMemoryCache() {
+		bitmapMemoryCache.evictAll();
+		BitmapPool.getInstance().clear();
+	}
 
-				if (TextUtils.isEmpty(uri)) {
-					ApptentiveLog.v("ApptentiveAttachmentLoader loadDrawable(clear)");
-					loadDrawable(null);
-					imageView.setTag(DRAWABLE_DOWNLOAD_TAG, null);
-					return;
-				}
+	//region Scheduling
 
-				Bitmap cachedBitmap = (bLoadImage) ? (Bitmap) bitmapMemoryCache.getObjectFromCache(ImageMemoryCache.generateMemoryCacheEntryKey(uri, imageViewWidth, imageViewHeight)) :
-						null;
-				if (cachedBitmap != null) {
-					mWasDownloaded = false;
-
-					ApptentiveLog.v("ApptentiveAttachmentLoader loadDrawable(found in cache)");
-					loadDrawable(cachedBitmap);
-					imageView.setTag(DRAWABLE_DOWNLOAD_TAG, null);
-				} else {
-					imageView.setTag(DRAWABLE_DOWNLOAD_TAG, this);
-					if (bLoadImage) {
-						loadImageFromDisk(imageView);
-					} else {
-						loadAttachmentFromDisk(imageView);
-					}
-				}
+	private void cancel(LoaderRequest request) {
+		ApptentiveLog.v("ApptentiveAttachmentLoader cancel requested for: " + request.uri);
+		request.cancelled = true;
+		request.detach();
+		Download download = request.download;
+		if (download != null) {
+			request.download = null;
+			download.waiters.remove(request);
+			if (download.waiters.isEmpty()) {
+				download.cancelled = true;
 			}
 		}
+	}
 
-		public void doDownload() {
-			if (mIsCancelled) {
-				// if the download has been cancelled, do not download
-				// this image, but start the next one
-				if (!queuedDownLoaderRequests.isEmpty() && runningDownLoaderRequests.size() < maxDownloads) {
-					LoaderRequest d = queuedDownLoaderRequests.remove(0);
-					d.doDownload();
-				}
-				return;
-			}
-			ImageView imageView = mImageViewRef.get();
-			if (imageView != null && imageView.getTag(DRAWABLE_DOWNLOAD_TAG) == this && URLUtil.isNetworkUrl(uri)) {
-				mDrawableDownloaderTask = new ApptentiveDownloaderTask(imageView, this);
-				try {
-					ApptentiveLog.v("ApptentiveAttachmentLoader doDownload: " + uri);
-					// Conversation token is needed if the download url is a redirect link from an Apptentive endpoint
-					String conversationToken = ApptentiveInternal.getInstance().getApptentiveConversationToken();
-					if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-						mDrawableDownloaderTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, uri, diskCacheFilePath, conversationToken);
-					} else {
-						mDrawableDownloaderTask.execute(uri, diskCacheFilePath, conversationToken);
-					}
-				} catch (RejectedExecutionException e) {
-				}
-				runningDownLoaderRequests.add(this);
-				filesBeingDownloaded.add(diskCacheFilePath);
+	private void raisePriority(LoaderRequest request, int priority) {
+		if (priority > request.priority) {
+			request.priority = priority;
+			if (request.download != null) {
+				schedule(request.download, priority);
 			}
 		}
+	}
 
-		private boolean isBeingDownloaded() {
-			for (LoaderRequest loaderRequest : runningDownLoaderRequests) {
-				if (loaderRequest == null) {
-					continue;
-				}
-				ImageView otherImageView = loaderRequest.getImageView();
-				ImageView thisImageView = getImageView();
-				if (thisImageView == null || otherImageView == null) {
-					continue;
-				}
-				if ((otherImageView.equals(thisImageView) || loaderRequest.getPosition() == getPosition())
-						&& loaderRequest.getUrl().equals(uri)) {
-					return true;
-				}
-			}
-			return false;
-		}
-
-		@SuppressLint("NewApi")
-		private void loadImageFromDisk(ImageView imageView) {
-			if (imageView != null && !mIsCancelled) {
-				ApptentiveLog.v("ApptentiveAttachmentLoader loadImageFromDisk: " + uri);
-				mDrawableLoaderTask = new ApptentiveDrawableLoaderTask(imageView, this);
-				try {
-					if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-						mDrawableLoaderTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, uri, diskCacheFilePath, String.valueOf(imageViewWidth), String.valueOf(imageViewHeight));
-					} else {
-						mDrawableLoaderTask.execute(uri, diskCacheFilePath, String.valueOf(imageViewWidth), String.valueOf(imageViewHeight));
-					}
-				} catch (RejectedExecutionException e) {
-				}
-			}
+	private void startDownload(LoaderRequest request) {
+		if (!URLUtil.isNetworkUrl(request.uri)) {
+			request.terminate();
+			return;
 		}
 
-		@SuppressLint("NewApi")
-		private void loadAttachmentFromDisk(ImageView imageView) {
-			if (!mIsCancelled) {
-				notFound();
+		Download download = downloads.get(request.uri);
+		if (download == null) {
+			download = new Download(request.uri, request.diskCacheFilePath);
+			downloads.put(request.uri, download);
+			filesBeingDownloaded.add(request.diskCacheFilePath);
+		}
+		download.waiters.add(request);
+		download.cancelled = false;
+		request.download = download;
+		schedule(download, request.priority);
+
+		if (download.started.get()) {
+			request.onDownloadStart();
+			if (download.progress >= 0) {
+				request.onDownloadProgress(download.progress);
 			}
 		}
+	}
 
-		private void cancel() {
-			ApptentiveLog.v("ApptentiveAttachmentLoader cancel requested for: " + uri);
-			mIsCancelled = true;
+	/**
+	 * Queues the download at <code>priority</code>, unless it's already queued at that priority or higher. The
+	 * download runs once, at whichever of its queued jobs is picked first.
+	 */
+	private void schedule(Download download, int priority) {
+		if (priority > download.scheduledPriority && !download.started.get()) {
+			download.scheduledPriority = priority;
+			downloadExecutor.execute(new DownloadJob(download, priority));
+		}
+	}
 
-			ArrayList<LoaderRequest> duplicates = duplicateDownloads.get(uri);
-			if (duplicates != null) {
-				duplicates.remove(this);
-				if (duplicates.size() > 0) {
-					duplicateDownloads.put(uri, duplicates);
-				} else {
-					duplicateDownloads.remove(uri);
-				}
-			}
+	private void onDecoded(LoaderRequest request, Bitmap bitmap, boolean failed) {
+		if (request.cancelled) {
+			return;
+		}
+		if (bitmap != null) {
+			bitmapMemoryCache.addObjectToCache(request.getMemoryCacheKey(), bitmap);
+			request.onLoaded(bitmap);
+		} else if (failed) {
+			request.terminate();
+		} else {
+			// Not on disk yet
+			startDownload(request);
+		}
+	}
 
+	private void onDownloadStarted(Download download) {
+		for (LoaderRequest waiter : download.waiters) {
+			waiter.onDownloadStart();
+		}
+	}
 
-			if (queuedDownLoaderRequests.contains(this)) {
-				queuedDownLoaderRequests.remove(this);
-			}
-			if (mDrawableDownloaderTask != null) {
-				mDrawableDownloaderTask.cancel(true);
-			}
-			if (mDrawableLoaderTask != null) {
-				mDrawableLoaderTask.cancel(true);
-			}
+	private void onDownloadProgress(Download download, int progress) {
+		download.progress = progress;
+		for (LoaderRequest waiter : download.waiters) {
+			waiter.onDownloadProgress(progress);
 		}
+	}
 
-		private int indexOfDownloadWithDifferentURL() {
-			for (LoaderRequest loaderRequest : runningDownLoaderRequests) {
-				if (loaderRequest == null) {
-					continue;
-				}
-				ImageView otherImageView = loaderRequest.getImageView();
-				ImageView thisImageView = getImageView();
-				if (thisImageView == null || otherImageView == null) {
-					continue;
-				}
-				if (otherImageView.equals(thisImageView) && !loaderRequest.getUrl().equals(uri)) {
-					return runningDownLoaderRequests.indexOf(loaderRequest);
-				}
-			}
-			return -1;
+	private void onDownloadFinished(Download download, boolean successful, boolean aborted) {
+		if (aborted && !download.waiters.isEmpty()) {
+			// A view asked for the file again after the last one gave up on it. Pick up from the partial file.
+			download.restart();
+			schedule(download, download.getWaiterPriority());
+			return;
 		}
 
-		private boolean isQueuedForDownload() {
-			for (LoaderRequest loaderRequest : queuedDownLoaderRequests) {
-				if (loaderRequest == null) {
-					continue;
-				}
-				ImageView otherImageView = loaderRequest.getImageView();
-				ImageView thisImageView = getImageView();
-				if (thisImageView == null || otherImageView == null) {
-					continue;
-				}
-				if (otherImageView.equals(thisImageView) && loaderRequest.getUrl().equals(uri)) {
-					return true;
-				}
+		ApptentiveLog.v("ApptentiveAttachmentLoader download finished: " + download.uri + (successful ? "" : " (failed)"));
+		downloads.remove(download.uri);
+		filesBeingDownloaded.remove(download.diskCacheFilePath);
+
+		for (LoaderRequest waiter : new ArrayList<LoaderRequest>(download.waiters)) {
+			waiter.download = null;
+			if (!successful) {
+				waiter.onDownloadProgress(-1);
+				waiter.detach();
+			} else if (waiter.bLoadImage) {
+				decodeExecutor.execute(new DecodeJob(waiter));
+			} else {
+				waiter.onLoaded(null);
 			}
-			return false;
 		}
+		download.waiters.clear();
+	}
 
-		private int indexOfQueuedDownloadWithDifferentURL() {
-			for (LoaderRequest loaderRequest : queuedDownLoaderRequests) {
-				if (loaderRequest == null) {
-					continue;
-				}
-				ImageView otherImageView = loaderRequest.getImageView();
-				ImageView thisImageView = getImageView();
-				if (thisImageView == null || otherImageView == null) {
-					continue;
-				}
-				if (otherImageView.equals(thisImageView) && !loaderRequest.getUrl().equals(uri)) {
-					return queuedDownLoaderRequests.indexOf(loaderRequest);
-				}
+	private void post(final Runnable runnable) {
+		DispatchQueue.mainQueue().dispatchAsync(new DispatchTask() {
+			@Override
+			protected void execute() {
+				runnable.run();
 			}
-			return -1;
+		});
+	}
+
+	//endregion
+
+	//region Requests and jobs
+
+	private class LoaderRequest {
+		private final String uri;
+		private final String diskCacheFilePath;
+		private final WeakReference<ImageView> imageViewRef;
+		private final int imageViewWidth;
+		private final int imageViewHeight;
+		private final boolean bLoadImage;
+		private final LoaderCallback loadingTaskCallback;
+		private final int pos;
+		private int priority;
+		private Download download;
+
+		// Read by decode jobs on worker threads
+		private volatile boolean cancelled;
+
+		LoaderRequest(String url, String diskPath, int position, ImageView imageView, int width, int height, boolean bLoadImage, int priority, LoaderCallback loadingTaskCallback) {
+			this.uri = url;
+			this.diskCacheFilePath = diskPath;
+			this.imageViewWidth = width;
+			this.imageViewHeight = height;
+			this.imageViewRef = new WeakReference<ImageView>(imageView);
+			this.bLoadImage = bLoadImage;
+			this.priority = priority;
+			this.loadingTaskCallback = loadingTaskCallback;
+			this.pos = position;
 		}
 
-		private LoaderRequest isAnotherQueuedOrRunningWithSameUrl() {
-			for (LoaderRequest loaderRequest : queuedDownLoaderRequests) {
-				if (loaderRequest == null) {
-					continue;
-				}
-				if (loaderRequest.getUrl().equals(uri)) {
-					return loaderRequest;
-				}
-			}
-			for (LoaderRequest loaderRequest : runningDownLoaderRequests) {
-				if (loaderRequest == null) {
-					continue;
-				}
-				if (loaderRequest.getUrl().equals(uri)) {
-					return loaderRequest;
-				}
-			}
-			return null;
+		/**
+		 * @return true if a new request with these arguments would load the same image, at the same size, and report it
+		 * to the same callback.
+		 */
+		boolean isSameAs(String uri, String diskPath, int position, int width, int height, boolean bLoadImage, LoaderCallback callback) {
+			return this.uri.equals(uri) && TextUtils.equals(diskCacheFilePath, diskPath) && pos == position &&
+					imageViewWidth == width && imageViewHeight == height && this.bLoadImage == bLoadImage &&
+					loadingTaskCallback == callback;
+		}
+
+		String getMemoryCacheKey() {
+			return ImageMemoryCache.generateMemoryCacheEntryKey(uri, imageViewWidth, imageViewHeight);
 		}
 
-		private void loadDrawable(Bitmap d) {
-			loadDrawable(d, true);
+		/**
+		 * @return The view, if it is still showing this request.
+		 */
+		ImageView getBoundImageView() {
+			ImageView imageView = imageViewRef.get();
+			return imageView != null && imageView.getTag(DRAWABLE_DOWNLOAD_TAG) == this ? imageView : null;
 		}
 
-		private void loadDrawable(Bitmap d, boolean animate) {
-			ApptentiveLog.v("ApptentiveAttachmentLoader loadDrawable");
-			ImageView imageView = getImageView();
+		void detach() {
+			ImageView imageView = getBoundImageView();
 			if (imageView != null) {
-				if (loadingTaskCallback != null) {
-					loadingTaskCallback.onLoaded(imageView, pos, d);
-				}
+				imageView.setTag(DRAWABLE_DOWNLOAD_TAG, null);
 			}
 		}
 
-		// called when the download starts
-		@Override
-		public void onDownloadStart() {
-			ApptentiveLog.v("ApptentiveAttachmentLoader onDownloadStarted");
-			ImageView imageView = getImageView();
+		void onLoaded(Bitmap bitmap) {
+			ImageView imageView = getBoundImageView();
 			if (imageView != null) {
+				imageView.setTag(DRAWABLE_DOWNLOAD_TAG, null);
 				if (loadingTaskCallback != null) {
-					loadingTaskCallback.onDownloadStart();
+					loadingTaskCallback.onLoaded(imageView, pos, bitmap);
 				}
 			}
 		}
 
-		// called when the download is in progress
-		@Override
-		public void onProgress(int progress) {
-			ApptentiveLog.v("ApptentiveAttachmentLoader onProgress: " + progress);
-			ImageView imageView = getImageView();
+		void terminate() {
+			ImageView imageView = getBoundImageView();
 			if (imageView != null) {
+				imageView.setTag(DRAWABLE_DOWNLOAD_TAG, null);
 				if (loadingTaskCallback != null) {
-					loadingTaskCallback.onDownloadProgress(progress);
+					loadingTaskCallback.onLoadTerminated();
 				}
 			}
+		}
 
-			ArrayList<LoaderRequest> duplicates = duplicateDownloads.get(uri);
-			if (duplicates != null) {
-				for (LoaderRequest dup : duplicates) {
-					ApptentiveLog.v("ApptentiveAttachmentLoader onProgress (dup): " + progress);
-					// update the progress on the duplicate downloads
-					if (dup != null && dup.getImageView() != null &&
-							dup.getImageView().getTag(DRAWABLE_DOWNLOAD_TAG) == dup) {
-						dup.getLoaderCallback().onDownloadProgress(progress);
-					}
-				}
+		void onDownloadStart() {
+			if (loadingTaskCallback != null && getBoundImageView() != null) {
+				loadingTaskCallback.onDownloadStart();
 			}
 		}
 
-		// called when the download has completed
-		@Override
-		public void onDownloadComplete() {
-			ApptentiveLog.v("ApptentiveAttachmentLoader onDownloadComplete: " + uri);
-
-			runningDownLoaderRequests.remove(this);
-			filesBeingDownloaded.remove(diskCacheFilePath);
-			mWasDownloaded = true;
-
-			ImageView imageView = mImageViewRef.get();
-			if (imageView != null && this == imageView.getTag(DRAWABLE_DOWNLOAD_TAG)) {
-				if (!bLoadImage) {
-					imageView.setTag(DRAWABLE_DOWNLOAD_TAG, null);
-					if (loadingTaskCallback != null) {
-						loadingTaskCallback.onLoaded(imageView, pos, null);
-					}
-				} else {
-					loadImageFromDisk(getImageView());
-				}
+		void onDownloadProgress(int progress) {
+			if (loadingTaskCallback != null && getBoundImageView() != null) {
+				loadingTaskCallback.onDownloadProgress(progress);
 			}
+		}
+	}
 
-			ArrayList<LoaderRequest> duplicates = duplicateDownloads.get(uri);
-			if (duplicates != null) {
-				for (LoaderRequest dup : duplicates) {
-					ApptentiveLog.v("ApptentiveAttachmentLoader onDownloadComplete (dup): " + dup.uri);
-					// load the image.
-					if (dup != null && dup.getImageView() != null &&
-							dup.getImageView().getTag(DRAWABLE_DOWNLOAD_TAG) == dup) {
-						if (!dup.isLoadingImage()) {
-							dup.getImageView().setTag(DRAWABLE_DOWNLOAD_TAG, null);
-							if (dup.getLoaderCallback() != null) {
-								dup.getLoaderCallback().onLoaded(dup.getImageView(), dup.pos, null);
-							}
-						} else {
-							dup.loadImageFromDisk(dup.getImageView());
-						}
-					}
-				}
-				duplicateDownloads.remove(uri);
-			}
+	/**
+	 * A download of one URL, shared by every request that is waiting for it.
+	 */
+	private class Download implements FileDownloader.Listener {
+		final String uri;
+		final String diskCacheFilePath;
+		final Set<LoaderRequest> waiters = new LinkedHashSet<LoaderRequest>();
+		final AtomicBoolean started = new AtomicBoolean();
+		int scheduledPriority = -1;
+		int progress = -1;
+
+		// Set on the main thread when the last waiter is cancelled, and polled by the worker
+		volatile boolean cancelled;
+
+		Download(String uri, String diskCacheFilePath) {
+			this.uri = uri;
+			this.diskCacheFilePath = diskCacheFilePath;
+		}
 
-			if (!queuedDownLoaderRequests.isEmpty()) {
-				LoaderRequest d = queuedDownLoaderRequests.remove(0);
-				d.doDownload();
+		int getWaiterPriority() {
+			int priority = PRIORITY_PREFETCH;
+			for (LoaderRequest waiter : waiters) {
+				priority = Math.max(priority, waiter.priority);
 			}
+			return priority;
 		}
 
-		// called if there is an error with the download
-		@Override
-		public void onDownloadError() {
-			ApptentiveLog.v("ApptentiveAttachmentLoader onDownloadError: " + uri);
-			runningDownLoaderRequests.remove(this);
-			filesBeingDownloaded.remove(diskCacheFilePath);
-			ImageView imageView = getImageView();
-			mWasDownloaded = true;
-			if (imageView != null) {
-				if (loadingTaskCallback != null) {
-					loadingTaskCallback.onDownloadProgress(-1);
-				}
-			}
+		void restart() {
+			started.set(false);
+			cancelled = false;
+			scheduledPriority = -1;
+			progress = -1;
+		}
 
-			if (imageView != null && this == imageView.getTag(DRAWABLE_DOWNLOAD_TAG)) {
-				imageView.setTag(DRAWABLE_DOWNLOAD_TAG, null);
+		/**
+		 * Runs on a download thread.
+		 */
+		void run() {
+			if (cancelled) {
+				postFinished(false, true);
+				return;
 			}
-
-			ArrayList<LoaderRequest> duplicates = duplicateDownloads.get(uri);
-			if (duplicates != null) {
-				duplicates.remove(this);
-				if (duplicates.size() > 0) {
-					duplicateDownloads.put(uri, duplicates);
-				} else {
-					duplicateDownloads.remove(uri);
-				}
-				for (LoaderRequest dup : duplicates) {
-					ApptentiveLog.v("ApptentiveAttachmentLoader onDownloadError (dup): " + dup.uri);
-					// load the image.
-					if (dup != null && dup.getImageView() != null &&
-							dup.getImageView().getTag(DRAWABLE_DOWNLOAD_TAG) == dup) {
-						duplicates.remove(0);
-						if (duplicates.size() > 0) {
-							duplicateDownloads.put(uri, duplicates);
-						} else {
-							duplicateDownloads.remove(uri);
-						}
-						dup.doDownload();
-						return;
+			post(new Runnable() {
+				@Override
+				public void run() {
+					onDownloadStarted(Download.this);
+				}
+			});
+
+			boolean successful = false;
+			boolean aborted = false;
+			try {
+				File file = new File(diskCacheFilePath);
+				ApptentiveHttpResponse response = new FileDownloader(file).download(uri, this);
+				successful = response.isSuccessful();
+				aborted = response.isException();
+				if (successful) {
+					DiskLruCache diskCache = ApptentiveInternal.getInstance().getImageDiskCache();
+					if (diskCache != null) {
+						diskCache.put(file);
 					}
 				}
+			} catch (IOException e) {
+				// The partial file is kept, so the next attempt picks up where this one stopped
+				ApptentiveLog.w("Download of %s interrupted: %s", uri, e.getMessage());
 			}
+			postFinished(successful, aborted);
+		}
 
-			if (!queuedDownLoaderRequests.isEmpty()) {
-				LoaderRequest d = queuedDownLoaderRequests.remove(0);
-				d.doDownload();
-			}
+		/**
+		 * @param aborted true if the download stopped because it was cancelled.
+		 */
+		private void postFinished(final boolean successful, final boolean aborted) {
+			post(new Runnable() {
+				@Override
+				public void run() {
+					onDownloadFinished(Download.this, successful, aborted);
+				}
+			});
 		}
 
-		// called if the download is cancelled
 		@Override
-		public void onDownloadCancel() {
-			mIsCancelled = true;
-			ApptentiveLog.v("ApptentiveAttachmentLoader onDownloadCancel: " + uri);
-			runningDownLoaderRequests.remove(this);
-			filesBeingDownloaded.remove(diskCacheFilePath);
-
-			ImageView imageView = mImageViewRef.get();
-			if (imageView != null && this == imageView.getTag(DRAWABLE_DOWNLOAD_TAG)) {
-				imageView.setTag(DRAWABLE_DOWNLOAD_TAG, null);
-			}
-
-			ArrayList<LoaderRequest> duplicates = duplicateDownloads.get(uri);
-			if (duplicates != null) {
-				duplicates.remove(this);
-				if (duplicates.size() > 0) {
-					duplicateDownloads.put(uri, duplicates);
-				} else {
-					duplicateDownloads.remove(uri);
-				}
-				for (LoaderRequest dup : duplicates) {
-					// start next download task in the duplicate queue
-					if (dup != null && dup.getImageView() != null &&
-							dup.getImageView().getTag(DRAWABLE_DOWNLOAD_TAG) == dup) {
-						duplicates.remove(0);
-						if (duplicates.size() > 0) {
-							duplicateDownloads.put(uri, duplicates);
-						} else {
-							duplicateDownloads.remove(uri);
-						}
-						dup.doDownload();
-						return;
-					}
+		public void onProgress(final int progress) {
+			post(new Runnable() {
+				@Override
+				public void run() {
+					onDownloadProgress(Download.this, progress);
 				}
-			}
+			});
+		}
 
-			if (!queuedDownLoaderRequests.isEmpty()) {
-				LoaderRequest d = queuedDownLoaderRequests.remove(0);
-				ApptentiveLog.v("ApptentiveAttachmentLoader starting DL of: " + d.getUrl());
-				d.doDownload();
-			}
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	/**
+	 * Orders jobs by priority, then newest first.
+	 */
+	private abstract class Job implements Runnable, Comparable<Job> {
+		private final int priority;
+		private final long sequenceNumber;
+
+		Job(int priority) {
+			this.priority = priority;
+			this.sequenceNumber = sequence.incrementAndGet();
 		}
 
-		// called if the file is not found on the file system
 		@Override
-		public void notFound() {
-			ApptentiveLog.v("ApptentiveAttachmentLoader notFound: " + uri);
-			if (mIsCancelled) {
-				return;
+		public int compareTo(Job other) {
+			if (priority != other.priority) {
+				return priority > other.priority ? -1 : 1;
 			}
-			ImageView imageView = getImageView();
+			return sequenceNumber > other.sequenceNumber ? -1 : (sequenceNumber < other.sequenceNumber ? 1 : 0);
+		}
+	}
 
-			if (imageView == null || this != imageView.getTag(DRAWABLE_DOWNLOAD_TAG)) {
-				return;
-			}
+	private class DecodeJob extends Job {
+		private final LoaderRequest request;
 
+		DecodeJob(LoaderRequest request) {
+			super(request.priority);
+			this.request = request;
+		}
 
-			if (isAnotherQueuedOrRunningWithSameUrl() != null) {
-				if (duplicateDownloads.containsKey(uri)) {
-					ArrayList<LoaderRequest> arr = duplicateDownloads.get(uri);
-					arr.add(this);
-					duplicateDownloads.put(uri, arr);
-				} else {
-					ArrayList<LoaderRequest> arr = new ArrayList<LoaderRequest>();
-					arr.add(this);
-					duplicateDownloads.put(uri, arr);
-				}
-			} else {
-				// check if this imageView is being used with a different URL, if so
-				// cancel the other one.
-				int queuedIndex = indexOfQueuedDownloadWithDifferentURL();
-				int downloadIndex = indexOfDownloadWithDifferentURL();
-				while (queuedIndex != -1) {
-					queuedDownLoaderRequests.remove(queuedIndex);
-					ApptentiveLog.v("ApptentiveAttachmentLoader notFound(Removing): " + uri);
-					queuedIndex = indexOfQueuedDownloadWithDifferentURL();
-				}
-				if (downloadIndex != -1) {
-					LoaderRequest runningLoaderRequest = runningDownLoaderRequests.get(downloadIndex);
-					ApptentiveDownloaderTask downloadTask = runningLoaderRequest.getDrawableDownloaderTask();
-					if (downloadTask != null) {
-						downloadTask.cancel(true);
-						ApptentiveLog.v("ApptentiveAttachmentLoader notFound(Cancelling): " + uri);
+		@Override
+		public void run() {
+			if (request.cancelled) {
+				return;
+			}
+			Bitmap bitmap = null;
+			boolean failed = false;
+			try {
+				// Always try to load image from apptentive cached copy first
+				if (!TextUtils.isEmpty(request.diskCacheFilePath)) {
+					File imageFile = new File(request.diskCacheFilePath);
+					if (imageFile.exists()) {
+						bitmap = decodeLocalImage(request.diskCacheFilePath, request.imageViewWidth, request.imageViewHeight);
+						DiskLruCache diskCache = ApptentiveInternal.getInstance().getImageDiskCache();
+						if (diskCache != null) {
+							diskCache.touch(imageFile);
+						}
 					}
 				}
-
-				if (!(isBeingDownloaded() || isQueuedForDownload())) {
-					if (runningDownLoaderRequests.size() >= maxDownloads) {
-						ApptentiveLog.v("ApptentiveAttachmentLoader notFound(Queuing): " + uri);
-						queuedDownLoaderRequests.add(this);
-					} else {
-						ApptentiveLog.v("ApptentiveAttachmentLoader notFound(Downloading): " + uri);
-						doDownload();
-					}
+				// Then try to load the image from the original file path to the source
+				if (bitmap == null && !URLUtil.isNetworkUrl(request.uri)) {
+					bitmap = decodeLocalImage(request.uri, request.imageViewWidth, request.imageViewHeight);
 				}
+			} catch (FileNotFoundException e) {
+				failed = !URLUtil.isNetworkUrl(request.uri);
+			} catch (Exception e) {
+				ApptentiveLog.w("Unable to decode %s: %s", request.uri, e);
+				failed = true;
 			}
-		}
 
-		@Override
-		public void loadBitmap(Bitmap b) {
-			bitmapMemoryCache.addObjectToCache(ImageMemoryCache.generateMemoryCacheEntryKey(uri, imageViewWidth, imageViewHeight), b);
-			ImageView imageView = getImageView();
-			if (imageView != null && this == imageView.getTag(DRAWABLE_DOWNLOAD_TAG)) {
-				ApptentiveLog.v("ApptentiveAttachmentLoader loadDrawable(add to cache)");
-				loadDrawable(b);
-				imageView.setTag(DRAWABLE_DOWNLOAD_TAG, null);
-			}
-			mWasDownloaded = false;
+			final Bitmap result = bitmap;
+			final boolean decoderError = failed;
+			post(new Runnable() {
+				@Override
+				public void run() {
+					onDecoded(request, result, decoderError);
+				}
+			});
 		}
+	}
 
-		@Override
-		public void onLoadError() {
-			ApptentiveLog.v("ApptentiveAttachmentLoader onLoadError: " + uri);
-			ImageView imageView = getImageView();
-
-			if (imageView != null && this == imageView.getTag(DRAWABLE_DOWNLOAD_TAG)) {
-				imageView.setTag(DRAWABLE_DOWNLOAD_TAG, null);
-
+	private class DownloadJob extends Job {
+		private final Download download;
 
-				if (loadingTaskCallback != null) {
-					loadingTaskCallback.onLoadTerminated();
-				}
-			}
+		DownloadJob(Download download, int priority) {
+			super(priority);
+			this.download = download;
 		}
 
 		@Override
-		public void onLoadCancelled() {
-			ApptentiveLog.v("ApptentiveAttachmentLoader onLoadCancelled: " + uri);
-			ImageView imageView = getImageView();
-			if (imageView != null && this == imageView.getTag(DRAWABLE_DOWNLOAD_TAG)) {
-				imageView.setTag(DRAWABLE_DOWNLOAD_TAG, null);
-
-				if (loadingTaskCallback != null) {
-					loadingTaskCallback.onLoadTerminated();
-				}
+		public void run() {
+			// A download raised in priority has more than one job queued. Only the first one to run does the work.
+			if (download.started.compareAndSet(false, true)) {
+				download.run();
 			}
 		}
 	}
 
-	public boolean isBitmapLoaded(String memoryKey) {
-		Bitmap cachedBitmap = (Bitmap) bitmapMemoryCache.getObjectFromCache(memoryKey);
-		return cachedBitmap != null;
-	}
+	//endregion
 
-	/**
-	 * Clears memory cache
-	 */
-	public void clearMemoryCache() {
-		bitmapMemoryCache.evictAll();
+	private static Bitmap decodeLocalImage(String fileLocation, int width, int height) throws Exception {
+		int imageOrientation = 0;
+		try {
+			ExifInterface exif = new ExifInterface(fileLocation);
+			imageOrientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+		} catch (IOException e) {
+			// Fail to obtain orientation from Exif, Just ignore, and treat it as 0
+		}
+		return ImageUtil.createScaledBitmapFromLocalImageSource(fileLocation, width, height, null, imageOrientation);
 	}
 
+	private static ThreadPoolExecutor createExecutor(final String name, int threadCount) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				return new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						runnable.run();
+					}
+				}, name + "-" + threadNumber.incrementAndGet());
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
 }
@@ -15,6 +15,7 @@ import android.view.View;
 import android.view.ViewTreeObserver;
 import android.widget.AdapterView;
 import android.widget.GridView;
+import android.widget.ImageView;
 
 import com.apptentive.android.sdk.R;
 import com.apptentive.android.sdk.util.Util;
@@ -116,4 +117,16 @@ public class ApptentiveImageGridView extends GridView implements AdapterView.OnI
 	public void notifyDataSetChanged() {
 		imageBandAdapter.notifyDataSetChanged();
 	}
+
+	/**
+	 * Cancels the loads of the images shown in this grid, for when it scrolls out of view.
+	 */
+	public void cancelImageLoads() {
+		for (int i = 0; i < getChildCount(); i++) {
+			View image = getChildAt(i).findViewById(R.id.image);
+			if (image instanceof ImageView) {
+				ApptentiveAttachmentLoader.getInstance().cancel((ImageView) image);
+			}
+		}
+	}
 }
\ No newline at end of file
@@ -456,7 +456,7 @@ public class ImageGridViewAdapter extends BaseAdapter {
 								}
 							});
 				} else if (!TextUtils.isEmpty(data.originalPath) && downloadItems.contains(data.originalPath)) {
-					ApptentiveAttachmentLoader.getInstance().load(data.originalPath, data.localCachePath, index, image, 0, 0, false,
+					ApptentiveAttachmentLoader.getInstance().load(data.originalPath, data.localCachePath, index, image, 0, 0, false, ApptentiveAttachmentLoader.PRIORITY_USER_REQUESTED,
 							new ApptentiveAttachmentLoader.LoaderCallback() {
 								@Override
 								public void onLoaded(ImageView view, int pos, Bitmap d) {
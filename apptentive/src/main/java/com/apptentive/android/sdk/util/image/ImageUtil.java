@@ -9,19 +9,29 @@ package com.apptentive.android.sdk.util.image;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
 import android.media.ExifInterface;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.text.TextUtils;
 import android.webkit.URLUtil;
 
 import com.apptentive.android.sdk.ApptentiveInternal;
 import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.comm.ApptentiveHttpResponse;
 import com.apptentive.android.sdk.module.messagecenter.view.ApptentiveAvatarView;
 import com.apptentive.android.sdk.util.CountingOutputStream;
 import com.apptentive.android.sdk.util.Util;
+import com.apptentive.android.sdk.util.cache.BitmapPool;
+import com.apptentive.android.sdk.util.cache.DiskLruCache;
+import com.apptentive.android.sdk.util.task.FileDownloader;
+import com.apptentive.android.sdk.util.threading.DispatchQueue;
+import com.apptentive.android.sdk.util.threading.DispatchTask;
+import com.apptentive.android.sdk.util.threading.DispatchTaskPriority;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -30,7 +40,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class ImageUtil {
 
@@ -62,7 +76,7 @@ public class ImageUtil {
 
 	/**
 	 * This method decodes a bitmap from a file, and does pixel combining in order to produce an in-memory bitmap that is
-	 * smaller than the original. It will create only the returned bitmap in memory.
+	 * smaller than the original. The pixels are decoded into a bitmap from the {@link BitmapPool} when one fits.
 	 * From <a href="http://developer.android.com/training/displaying-bitmaps/load-bitmap.html">Loading Large Bitmaps Efficiently</a>
 	 *
 	 * @param fileAbsolutePath Full absolute path  to the image file. (optional, maybe null)
@@ -70,48 +84,25 @@ public class ImageUtil {
 	 * @param minShrunkWidth   If edge of this image is greater than minShrunkWidth, the image will be shrunken such it is not smaller than minShrunkWidth.
 	 * @param minShrunkHeight  If edge of this image is greater than minShrunkHeight, the image will be shrunken such it is not smaller than minShrunkHeight.
 	 * @param config           You can use this to change the number of bytes per pixel using various bitmap configurations.
-	 * @param orientation      The orientation for the image expressed as degrees
-	 * @return A bitmap whose edges are equal to or less than minShrunkEdge in length.
+	 * @param degrees          The clockwise rotation the image will be displayed with, used to match its edges to the limits.
+	 * @return A mutable bitmap, not yet rotated, whose edges are roughly minShrunkEdge or more in length.
 	 */
-	private static Bitmap createLightweightScaledBitmap(String fileAbsolutePath, Uri fileUri, int minShrunkWidth, int minShrunkHeight, Bitmap.Config config, int orientation) {
-		boolean bCreateFromUri;
+	private static Bitmap createLightweightScaledBitmap(String fileAbsolutePath, Uri fileUri, int minShrunkWidth, int minShrunkHeight, Bitmap.Config config, int degrees) {
 		Context context = ApptentiveInternal.getInstance().getApplicationContext();
-		if (context != null && fileUri != null) {
-			bCreateFromUri = true;
-		} else if (!TextUtils.isEmpty(fileAbsolutePath)) {
-			bCreateFromUri = false;
-		} else {
+		if ((context == null || fileUri == null) && TextUtils.isEmpty(fileAbsolutePath)) {
 			return null;
 		}
 
-		BitmapFactory.Options options = new BitmapFactory.Options();
-		if (config != null) {
-			options.inPreferredConfig = config;
-		}
-
 		final BitmapFactory.Options decodeBoundsOptions = new BitmapFactory.Options();
 		decodeBoundsOptions.inJustDecodeBounds = true;
 		decodeBoundsOptions.inScaled = false;
 
 		// Obtain image dimensions without actually decode the image into memory
-		if (bCreateFromUri && context != null) {
-			InputStream is = null;
-			try {
-				is = context.getContentResolver().openInputStream(fileUri);
-				BitmapFactory.decodeStream(is, null, decodeBoundsOptions);
-			} catch (FileNotFoundException e) {
-				throw new NullPointerException("Failed to decode image");
-			} finally {
-				Util.ensureClosed(is);
-			}
-		} else if (!bCreateFromUri){
-			BitmapFactory.decodeFile(fileAbsolutePath, decodeBoundsOptions);
-		}
-
+		decodeBitmap(context, fileAbsolutePath, fileUri, decodeBoundsOptions);
 
 		int width, height;
 
-		if (orientation == 90 || orientation == 270) {
+		if (degrees == 90 || degrees == 270) {
 			//noinspection SuspiciousNameCombination
 			width = decodeBoundsOptions.outHeight;
 			//noinspection SuspiciousNameCombination
@@ -122,80 +113,85 @@ public class ImageUtil {
 		}
 
 		ApptentiveLog.v("Original bitmap dimensions: %d x %d", width, height);
-		int sampleRatio = Math.min(width / minShrunkWidth, height / minShrunkHeight);
-		if (sampleRatio >= 2) {
-			options.inSampleSize = sampleRatio;
+		int sampleRatio = (minShrunkWidth > 0 && minShrunkHeight > 0) ? Math.min(width / minShrunkWidth, height / minShrunkHeight) : 1;
+
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		if (config != null) {
+			options.inPreferredConfig = config;
 		}
+		// The decoder rounds the sample size down to a power of two anyway. Doing it here tells the decoded size up front.
+		options.inSampleSize = sampleRatio >= 2 ? Integer.highestOneBit(sampleRatio) : 1;
 		options.inScaled = false;
 		options.inJustDecodeBounds = false;
+		options.inMutable = true; // So the bitmap can go back to the pool if it's only an intermediate step
 		ApptentiveLog.v("Bitmap sample size = %d", options.inSampleSize);
 
-		Bitmap retImg = null;
-		if (bCreateFromUri && context != null) {
-			InputStream is = null;
-			try {
-				is = context.getContentResolver().openInputStream(fileUri);
-				retImg = BitmapFactory.decodeStream(is, null, options);
-			} catch (FileNotFoundException e) {
-				throw new NullPointerException("Failed to decode image");
-			} finally {
-				Util.ensureClosed(is);
-			}
-		} else if (!bCreateFromUri){
-			retImg = BitmapFactory.decodeFile(fileAbsolutePath, options);
+		// Before KitKat a bitmap can only be decoded into if it isn't sampled and has the very same size
+		BitmapPool pool = BitmapPool.getInstance();
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT || options.inSampleSize == 1) {
+			int sampledWidth = (decodeBoundsOptions.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+			int sampledHeight = (decodeBoundsOptions.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+			options.inBitmap = pool.get(sampledWidth, sampledHeight, options.inPreferredConfig);
 		}
 
-
-		ApptentiveLog.d("Sampled bitmap size = %d X %d", options.outWidth, options.outHeight);
-
-		if ((orientation != 0 && orientation != -1) && retImg != null) {
-			Matrix matrix = new Matrix();
-			switch (orientation) {
-				case ExifInterface.ORIENTATION_ROTATE_90:
-					matrix.postRotate(90);
-					break;
-				case ExifInterface.ORIENTATION_ROTATE_180:
-					matrix.postRotate(180);
-					break;
-				case ExifInterface.ORIENTATION_ROTATE_270:
-					matrix.postRotate(270);
-					break;
-			}
-            try {
-				retImg = Bitmap.createBitmap(retImg, 0, 0, retImg.getWidth(),
-						retImg.getHeight(), matrix, true);
-			} catch (IllegalArgumentException e) {
-				throw new NullPointerException("Failed to decode image");
-			}
+		Bitmap retImg;
+		try {
+			retImg = decodeBitmap(context, fileAbsolutePath, fileUri, options);
+		} catch (IllegalArgumentException e) {
+			// The pooled bitmap couldn't be decoded into, for example because of the image format
+			retImg = null;
+		}
+		if (retImg == null && options.inBitmap != null) {
+			pool.put(options.inBitmap);
+			options.inBitmap = null;
+			retImg = decodeBitmap(context, fileAbsolutePath, fileUri, options);
 		}
 
 		if (retImg == null) {
 			throw new NullPointerException("Failed to decode image");
 		}
 
+		ApptentiveLog.d("Sampled bitmap size = %d X %d", retImg.getWidth(), retImg.getHeight());
 		return retImg;
 	}
 
+	private static Bitmap decodeBitmap(Context context, String fileAbsolutePath, Uri fileUri, BitmapFactory.Options options) {
+		if (context != null && fileUri != null) {
+			InputStream is = null;
+			try {
+				is = context.getContentResolver().openInputStream(fileUri);
+				return BitmapFactory.decodeStream(is, null, options);
+			} catch (FileNotFoundException e) {
+				throw new NullPointerException("Failed to decode image");
+			} finally {
+				Util.ensureClosed(is);
+			}
+		}
+		return BitmapFactory.decodeFile(fileAbsolutePath, options);
+	}
+
 	/**
 	 * This method first uses a straight binary pixel conversion to shrink an image to *almost* the right size, and then
-	 * performs a scaling of this resulting bitmap to achieve the final size. It will create two bitmaps in memory while it
-	 * is running.
+	 * rotates and scales the resulting bitmap to the final size in a single draw. The intermediate bitmap goes back to the
+	 * {@link BitmapPool}. Several threads can call this at once: the pool is the only state they share, and it's
+	 * synchronized.
 	 *
 	 * @param fileUrl     either full absolute path to the source image file or the content uri to the source image
 	 * @param maxWidth    The maximum width to scale this image to, or 0 to ignore this parameter.
 	 * @param maxHeight   The maximum height to scale this image to, or 0 to ignore this parameter.
 	 * @param config      A Bitmap.Config to apply to the Bitmap as it is read in.
-	 * @param orientation The orientation for the image expressed as degrees
-	 * @return A Bitmap scaled by maxWidth, maxHeight, and config.
+	 * @param orientation The orientation for the image, as an {@link ExifInterface#TAG_ORIENTATION} value
+	 * @return A mutable Bitmap scaled by maxWidth, maxHeight, and config.
 	 */
-	public synchronized static Bitmap createScaledBitmapFromLocalImageSource(String fileUrl, int maxWidth, int maxHeight, Bitmap.Config config, int orientation)
+	public static Bitmap createScaledBitmapFromLocalImageSource(String fileUrl, int maxWidth, int maxHeight, Bitmap.Config config, int orientation)
 			throws FileNotFoundException {
 		Bitmap tempBitmap = null;
+		int degrees = getRotationDegrees(orientation);
 
 		if (URLUtil.isContentUrl(fileUrl)) {
 			try {
 				Uri uri = Uri.parse(fileUrl);
-				tempBitmap = createLightweightScaledBitmap(null, uri, maxWidth, maxHeight, config, orientation);
+				tempBitmap = createLightweightScaledBitmap(null, uri, maxWidth, maxHeight, config, degrees);
 			} catch (NullPointerException e) {
 				throw new NullPointerException("Failed to create scaled bitmap");
 			}
@@ -203,7 +199,7 @@ public class ImageUtil {
 			File file = new File(fileUrl);
 			if (file.exists()) {
 				try {
-					tempBitmap = createLightweightScaledBitmap(fileUrl, null, maxWidth, maxHeight, config, orientation);
+					tempBitmap = createLightweightScaledBitmap(fileUrl, null, maxWidth, maxHeight, config, degrees);
 				} catch (NullPointerException e) {
 					throw new NullPointerException("Failed to create scaled bitmap");
 				}
@@ -217,28 +213,58 @@ public class ImageUtil {
 			return null;
 		}
 
-		Bitmap outBitmap = tempBitmap;
-		int width = tempBitmap.getWidth();
-		int height = tempBitmap.getHeight();
+		int width = degrees == 90 || degrees == 270 ? tempBitmap.getHeight() : tempBitmap.getWidth();
+		int height = degrees == 90 || degrees == 270 ? tempBitmap.getWidth() : tempBitmap.getHeight();
 
 		// Find the greatest ration difference, as this is what we will shrink both sides to.
 		float ratio = calculateBitmapScaleFactor(width, height, maxWidth, maxHeight);
 
-		if (ratio < 1.0f) { // Don't blow up small images, only shrink bigger ones.
-			int newWidth = (int) (ratio * width);
-			int newHeight = (int) (ratio * height);
-			ApptentiveLog.v("Scaling image further down to %d x %d", newWidth, newHeight);
-			try {
-				outBitmap = Bitmap.createScaledBitmap(tempBitmap, newWidth, newHeight, true);
-			} catch (IllegalArgumentException e) {
-				throw new NullPointerException("Failed to create scaled bitmap");
+		if (ratio >= 1.0f && degrees == 0) { // Don't blow up small images, only shrink bigger ones.
+			return tempBitmap;
+		}
+
+		int newWidth = Math.max(1, (int) (Math.min(ratio, 1.0f) * width));
+		int newHeight = Math.max(1, (int) (Math.min(ratio, 1.0f) * height));
+		ApptentiveLog.v("Rotating image by %d degrees and scaling to %d x %d", degrees, newWidth, newHeight);
+
+		// Rotate, then scale, then move the result back to the origin, all in one matrix
+		Matrix matrix = new Matrix();
+		matrix.setRotate(degrees);
+		matrix.postScale((float) newWidth / width, (float) newHeight / height);
+		RectF bounds = new RectF(0, 0, tempBitmap.getWidth(), tempBitmap.getHeight());
+		matrix.mapRect(bounds);
+		matrix.postTranslate(-bounds.left, -bounds.top);
+
+		Bitmap.Config outConfig = tempBitmap.getConfig() != null ? tempBitmap.getConfig() : Bitmap.Config.ARGB_8888;
+		Bitmap outBitmap = BitmapPool.getInstance().get(newWidth, newHeight, outConfig);
+		try {
+			if (outBitmap == null) {
+				outBitmap = Bitmap.createBitmap(newWidth, newHeight, outConfig);
+			} else {
+				outBitmap.eraseColor(Color.TRANSPARENT);
 			}
-			ApptentiveLog.d("Final bitmap dimensions: %d x %d", outBitmap.getWidth(), outBitmap.getHeight());
-			tempBitmap.recycle();
+		} catch (IllegalArgumentException e) {
+			throw new NullPointerException("Failed to create scaled bitmap");
 		}
+		new Canvas(outBitmap).drawBitmap(tempBitmap, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+		ApptentiveLog.d("Final bitmap dimensions: %d x %d", outBitmap.getWidth(), outBitmap.getHeight());
+		BitmapPool.getInstance().put(tempBitmap);
 		return outBitmap;
 	}
 
+	private static int getRotationDegrees(int orientation) {
+		switch (orientation) {
+			case ExifInterface.ORIENTATION_ROTATE_90:
+				return 90;
+			case ExifInterface.ORIENTATION_ROTATE_180:
+				return 180;
+			case ExifInterface.ORIENTATION_ROTATE_270:
+				return 270;
+			default:
+				return 0;
+		}
+	}
+
 	public static float calculateBitmapScaleFactor(int width, int height, int maxWidth, int maxHeight) {
 		float widthRatio = maxWidth <= 0 ? 1.0f : (float) maxWidth / width;
 		float heightRatio = maxHeight <= 0 ? 1.0f : (float) maxHeight / height;
@@ -247,12 +273,7 @@ public class ImageUtil {
 
 
 	public static void startDownloadAvatarTask(ApptentiveAvatarView view, String imageUrl) {
-		DownloadImageTask task = new DownloadImageTask(view);
-		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-			task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, imageUrl);
-		} else {
-			task.execute(imageUrl);
-		}
+		DispatchQueue.backgroundQueue().dispatchAsync(new DownloadImageTask(view, imageUrl));
 	}
 
 	/**
@@ -279,14 +300,12 @@ public class ImageUtil {
 		CountingOutputStream cos = null;
 		try {
 			cos = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(localFile)));
-			System.gc();
 			Bitmap smaller = ImageUtil.createScaledBitmapFromLocalImageSource(sourcePath, MAX_SENT_IMAGE_EDGE, MAX_SENT_IMAGE_EDGE, null, imageOrientation);
 			// TODO: Is JPEG what we want here?
 			smaller.compress(Bitmap.CompressFormat.JPEG, 95, cos);
 			cos.flush();
 			ApptentiveLog.d("Bitmap saved, size = " + (cos.getBytesWritten() / 1024) + "k");
-			smaller.recycle();
-			System.gc();
+			BitmapPool.getInstance().put(smaller);
 		} catch (FileNotFoundException e) {
 			ApptentiveLog.e("File not found while storing image.", e);
 			return false;
@@ -300,40 +319,113 @@ public class ImageUtil {
 		return true;
 	}
 
-	private static class DownloadImageTask extends AsyncTask<String, Void, Bitmap> {
+	// Avatar downloads in flight, by cache file name. Message Center shows the same avatar in many rows, and they all
+	// wait for one download instead of writing the same file at once.
+	private static final Map<String, AvatarDownload> avatarDownloads = new HashMap<String, AvatarDownload>();
+
+	private static class DownloadImageTask extends DispatchTask {
 
-		private WeakReference<ApptentiveAvatarView> resultView;
+		private final WeakReference<ApptentiveAvatarView> resultView;
+		private final String imageUrl;
 
-		DownloadImageTask(ApptentiveAvatarView view) {
-			resultView = new WeakReference<ApptentiveAvatarView>(view);
+		DownloadImageTask(ApptentiveAvatarView view, String imageUrl) {
+			super(DispatchTaskPriority.UserVisible);
+			this.resultView = new WeakReference<ApptentiveAvatarView>(view);
+			this.imageUrl = imageUrl;
 		}
 
-		protected Bitmap doInBackground(String... urls) {
-			Bitmap bmp = null;
+		/**
+		 * Loads the avatar from the disk cache, downloading it into the cache first if it isn't there yet.
+		 */
+		@Override
+		protected void execute() {
+			DiskLruCache diskCache = ApptentiveInternal.getInstance().getImageDiskCache();
+			if (diskCache == null) {
+				return;
+			}
+			String fileName = new File(Util.generateCacheFileFullPath(imageUrl, diskCache.getDirectory())).getName();
+			AvatarDownload download;
+			File cachedFile;
+			synchronized (avatarDownloads) {
+				download = avatarDownloads.get(fileName);
+				if (download != null) {
+					// Shown along with the other views once that download is done
+					download.views.add(resultView);
+					return;
+				}
+				cachedFile = diskCache.get(fileName);
+				if (cachedFile == null) {
+					download = new AvatarDownload();
+					download.views.add(resultView);
+					avatarDownloads.put(fileName, download);
+				}
+			}
+			if (cachedFile != null) {
+				showAvatar(BitmapFactory.decodeFile(cachedFile.getPath()), Collections.singletonList(resultView));
+				return;
+			}
+
+			Bitmap result = null;
+			List<WeakReference<ApptentiveAvatarView>> views;
 			try {
-				bmp = this.loadImageFromNetwork(urls[0]);
+				File file = diskCache.getFile(fileName);
+				ApptentiveHttpResponse response = new FileDownloader(file).download(imageUrl, download);
+				if (response.isSuccessful()) {
+					diskCache.put(file);
+					result = BitmapFactory.decodeFile(file.getPath());
+				}
 			} catch (IOException e) {
-				e.printStackTrace();
+				ApptentiveLog.w("Unable to load avatar %s", e, imageUrl);
+			} finally {
+				synchronized (avatarDownloads) {
+					avatarDownloads.remove(fileName);
+					views = new ArrayList<WeakReference<ApptentiveAvatarView>>(download.views);
+				}
 			}
-			return bmp;
+			showAvatar(result, views);
 		}
 
-
-		@Override
-		protected void onPostExecute(Bitmap result) {
+		private static void showAvatar(final Bitmap result, final List<WeakReference<ApptentiveAvatarView>> views) {
 			if (result == null) {
 				return;
 			}
 
-			ApptentiveAvatarView view = resultView.get();
-			if (view != null) {
-				view.setImageBitmap(result);
-			}
+			DispatchQueue.mainQueue().dispatchAsync(new DispatchTask() {
+				@Override
+				protected void execute() {
+					for (WeakReference<ApptentiveAvatarView> viewRef : views) {
+						ApptentiveAvatarView view = viewRef.get();
+						if (view != null) {
+							view.setImageBitmap(result);
+						}
+					}
+				}
+			});
 		}
+	}
+
+	/**
+	 * A download of one avatar, and the views waiting for it. The views are guarded by the avatarDownloads lock.
+	 */
+	private static class AvatarDownload implements FileDownloader.Listener {
+
+		final List<WeakReference<ApptentiveAvatarView>> views = new ArrayList<WeakReference<ApptentiveAvatarView>>();
 
-		private Bitmap loadImageFromNetwork(String imageUrl) throws IOException {
-			URL url = new URL(imageUrl);
-			return BitmapFactory.decodeStream(url.openStream());
+		@Override
+		public void onProgress(int progress) {
+		}
+
+		@Override
+		public boolean isCancelled() {
+			// Nothing left to show the avatar in
+			synchronized (avatarDownloads) {
+				for (WeakReference<ApptentiveAvatarView> view : views) {
+					if (view.get() != null) {
+						return false;
+					}
+				}
+				return true;
+			}
 		}
 	}
 }
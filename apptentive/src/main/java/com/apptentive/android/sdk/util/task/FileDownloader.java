@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.util.task;
+
+import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.comm.ApptentiveHttpResponse;
+import com.apptentive.android.sdk.comm.HttpRequest;
+import com.apptentive.android.sdk.util.Util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads a file over a single request per attempt, streaming the body from the connection that returned the
+ * response code. The body is written to <code>&lt;destination&gt;.part</code> and renamed to the destination only once
+ * it is complete, so a file at the destination path is always whole.
+ * <p/>
+ * If an attempt is interrupted, the partial file is kept together with the response's <code>ETag</code> or
+ * <code>Last-Modified</code> validator. The next attempt asks for the remaining bytes with a <code>Range</code> header and
+ * an <code>If-Range</code> validator, so the server only sends the rest if the file hasn't changed, and sends the whole
+ * file otherwise.
+ */
+public class FileDownloader {
+
+	private static final String PART_SUFFIX = ".part";
+	private static final String META_SUFFIX = ".meta";
+	private static final int BUFFER_SIZE = 8192;
+	private static final int MAX_REDIRECTS = 5;
+
+	private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)");
+
+	private final File destination;
+	private final File partFile;
+	private final File metaFile;
+	private final Map<String, String> headers = new HashMap<String, String>();
+
+	public interface Listener {
+		/**
+		 * @param progress Percentage of the file downloaded so far, including any bytes kept from an earlier attempt.
+		 */
+		void onProgress(int progress);
+
+		/**
+		 * Polled between reads. A cancelled download keeps its partial file, so it can be resumed later.
+		 */
+		boolean isCancelled();
+	}
+
+	public FileDownloader(File destination) {
+		this.destination = destination;
+		this.partFile = new File(destination.getPath() + PART_SUFFIX);
+		this.metaFile = new File(destination.getPath() + PART_SUFFIX + META_SUFFIX);
+	}
+
+	/**
+	 * Adds a header to the first request only. Redirect targets don't get it, since they are usually on another host.
+	 */
+	public void setHeader(String name, String value) {
+		headers.put(name, value);
+	}
+
+	public File getPartFile() {
+		return partFile;
+	}
+
+	/**
+	 * Downloads the file, resuming from a partial file left by an earlier attempt when the server allows it.
+	 *
+	 * @return The final response. When it {@link ApptentiveHttpResponse#isSuccessful() is successful}, the destination
+	 * file is complete. If the download was cancelled, the response code is -1.
+	 * @throws IOException if the connection failed. The partial file is kept for the next attempt.
+	 */
+	public ApptentiveHttpResponse download(String urlString, Listener listener) throws IOException {
+		String validator = readValidator(urlString);
+		long offset = validator != null ? partFile.length() : 0;
+		if (offset == 0) {
+			deletePartial();
+		}
+
+		HttpURLConnection connection = null;
+		boolean complete = false;
+		try {
+			connection = openConnection(urlString, offset, validator);
+			ApptentiveHttpResponse response = toResponse(connection);
+			int responseCode = connection.getResponseCode();
+
+			// Range Not Satisfiable: the partial file doesn't match the server's file. Without a range it's just a failure.
+			if (responseCode == 416 && offset > 0) {
+				drain(connection.getErrorStream());
+				connection = null;
+				deletePartial();
+				return download(urlString, listener);
+			}
+			if (!response.isSuccessful()) {
+				drain(connection.getErrorStream());
+				complete = true;
+				return response;
+			}
+
+			long total = connection.getContentLength();
+			if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+				long[] range = parseContentRange(connection.getHeaderField("Content-Range"));
+				if (range == null || range[0] != offset) {
+					// Can't tell where these bytes belong, so start over
+					drain(connection.getInputStream());
+					connection = null;
+					deletePartial();
+					if (offset > 0) {
+						return download(urlString, listener);
+					}
+					// The whole file was asked for, so asking again would get the same answer
+					response.setCode(HttpURLConnection.HTTP_BAD_GATEWAY);
+					complete = true;
+					return response;
+				}
+				total = range[1];
+				ApptentiveLog.v("Resuming download of %s at %d bytes", urlString, offset);
+			} else {
+				// The server sent the whole file, either because it ignores ranges or because the file has changed
+				offset = 0;
+				writeValidator(urlString, getValidator(connection));
+			}
+
+			boolean finished = copy(connection.getInputStream(), offset, total, listener);
+			if (!finished) {
+				// Cancelled mid-stream, so the connection can't be reused
+				connection.disconnect();
+				connection = null;
+				response.setCode(-1);
+				complete = true;
+				return response;
+			}
+
+			if (!partFile.renameTo(destination)) {
+				if (!destination.delete() || !partFile.renameTo(destination)) {
+					throw new IOException("Unable to move " + partFile + " to " + destination);
+				}
+			}
+			metaFile.delete();
+			listener.onProgress(100);
+			complete = true;
+			return response;
+		} finally {
+			if (!complete && connection != null) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Opens a connection, following redirects by hand so cookies set along the way are sent to the next hop.
+	 */
+	private HttpURLConnection openConnection(String urlString, long offset, String validator) throws IOException {
+		String cookies = null;
+		boolean firstHop = true;
+		for (int redirects = 0; ; ++redirects) {
+			URL url = new URL(urlString);
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			connection.setConnectTimeout(HttpRequest.DEFAULT_CONNECT_TIMEOUT);
+			connection.setReadTimeout(HttpRequest.DEFAULT_READ_TIMEOUT);
+			connection.setInstanceFollowRedirects(false);
+			connection.setUseCaches(false);
+			connection.setRequestMethod("GET");
+			// Byte ranges refer to the encoded body, so ask for it unencoded to keep offsets equal to file offsets
+			connection.setRequestProperty("Accept-Encoding", "identity");
+			if (firstHop) {
+				for (Map.Entry<String, String> header : headers.entrySet()) {
+					connection.setRequestProperty(header.getKey(), header.getValue());
+				}
+			}
+			if (cookies != null) {
+				connection.setRequestProperty("Cookie", cookies);
+			}
+			if (offset > 0) {
+				connection.setRequestProperty("Range", "bytes=" + offset + "-");
+				connection.setRequestProperty("If-Range", validator);
+			}
+
+			int responseCode = connection.getResponseCode();
+			switch (responseCode) {
+				case HttpURLConnection.HTTP_MOVED_PERM:
+				case HttpURLConnection.HTTP_MOVED_TEMP:
+				case HttpURLConnection.HTTP_SEE_OTHER:
+				case 307: // Temporary Redirect
+				case 308: // Permanent Redirect
+					String location = connection.getHeaderField("Location");
+					if (location == null || redirects >= MAX_REDIRECTS) {
+						return connection;
+					}
+					String setCookie = connection.getHeaderField("Set-Cookie");
+					if (setCookie != null) {
+						cookies = setCookie;
+					}
+					drain(connection.getErrorStream() != null ? connection.getErrorStream() : connection.getInputStream());
+					urlString = new URL(url, location).toExternalForm(); // Deal with relative URLs
+					firstHop = false;
+					continue;
+			}
+			return connection;
+		}
+	}
+
+	/**
+	 * @return true if the body was copied to the end, false if the download was cancelled.
+	 */
+	private boolean copy(InputStream input, long offset, long total, Listener listener) throws IOException {
+		FileOutputStream output = null;
+		try {
+			output = new FileOutputStream(partFile, offset > 0);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long written = offset;
+			int lastProgress = -1;
+			int count;
+			while ((count = input.read(buffer)) != -1) {
+				if (listener.isCancelled()) {
+					return false;
+				}
+				output.write(buffer, 0, count);
+				written += count;
+				if (total > 0) {
+					int progress = (int) ((written * 100) / total);
+					if (progress != lastProgress) {
+						listener.onProgress(progress);
+						lastProgress = progress;
+					}
+				}
+			}
+			if (total >= 0 && written != total) {
+				throw new IOException("Expected " + total + " bytes but received " + written);
+			}
+			// Make sure the bytes are on disk before the file is renamed into place
+			output.getFD().sync();
+			return true;
+		} finally {
+			Util.ensureClosed(output);
+			Util.ensureClosed(input);
+		}
+	}
+
+	//region Validators
+
+	/**
+	 * A strong ETag is preferred. Weak ETags can't be used with If-Range, so Last-Modified is used instead.
+	 */
+	private static String getValidator(HttpURLConnection connection) {
+		String eTag = connection.getHeaderField("ETag");
+		if (eTag != null && !eTag.startsWith("W/")) {
+			return eTag;
+		}
+		return connection.getHeaderField("Last-Modified");
+	}
+
+	/**
+	 * @return The validator of the partial file, or null if there's nothing to resume.
+	 */
+	private String readValidator(String urlString) {
+		if (!partFile.exists() || partFile.length() == 0 || !metaFile.exists()) {
+			return null;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(metaFile), "UTF-8"));
+			String url = reader.readLine();
+			String validator = reader.readLine();
+			if (urlString.equals(url) && validator != null && validator.length() > 0) {
+				return validator;
+			}
+		} catch (IOException e) {
+			ApptentiveLog.w("Unable to read download validator.", e);
+		} finally {
+			Util.ensureClosed(reader);
+		}
+		return null;
+	}
+
+	private void writeValidator(String urlString, String validator) throws IOException {
+		if (validator == null) {
+			// Without a validator a resumed file could be stitched from two versions, so don't keep one
+			metaFile.delete();
+			return;
+		}
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(metaFile), "UTF-8");
+			writer.write(urlString);
+			writer.write('\n');
+			writer.write(validator);
+			writer.write('\n');
+		} finally {
+			Util.ensureClosed(writer);
+		}
+	}
+
+	//endregion
+
+	private void deletePartial() {
+		partFile.delete();
+		metaFile.delete();
+	}
+
+	/**
+	 * @return The first byte position and the complete length from a Content-Range header, or null if it's missing or
+	 * the length isn't known.
+	 */
+	static long[] parseContentRange(String contentRange) {
+		if (contentRange == null) {
+			return null;
+		}
+		Matcher matcher = CONTENT_RANGE.matcher(contentRange.trim());
+		if (!matcher.matches() || "*".equals(matcher.group(3))) {
+			return null;
+		}
+		return new long[]{Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(3))};
+	}
+
+	private static ApptentiveHttpResponse toResponse(HttpURLConnection connection) throws IOException {
+		ApptentiveHttpResponse response = new ApptentiveHttpResponse();
+		response.setCode(connection.getResponseCode());
+		response.setReason(connection.getResponseMessage());
+		Map<String, String> headers = new HashMap<String, String>();
+		for (Map.Entry<String, List<String>> entry : connection.getHeaderFields().entrySet()) {
+			headers.put(entry.getKey(), entry.getValue().toString());
+		}
+		response.setHeaders(headers);
+		return response;
+	}
+
+	/**
+	 * Reads a short body to the end, so the connection can go back to the keep-alive pool.
+	 */
+	private static void drain(InputStream is) throws IOException {
+		if (is == null) {
+			return;
+		}
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (is.read(buffer) != -1) {
+				// Drain
+			}
+		} finally {
+			is.close();
+		}
+	}
+}
@@ -6,57 +6,133 @@
 
 package com.apptentive.android.sdk.util.threading;
 
+import android.os.Process;
+
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Concurrent queue implementation where each task is dispatched on a separate thread
+ * Concurrent queue implementation where tasks are dispatched on a bounded pool of low priority
+ * threads. Once due, user visible tasks run before background tasks, and tasks of the same
+ * priority run in the order they became due.
  */
 class ConcurrentDispatchQueue extends DispatchQueue implements ThreadFactory {
-	/*
-	 * Gets the number of available cores
-	 * (not always the same as the maximum number of cores)
+
+	/**
+	 * How long an idle thread is kept before it is stopped
 	 */
-	private static final int NUMBER_OF_CORES = Runtime.getRuntime().availableProcessors();
+	private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
 
 	/**
-	 * Thread pool executor for scheduling tasks
+	 * Thread pool executor for scheduling tasks. Each time it runs a slot, the highest priority due
+	 * task is taken from <code>{@link #dueTasks}</code>, so a slot doesn't belong to a particular task.
 	 */
 	private final ScheduledThreadPoolExecutor threadPoolExecutor;
 
-	/** The name of the queue */
-	private final String name;
+	/**
+	 * Tasks which are due to run
+	 */
+	private final PriorityBlockingQueue<DueTask> dueTasks;
+
+	/**
+	 * Keeps the order of due tasks with the same priority
+	 */
+	private final AtomicLong dueSequence;
 
 	/** The number of the next thread in the pool */
 	private final AtomicInteger threadNumber;
 
-	ConcurrentDispatchQueue(String name) {
-		this.name = name;
-		this.threadPoolExecutor = new ScheduledThreadPoolExecutor(NUMBER_OF_CORES, this);
+	private final Runnable runNextDueTask = new Runnable() {
+		@Override
+		public void run() {
+			DueTask dueTask = dueTasks.poll();
+			if (dueTask != null) {
+				runTask(dueTask.task);
+			}
+		}
+	};
+
+	ConcurrentDispatchQueue(String name, int maxThreads) {
+		super(name);
+		if (maxThreads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads: " + maxThreads);
+		}
+		this.threadPoolExecutor = new ScheduledThreadPoolExecutor(maxThreads, this);
+		this.threadPoolExecutor.setKeepAliveTime(THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+		this.threadPoolExecutor.allowCoreThreadTimeOut(true);
+		this.dueTasks = new PriorityBlockingQueue<DueTask>();
+		this.dueSequence = new AtomicLong();
 		this.threadNumber = new AtomicInteger(1);
 	}
 
+	/**
+	 * Changes the number of tasks which can run at the same time. Threads above the new limit stop
+	 * once they are idle.
+	 */
+	void setMaxThreads(int maxThreads) {
+		if (maxThreads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads: " + maxThreads);
+		}
+		threadPoolExecutor.setCorePoolSize(maxThreads);
+	}
+
 	@Override
-	protected void dispatch(DispatchTask task, long delayMillis) {
+	protected void dispatch(final DispatchTask task, long delayMillis) {
 		if (delayMillis > 0) {
-			threadPoolExecutor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+			threadPoolExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					dueTasks.add(new DueTask(task, dueSequence.getAndIncrement()));
+					runNextDueTask.run();
+				}
+			}, delayMillis, TimeUnit.MILLISECONDS);
 		} else {
-			threadPoolExecutor.execute(task);
+			dueTasks.add(new DueTask(task, dueSequence.getAndIncrement()));
+			threadPoolExecutor.execute(runNextDueTask);
 		}
 	}
 
 	@Override
 	public void stop() {
 		threadPoolExecutor.shutdownNow();
+		dueTasks.clear();
+	}
+
+	private static class DueTask implements Comparable<DueTask> {
+		final DispatchTask task;
+		final long sequence;
+
+		DueTask(DispatchTask task, long sequence) {
+			this.task = task;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(DueTask other) {
+			if (task.getPriority() != other.task.getPriority()) {
+				// Higher priority first
+				return other.task.getPriority().compareTo(task.getPriority());
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
 	}
 
 	//region Thread factory
 
 	@Override
-	public Thread newThread(Runnable r) {
-		return new Thread(r, name + "-thread-" + threadNumber.getAndIncrement());
+	public Thread newThread(final Runnable r) {
+		return new Thread(new Runnable() {
+			@Override
+			public void run() {
+				// Don't compete with the host app's main and render threads
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				r.run();
+			}
+		}, getName() + "-thread-" + threadNumber.getAndIncrement());
 	}
 
 	//endregion
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.util.threading;
+
+/**
+ * Returned for each <code>{@link DispatchTask}</code> added to a <code>{@link DispatchQueue}</code>, so
+ * the task can be cancelled before it runs
+ */
+public interface DispatchHandle {
+	/**
+	 * Keeps the task from running. A task which already started is not interrupted, but a periodic
+	 * task won't run again.
+	 *
+	 * @return true if the task won't run (again) because of this call
+	 */
+	boolean cancel();
+
+	boolean isCancelled();
+
+	/**
+	 * @return true if the task finished running, or was cancelled
+	 */
+	boolean isDone();
+}
@@ -23,6 +23,15 @@ package com.apptentive.android.sdk.util.threading;
 
 import android.os.Looper;
 
+import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.util.Constants;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * A class representing dispatch queue where <code>{@link DispatchTask}</code> tasks can be executed
  * serially
@@ -30,23 +39,74 @@ import android.os.Looper;
 public abstract class DispatchQueue {
 
 	/**
-	 * Dispatch task implementation
+	 * Threads shared by the SDK's background work. Kept small so the SDK doesn't compete with the
+	 * host app for cores, especially while the app is starting up.
+	 */
+	private static int backgroundQueueMaxThreads = Constants.CONFIG_DEFAULT_BACKGROUND_QUEUE_MAX_THREADS;
+
+	private static DispatchQueue backgroundQueue;
+
+	/**
+	 * Queues held while the app is in the background
+	 */
+	private static final List<DispatchQueue> pausableQueues = new ArrayList<DispatchQueue>();
+
+	private static boolean pausedBackgroundQueues;
+
+	/**
+	 * The name of the queue (used for logging)
+	 */
+	private final String name;
+
+	/**
+	 * Tasks which were dispatched and haven't finished yet (including held tasks)
+	 */
+	private final AtomicInteger pendingTaskCount = new AtomicInteger();
+
+	/**
+	 * Background tasks held while the queue is paused
+	 */
+	private final List<DispatchTask> heldTasks = new ArrayList<DispatchTask>();
+
+	/**
+	 * The latest task added for each coalescing key, until it runs or is cancelled
+	 */
+	private final Map<String, QueuedTask> coalescedTasks = new HashMap<String, QueuedTask>();
+
+	private boolean paused;
+
+	protected DispatchQueue() {
+		this(null);
+	}
+
+	protected DispatchQueue(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Dispatch task implementation. Implementations should run the task with <code>{@link #runTask(DispatchTask)}</code>
+	 * so a paused queue can hold it.
 	 */
 	protected abstract void dispatch(DispatchTask task, long delayMillis);
 
 	/**
 	 * Add <code>{@link DispatchTask}</code> to the queue
+	 *
+	 * @return handle for cancelling the task
 	 */
-	public void dispatchAsync(DispatchTask task) {
-		dispatchAsync(task, 0L);
+	public DispatchHandle dispatchAsync(DispatchTask task) {
+		return dispatchAsync(task, 0L);
 	}
 
 	/**
 	 * Add <code>{@link DispatchTask}</code> to the queue
+	 *
+	 * @return handle for cancelling the task
 	 */
-	public void dispatchAsync(DispatchTask task, long delayMillis) {
-		task.setScheduled(true);
-		dispatch(task, delayMillis);
+	public DispatchHandle dispatchAsync(DispatchTask task, long delayMillis) {
+		QueuedTask queuedTask = new QueuedTask(this, task, null, 0L);
+		task.trySetScheduled(queuedTask);
+		return enqueue(queuedTask, delayMillis);
 	}
 
 	/**
@@ -68,18 +128,147 @@ public abstract class DispatchQueue {
 	 * @return true if task was scheduled
 	 */
 	public boolean dispatchAsyncOnce(DispatchTask task, long delayMillis) {
-		if (!task.isScheduled()) {
-			dispatchAsync(task, delayMillis);
+		QueuedTask queuedTask = new QueuedTask(this, task, null, 0L);
+		if (task.trySetScheduled(queuedTask)) {
+			enqueue(queuedTask, delayMillis);
 			return true;
 		}
 		return false;
 	}
 
+	/**
+	 * Add <code>{@link DispatchTask}</code> to the queue, cancelling the task previously added with the
+	 * same <code>key</code> if it hasn't started yet, so only the latest task for a key runs. Dispatching
+	 * with a delay on every change debounces the work until the changes stop for that long.
+	 *
+	 * @return handle for cancelling the task
+	 */
+	public DispatchHandle dispatchAsyncCoalesced(String key, DispatchTask task, long delayMillis) {
+		if (key == null) {
+			throw new IllegalArgumentException("Key is null");
+		}
+		QueuedTask queuedTask = new QueuedTask(this, task, key, 0L);
+		QueuedTask previous;
+		synchronized (coalescedTasks) {
+			previous = coalescedTasks.put(key, queuedTask);
+		}
+		if (previous != null) {
+			previous.cancel();
+		}
+		task.trySetScheduled(queuedTask);
+		return enqueue(queuedTask, delayMillis);
+	}
+
+	/**
+	 * Add <code>{@link DispatchTask}</code> to the queue to run after <code>initialDelayMillis</code>, and
+	 * then again <code>periodMillis</code> after the end of each run, until it is cancelled. Runs held
+	 * while the queue is paused are not made up for.
+	 *
+	 * @return handle for stopping the task
+	 */
+	public DispatchHandle dispatchPeriodically(DispatchTask task, long initialDelayMillis, long periodMillis) {
+		if (periodMillis <= 0) {
+			throw new IllegalArgumentException("Invalid period: " + periodMillis);
+		}
+		QueuedTask queuedTask = new QueuedTask(this, task, null, periodMillis);
+		task.trySetScheduled(queuedTask);
+		return enqueue(queuedTask, initialDelayMillis);
+	}
+
+	DispatchHandle enqueue(QueuedTask task, long delayMillis) {
+		pendingTaskCount.incrementAndGet();
+		dispatch(task, delayMillis);
+		return task;
+	}
+
+	/**
+	 * Called once a task finished running for the last time or was cancelled
+	 */
+	void onTaskDone(QueuedTask task) {
+		String key = task.getKey();
+		if (key != null) {
+			synchronized (coalescedTasks) {
+				if (coalescedTasks.get(key) == task) {
+					coalescedTasks.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs a task which is due, unless the queue is paused and the task is background work, in which
+	 * case it is held until the queue is resumed.
+	 */
+	protected void runTask(DispatchTask task) {
+		synchronized (heldTasks) {
+			if (paused && task.getPriority() == DispatchTaskPriority.Background) {
+				heldTasks.add(task);
+				return;
+			}
+		}
+		try {
+			task.run();
+		} finally {
+			pendingTaskCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Holds background tasks as they become due, until <code>{@link #resume()}</code> is called. Tasks
+	 * which are already running are not interrupted, and user visible tasks keep running.
+	 */
+	public void pause() {
+		synchronized (heldTasks) {
+			paused = true;
+		}
+	}
+
+	/**
+	 * Dispatches the tasks held while the queue was paused.
+	 */
+	public void resume() {
+		List<DispatchTask> tasks;
+		synchronized (heldTasks) {
+			paused = false;
+			tasks = new ArrayList<DispatchTask>(heldTasks);
+			heldTasks.clear();
+		}
+		for (DispatchTask task : tasks) {
+			dispatch(task, 0L);
+		}
+	}
+
+	public boolean isPaused() {
+		synchronized (heldTasks) {
+			return paused;
+		}
+	}
+
+	/**
+	 * @return The number of tasks which were dispatched and haven't finished yet, including held ones.
+	 */
+	public int getPendingTaskCount() {
+		return pendingTaskCount.get();
+	}
+
+	public String getName() {
+		return name;
+	}
+
 	/**
 	 * Stops queue execution and cancels all scheduled tasks
 	 */
 	public abstract void stop();
 
+	@Override
+	public String toString() {
+		int heldTaskCount;
+		synchronized (heldTasks) {
+			heldTaskCount = heldTasks.size();
+		}
+		return String.format("%s: %d pending, %d held%s", name, getPendingTaskCount(), heldTaskCount, isPaused() ? " (paused)" : "");
+	}
+
 	/**
 	 * A global dispatch queue associated with main thread
 	 */
@@ -87,15 +276,89 @@ public abstract class DispatchQueue {
 		return Holder.INSTANCE;
 	}
 
+	/**
+	 * A global concurrent queue for the SDK's background work: network requests, sending payloads and other
+	 * work which shouldn't block the main thread. Runs on a small pool of low priority threads, runs user
+	 * visible tasks first, and is paused while the app is in the background.
+	 */
+	public static synchronized DispatchQueue backgroundQueue() {
+		if (backgroundQueue == null) {
+			backgroundQueue = createBackgroundQueue("Apptentive Background", DispatchQueueType.Concurrent, backgroundQueueMaxThreads);
+			registerPausableQueue(backgroundQueue);
+		}
+		return backgroundQueue;
+	}
+
+	/**
+	 * Sets the number of threads of <code>{@link #backgroundQueue()}</code>.
+	 */
+	public static synchronized void setBackgroundQueueMaxThreads(int maxThreads) {
+		if (maxThreads < 1 || maxThreads == backgroundQueueMaxThreads) {
+			return;
+		}
+		backgroundQueueMaxThreads = maxThreads;
+		if (backgroundQueue != null) {
+			((ConcurrentDispatchQueue) backgroundQueue).setMaxThreads(maxThreads);
+		}
+	}
+
+	/**
+	 * Adds a queue to those held by <code>{@link #pauseBackgroundQueues()}</code>.
+	 */
+	public static void registerPausableQueue(DispatchQueue queue) {
+		synchronized (pausableQueues) {
+			if (!pausableQueues.contains(queue)) {
+				pausableQueues.add(queue);
+				if (pausedBackgroundQueues) {
+					queue.pause();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Pauses every registered queue. Called when the app goes to the background.
+	 */
+	public static void pauseBackgroundQueues() {
+		synchronized (pausableQueues) {
+			pausedBackgroundQueues = true;
+			for (DispatchQueue queue : pausableQueues) {
+				queue.pause();
+				ApptentiveLog.v("Paused %s", queue);
+			}
+		}
+	}
+
+	/**
+	 * Resumes every registered queue. Called when the app comes to the foreground.
+	 */
+	public static void resumeBackgroundQueues() {
+		synchronized (pausableQueues) {
+			pausedBackgroundQueues = false;
+			for (DispatchQueue queue : pausableQueues) {
+				ApptentiveLog.v("Resuming %s", queue);
+				queue.resume();
+			}
+		}
+	}
+
 	/**
 	 * Creates a background queue with specified <code>name</code> and dispatch type.
 	 */
 	public static DispatchQueue createBackgroundQueue(String name, DispatchQueueType type) {
+		return createBackgroundQueue(name, type, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a background queue with specified <code>name</code> and dispatch type. A concurrent queue
+	 * runs no more than <code>maxThreads</code> tasks at a time.
+	 */
+	public static DispatchQueue createBackgroundQueue(String name, DispatchQueueType type, int maxThreads) {
 		if (type == DispatchQueueType.Serial) {
 			return new SerialDispatchQueue(name);
 		}
 		if (type == DispatchQueueType.Concurrent) {
-			return new ConcurrentDispatchQueue(name);
+			return new ConcurrentDispatchQueue(name, maxThreads);
 		}
 
 		throw new IllegalArgumentException("Unexpected queue type: " + type);
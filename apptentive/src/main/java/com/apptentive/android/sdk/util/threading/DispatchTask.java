@@ -8,15 +8,33 @@ package com.apptentive.android.sdk.util.threading;
 
 import com.apptentive.android.sdk.ApptentiveLog;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * A basic class for any dispatch runnable task. Tracks its "schedule" state
  */
 public abstract class DispatchTask implements Runnable {
 
 	/**
-	 * True if task is already on the queue and would be executed soon.
+	 * The handle that put the task on the queue, if it is already there and would be executed soon.
 	 */
-	private boolean scheduled;
+	private final AtomicReference<DispatchHandle> scheduledBy = new AtomicReference<DispatchHandle>();
+
+	/**
+	 * Decides the order of tasks waiting on a background queue, and whether a paused queue holds the task.
+	 */
+	private final DispatchTaskPriority priority;
+
+	protected DispatchTask() {
+		this(DispatchTaskPriority.Background);
+	}
+
+	protected DispatchTask(DispatchTaskPriority priority) {
+		if (priority == null) {
+			throw new IllegalArgumentException("Priority is null");
+		}
+		this.priority = priority;
+	}
 
 	/**
 	 * Task entry point method
@@ -26,18 +44,35 @@ public abstract class DispatchTask implements Runnable {
 	@Override
 	public void run() {
 		try {
-			setScheduled(false);
+			scheduledBy.set(null);
 			execute();
 		} catch (Exception e) {
 			ApptentiveLog.e(e, "Exception while executing task");
 		}
 	}
 
-	synchronized void setScheduled(boolean scheduled) {
-		this.scheduled = scheduled;
+	public DispatchTaskPriority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Marks the task as scheduled by <code>handle</code>, unless it already is.
+	 *
+	 * @return true if the task wasn't scheduled
+	 */
+	boolean trySetScheduled(DispatchHandle handle) {
+		return scheduledBy.compareAndSet(null, handle);
+	}
+
+	/**
+	 * Marks the task as no longer scheduled, if <code>handle</code> is the one that scheduled it. Other handles
+	 * for the same task may still be waiting on the queue.
+	 */
+	void clearScheduled(DispatchHandle handle) {
+		scheduledBy.compareAndSet(handle, null);
 	}
 
-	synchronized boolean isScheduled() {
-		return scheduled;
+	boolean isScheduled() {
+		return scheduledBy.get() != null;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.util.threading;
+
+/**
+ * Describes how urgent a <code>{@link DispatchTask}</code> is
+ */
+public enum DispatchTaskPriority {
+	/**
+	 * Work the user isn't waiting for (fetching configuration, sending payloads, etc). Runs after any user visible work
+	 * and is held while the background queues are paused
+	 */
+	Background,
+	/**
+	 * Work the user is waiting for (loading something shown on screen), or which can't wait for the app to come back to
+	 * the foreground (saving state). Runs ahead of background work on a concurrent queue and is never held by a paused
+	 * queue
+	 */
+	UserVisible
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.util.threading;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wraps each <code>{@link DispatchTask}</code> added to a <code>{@link DispatchQueue}</code> and acts
+ * as its handle. A cancelled task is left on the queue and skipped when it is due.
+ */
+class QueuedTask extends DispatchTask implements DispatchHandle {
+
+	private static final int STATE_PENDING = 0;
+	private static final int STATE_RUNNING = 1;
+	private static final int STATE_DONE = 2;
+	private static final int STATE_CANCELLED = 3;
+
+	private final DispatchQueue queue;
+	private final DispatchTask task;
+
+	/**
+	 * Key for coalescing with other tasks on the queue, or null
+	 */
+	private final String key;
+
+	/**
+	 * Delay between the end of a run and the start of the next one, or 0 if the task runs once
+	 */
+	private final long periodMillis;
+
+	private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+
+	QueuedTask(DispatchQueue queue, DispatchTask task, String key, long periodMillis) {
+		super(task.getPriority());
+		this.queue = queue;
+		this.task = task;
+		this.key = key;
+		this.periodMillis = periodMillis;
+	}
+
+	@Override
+	protected void execute() {
+		if (!state.compareAndSet(STATE_PENDING, STATE_RUNNING)) {
+			return; // cancelled
+		}
+		try {
+			task.run();
+		} finally {
+			if (periodMillis > 0 && state.compareAndSet(STATE_RUNNING, STATE_PENDING)) {
+				task.trySetScheduled(this);
+				queue.enqueue(this, periodMillis);
+			} else if (state.compareAndSet(STATE_RUNNING, STATE_DONE)) {
+				queue.onTaskDone(this);
+			}
+		}
+	}
+
+	@Override
+	public boolean cancel() {
+		while (true) {
+			int current = state.get();
+			boolean cancellable = current == STATE_PENDING || (current == STATE_RUNNING && periodMillis > 0);
+			if (!cancellable) {
+				return false;
+			}
+			if (state.compareAndSet(current, STATE_CANCELLED)) {
+				if (current == STATE_PENDING) {
+					task.clearScheduled(this);
+				}
+				queue.onTaskDone(this);
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return state.get() == STATE_CANCELLED;
+	}
+
+	@Override
+	public boolean isDone() {
+		return state.get() >= STATE_DONE;
+	}
+
+	String getKey() {
+		return key;
+	}
+}
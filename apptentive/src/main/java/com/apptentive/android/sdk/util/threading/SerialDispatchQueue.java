@@ -24,11 +24,13 @@ package com.apptentive.android.sdk.util.threading;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
 
 import static com.apptentive.android.sdk.debug.Assert.assertNotNull;
 
 /**
- * Serial dispatch queue implementation based on {@link Handler}
+ * Serial dispatch queue implementation based on {@link Handler}. Tasks run in the order they were
+ * dispatched, whatever their priority.
  */
 class SerialDispatchQueue extends DispatchQueue {
 	private final Handler handler;
@@ -38,7 +40,9 @@ class SerialDispatchQueue extends DispatchQueue {
 	 * Creates a private queue with specified <code>name</code>
 	 */
 	SerialDispatchQueue(String name) {
-		handlerThread = new HandlerThread(name);
+		super(name);
+		// Don't compete with the host app's main and render threads
+		handlerThread = new HandlerThread(name, Process.THREAD_PRIORITY_BACKGROUND);
 		handlerThread.start();
 		handler = new Handler(handlerThread.getLooper());
 	}
@@ -47,6 +51,7 @@ class SerialDispatchQueue extends DispatchQueue {
 	 * Creates a queue with specified <code>looper</code>
 	 */
 	SerialDispatchQueue(Looper looper) {
+		super(looper != null ? looper.getThread().getName() : null);
 		if (looper == null) {
 			throw new NullPointerException("Looper is null");
 		}
@@ -55,11 +60,17 @@ class SerialDispatchQueue extends DispatchQueue {
 	}
 
 	@Override
-	protected void dispatch(DispatchTask task, long delayMillis) {
+	protected void dispatch(final DispatchTask task, long delayMillis) {
+		Runnable runnable = new Runnable() {
+			@Override
+			public void run() {
+				runTask(task);
+			}
+		};
 		if (delayMillis > 0) {
-			handler.postDelayed(task, delayMillis);
+			handler.postDelayed(runnable, delayMillis);
 		} else {
-			handler.post(task);
+			handler.post(runnable);
 		}
 	}
 
@@ -67,7 +78,7 @@ class SerialDispatchQueue extends DispatchQueue {
 	public void stop() {
 		assertNotNull(handlerThread, "Attempted to stop a non-private queue '%s'", handler.getLooper().getThread());
 		if (handlerThread != null) {
-			handler.removeCallbacks(null);
+			handler.removeCallbacksAndMessages(null);
 			handlerThread.quit();
 		}
 	}
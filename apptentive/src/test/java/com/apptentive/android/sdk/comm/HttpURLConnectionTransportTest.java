@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.comm;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.model.Event;
+import com.apptentive.android.sdk.model.Payload;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class HttpURLConnectionTransportTest extends TestCaseBase {
+
+	private static final int REQUEST_COUNT = 20;
+	private static final String ETAG = "\"7f3a\"";
+
+	// One server for all tests, so a pooled connection never points at a port that was reused by another test's server
+	private static HttpServer server;
+	private static final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+	private HttpTransport transport;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), REQUEST_COUNT);
+		server.createContext("/echo", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				clientPorts.add(exchange.getRemoteAddress().getPort());
+				InputStream requestBody = exchange.getRequestBody();
+				if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+					requestBody = new GZIPInputStream(requestBody);
+				}
+				byte[] body = read(requestBody);
+				respond(exchange, 200, body.length > 0 ? body : "{}".getBytes("UTF-8"), false);
+			}
+		});
+		server.createContext("/error", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				clientPorts.add(exchange.getRemoteAddress().getPort());
+				respond(exchange, 422, "{\"error\":\"invalid\"}".getBytes("UTF-8"), false);
+			}
+		});
+		server.createContext("/gzip", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, 200, "{\"zipped\":true}".getBytes("UTF-8"), true);
+			}
+		});
+		server.createContext("/etag", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				clientPorts.add(exchange.getRemoteAddress().getPort());
+				if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+					return;
+				}
+				exchange.getResponseHeaders().set("ETag", ETAG);
+				respond(exchange, 200, "{\"items\":[]}".getBytes("UTF-8"), false);
+			}
+		});
+		server.start();
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+		server.stop(0);
+	}
+
+	@Before
+	public void setUp() {
+		clientPorts.clear();
+		transport = new HttpURLConnectionTransport();
+	}
+
+	@Test
+	public void testPost() throws Exception {
+		HttpRequest request = createRequest("/echo", "POST");
+		request.setBody(new HttpRequest.StringBody("application/json", "{\"label\":\"test\"}"));
+
+		ApptentiveHttpResponse response = transport.execute(request);
+		assertEquals(200, response.getCode());
+		assertEquals("{\"label\":\"test\"}", response.getContent());
+		assertNotNull(response.getTiming());
+		assertTrue(response.getTiming().getTotalMillis() >= 0);
+	}
+
+	@Test
+	public void testErrorBodyIsRead() throws Exception {
+		ApptentiveHttpResponse response = transport.execute(createRequest("/error", "GET"));
+		assertEquals(422, response.getCode());
+		assertTrue(response.isRejectedPermanently());
+		assertEquals("{\"error\":\"invalid\"}", response.getContent());
+	}
+
+	@Test
+	public void testGzipResponse() throws Exception {
+		HttpRequest request = createRequest("/gzip", "GET");
+		request.setHeader("Accept-Encoding", "gzip");
+
+		ApptentiveHttpResponse response = transport.execute(request);
+		assertEquals("{\"zipped\":true}", response.getContent());
+	}
+
+	@Test
+	public void testGzipRequestBody() throws Exception {
+		String json = createEventBatch(50);
+		HttpRequest.StringBody body = new HttpRequest.StringBody("application/json", json);
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		new HttpRequest.GzipBody(body).writeTo(compressed);
+		assertTrue(body.getContentLength() > 5 * compressed.size());
+
+		HttpRequest request = createRequest("/echo", "POST");
+		request.setBody(new HttpRequest.GzipBody(new HttpRequest.StringBody("application/json", json)));
+		ApptentiveHttpResponse response = transport.execute(request);
+		assertEquals(200, response.getCode());
+		assertEquals(json, response.getContent());
+	}
+
+	@Test
+	public void testConditionalRequest() throws Exception {
+		ApptentiveHttpResponse response = transport.execute(createRequest("/etag", "GET"));
+		assertTrue(response.isSuccessful());
+		assertEquals(ETAG, response.getHeader("etag"));
+
+		HttpRequest request = createRequest("/etag", "GET");
+		request.setHeader("If-None-Match", response.getHeader("ETag"));
+		response = transport.execute(request);
+		assertTrue(response.isNotModified());
+		assertFalse(response.isSuccessful());
+		assertEquals("", response.getContent());
+
+		// A response without a body leaves the transport usable
+		assertTrue(transport.execute(createRequest("/echo", "GET")).isSuccessful());
+	}
+
+	@Test
+	public void testConnectionIsReusedAfterErrors() throws Exception {
+		for (int i = 0; i < 10; ++i) {
+			transport.execute(createRequest(i % 2 == 0 ? "/echo" : "/error", "GET"));
+		}
+		assertEquals(1, clientPorts.size());
+	}
+
+	@Test
+	public void testPooledConnectionsAreReused() throws Exception {
+		for (int i = 0; i < REQUEST_COUNT; ++i) {
+			HttpRequest request = createRequest("/echo", "POST");
+			request.setHeader("Connection", "close");
+			request.setBody(new HttpRequest.StringBody("application/json", "{\"index\":" + i + "}"));
+			assertTrue(transport.execute(request).isSuccessful());
+		}
+		assertEquals(REQUEST_COUNT, clientPorts.size());
+		clientPorts.clear();
+
+		for (int i = 0; i < REQUEST_COUNT; ++i) {
+			HttpRequest request = createRequest("/echo", "POST");
+			request.setBody(new HttpRequest.StringBody("application/json", "{\"index\":" + i + "}"));
+			assertTrue(transport.execute(request).isSuccessful());
+		}
+		assertTrue(clientPorts.size() <= 2);
+	}
+
+	//region Helpers
+
+	private HttpRequest createRequest(String path, String method) throws IOException {
+		return new HttpRequest(new URL("http", "127.0.0.1", server.getAddress().getPort(), path), method);
+	}
+
+	private static String createEventBatch(int count) throws Exception {
+		List<Payload> events = new ArrayList<Payload>();
+		for (int i = 0; i < count; ++i) {
+			JSONObject json = new JSONObject();
+			json.put("label", "com.apptentive#app#screen_view");
+			json.put("nonce", UUID.randomUUID().toString());
+			json.put("client_created_at", 1488412800.0 + i);
+			json.put("client_created_at_utc_offset", -28800);
+			json.put("custom_data", new JSONObject().put("screen", "main").put("section", "inbox").put("index", i));
+			events.add(new Event(json.toString()));
+		}
+		return new PayloadBatch(events).marshallForSending();
+	}
+
+	private static void respond(HttpExchange exchange, int code, byte[] body, boolean zipped) throws IOException {
+		if (zipped) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+			gzip.write(body);
+			gzip.close();
+			body = bytes.toByteArray();
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		exchange.sendResponseHeaders(code, body.length);
+		OutputStream os = exchange.getResponseBody();
+		os.write(body);
+		os.close();
+	}
+
+	private static byte[] read(InputStream is) throws IOException {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return bytes.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+
+	//endregion
+}
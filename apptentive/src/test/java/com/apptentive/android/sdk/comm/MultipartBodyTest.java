@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.comm;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.model.StoredFile;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MultipartBodyTest extends TestCaseBase {
+
+	private final List<File> files = new ArrayList<File>();
+
+	@After
+	public void tearDown() {
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testContentLengthMatchesBody() throws Exception {
+		byte[] first = randomBytes(100003, 1);
+		byte[] second = randomBytes(10, 2);
+		List<StoredFile> attachments = Arrays.asList(storedFile(first, true), storedFile(second, false));
+
+		MultipartBody body = new MultipartBody("{\"body\":\"héllo\"}", attachments, null);
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		body.writeTo(os);
+
+		byte[] written = os.toByteArray();
+		assertEquals(body.getContentLength(), written.length);
+		// Each file is sent whole, not padded or cut to the size of a read buffer
+		assertEquals(1, count(written, first));
+		assertEquals(1, count(written, second));
+		assertFalse(body.isBadPayload());
+	}
+
+	@Test
+	public void testMissingFileIsLeftOut() throws Exception {
+		StoredFile missing = storedFile(randomBytes(100, 3), true);
+		new File(missing.getLocalFilePath()).delete();
+
+		MultipartBody body = new MultipartBody("{}", Arrays.asList(missing), null);
+		MultipartBody empty = new MultipartBody("{}", null, null);
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		body.writeTo(os);
+
+		assertEquals(empty.getContentLength(), body.getContentLength());
+		assertEquals(body.getContentLength(), os.size());
+	}
+
+	@Test
+	public void testProgressReachesOneHundred() throws Exception {
+		final List<Integer> progress = new ArrayList<Integer>();
+		MultipartBody body = new MultipartBody("{}", Arrays.asList(storedFile(randomBytes(64 * 1024, 4), true)), new MultipartBody.ProgressListener() {
+			@Override
+			public void onProgress(int value) {
+				progress.add(value);
+			}
+		});
+		body.writeTo(new ByteArrayOutputStream());
+
+		assertTrue(progress.size() > 2);
+		for (int i = 1; i < progress.size(); i++) {
+			assertTrue(progress.get(i) > progress.get(i - 1));
+		}
+		assertEquals(100, (int) progress.get(progress.size() - 1));
+	}
+
+	@Test
+	public void testShrunkFileFailsWithoutBadPayload() throws Exception {
+		StoredFile storedFile = storedFile(randomBytes(1000, 5), true);
+		MultipartBody body = new MultipartBody("{}", Arrays.asList(storedFile), null);
+		write(new File(storedFile.getLocalFilePath()), randomBytes(10, 6));
+
+		try {
+			body.writeTo(new ByteArrayOutputStream());
+			fail("Expected the short file to fail the upload");
+		} catch (IOException e) {
+			// Expected
+		}
+		// The file is prepared again before the next attempt, so the message can still be sent
+		assertFalse(body.isBadPayload());
+	}
+
+	//region Helpers
+
+	private StoredFile storedFile(byte[] content, boolean recordSize) throws IOException {
+		File file = File.createTempFile("apptentive-attachment", ".jpg");
+		files.add(file);
+		write(file, content);
+		StoredFile storedFile = new StoredFile();
+		storedFile.setLocalFilePath(file.getPath());
+		storedFile.setSourceUriOrPath(file.getPath());
+		storedFile.setMimeType("image/jpeg");
+		if (recordSize) {
+			storedFile.setSize(content.length);
+		}
+		return storedFile;
+	}
+
+	private static void write(File file, byte[] content) throws IOException {
+		OutputStream os = new FileOutputStream(file);
+		try {
+			os.write(content);
+		} finally {
+			os.close();
+		}
+	}
+
+	private static byte[] randomBytes(int length, long seed) {
+		byte[] bytes = new byte[length];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static int count(byte[] haystack, byte[] needle) {
+		int count = 0;
+		outer:
+		for (int i = 0; i <= haystack.length - needle.length; i++) {
+			for (int j = 0; j < needle.length; j++) {
+				if (haystack[i + j] != needle[j]) {
+					continue outer;
+				}
+			}
+			count++;
+		}
+		return count;
+	}
+
+	//endregion
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.comm;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.model.Event;
+import com.apptentive.android.sdk.model.Payload;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PayloadBatchTest extends TestCaseBase {
+
+	private static final int EVENT_COUNT = 120;
+	private static final int BATCH_SIZE = 50;
+	private static final int BENCHMARK_EVENT_COUNT = 5000;
+
+	private HttpServer server;
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private final AtomicInteger receivedCount = new AtomicInteger();
+
+	@BeforeClass
+	public static void setUpClass() {
+		// Otherwise delayed ACKs on the loopback interface dominate the timing of small requests
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/events", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requestCount.incrementAndGet();
+				String response;
+				try {
+					response = respond(exchange.getRequestURI().getPath(), parse(exchange.getRequestBody()));
+				} catch (JSONException e) {
+					throw new IOException(e);
+				}
+				byte[] bytes = response.getBytes("UTF-8");
+				exchange.sendResponseHeaders(201, bytes.length);
+				OutputStream os = exchange.getResponseBody();
+				os.write(bytes);
+				os.close();
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testMarshallForSending() throws Exception {
+		PayloadBatch batch = new PayloadBatch(createEvents(3));
+		JSONArray events = new JSONObject(batch.marshallForSending()).getJSONArray("events");
+		assertEquals(3, events.length());
+		assertEquals("event_1", events.getJSONObject(1).getString("label"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmptyBatch() {
+		new PayloadBatch(new ArrayList<Payload>());
+	}
+
+	@Test
+	public void testParseResults() throws Exception {
+		PayloadBatch batch = new PayloadBatch(createEvents(3));
+
+		ApptentiveHttpResponse response = new ApptentiveHttpResponse();
+		response.setCode(200);
+		response.setContent("{\"results\":[{\"status\":201},{\"status\":400},{\"status\":503}]}");
+		List<ApptentiveHttpResponse> results = batch.parseResults(response);
+		assertEquals(3, results.size());
+		assertTrue(results.get(0).isSuccessful());
+		assertTrue(results.get(1).isRejectedPermanently());
+		assertTrue(results.get(2).isRejectedTemporarily());
+	}
+
+	@Test
+	public void testParseResultsWithoutItems() throws Exception {
+		PayloadBatch batch = new PayloadBatch(createEvents(2));
+
+		ApptentiveHttpResponse response = new ApptentiveHttpResponse();
+		response.setCode(500);
+		List<ApptentiveHttpResponse> results = batch.parseResults(response);
+		assertEquals(2, results.size());
+		assertTrue(results.get(0).isRejectedTemporarily());
+		assertTrue(results.get(1).isRejectedTemporarily());
+	}
+
+	/**
+	 * Drains a queue of events against a local server in batches, the last one partial.
+	 */
+	@Test
+	public void testDrainInBatches() throws Exception {
+		List<Payload> events = createEvents(EVENT_COUNT);
+
+		int resultCount = 0;
+		for (int i = 0; i < events.size(); i += BATCH_SIZE) {
+			PayloadBatch batch = new PayloadBatch(events.subList(i, Math.min(i + BATCH_SIZE, events.size())));
+			for (ApptentiveHttpResponse result : batch.parseResults(post("/events/batch", batch.marshallForSending()))) {
+				assertTrue(result.isSuccessful());
+				++resultCount;
+			}
+		}
+		assertEquals(3, requestCount.get());
+		assertEquals(EVENT_COUNT, receivedCount.get());
+		assertEquals(EVENT_COUNT, resultCount);
+	}
+
+	/**
+	 * Compares the time it takes to drain a queue of 5k events against a local server, one request per event vs. batches.
+	 */
+	@Test
+	public void testDrainBenchmark() throws Exception {
+		assumeBenchmarksEnabled();
+		List<Payload> events = createEvents(BENCHMARK_EVENT_COUNT);
+
+		long start = System.nanoTime();
+		for (Payload event : events) {
+			ApptentiveHttpResponse response = post("/events", event.marshallForSending());
+			assertTrue(response.isSuccessful());
+		}
+		long singleMillis = (System.nanoTime() - start) / 1000000;
+		assertEquals(BENCHMARK_EVENT_COUNT, requestCount.getAndSet(0));
+		assertEquals(BENCHMARK_EVENT_COUNT, receivedCount.getAndSet(0));
+
+		start = System.nanoTime();
+		for (int i = 0; i < events.size(); i += BATCH_SIZE) {
+			PayloadBatch batch = new PayloadBatch(events.subList(i, Math.min(i + BATCH_SIZE, events.size())));
+			for (ApptentiveHttpResponse result : batch.parseResults(post("/events/batch", batch.marshallForSending()))) {
+				assertTrue(result.isSuccessful());
+			}
+		}
+		long batchMillis = (System.nanoTime() - start) / 1000000;
+		assertEquals(BENCHMARK_EVENT_COUNT / BATCH_SIZE, requestCount.get());
+		assertEquals(BENCHMARK_EVENT_COUNT, receivedCount.get());
+
+		printBenchmark("Drained %d events: %d ms one by one, %d ms in batches of %d", BENCHMARK_EVENT_COUNT, singleMillis, batchMillis, BATCH_SIZE);
+	}
+
+	//region Helpers
+
+	private static List<Payload> createEvents(int count) throws Exception {
+		List<Payload> events = new ArrayList<Payload>(count);
+		for (int i = 0; i < count; ++i) {
+			JSONObject json = new JSONObject();
+			json.put("label", "event_" + i);
+			json.put("nonce", "nonce-" + i);
+			json.put("client_created_at", 1488412800.0 + i);
+			json.put("custom_data", new JSONObject().put("screen", "main").put("index", i));
+			events.add(new Event(json.toString()));
+		}
+		return events;
+	}
+
+	private String respond(String path, JSONObject body) throws JSONException {
+		if (path.endsWith("/batch")) {
+			JSONArray events = body.getJSONArray("events");
+			JSONArray results = new JSONArray();
+			for (int i = 0; i < events.length(); i++) {
+				results.put(new JSONObject().put("status", 201));
+			}
+			receivedCount.addAndGet(events.length());
+			return new JSONObject().put("results", results).toString();
+		}
+		receivedCount.incrementAndGet();
+		return "{}";
+	}
+
+	private ApptentiveHttpResponse post(String path, String body) throws IOException {
+		URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/json");
+		OutputStream os = connection.getOutputStream();
+		os.write(body.getBytes("UTF-8"));
+		os.close();
+
+		ApptentiveHttpResponse response = new ApptentiveHttpResponse();
+		response.setCode(connection.getResponseCode());
+		response.setContent(read(connection.getInputStream()));
+		return response;
+	}
+
+	private static JSONObject parse(InputStream is) throws IOException, JSONException {
+		return new JSONObject(read(is));
+	}
+
+	private static String read(InputStream is) throws IOException {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return bytes.toString("UTF-8");
+		} finally {
+			is.close();
+		}
+	}
+
+	//endregion
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.model;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.storage.CodePointRecordStore;
+import com.apptentive.android.sdk.util.threading.MockDispatchQueue;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CodePointStoreTest extends TestCaseBase {
+
+	private static final int BENCHMARK_CODE_POINT_COUNT = 10000;
+
+	private MockDispatchQueue queue;
+	private MockRecordStore recordStore;
+	private CodePointStore store;
+
+	@Before
+	public void setUp() {
+		queue = new MockDispatchQueue(false);
+		recordStore = new MockRecordStore();
+		store = new CodePointStore(recordStore, queue);
+	}
+
+	@Test
+	public void testStoreRecord() {
+		preload("test.code.point", "test.interaction");
+		store.storeRecord(false, "test.code.point", "1.0", 1, 100.0);
+		store.storeRecord(false, "test.code.point", "1.0", 1, 200.0);
+		store.storeRecord(false, "test.code.point", "1.1", 2, 300.0);
+		store.storeRecord(true, "test.interaction", "1.1", 2, 400.0);
+
+		assertEquals(3L, (long) store.getTotalInvokes(false, "test.code.point"));
+		assertEquals(2L, (long) store.getVersionNameInvokes(false, "test.code.point", "1.0"));
+		assertEquals(1L, (long) store.getVersionCodeInvokes(false, "test.code.point", "2"));
+		assertEquals(0L, (long) store.getVersionCodeInvokes(false, "test.code.point", "3"));
+		assertEquals(300.0, store.getLastInvoke(false, "test.code.point"), 0.0);
+
+		assertEquals(1L, (long) store.getTotalInvokes(true, "test.interaction"));
+		assertEquals(0L, (long) store.getTotalInvokes(false, "test.interaction"));
+		assertNull(store.getLastInvoke(true, "test.code.point"));
+		assertNull(store.getRecord(true, "test.code.point"));
+	}
+
+	@Test
+	public void testRecordJson() throws Exception {
+		preload("test.code.point");
+		store.storeRecord(false, "test.code.point", "1.0", 1, 100.0);
+		store.storeRecord(false, "test.code.point", "1.1", 2, 200.0);
+
+		JSONObject record = store.getRecord(false, "test.code.point");
+		assertEquals(2, record.getInt(CodePointStore.KEY_TOTAL));
+		assertEquals(200.0, record.getDouble(CodePointStore.KEY_LAST), 0.0);
+		assertEquals(1, record.getJSONObject(CodePointStore.KEY_VERSION_NAME).getInt("1.1"));
+		assertEquals(1, record.getJSONObject(CodePointStore.KEY_VERSION_CODE).getInt("1"));
+
+		CodePointStore.Record copy = CodePointStore.Record.fromJson(record);
+		assertEquals(2L, copy.total);
+		assertEquals(Long.valueOf(1), copy.versionNameInvokes.get("1.0"));
+	}
+
+	@Test
+	public void testInvokesAreCoalesced() {
+		for (int i = 0; i < 100; ++i) {
+			store.storeRecord(false, "code.point." + i, "1.0", 1, i);
+		}
+		assertEquals(0, recordStore.writeCount);
+
+		queue.dispatchTasks();
+		assertEquals(1, recordStore.writeCount);
+		assertEquals(100, recordStore.invokeCount);
+
+		// nothing changed since the last save
+		store.flush();
+		assertEquals(1, recordStore.writeCount);
+	}
+
+	@Test
+	public void testFlushDoesNotWaitForTheQueue() {
+		store.storeRecord(false, "test.code.point", "1.0", 1, 100.0);
+		store.flush();
+		assertEquals(1, recordStore.writeCount);
+	}
+
+	@Test
+	public void testLoadedRecordsAreUpdated() {
+		preload("test.code.point");
+		int readCount = recordStore.readCount;
+		assertEquals(0L, (long) store.getTotalInvokes(false, "test.code.point"));
+
+		store.storeRecord(false, "test.code.point", "1.0", 1, 100.0);
+		assertEquals(1L, (long) store.getTotalInvokes(false, "test.code.point"));
+		assertEquals(readCount, recordStore.readCount);
+		assertEquals(0, recordStore.writeCount);
+	}
+
+	@Test
+	public void testReadsDontTouchTheRecordStore() {
+		recordStore.addCodePointInvokes(Collections.singletonList(new CodePointStore.Invoke(false, "test.code.point", "1.0", "1", 100.0)));
+
+		// not preloaded
+		assertEquals(0L, (long) store.getTotalInvokes(false, "test.code.point"));
+		assertEquals(0, recordStore.readCount);
+
+		preload("test.code.point");
+		assertEquals(1L, (long) store.getTotalInvokes(false, "test.code.point"));
+	}
+
+	@Test
+	public void testPreloadSeesPendingInvokes() {
+		store.storeRecord(false, "test.code.point", "1.0", 1, 100.0);
+		assertEquals(0, recordStore.writeCount);
+
+		preload("test.code.point");
+		assertEquals(1, recordStore.writeCount);
+		assertEquals(1L, (long) store.getTotalInvokes(false, "test.code.point"));
+	}
+
+	@Test
+	public void testInvokesDuringPreloadAreCountedOnce() {
+		store.storeRecord(false, "test.code.point", "1.0", 1, 100.0);
+		recordStore.onRead = new Runnable() {
+			@Override
+			public void run() {
+				store.storeRecord(false, "test.code.point", "1.0", 1, 200.0);
+				// the save delay runs out while the records are read
+				queue.dispatchTasks();
+			}
+		};
+		preload("test.code.point");
+
+		assertEquals(2L, (long) store.getTotalInvokes(false, "test.code.point"));
+		assertEquals(2, recordStore.invokeCount);
+		assertEquals(2L, recordStore.codePoints.get("test.code.point").total);
+	}
+
+	@Test
+	public void testPreloadKeepsLoadedRecords() {
+		preload("test.code.point");
+		store.storeRecord(false, "test.code.point", "1.0", 1, 100.0);
+
+		preload("test.code.point", "test.interaction");
+		assertEquals(1L, (long) store.getTotalInvokes(false, "test.code.point"));
+	}
+
+	@Test
+	public void testReadsDontTakeTheStoreLock() throws Exception {
+		preload("test.code.point");
+		store.storeRecord(false, "test.code.point", "1.0", 1, 100.0);
+
+		final long[] total = new long[1];
+		final CountDownLatch read = new CountDownLatch(1);
+		synchronized (store) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					total[0] = store.getTotalInvokes(false, "test.code.point");
+					read.countDown();
+				}
+			}).start();
+			// Only a guard against hanging forever: the read never waits for the lock held here
+			assertTrue(read.await(10, TimeUnit.SECONDS));
+		}
+		assertEquals(1L, total[0]);
+	}
+
+	/**
+	 * Measures lookups and writes against a store with 10k distinct code points, and compares handing every write to the
+	 * record store with coalesced saves.
+	 */
+	@Test
+	public void testBenchmark() {
+		assumeBenchmarksEnabled();
+		final String[] codePoints = new String[BENCHMARK_CODE_POINT_COUNT];
+		for (int i = 0; i < codePoints.length; ++i) {
+			codePoints[i] = "local#app#code_point_" + i;
+		}
+		final Set<String> names = new HashSet<String>(Arrays.asList(codePoints));
+		store.preload(names, Collections.<String>emptySet());
+		for (String codePoint : codePoints) {
+			store.storeRecord(false, codePoint, "1.0", 1, 100.0);
+		}
+		queue.dispatchTasks();
+
+		double readNanos = measureNanosPerOperation(new Runnable() {
+			@Override
+			public void run() {
+				long total = 0;
+				for (String codePoint : codePoints) {
+					total += store.getTotalInvokes(false, codePoint) + store.getVersionCodeInvokes(false, codePoint, "1");
+				}
+				assertTrue(total >= 2 * codePoints.length);
+			}
+		}, codePoints.length);
+
+		double coalescedWriteNanos = measureNanosPerOperation(new Runnable() {
+			@Override
+			public void run() {
+				for (String codePoint : codePoints) {
+					store.storeRecord(false, codePoint, "1.1", 2, 200.0);
+				}
+				queue.dispatchTasks();
+			}
+		}, codePoints.length);
+
+		final CodePointStore immediateStore = new CodePointStore(new MockRecordStore(), new MockDispatchQueue(true));
+		immediateStore.preload(names, Collections.<String>emptySet());
+		double saveEveryWriteNanos = measureNanosPerOperation(new Runnable() {
+			@Override
+			public void run() {
+				for (String codePoint : codePoints) {
+					immediateStore.storeRecord(false, codePoint, "1.1", 2, 200.0);
+				}
+			}
+		}, codePoints.length);
+
+		printBenchmark("CodePointStore with %d code points: read %.0f ns/op, write (coalesced save) %.0f ns/op, write (save every write) %.0f ns/op",
+				codePoints.length, readNanos, coalescedWriteNanos, saveEveryWriteNanos);
+	}
+
+	//region Helpers
+
+	private void preload(String codePoint, String... interactions) {
+		store.preload(Collections.singleton(codePoint), new HashSet<String>(Arrays.asList(interactions)));
+	}
+
+	private static <T> Future<T> completed(final T value) {
+		FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				return value;
+			}
+		});
+		task.run();
+		return task;
+	}
+
+	private static class MockRecordStore implements CodePointRecordStore {
+		final Map<String, CodePointStore.Record> codePoints = new HashMap<String, CodePointStore.Record>();
+		final Map<String, CodePointStore.Record> interactions = new HashMap<String, CodePointStore.Record>();
+		int readCount;
+		int writeCount;
+		int invokeCount;
+		Runnable onRead;
+
+		@Override
+		public Future<Boolean> addCodePointInvokes(List<CodePointStore.Invoke> invokes) {
+			++writeCount;
+			for (CodePointStore.Invoke invoke : invokes) {
+				Map<String, CodePointStore.Record> records = invoke.interaction ? interactions : codePoints;
+				CodePointStore.Record record = records.get(invoke.name);
+				records.put(invoke.name, (record != null ? record : CodePointStore.Record.EMPTY).increment(invoke));
+				++invokeCount;
+			}
+			return completed(true);
+		}
+
+		@Override
+		public Future<Map<String, CodePointStore.Record>> getCodePointRecords(boolean interaction, Collection<String> names) {
+			++readCount;
+			if (onRead != null) {
+				Runnable task = onRead;
+				onRead = null;
+				task.run();
+			}
+			Map<String, CodePointStore.Record> records = new HashMap<String, CodePointStore.Record>();
+			for (String name : names) {
+				CodePointStore.Record record = (interaction ? interactions : codePoints).get(name);
+				if (record != null) {
+					records.put(name, record);
+				}
+			}
+			return completed(records);
+		}
+
+		@Override
+		public Future<Boolean> importCodePointRecords(Map<String, CodePointStore.Record> codePoints, Map<String, CodePointStore.Record> interactions) {
+			importRecords(this.codePoints, codePoints);
+			importRecords(this.interactions, interactions);
+			return completed(true);
+		}
+
+		private static void importRecords(Map<String, CodePointStore.Record> records, Map<String, CodePointStore.Record> imported) {
+			for (Map.Entry<String, CodePointStore.Record> entry : imported.entrySet()) {
+				if (!records.containsKey(entry.getKey())) {
+					records.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+
+		@Override
+		public Future<Boolean> deleteAllCodePointRecords() {
+			codePoints.clear();
+			interactions.clear();
+			return completed(true);
+		}
+	}
+
+	//endregion
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.module.engagement.interaction.model;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.util.JsonDiffer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+
+public class InteractionsPayloadTest extends TestCaseBase {
+
+	private static final int MANIFEST_BYTES = 1024 * 1024;
+
+	@Test
+	public void testReadMatchesParse() throws Exception {
+		String json = "{\"interactions\":[" +
+				"{\"id\":\"1\",\"type\":\"TextModal\",\"configuration\":{\"title\":\"Hi\"}}," +
+				"{\"id\":\"2\",\"type\":\"FromTheFuture\"}," +
+				"{\"id\":\"3\",\"type\":\"Survey\",\"version\":2}]," +
+				"\"targets\":{\"local#app#launch\":[{\"interaction_id\":\"1\",\"criteria\":{}}]}," +
+				"\"unknown\":{\"nested\":[1,2,3]}}";
+
+		InteractionsPayload parsed = new InteractionsPayload(json);
+		InteractionsPayload read = InteractionsPayload.read(new StringReader(json));
+
+		assertTrue(JsonDiffer.areObjectsEqual(parsed.getInteractions(), read.getInteractions()));
+		assertTrue(JsonDiffer.areObjectsEqual(parsed.getTargets(), read.getTargets()));
+		// Unknown interaction types are left out
+		assertEquals(2, read.getInteractions().length());
+		assertEquals("Hi", read.getInteractions().getJSONObject("1").getJSONObject("configuration").getString("title"));
+	}
+
+	@Test
+	public void testReadMatchesParseOfLargeManifest() throws Exception {
+		byte[] manifest = createManifest(MANIFEST_BYTES);
+
+		InteractionsPayload parsed = new InteractionsPayload(readFully(new ByteArrayInputStream(manifest)));
+		InteractionsPayload read = InteractionsPayload.read(new InputStreamReader(new ByteArrayInputStream(manifest), "UTF-8"));
+
+		assertTrue(JsonDiffer.areObjectsEqual(parsed.getInteractions(), read.getInteractions()));
+		assertTrue(JsonDiffer.areObjectsEqual(parsed.getTargets(), read.getTargets()));
+		assertEquals(parsed.getInteractions().length(), read.getInteractions().length());
+	}
+
+	/**
+	 * Compares reading a 1 MB manifest into a string and parsing it into a tree, the way it was done before, against
+	 * parsing it as it is read.
+	 */
+	@Test
+	public void testReadBenchmark() throws Exception {
+		assumeBenchmarksEnabled();
+		final byte[] manifest = createManifest(MANIFEST_BYTES);
+
+		Runnable parse = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					checkParts(new InteractionsPayload(readFully(new ByteArrayInputStream(manifest))));
+				} catch (Exception e) {
+					throw new AssertionError(e);
+				}
+			}
+		};
+		Runnable read = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					checkParts(InteractionsPayload.read(new InputStreamReader(new ByteArrayInputStream(manifest), "UTF-8")));
+				} catch (Exception e) {
+					throw new AssertionError(e);
+				}
+			}
+		};
+
+		double parseMillis = measureNanosPerOperation(parse, 1) / 1000000;
+		double readMillis = measureNanosPerOperation(read, 1) / 1000000;
+		printBenchmark("InteractionsPayload of %d KB: string and tree %.1f ms/op %d KB allocated, streamed %.1f ms/op %d KB allocated",
+				manifest.length / 1024, parseMillis, getAllocatedBytes(parse) / 1024, readMillis, getAllocatedBytes(read) / 1024);
+	}
+
+	//region Helpers
+
+	/**
+	 * Gets both parts of the manifest, as the interaction manager does.
+	 */
+	private static void checkParts(InteractionsPayload payload) {
+		assertNotNull(payload.getInteractions());
+		assertNotNull(payload.getTargets());
+	}
+
+	/**
+	 * @return The bytes allocated by one run, or -1 if the VM doesn't count allocations.
+	 */
+	private static long getAllocatedBytes(Runnable runnable) {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		long threadId = Thread.currentThread().getId();
+		long before = ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(threadId);
+		runnable.run();
+		return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(threadId) - before;
+	}
+
+	/**
+	 * Reads the stream the way the transport reads a response into a string
+	 */
+	private static String readFully(InputStream is) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = is.read(buffer)) != -1) {
+			bytes.write(buffer, 0, read);
+		}
+		return bytes.toString("UTF-8");
+	}
+
+	private static byte[] createManifest(int minBytes) throws Exception {
+		JSONArray interactions = new JSONArray();
+		JSONObject targets = new JSONObject();
+		JSONObject manifest = new JSONObject();
+		manifest.put("interactions", interactions);
+		manifest.put("targets", targets);
+
+		int size = 0;
+		for (int i = 0; size < minBytes; ++i) {
+			JSONObject interaction = new JSONObject();
+			interaction.put("id", "55b8f03c1fb3e1a4ec00" + i);
+			interaction.put("type", i % 2 == 0 ? "TextModal" : "Survey");
+			interaction.put("version", 1);
+			JSONObject configuration = new JSONObject();
+			configuration.put("title", "We'd love your feedback ☃ #" + i);
+			configuration.put("body", "Would you take a moment to tell us how we're doing? It won't take more than a minute.");
+			JSONArray actions = new JSONArray();
+			for (int j = 0; j < 3; ++j) {
+				actions.put(new JSONObject().put("id", "action_" + j).put("label", "Option " + j).put("action", "dismiss"));
+			}
+			configuration.put("actions", actions);
+			interaction.put("configuration", configuration);
+			interactions.put(interaction);
+
+			JSONObject criteria = new JSONObject();
+			criteria.put("code_point/local#app#launch/invokes/total", new JSONObject().put("$gte", 3));
+			criteria.put("time_since_install/total", new JSONObject().put("$gt", 86400.5));
+			criteria.put("$or", new JSONArray().put(new JSONObject().put("person/custom_data/plan", "pro")).put(new JSONObject().put("device/os_version", new JSONObject().put("$gte", "5.0"))));
+			JSONArray invocations = new JSONArray();
+			invocations.put(new JSONObject().put("interaction_id", interaction.getString("id")).put("criteria", criteria));
+			targets.put("local#app#event_" + i, invocations);
+
+			size += interaction.toString().length() + invocations.toString().length();
+		}
+		return manifest.toString().getBytes("UTF-8");
+	}
+
+	//endregion
+}
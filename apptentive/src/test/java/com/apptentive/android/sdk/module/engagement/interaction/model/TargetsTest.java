@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.module.engagement.interaction.model;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.model.CodePointStore;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class TargetsTest extends TestCaseBase {
+
+	@Test
+	public void testCriteriaNames() throws Exception {
+		Targets targets = new Targets("{" +
+				"\"local#app#launch\":[{\"interaction_id\":\"1\",\"criteria\":{" +
+				"\"code_point/local#app#launch/invokes/total\":{\"$gte\":3}," +
+				"\"$or\":[{\"interactions/1/invokes/cf_bundle_short_version_string\":0},{\" code_point/com.apptentive#app#exit/last_invoked_at/total \":{\"$gt\":86400}}]}}]," +
+				"\"local#app#event\":[{\"interaction_id\":\"2\",\"criteria\":{\"interactions/2/invokes/total\":0,\"person/custom_data/code_point\":\"pro\"}}]" +
+				"}");
+
+		assertEquals(new HashSet<String>(Arrays.asList("local#app#launch", "com.apptentive#app#exit")), targets.getCriteriaNames(CodePointStore.KEY_CODE_POINT));
+		assertEquals(new HashSet<String>(Arrays.asList("1", "2")), targets.getCriteriaNames(CodePointStore.KEY_INTERACTIONS));
+	}
+}
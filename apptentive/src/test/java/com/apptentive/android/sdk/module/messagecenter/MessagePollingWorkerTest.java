@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.module.messagecenter;
+
+import com.apptentive.android.sdk.TestCaseBase;
+
+import org.junit.Test;
+
+import static com.apptentive.android.sdk.module.messagecenter.MessagePollingWorker.getPollDelay;
+import static org.junit.Assert.*;
+
+public class MessagePollingWorkerTest extends TestCaseBase {
+
+	@Test
+	public void testBackoffDoublesUpToMax() {
+		assertEquals(60000, getPollDelay(60000, 900000, 0, 0));
+		assertEquals(120000, getPollDelay(60000, 900000, 1, 0));
+		assertEquals(240000, getPollDelay(60000, 900000, 2, 0));
+		assertEquals(480000, getPollDelay(60000, 900000, 3, 0));
+		assertEquals(900000, getPollDelay(60000, 900000, 4, 0));
+		assertEquals(900000, getPollDelay(60000, 900000, 16, 0));
+	}
+
+	@Test
+	public void testMaxShorterThanBase() {
+		assertEquals(60000, getPollDelay(60000, 30000, 0, 0));
+		assertEquals(60000, getPollDelay(60000, 30000, 5, 0));
+	}
+
+	@Test
+	public void testJitter() {
+		assertEquals(54000, getPollDelay(60000, 900000, 0, -1));
+		assertEquals(66000, getPollDelay(60000, 900000, 0, 1));
+		assertEquals(990000, getPollDelay(60000, 900000, 10, 1));
+	}
+}
@@ -14,13 +14,15 @@ import com.apptentive.android.sdk.util.threading.MockDispatchQueue;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.*;
+
 public class ApptentiveNotificationCenterTest extends TestCaseBase {
 
 	private ApptentiveNotificationCenter notificationCenter;
 
 	@Before
 	public void setUp() throws Exception {
-		notificationCenter = new ApptentiveNotificationCenter(new MockDispatchQueue(true), new MockDispatchQueue(true));
+		notificationCenter = new ApptentiveNotificationCenter(new MockDispatchQueue(true));
 	}
 
 	private static final boolean WEAK_REFERENCE = true;
@@ -94,6 +96,158 @@ public class ApptentiveNotificationCenterTest extends TestCaseBase {
 		assertResult();
 	}
 
+	@Test
+	public void testPostNotificationsSync() {
+		MockDispatchQueue queue = new MockDispatchQueue(false);
+		notificationCenter = new ApptentiveNotificationCenter(queue);
+
+		notificationCenter.addObserver("notification", new Observer("observer1"), STRONG_REFERENCE);
+
+		notificationCenter.postNotification("notification", ObjectUtils.toMap("key", "async"));
+		notificationCenter.postNotificationSync("notification", ObjectUtils.toMap("key", "sync"));
+		assertResult("observer1: notification {'key':'sync'}");
+
+		queue.dispatchTasks();
+		assertResult("observer1: notification {'key':'async'}");
+
+		// nothing is queued for a notification without observers
+		notificationCenter.postNotification("unobserved");
+		queue.dispatchTasks();
+		assertResult();
+	}
+
+	@Test
+	public void testNotificationKeys() {
+		int key = ApptentiveNotificationCenter.getNotificationKey("notification-key-1");
+		assertEquals(key, ApptentiveNotificationCenter.getNotificationKey("notification-key-1"));
+		assertNotEquals(key, ApptentiveNotificationCenter.getNotificationKey("notification-key-2"));
+		assertEquals("notification-key-1", ApptentiveNotificationCenter.getNotificationName(key));
+
+		// the name and key APIs share the dispatch table
+		notificationCenter.addObserver(key, new Observer("observer1"), STRONG_REFERENCE);
+		notificationCenter.addObserver("notification-key-1", new Observer("observer2"), STRONG_REFERENCE);
+
+		notificationCenter.postNotification("notification-key-1");
+		assertResult("observer1: notification-key-1 {}", "observer2: notification-key-1 {}");
+
+		notificationCenter.postNotification(key);
+		assertResult("observer1: notification-key-1 {}", "observer2: notification-key-1 {}");
+	}
+
+	@Test
+	public void testPooledNotifications() {
+		MockDispatchQueue queue = new MockDispatchQueue(false);
+		notificationCenter = new ApptentiveNotificationCenter(queue);
+		int key = ApptentiveNotificationCenter.getNotificationKey("pooled");
+		notificationCenter.addObserver(key, new Observer("observer1"), STRONG_REFERENCE);
+
+		ApptentiveNotification notification = ApptentiveNotification.obtain(key);
+		notificationCenter.postNotification(notification);
+		queue.dispatchTasks();
+		assertResult("observer1: pooled {}");
+
+		// recycled once delivered
+		ApptentiveNotification recycled = ApptentiveNotification.obtain(key);
+		assertSame(notification, recycled);
+		assertTrue(recycled.getUserInfo().isEmpty());
+		notificationCenter.postNotificationSync(recycled);
+		assertResult("observer1: pooled {}");
+
+		// notifications created with a constructor aren't pooled
+		ApptentiveNotification created = new ApptentiveNotification("pooled", ObjectUtils.toMap("count", "2"));
+		notificationCenter.postNotificationSync(created);
+		assertResult("observer1: pooled {'count':'2'}");
+		assertNotSame(created, ApptentiveNotification.obtain(key));
+	}
+
+	@Test
+	public void testPostsReachManyObservers() {
+		final int observerCount = 50;
+		final int postCount = 100;
+
+		final int[] received = new int[1];
+		ApptentiveNotificationObserver[] observers = new ApptentiveNotificationObserver[observerCount];
+		for (int i = 0; i < observerCount; ++i) {
+			observers[i] = new ApptentiveNotificationObserver() {
+				@Override
+				public void onReceiveNotification(ApptentiveNotification notification) {
+					received[0]++;
+				}
+			};
+			notificationCenter.addObserver("notification", observers[i], i % 2 == 0 ? WEAK_REFERENCE : STRONG_REFERENCE);
+		}
+		final ApptentiveNotification notification = new ApptentiveNotification("notification", ObjectUtils.toMap("key", "value"));
+
+		for (int i = 0; i < postCount; ++i) {
+			notificationCenter.postNotificationSync(notification);
+		}
+		assertEquals(postCount * observerCount, received[0]);
+
+		received[0] = 0;
+		for (int i = 0; i < postCount; ++i) {
+			notificationCenter.postNotification(notification);
+		}
+		assertEquals(postCount * observerCount, received[0]);
+
+		final int key = notification.getKey();
+		received[0] = 0;
+		for (int i = 0; i < postCount; ++i) {
+			notificationCenter.postNotification(ApptentiveNotification.obtain(key));
+		}
+		assertEquals(postCount * observerCount, received[0]);
+	}
+
+	/**
+	 * Measures a thousand posts to 50 observers: synchronously, through the queue, and through the queue with pooled
+	 * notifications.
+	 */
+	@Test
+	public void testPostBenchmark() {
+		assumeBenchmarksEnabled();
+		final int observerCount = 50;
+		final int postCount = 1000;
+
+		ApptentiveNotificationObserver[] observers = new ApptentiveNotificationObserver[observerCount];
+		for (int i = 0; i < observerCount; ++i) {
+			observers[i] = new ApptentiveNotificationObserver() {
+				@Override
+				public void onReceiveNotification(ApptentiveNotification notification) {
+				}
+			};
+			notificationCenter.addObserver("notification", observers[i], i % 2 == 0 ? WEAK_REFERENCE : STRONG_REFERENCE);
+		}
+		final ApptentiveNotification notification = new ApptentiveNotification("notification", ObjectUtils.toMap("key", "value"));
+		final int key = notification.getKey();
+
+		double syncNanos = measureNanosPerOperation(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < postCount; ++i) {
+					notificationCenter.postNotificationSync(notification);
+				}
+			}
+		}, postCount);
+		double queuedNanos = measureNanosPerOperation(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < postCount; ++i) {
+					notificationCenter.postNotification(notification);
+				}
+			}
+		}, postCount);
+		double pooledNanos = measureNanosPerOperation(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < postCount; ++i) {
+					notificationCenter.postNotification(ApptentiveNotification.obtain(key));
+				}
+			}
+		}, postCount);
+
+		printBenchmark("ApptentiveNotificationCenter with %d observers: %.0f ns/post sync, %.0f ns/post queued, %.0f ns/post queued and pooled",
+				observerCount, syncNanos, queuedNanos, pooledNanos);
+	}
+
 	private class Observer implements ApptentiveNotificationObserver {
 
 		private final String name;
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.storage;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.model.CodePointStore;
+import com.apptentive.android.sdk.model.StoredFile;
+import com.apptentive.android.sdk.module.messagecenter.model.ApptentiveMessage;
+import com.apptentive.android.sdk.module.messagecenter.model.CompoundMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class ApptentiveDatabaseHelperTest extends TestCaseBase {
+
+	private ApptentiveDatabaseHelper dbHelper;
+
+	@Before
+	public void setUp() {
+		dbHelper = new ApptentiveDatabaseHelper(RuntimeEnvironment.application);
+	}
+
+	@After
+	public void tearDown() {
+		dbHelper.close();
+	}
+
+	@Test
+	public void testWritesCommittedTogether() {
+		List<Runnable> writes = Arrays.asList(
+				addInvoke("local#app#launch", 100.0),
+				importRecord("local#app#exit", 5),
+				addInvoke("local#app#launch", 200.0)
+		);
+		assertTrue(dbHelper.runInTransaction(writes));
+
+		assertEquals(2, getTotalInvokes("local#app#launch"));
+		assertEquals(5, getTotalInvokes("local#app#exit"));
+	}
+
+	@Test
+	public void testFailedWriteRollsBackTheOthers() {
+		List<Runnable> writes = Arrays.asList(
+				addInvoke("local#app#launch", 100.0),
+				importRecord("local#app#exit", 5),
+				new Runnable() {
+					@Override
+					public void run() {
+						throw new SQLException("Failed write");
+					}
+				}
+		);
+		assertFalse(dbHelper.runInTransaction(writes));
+
+		assertEquals(0, getTotalInvokes("local#app#launch"));
+		assertEquals(0, getTotalInvokes("local#app#exit"));
+	}
+
+	@Test
+	public void testImportCanBeRepeated() {
+		importRecord("local#app#launch", 5).run();
+		addInvoke("local#app#launch", 100.0).run();
+
+		// an interrupted migration runs again on the next launch
+		importRecord("local#app#launch", 5).run();
+		assertEquals(6, getTotalInvokes("local#app#launch"));
+	}
+
+	@Test
+	public void testUpgradeFromVersion1() {
+		SQLiteDatabase db = RuntimeEnvironment.application.openOrCreateDatabase(ApptentiveDatabaseHelper.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		db.execSQL("CREATE TABLE payload (_id INTEGER PRIMARY KEY, base_type TEXT, json TEXT);");
+		db.execSQL("CREATE TABLE message (_id INTEGER PRIMARY KEY, id TEXT, client_created_at DOUBLE, nonce TEXT, state TEXT, read INTEGER, json TEXT);");
+		db.execSQL("CREATE TABLE file_store (id TEXT PRIMARY KEY, mime_type TEXT, original_uri TEXT, local_uri TEXT, apptentive_uri TEXT);");
+		db.execSQL("INSERT INTO payload (base_type, json) VALUES ('event', '{\"label\":\"local#app#launch\"}');");
+		db.execSQL("INSERT INTO file_store VALUES ('apptentive-file-abc', 'image/png', 'original.png', 'local.png', 'https://apptentive.com/file.png');");
+		db.setVersion(1);
+		db.close();
+
+		List<StoredFile> files = dbHelper.getAssociatedFiles("abc");
+		assertNotNull(files);
+		assertEquals(1, files.size());
+		assertEquals("image/png", files.get(0).getMimeType());
+		assertEquals(0, files.get(0).getSize());
+		assertNull(files.get(0).getChecksum());
+
+		files.get(0).setSize(42);
+		files.get(0).setChecksum("checksum");
+		dbHelper.updateCompoundMessageFile(files.get(0));
+		assertEquals(42, dbHelper.getAssociatedFiles("abc").get(0).getSize());
+
+		assertEquals(1, getPayloadCount());
+	}
+
+	@Test
+	public void testMessagePagesMeetWithoutGaps() {
+		List<String> nonces = new ArrayList<String>();
+		nonces.add(addMessage("03", false));
+		nonces.add(addMessage(null, false)); // unsent messages come last, in the order they were added
+		nonces.add(addMessage("01", false));
+		nonces.add(addMessage(null, false));
+		nonces.add(addMessage("02", false));
+		nonces.add(addMessage("04", false));
+		List<String> expected = Arrays.asList(nonces.get(2), nonces.get(4), nonces.get(0), nonces.get(5), nonces.get(1), nonces.get(3));
+
+		assertEquals(expected, getNonces(dbHelper.getAllMessages()));
+		for (int pageSize = 1; pageSize <= expected.size() + 1; pageSize++) {
+			assertEquals(expected, getAllPages(pageSize));
+		}
+	}
+
+	@Test
+	public void testHiddenMessagesAreLeftOutOfPages() {
+		String first = addMessage("01", false);
+		addMessage("02", true);
+		addMessage("03", true);
+		addMessage("04", true);
+		String fifth = addMessage("05", false);
+		String sixth = addMessage("06", false);
+
+		List<ApptentiveMessage> newest = dbHelper.getMessagesBefore(null, 0, 2);
+		assertEquals(Arrays.asList(fifth, sixth), getNonces(newest));
+
+		// Every row right before the page is hidden, so the next page skips all of them
+		List<ApptentiveMessage> older = dbHelper.getMessagesBefore(newest.get(0).getId(), newest.get(0).getDatabaseId(), 2);
+		assertEquals(Collections.singletonList(first), getNonces(older));
+
+		assertTrue(dbHelper.getMessagesBefore(older.get(0).getId(), older.get(0).getDatabaseId(), 2).isEmpty());
+	}
+
+	@Test
+	public void testPageOfOnlyHiddenMessagesIsEmpty() {
+		addMessage("01", true);
+		addMessage(null, true);
+
+		assertTrue(dbHelper.getMessagesBefore(null, 0, 2).isEmpty());
+	}
+
+	@Test
+	public void testReadMessagesAreNotShared() {
+		String nonce = addMessage("01", false);
+
+		ApptentiveMessage first = dbHelper.getMessagesBefore(null, 0, 1).get(0);
+		ApptentiveMessage second = dbHelper.getMessagesBefore(null, 0, 1).get(0);
+		assertNotSame(first, second);
+
+		first.setHidden(true);
+		assertFalse(second.isHidden());
+		assertEquals(Collections.singletonList(nonce), getNonces(dbHelper.getMessagesBefore(null, 0, 1)));
+	}
+
+	//region Helpers
+
+	private String addMessage(String id, boolean hidden) {
+		CompoundMessage message = new CompoundMessage();
+		if (id != null) {
+			message.setId(id);
+		}
+		message.setHidden(hidden);
+		dbHelper.addOrUpdateMessages(message);
+		return message.getNonce();
+	}
+
+	/**
+	 * Walks the pages back from the newest message, and returns the nonces of all the messages in display order.
+	 */
+	private List<String> getAllPages(int pageSize) {
+		List<String> nonces = new ArrayList<String>();
+		List<ApptentiveMessage> page = dbHelper.getMessagesBefore(null, 0, pageSize);
+		while (!page.isEmpty()) {
+			assertTrue(page.size() <= pageSize);
+			nonces.addAll(0, getNonces(page));
+			ApptentiveMessage oldest = page.get(0);
+			page = dbHelper.getMessagesBefore(oldest.getId(), oldest.getDatabaseId(), pageSize);
+		}
+		return nonces;
+	}
+
+	private static List<String> getNonces(List<ApptentiveMessage> messages) {
+		List<String> nonces = new ArrayList<String>();
+		for (ApptentiveMessage message : messages) {
+			nonces.add(message.getNonce());
+		}
+		return nonces;
+	}
+
+	private Runnable addInvoke(final String codePoint, final double time) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				dbHelper.addCodePointInvokes(Collections.singletonList(new CodePointStore.Invoke(false, codePoint, "1.0", "1", time)));
+			}
+		};
+	}
+
+	private Runnable importRecord(final String codePoint, final long total) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				Map<String, CodePointStore.Record> codePoints = new HashMap<String, CodePointStore.Record>();
+				codePoints.put(codePoint, new CodePointStore.Record(100.0, total, Collections.singletonMap("1.0", total), Collections.singletonMap("1", total)));
+				assertTrue(dbHelper.importCodePointRecords(codePoints, Collections.<String, CodePointStore.Record>emptyMap()));
+			}
+		};
+	}
+
+	private long getTotalInvokes(String codePoint) {
+		CodePointStore.Record record = dbHelper.getCodePointRecords(false, Collections.singleton(codePoint)).get(codePoint);
+		return record != null ? record.getTotal() : 0;
+	}
+
+	private int getPayloadCount() {
+		Cursor cursor = dbHelper.getReadableDatabase().rawQuery("SELECT COUNT(*) FROM payload WHERE priority NOTNULL AND created_at NOTNULL", null);
+		try {
+			return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	//endregion
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.storage;
+
+import com.apptentive.android.sdk.TestCaseBase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitQueueTest extends TestCaseBase {
+
+	private ScheduledThreadPoolExecutor executor;
+	private MockTransactionRunner runner;
+
+	@Before
+	public void setUp() {
+		executor = new ScheduledThreadPoolExecutor(1);
+		runner = new MockTransactionRunner();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testBurstIsCommittedOnce() throws Exception {
+		GroupCommitQueue queue = new GroupCommitQueue(executor, runner, 50, 1000);
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+		for (int i = 0; i < 200; ++i) {
+			futures.add(queue.add(new MockWrite(i, false)));
+		}
+		for (Future<Boolean> future : futures) {
+			assertTrue(future.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, runner.transactionCount);
+		assertEquals(200, runner.writes.size());
+		assertEquals(0, runner.writes.get(0).index);
+		assertEquals(199, runner.writes.get(199).index);
+	}
+
+	@Test
+	public void testFullBatchIsCommittedRightAway() throws Exception {
+		GroupCommitQueue queue = new GroupCommitQueue(executor, runner, TimeUnit.MINUTES.toMillis(10), 10);
+		Future<Boolean> last = null;
+		for (int i = 0; i < 10; ++i) {
+			last = queue.add(new MockWrite(i, false));
+		}
+		assertTrue(last.get(5, TimeUnit.SECONDS));
+		assertEquals(1, runner.transactionCount);
+	}
+
+	@Test
+	public void testFailedWriteDoesNotLoseTheBatch() throws Exception {
+		GroupCommitQueue queue = new GroupCommitQueue(executor, runner, 50, 1000);
+		Future<Boolean> first = queue.add(new MockWrite(0, false));
+		Future<Boolean> failed = queue.add(new MockWrite(1, true));
+		Future<Boolean> last = queue.add(new MockWrite(2, false));
+
+		assertTrue(first.get(5, TimeUnit.SECONDS));
+		assertFalse(failed.get(5, TimeUnit.SECONDS));
+		assertTrue(last.get(5, TimeUnit.SECONDS));
+		// the batch, then each write on its own
+		assertEquals(4, runner.transactionCount);
+		assertEquals(2, runner.writes.size());
+	}
+
+	@Test
+	public void testFlushCommitsPendingWrites() throws Exception {
+		final GroupCommitQueue queue = new GroupCommitQueue(executor, runner, TimeUnit.MINUTES.toMillis(10), 1000);
+		Future<Boolean> write = queue.add(new MockWrite(0, false));
+		assertEquals(1, queue.getPendingCount());
+
+		// a read on the database thread sees the write queued before it
+		int writeCount = executor.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				queue.flush();
+				return runner.writes.size();
+			}
+		}).get(5, TimeUnit.SECONDS);
+		assertEquals(1, writeCount);
+		assertTrue(write.isDone());
+		assertEquals(0, queue.getPendingCount());
+	}
+
+	//region Helpers
+
+	private class MockWrite implements Runnable {
+		final int index;
+		final boolean fail;
+
+		MockWrite(int index, boolean fail) {
+			this.index = index;
+			this.fail = fail;
+		}
+
+		@Override
+		public void run() {
+			if (fail) {
+				throw new IllegalStateException("Write " + index + " failed");
+			}
+			runner.transaction.add(this);
+		}
+	}
+
+	/**
+	 * Keeps the writes of committed transactions only, like a database would.
+	 */
+	private static class MockTransactionRunner implements GroupCommitQueue.TransactionRunner {
+		final List<MockWrite> writes = new ArrayList<MockWrite>();
+		final List<MockWrite> transaction = new ArrayList<MockWrite>();
+		int transactionCount;
+
+		@Override
+		public boolean runInTransaction(List<? extends Runnable> batch) {
+			++transactionCount;
+			transaction.clear();
+			for (Runnable write : batch) {
+				write.run();
+			}
+			writes.addAll(transaction);
+			return true;
+		}
+	}
+
+	//endregion
+}
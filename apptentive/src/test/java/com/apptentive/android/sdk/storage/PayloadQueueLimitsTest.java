@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.storage;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.model.Payload;
+import com.apptentive.android.sdk.util.Constants;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PayloadQueueLimitsTest extends TestCaseBase {
+
+	private static final long NOW = 1488412800000L;
+
+	@Test
+	public void testDefaults() {
+		PayloadQueueLimits limits = PayloadQueueLimits.fromJson(null);
+
+		PayloadQueueLimits.Limit event = limits.getLimit(Payload.BaseType.event);
+		assertEquals(Constants.CONFIG_DEFAULT_PAYLOAD_QUEUE_EVENT_MAX_ROWS, event.maxRows);
+		assertEquals(Constants.CONFIG_DEFAULT_PAYLOAD_QUEUE_EVENT_MAX_BYTES, event.maxBytes);
+		assertEquals(Constants.CONFIG_DEFAULT_PAYLOAD_QUEUE_MAX_AGE_SECONDS * 1000L, event.maxAgeMillis);
+
+		PayloadQueueLimits.Limit unknown = limits.getLimit(Payload.BaseType.unknown);
+		assertEquals(Constants.CONFIG_DEFAULT_PAYLOAD_QUEUE_MAX_ROWS, unknown.maxRows);
+		assertEquals(Constants.CONFIG_DEFAULT_PAYLOAD_QUEUE_MAX_BYTES, unknown.maxBytes);
+
+		// Diffs of the device and person are only dropped when the server sets caps for them
+		assertNull(limits.getLimit(Payload.BaseType.device));
+		assertNull(limits.getLimit(Payload.BaseType.person));
+		assertNull(limits.getLimit(Payload.BaseType.sdk));
+		assertNull(limits.getLimit(Payload.BaseType.app_release));
+	}
+
+	@Test
+	public void testServerCapsDiffs() throws Exception {
+		JSONObject json = new JSONObject("{\"device\":{\"max_rows\":50}}");
+		PayloadQueueLimits.Limit device = PayloadQueueLimits.fromJson(json).getLimit(Payload.BaseType.device);
+		assertEquals(50, device.maxRows);
+		assertEquals(0, device.maxBytes);
+		assertEquals(0, device.maxAgeMillis);
+	}
+
+	@Test
+	public void testMessagesAreNeverEvicted() throws Exception {
+		JSONObject json = new JSONObject("{\"message\":{\"max_rows\":1},\"survey\":{\"max_rows\":1}}");
+		PayloadQueueLimits limits = PayloadQueueLimits.fromJson(json);
+		assertNull(limits.getLimit(Payload.BaseType.message));
+		assertNull(limits.getLimit(Payload.BaseType.survey));
+	}
+
+	@Test
+	public void testServerOverrides() throws Exception {
+		JSONObject json = new JSONObject("{\"event\":{\"max_rows\":10,\"max_age_seconds\":0}}");
+		PayloadQueueLimits.Limit event = PayloadQueueLimits.fromJson(json).getLimit(Payload.BaseType.event);
+		assertEquals(10, event.maxRows);
+		assertEquals(Constants.CONFIG_DEFAULT_PAYLOAD_QUEUE_EVENT_MAX_BYTES, event.maxBytes);
+		assertEquals(0, event.maxAgeMillis);
+	}
+
+	@Test
+	public void testIsExceeded() {
+		PayloadQueueLimits.Limit limit = new PayloadQueueLimits.Limit(3, 100, 1000);
+		assertFalse(limit.isExceeded(3, 100, NOW - 1000, NOW));
+		assertTrue(limit.isExceeded(4, 100, NOW, NOW));
+		assertTrue(limit.isExceeded(1, 101, NOW, NOW));
+		assertTrue(limit.isExceeded(1, 10, NOW - 1001, NOW));
+
+		PayloadQueueLimits.Limit unlimited = new PayloadQueueLimits.Limit(0, 0, 0);
+		assertFalse(unlimited.isExceeded(Integer.MAX_VALUE, Long.MAX_VALUE, 0, NOW));
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.util;
+
+import com.apptentive.android.sdk.TestCaseBase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class JsonPullParserTest extends TestCaseBase {
+
+	@Test
+	public void testMatchesJSONObject() throws Exception {
+		String json = "{\"id\":\"528d14854712c7bfd7000002\",\"type\":\"Survey\",\"priority\":1,\"enabled\":true,\n" +
+				"\"config\":{\"score\":0.5,\"big\":12345678901,\"exp\":1e3,\"none\":null},\n" +
+				"\"list\":[1, \"two\", [3], {\"four\":4}, false, null], \"empty\":{}, \"none\":[]}";
+
+		JSONObject expected = new JSONObject(json);
+		JSONObject actual = parser(json).readObject(new JSONObject());
+
+		assertTrue(JsonDiffer.areObjectsEqual(expected, actual));
+		JSONObject config = actual.getJSONObject("config");
+		assertEquals(Integer.valueOf(1), actual.get("priority"));
+		assertEquals(Long.valueOf(12345678901L), config.get("big"));
+		assertEquals(Double.valueOf(0.5), config.get("score"));
+		assertEquals(Double.valueOf(1000), config.get("exp"));
+		assertSame(JSONObject.NULL, config.get("none"));
+		assertEquals(Boolean.TRUE, actual.get("enabled"));
+	}
+
+	@Test
+	public void testEscapes() throws Exception {
+		JSONArray array = parser("[\"a\\\"b\\\\c\\/d\\n\\t\\u00e9\\u2603\", \"\"]").readArray(new JSONArray());
+		assertEquals("a\"b\\c/d\n\té\u2603", array.getString(0));
+		assertEquals("", array.getString(1));
+	}
+
+	@Test
+	public void testValuesAcrossBufferBoundaries() throws Exception {
+		StringBuilder longString = new StringBuilder();
+		for (int i = 0; i < 20000; ++i) {
+			longString.append(i % 10 == 0 ? "\\n" : "x");
+		}
+		String json = "{\"long\":\"" + longString + "\",\"number\":123456789}";
+
+		// Hand the parser one char at a time so every token is split across reads
+		JSONObject object = new JsonPullParser(new OneCharReader(json)).readObject(new JSONObject());
+		assertEquals(new JSONObject(json).getString("long"), object.getString("long"));
+		assertEquals(123456789, object.getInt("number"));
+	}
+
+	@Test
+	public void testPeekAndSkip() throws Exception {
+		JsonPullParser parser = parser("{\"skip\":{\"a\":[1,{\"b\":\"}]\"}]},\"keep\":\"value\",\"flag\":false}");
+		parser.beginObject();
+		assertEquals(JsonPullParser.Token.NAME, parser.peek());
+		assertEquals("skip", parser.nextName());
+		assertEquals(JsonPullParser.Token.BEGIN_OBJECT, parser.peek());
+		parser.skipValue();
+		assertEquals("keep", parser.nextName());
+		assertEquals(JsonPullParser.Token.STRING, parser.peek());
+		assertEquals("value", parser.nextString());
+		assertEquals("flag", parser.nextName());
+		assertEquals(JsonPullParser.Token.BOOLEAN, parser.peek());
+		assertFalse(parser.nextBoolean());
+		assertEquals(JsonPullParser.Token.END, parser.peek());
+		assertFalse(parser.hasNext());
+		parser.endObject();
+	}
+
+	@Test
+	public void testMalformedInput() throws Exception {
+		assertMalformed("{\"a\":1");
+		assertMalformed("{\"a\" 1}");
+		assertMalformed("{\"a\":1,,\"b\":2}");
+		assertMalformed("[1 2]");
+		assertMalformed("{\"a\":\"unterminated}");
+		assertMalformed("{\"a\":tru}");
+		assertMalformed("{\"a\":\"\\x\"}");
+	}
+
+	//region Helpers
+
+	private static JsonPullParser parser(String json) {
+		return new JsonPullParser(new StringReader(json));
+	}
+
+	private static void assertMalformed(String json) throws IOException {
+		try {
+			parser(json).readValue();
+			fail("Expected a syntax error: " + json);
+		} catch (JSONException e) {
+			// Expected
+		}
+	}
+
+	private static class OneCharReader extends Reader {
+		private final String content;
+		private int pos;
+
+		OneCharReader(String content) {
+			this.content = content;
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int count) {
+			if (pos == content.length()) {
+				return -1;
+			}
+			buffer[offset] = content.charAt(pos++);
+			return 1;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	//endregion
+}
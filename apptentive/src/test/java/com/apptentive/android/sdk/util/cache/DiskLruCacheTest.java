@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.util.cache;
+
+import com.apptentive.android.sdk.TestCaseBase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+public class DiskLruCacheTest extends TestCaseBase {
+
+	private File directory;
+	private DiskLruCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("apptentive-cache", "");
+		directory.delete();
+		directory.mkdirs();
+		cache = new DiskLruCache(directory, 300);
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() throws Exception {
+		put("a", 100);
+		put("b", 100);
+		put("c", 100);
+		assertEquals(300, cache.size());
+
+		// Reading "a" makes "b" the least recently used
+		assertNotNull(cache.get("a"));
+		put("d", 100);
+
+		assertEquals(300, cache.size());
+		assertNull(cache.get("b"));
+		assertFalse(new File(directory, "b").exists());
+		assertNotNull(cache.get("a"));
+		assertNotNull(cache.get("c"));
+		assertNotNull(cache.get("d"));
+	}
+
+	@Test
+	public void testUntrackedFilesAreNeverEvicted() throws Exception {
+		File pending = write("apptentive-api-file-pending", 1000);
+		put("a", 200);
+		put("b", 200);
+
+		assertTrue(pending.exists());
+		assertFalse(cache.contains("a"));
+		assertTrue(cache.contains("b"));
+
+		// Touching a file that was never put into the cache doesn't start tracking it
+		cache.touch(pending);
+		assertFalse(cache.contains(pending.getName()));
+	}
+
+	@Test
+	public void testRecencySurvivesReopen() throws Exception {
+		put("a", 100);
+		put("b", 100);
+		put("c", 100);
+		cache.get("a");
+		cache.close();
+
+		cache = new DiskLruCache(directory, 300);
+		assertEquals(300, cache.size());
+		put("d", 100);
+		assertFalse(cache.contains("b"));
+		assertTrue(cache.contains("a"));
+	}
+
+	@Test
+	public void testFilesDeletedWhileClosedAreDropped() throws Exception {
+		put("a", 100);
+		put("b", 100);
+		cache.close();
+		new File(directory, "a").delete();
+
+		cache = new DiskLruCache(directory, 300);
+		assertEquals(100, cache.size());
+		assertFalse(cache.contains("a"));
+	}
+
+	@Test
+	public void testTruncatedJournalLineIsIgnored() throws Exception {
+		put("a", 100);
+		cache.close();
+		OutputStream os = new FileOutputStream(new File(directory, DiskLruCache.JOURNAL_FILE), true);
+		os.write("CLEAN".getBytes("UTF-8")); // Cut short by process death
+		os.close();
+
+		cache = new DiskLruCache(directory, 300);
+		assertTrue(cache.contains("a"));
+		assertEquals(100, cache.size());
+	}
+
+	@Test
+	public void testShrinkingBudgetEvicts() throws Exception {
+		put("a", 100);
+		put("b", 100);
+		cache.setMaxBytes(150);
+		assertEquals(100, cache.size());
+		assertTrue(cache.contains("b"));
+	}
+
+	@Test
+	public void testJournalIsCompacted() throws Exception {
+		put("a", 10);
+		for (int i = 0; i < 5000; ++i) {
+			cache.get("a");
+		}
+		// Without compaction the journal would hold 5000 READ lines
+		assertTrue(new File(directory, DiskLruCache.JOURNAL_FILE).length() < 3000 * "READ a\n".length());
+
+		cache.close();
+		cache = new DiskLruCache(directory, 300);
+		assertTrue(cache.contains("a"));
+	}
+
+	//region Helpers
+
+	private void put(String name, int length) throws IOException {
+		cache.put(write(name, length));
+	}
+
+	private File write(String name, int length) throws IOException {
+		File file = new File(directory, name);
+		OutputStream os = new FileOutputStream(file);
+		try {
+			os.write(new byte[length]);
+		} finally {
+			os.close();
+		}
+		return file;
+	}
+
+	//endregion
+}
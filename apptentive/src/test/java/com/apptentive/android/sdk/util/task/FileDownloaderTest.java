@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.util.task;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.comm.ApptentiveHttpResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FileDownloaderTest extends TestCaseBase {
+
+	private static final int FILE_SIZE = 256 * 1024;
+
+	private static HttpServer server;
+	private static final AtomicInteger requestCount = new AtomicInteger();
+
+	// Changed by tests to simulate a flaky network or a file replaced on the server
+	private static volatile byte[] content;
+	private static volatile String eTag;
+	private static volatile int dropAfterBytes;
+	private static volatile String lastRange;
+	private static volatile String lastCookie;
+
+	private File destination;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/file", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requestCount.incrementAndGet();
+				lastRange = exchange.getRequestHeaders().getFirst("Range");
+				lastCookie = exchange.getRequestHeaders().getFirst("Cookie");
+
+				int start = 0;
+				String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+				if (lastRange != null && eTag.equals(ifRange)) {
+					start = Integer.parseInt(lastRange.substring("bytes=".length(), lastRange.length() - 1));
+				}
+				exchange.getResponseHeaders().set("ETag", eTag);
+				if (start > 0) {
+					exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+				}
+				int length = content.length - start;
+				exchange.sendResponseHeaders(start > 0 ? 206 : 200, length);
+				OutputStream os = exchange.getResponseBody();
+				if (dropAfterBytes > 0 && dropAfterBytes < length) {
+					os.write(content, start, dropAfterBytes);
+					os.flush();
+					dropAfterBytes = 0;
+					// Closing before the whole body is written drops the connection
+					exchange.close();
+					return;
+				}
+				os.write(content, start, length);
+				os.close();
+			}
+		});
+		server.createContext("/redirect", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requestCount.incrementAndGet();
+				exchange.getResponseHeaders().set("Location", "/file");
+				exchange.getResponseHeaders().set("Set-Cookie", "session=abc");
+				exchange.sendResponseHeaders(302, -1);
+				exchange.close();
+			}
+		});
+		server.createContext("/unsatisfiable", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requestCount.incrementAndGet();
+				exchange.sendResponseHeaders(416, -1);
+				exchange.close();
+			}
+		});
+		server.createContext("/partial", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				// A misbehaving proxy answers every request with a part of the file
+				requestCount.incrementAndGet();
+				exchange.getResponseHeaders().set("Content-Range", "bytes 100-199/" + content.length);
+				exchange.sendResponseHeaders(206, 100);
+				OutputStream os = exchange.getResponseBody();
+				os.write(content, 100, 100);
+				os.close();
+			}
+		});
+		server.start();
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+		server.stop(0);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		content = new byte[FILE_SIZE];
+		new Random(1).nextBytes(content);
+		eTag = "\"v1\"";
+		dropAfterBytes = 0;
+		lastRange = null;
+		lastCookie = null;
+		requestCount.set(0);
+		destination = File.createTempFile("apptentive-download", ".bin");
+		destination.delete();
+	}
+
+	@After
+	public void tearDown() {
+		FileDownloader downloader = new FileDownloader(destination);
+		downloader.getPartFile().delete();
+		new File(downloader.getPartFile().getPath() + ".meta").delete();
+		destination.delete();
+	}
+
+	@Test
+	public void testDownloadUsesSingleRequest() throws Exception {
+		ApptentiveHttpResponse response = new FileDownloader(destination).download(url("/file"), new ProgressListener());
+		assertEquals(200, response.getCode());
+		assertEquals(1, requestCount.get());
+		assertArrayEquals(content, read(destination));
+		assertFalse(new FileDownloader(destination).getPartFile().exists());
+	}
+
+	@Test
+	public void testInterruptedDownloadIsResumed() throws Exception {
+		dropAfterBytes = FILE_SIZE / 2;
+		FileDownloader downloader = new FileDownloader(destination);
+		try {
+			downloader.download(url("/file"), new ProgressListener());
+			fail("Expected the dropped connection to fail the download");
+		} catch (IOException e) {
+			// Expected
+		}
+		assertFalse(destination.exists());
+		long kept = downloader.getPartFile().length();
+		assertTrue(kept > 0);
+
+		ProgressListener listener = new ProgressListener();
+		ApptentiveHttpResponse response = new FileDownloader(destination).download(url("/file"), listener);
+		assertEquals(206, response.getCode());
+		assertEquals("bytes=" + kept + "-", lastRange);
+		assertEquals(100, listener.lastProgress);
+		assertArrayEquals(content, read(destination));
+		assertEquals(2, requestCount.get());
+	}
+
+	@Test
+	public void testChangedFileIsDownloadedAgain() throws Exception {
+		dropAfterBytes = FILE_SIZE / 2;
+		try {
+			new FileDownloader(destination).download(url("/file"), new ProgressListener());
+			fail("Expected the dropped connection to fail the download");
+		} catch (IOException e) {
+			// Expected
+		}
+
+		// The server's copy changes, so If-Range no longer matches and the whole file comes back
+		content = Arrays.copyOf(content, FILE_SIZE + 100);
+		eTag = "\"v2\"";
+		ApptentiveHttpResponse response = new FileDownloader(destination).download(url("/file"), new ProgressListener());
+		assertEquals(200, response.getCode());
+		assertArrayEquals(content, read(destination));
+	}
+
+	@Test
+	public void testCancelledDownloadKeepsPartialFile() throws Exception {
+		FileDownloader downloader = new FileDownloader(destination);
+		ApptentiveHttpResponse response = downloader.download(url("/file"), new ProgressListener() {
+			@Override
+			public boolean isCancelled() {
+				return lastProgress >= 25;
+			}
+		});
+		assertEquals(-1, response.getCode());
+		assertFalse(destination.exists());
+		assertTrue(downloader.getPartFile().length() > 0);
+
+		response = new FileDownloader(destination).download(url("/file"), new ProgressListener());
+		assertEquals(206, response.getCode());
+		assertArrayEquals(content, read(destination));
+	}
+
+	@Test
+	public void testRedirectKeepsCookies() throws Exception {
+		ApptentiveHttpResponse response = new FileDownloader(destination).download(url("/redirect"), new ProgressListener());
+		assertEquals(200, response.getCode());
+		assertEquals("session=abc", lastCookie);
+		assertEquals(2, requestCount.get());
+		assertArrayEquals(content, read(destination));
+	}
+
+	@Test
+	public void testRangeErrorsWithoutRangeAreNotRetried() throws Exception {
+		ApptentiveHttpResponse response = new FileDownloader(destination).download(url("/unsatisfiable"), new ProgressListener());
+		assertEquals(416, response.getCode());
+		assertEquals(1, requestCount.get());
+		assertFalse(destination.exists());
+
+		requestCount.set(0);
+		response = new FileDownloader(destination).download(url("/partial"), new ProgressListener());
+		assertFalse(response.isSuccessful());
+		assertEquals(1, requestCount.get());
+		assertFalse(destination.exists());
+		assertFalse(new FileDownloader(destination).getPartFile().exists());
+	}
+
+	@Test
+	public void testParseContentRange() {
+		assertArrayEquals(new long[]{100, 1000}, FileDownloader.parseContentRange("bytes 100-999/1000"));
+		assertNull(FileDownloader.parseContentRange("bytes 100-999/*"));
+		assertNull(FileDownloader.parseContentRange(null));
+	}
+
+	//region Helpers
+
+	private static String url(String path) {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+	}
+
+	private static byte[] read(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		InputStream is = new FileInputStream(file);
+		try {
+			int offset = 0;
+			int count;
+			while (offset < bytes.length && (count = is.read(bytes, offset, bytes.length - offset)) != -1) {
+				offset += count;
+			}
+			return bytes;
+		} finally {
+			is.close();
+		}
+	}
+
+	private static class ProgressListener implements FileDownloader.Listener {
+		int lastProgress = -1;
+
+		@Override
+		public void onProgress(int progress) {
+			lastProgress = progress;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+	}
+
+	//endregion
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.util.threading;
+
+import com.apptentive.android.sdk.TestCaseBase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentDispatchQueueTest extends TestCaseBase {
+
+	private ConcurrentDispatchQueue queue;
+
+	@Before
+	public void setUp() {
+		queue = new ConcurrentDispatchQueue("Test Queue", 1);
+	}
+
+	@After
+	public void tearDown() {
+		queue.stop();
+	}
+
+	@Test
+	public void testUserVisibleTasksRunFirst() throws Exception {
+		CountDownLatch blocked = blockQueue();
+		CountDownLatch done = new CountDownLatch(4);
+
+		queue.dispatchAsync(new ResultTask("background-1", DispatchTaskPriority.Background, done));
+		queue.dispatchAsync(new ResultTask("background-2", DispatchTaskPriority.Background, done));
+		queue.dispatchAsync(new ResultTask("visible-1", DispatchTaskPriority.UserVisible, done));
+		queue.dispatchAsync(new ResultTask("visible-2", DispatchTaskPriority.UserVisible, done));
+		blocked.countDown();
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertResult("visible-1", "visible-2", "background-1", "background-2");
+	}
+
+	@Test
+	public void testPausedQueueHoldsBackgroundTasks() throws Exception {
+		queue.pause();
+		CountDownLatch visibleDone = new CountDownLatch(1);
+		CountDownLatch backgroundDone = new CountDownLatch(1);
+
+		queue.dispatchAsync(new ResultTask("background", DispatchTaskPriority.Background, backgroundDone));
+		queue.dispatchAsync(new ResultTask("visible", DispatchTaskPriority.UserVisible, visibleDone));
+
+		assertTrue(visibleDone.await(5, TimeUnit.SECONDS));
+		assertFalse(backgroundDone.await(100, TimeUnit.MILLISECONDS));
+		assertResult("visible");
+		assertEquals(1, queue.getPendingTaskCount());
+
+		queue.resume();
+		assertTrue(backgroundDone.await(5, TimeUnit.SECONDS));
+		assertResult("background");
+	}
+
+	@Test
+	public void testDelayedTask() throws Exception {
+		CountDownLatch done = new CountDownLatch(2);
+		queue.dispatchAsync(new ResultTask("delayed", DispatchTaskPriority.Background, done), 100);
+		queue.dispatchAsync(new ResultTask("immediate", DispatchTaskPriority.Background, done));
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertResult("immediate", "delayed");
+	}
+
+	@Test
+	public void testPeriodicTask() throws Exception {
+		final AtomicInteger runCount = new AtomicInteger();
+		final CountDownLatch running = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		DispatchHandle handle = queue.dispatchPeriodically(new DispatchTask() {
+			@Override
+			protected void execute() {
+				// The third run holds the queue's only thread until the task has been cancelled
+				if (runCount.incrementAndGet() == 3) {
+					running.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, 0, 10);
+
+		assertTrue(running.await(5, TimeUnit.SECONDS));
+		assertTrue(handle.cancel());
+
+		// Runs on the same thread right after the third run, so a fourth one would already be pending by then
+		final int[] pendingTaskCount = new int[1];
+		final CountDownLatch checked = new CountDownLatch(1);
+		queue.dispatchAsync(new DispatchTask() {
+			@Override
+			protected void execute() {
+				pendingTaskCount[0] = queue.getPendingTaskCount();
+				checked.countDown();
+			}
+		});
+		release.countDown();
+
+		assertTrue(checked.await(5, TimeUnit.SECONDS));
+		assertEquals(1, pendingTaskCount[0]); // only the task checking it
+		assertEquals(3, runCount.get());
+		assertTrue(handle.isCancelled());
+	}
+
+	@Test
+	public void testChangingMaxThreads() throws Exception {
+		queue.setMaxThreads(2);
+		CountDownLatch blocked = blockQueue();
+		CountDownLatch done = new CountDownLatch(1);
+
+		// Runs on the second thread while the first one is busy
+		queue.dispatchAsync(new ResultTask("task", DispatchTaskPriority.Background, done));
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertResult("task");
+		blocked.countDown();
+	}
+
+	/**
+	 * Occupies one of the queue's threads until the returned latch is released
+	 */
+	private CountDownLatch blockQueue() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		queue.dispatchAsync(new DispatchTask() {
+			@Override
+			protected void execute() {
+				started.countDown();
+				try {
+					blocked.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		return blocked;
+	}
+
+	private class ResultTask extends DispatchTask {
+		private final String result;
+		private final CountDownLatch done;
+
+		ResultTask(String result, DispatchTaskPriority priority, CountDownLatch done) {
+			super(priority);
+			this.result = result;
+			this.done = done;
+		}
+
+		@Override
+		protected void execute() {
+			addResult(result);
+			done.countDown();
+		}
+	}
+}
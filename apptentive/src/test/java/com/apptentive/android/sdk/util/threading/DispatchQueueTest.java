@@ -92,4 +92,78 @@ public class DispatchQueueTest extends TestCaseBase {
 
 		assertResult("task-1", "task-2");
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testCancellingTasks() {
+		DispatchHandle first = DispatchQueue.mainQueue().dispatchAsync(new ResultTask("task-1"));
+		DispatchHandle second = DispatchQueue.mainQueue().dispatchAsync(new ResultTask("task-2"));
+		assertTrue(first.cancel());
+		assertFalse(first.cancel());
+		dispatchTasks();
+
+		assertResult("task-2");
+		assertTrue(first.isCancelled());
+		assertTrue(first.isDone());
+		assertFalse(second.isCancelled());
+		assertTrue(second.isDone());
+		assertFalse(second.cancel());
+	}
+
+	@Test
+	public void testCancellingAnotherHandleKeepsTaskScheduledOnce() {
+		DispatchTask task = new ResultTask("executed");
+
+		assertTrue(DispatchQueue.mainQueue().dispatchAsyncOnce(task));
+		assertFalse(DispatchQueue.mainQueue().dispatchAsyncOnce(task));
+		DispatchHandle handle = DispatchQueue.mainQueue().dispatchAsync(task);
+		handle.cancel();
+		assertFalse(DispatchQueue.mainQueue().dispatchAsyncOnce(task));
+		dispatchTasks();
+
+		assertResult("executed");
+	}
+
+	@Test
+	public void testCancelledTaskCanBeScheduledOnceAgain() {
+		DispatchTask task = new ResultTask("executed");
+
+		DispatchHandle handle = DispatchQueue.mainQueue().dispatchAsync(task);
+		assertFalse(DispatchQueue.mainQueue().dispatchAsyncOnce(task));
+		handle.cancel();
+		assertTrue(DispatchQueue.mainQueue().dispatchAsyncOnce(task));
+		dispatchTasks();
+
+		assertResult("executed");
+	}
+
+	@Test
+	public void testCoalescingTasks() {
+		DispatchHandle first = DispatchQueue.mainQueue().dispatchAsyncCoalesced("save", new ResultTask("save-1"), 0);
+		DispatchQueue.mainQueue().dispatchAsyncCoalesced("load", new ResultTask("load-1"), 0);
+		DispatchQueue.mainQueue().dispatchAsyncCoalesced("save", new ResultTask("save-2"), 0);
+		DispatchQueue.mainQueue().dispatchAsyncCoalesced("save", new ResultTask("save-3"), 0);
+		dispatchTasks();
+
+		assertResult("load-1", "save-3");
+		assertTrue(first.isCancelled());
+
+		// Once the latest task ran, the key can be used again
+		DispatchQueue.mainQueue().dispatchAsyncCoalesced("save", new ResultTask("save-4"), 0);
+		dispatchTasks();
+
+		assertResult("save-4");
+	}
+
+	private class ResultTask extends DispatchTask {
+		private final String result;
+
+		ResultTask(String result) {
+			this.result = result;
+		}
+
+		@Override
+		protected void execute() {
+			addResult(result);
+		}
+	}
+}
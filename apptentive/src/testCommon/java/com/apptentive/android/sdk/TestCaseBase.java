@@ -11,6 +11,8 @@ import android.os.SystemClock;
 import com.apptentive.android.sdk.util.StringUtils;
 import com.apptentive.android.sdk.util.threading.MockDispatchQueue;
 
+import org.junit.Assume;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -18,6 +20,9 @@ import static org.junit.Assert.*;
 
 public class TestCaseBase {
 
+	protected static final int BENCHMARK_WARMUP_ITERATIONS = 3;
+	protected static final int BENCHMARK_MEASUREMENT_ITERATIONS = 5;
+
 	private List<String> result = new ArrayList<>();
 	private MockDispatchQueue dispatchQueue;
 
@@ -54,6 +59,36 @@ public class TestCaseBase {
 
 	//endregion
 
+	//region Benchmarks
+
+	/**
+	 * Skips the test unless benchmarks were asked for. Benchmarks time work rather than check it, so they are left out
+	 * of the unit suite. Run them with: ./gradlew :apptentive:testDebugUnitTest -Pbenchmarks --tests '*Benchmark'
+	 */
+	protected void assumeBenchmarksEnabled() {
+		Assume.assumeTrue("Benchmarks only run with -Pbenchmarks", Boolean.getBoolean("apptentive.benchmarks"));
+	}
+
+	/**
+	 * Runs warmup iterations, then returns the average time per operation over the measured iterations.
+	 */
+	protected static double measureNanosPerOperation(Runnable iteration, int operationsPerIteration) {
+		for (int i = 0; i < BENCHMARK_WARMUP_ITERATIONS; ++i) {
+			iteration.run();
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < BENCHMARK_MEASUREMENT_ITERATIONS; ++i) {
+			iteration.run();
+		}
+		return (double) (System.nanoTime() - start) / (BENCHMARK_MEASUREMENT_ITERATIONS * operationsPerIteration);
+	}
+
+	protected static void printBenchmark(String format, Object... args) {
+		System.out.println(String.format(format, args));
+	}
+
+	//endregion
+
 	//region Helpers
 
 	protected void sleep(long millis) {